@@ -0,0 +1,257 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.core.benchmark;
+
+import com.couchbase.client.core.io.endpoint.Endpoint;
+import com.couchbase.client.core.io.endpoint.EndpointState;
+import com.couchbase.client.core.io.endpoint.ReplyDispatch;
+import com.couchbase.client.core.io.endpoint.RequestPriority;
+import com.couchbase.client.core.io.endpoint.spec.EndpointSpec;
+import com.couchbase.client.core.io.service.ServiceType;
+import com.couchbase.client.core.message.request.memcache.GetRequest;
+import com.couchbase.client.core.message.response.memcache.GetResponse;
+import com.couchbase.client.core.mock.MockServer;
+import com.couchbase.client.core.trace.SlowOperationDetector;
+import com.couchbase.client.core.trace.Tracer;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import reactor.core.Environment;
+import reactor.core.composable.Promise;
+import reactor.event.Event;
+import reactor.function.Consumer;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the bytes allocated per get on the client side, with and without recycling of message objects.
+ *
+ * The same closed loop of gets runs against the local {@link MockServer} in four modes: allocating everything per
+ * get, recycling requests and responses, and on top of that sending through
+ * {@link Endpoint#send(Event, Consumer, RequestPriority)} with one event and callback per slot of the loop instead
+ * of a promise per get. The fourth mode repeats the callback loop with a {@link SlowOperationDetector} attached
+ * through a threshold {@link Tracer}, to show what leaving it enabled costs. Replies are dispatched on the IO
+ * thread and the next get is sent from there, so all client side work of the loop happens on the single client
+ * event loop, whose allocations are read from the {@link com.sun.management.ThreadMXBean}. The mock server runs on
+ * its own event loop and is not counted.
+ *
+ * Run with: ./gradlew benchmark -Pbench=com.couchbase.client.core.benchmark.AllocationBenchmark
+ *
+ * Supported system properties (defaults in brackets): ops [500000], warmupOps [200000], concurrency [32],
+ * valueSize [32].
+ */
+public class AllocationBenchmark {
+
+    private static final int OPS = Integer.getInteger("ops", 500000);
+    private static final int WARMUP_OPS = Integer.getInteger("warmupOps", 200000);
+    private static final int CONCURRENCY = Integer.getInteger("concurrency", 32);
+
+    public static void main(String... args) throws Exception {
+        Environment env = new Environment();
+        NioEventLoopGroup serverGroup = new NioEventLoopGroup(1);
+        NioEventLoopGroup clientGroup = new NioEventLoopGroup(1, new DefaultThreadFactory("client"));
+        MockServer server = new MockServer(serverGroup).setValueSize(Integer.getInteger("valueSize", 32)).start();
+        try {
+            long clientThread = clientGroup.submit(new Callable<Long>() {
+                @Override
+                public Long call() {
+                    return Thread.currentThread().getId();
+                }
+            }).get();
+
+            System.out.println(String.format("%-12s %10s %10s %10s %8s %10s", "mode", "ops", "ops/s", "bytes/op",
+                "gcs", "gc(ms)"));
+            for (Mode mode : Mode.values()) {
+                EndpointSpec spec = new EndpointSpec(env, server.memcacheAddress(), ServiceType.MEMCACHE)
+                    .setEventLoopGroup(clientGroup)
+                    .setRecycling(mode != Mode.ALLOCATING)
+                    .setTracer(mode == Mode.DETECTING
+                        ? new Tracer(new SlowOperationDetector(10), 0, 500, TimeUnit.MICROSECONDS) : null);
+                System.out.println(run(spec, mode, clientThread));
+            }
+        } finally {
+            server.stop();
+            clientGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+            serverGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+            env.shutdown();
+        }
+    }
+
+    private static String run(final EndpointSpec spec, final Mode mode, final long clientThread) throws Exception {
+        Endpoint endpoint = spec.get();
+        if (endpoint.connect().await(10, TimeUnit.SECONDS) != EndpointState.CONNECTED) {
+            throw new IllegalStateException("Could not connect the endpoint");
+        }
+        try {
+            com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            closedLoop(endpoint, WARMUP_OPS, mode);
+
+            long gcsBefore = gcCount();
+            long gcTimeBefore = gcTime();
+            long allocatedBefore = threads.getThreadAllocatedBytes(clientThread);
+            long start = System.nanoTime();
+            closedLoop(endpoint, OPS, mode);
+            long elapsed = System.nanoTime() - start;
+            long allocated = threads.getThreadAllocatedBytes(clientThread) - allocatedBefore;
+
+            return String.format("%-12s %10d %10d %10d %8d %10d", mode.name().toLowerCase(), OPS,
+                OPS * TimeUnit.SECONDS.toNanos(1) / elapsed, allocated / OPS, gcCount() - gcsBefore,
+                gcTime() - gcTimeBefore);
+        } finally {
+            endpoint.disconnect().await();
+        }
+    }
+
+    /**
+     * Keeps the given number of gets in flight until all ops are done.
+     */
+    private static void closedLoop(final Endpoint endpoint, final int ops, final Mode mode)
+        throws InterruptedException {
+        final AtomicLong remaining = new AtomicLong(ops);
+        final CountDownLatch done = new CountDownLatch(CONCURRENCY);
+        for (int i = 0; i < CONCURRENCY; i++) {
+            if (mode == Mode.CALLBACK || mode == Mode.DETECTING) {
+                new CallbackSlot(endpoint, remaining, done).run();
+            } else {
+                new PromiseSlot(endpoint, remaining, done, mode == Mode.RECYCLING).run();
+            }
+        }
+        done.await();
+    }
+
+    /**
+     * One get in flight at a time, sent with a new event and completed through its promise.
+     */
+    private static final class PromiseSlot implements Runnable {
+
+        private final Endpoint endpoint;
+        private final AtomicLong remaining;
+        private final CountDownLatch done;
+        private final boolean recycling;
+
+        PromiseSlot(final Endpoint endpoint, final AtomicLong remaining, final CountDownLatch done,
+            final boolean recycling) {
+            this.endpoint = endpoint;
+            this.remaining = remaining;
+            this.done = done;
+            this.recycling = recycling;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void run() {
+            if (remaining.getAndDecrement() <= 0) {
+                done.countDown();
+                return;
+            }
+            final GetRequest request = recycling ? GetRequest.newInstance("key", null) : new GetRequest("key");
+            Promise<Object> promise = endpoint.sendAndReceive(Event.wrap(request), ReplyDispatch.IO_THREAD);
+            promise.onComplete(new Consumer<Promise<Object>>() {
+                @Override
+                public void accept(Promise<Object> p) {
+                    if (p.isSuccess()) {
+                        release(p.get());
+                    }
+                    request.recycle();
+                    run();
+                }
+            });
+        }
+    }
+
+    /**
+     * One get in flight at a time, sent with the same event and callback every time.
+     */
+    private static final class CallbackSlot implements Runnable, Consumer<Object> {
+
+        private final Endpoint endpoint;
+        private final AtomicLong remaining;
+        private final CountDownLatch done;
+        private final Event<GetRequest> event = Event.wrap(null);
+
+        CallbackSlot(final Endpoint endpoint, final AtomicLong remaining, final CountDownLatch done) {
+            this.endpoint = endpoint;
+            this.remaining = remaining;
+            this.done = done;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void run() {
+            if (remaining.getAndDecrement() <= 0) {
+                done.countDown();
+                return;
+            }
+            event.setData(GetRequest.newInstance("key", null));
+            endpoint.send(event, this, RequestPriority.NORMAL);
+        }
+
+        @Override
+        public void accept(final Object response) {
+            release(response);
+            event.getData().recycle();
+            run();
+        }
+    }
+
+    /**
+     * Releases the content of a get response and hands the response back to its pool.
+     */
+    private static void release(final Object response) {
+        if (response instanceof GetResponse) {
+            ((GetResponse) response).content().release();
+            ((GetResponse) response).recycle();
+        }
+    }
+
+    /**
+     * How the gets are sent and completed.
+     */
+    private static enum Mode {
+        ALLOCATING,
+        RECYCLING,
+        CALLBACK,
+        DETECTING
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += gc.getCollectionCount();
+        }
+        return count;
+    }
+
+    private static long gcTime() {
+        long time = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += gc.getCollectionTime();
+        }
+        return time;
+    }
+}
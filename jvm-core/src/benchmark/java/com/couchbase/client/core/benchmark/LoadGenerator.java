@@ -0,0 +1,370 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.core.benchmark;
+
+import com.couchbase.client.core.io.endpoint.Endpoint;
+import com.couchbase.client.core.io.endpoint.ReplyDispatch;
+import com.couchbase.client.core.io.endpoint.spec.EndpointSpec;
+import com.couchbase.client.core.io.service.ServiceType;
+import com.couchbase.client.core.message.request.design.GetDesignDocumentRequest;
+import com.couchbase.client.core.message.request.memcache.GetRequest;
+import com.couchbase.client.core.message.request.memcache.NoopRequest;
+import com.couchbase.client.core.message.request.memcache.UpsertRequest;
+import com.couchbase.client.core.message.response.memcache.GetResponse;
+import com.couchbase.client.core.mock.MockServer;
+import com.couchbase.client.core.util.LatencyHistogram;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.nio.NioEventLoopGroup;
+import reactor.core.Environment;
+import reactor.core.composable.Promise;
+import reactor.event.Event;
+import reactor.function.Consumer;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives a configurable mix of requests through pools of endpoints and prints a latency report.
+ *
+ * Two modes are supported:
+ *
+ * - open: requests are started at the target rate, independent of how fast responses come back. Latency is measured
+ *   from the intended start time, so stalls are never hidden (no coordinated omission).
+ * - closed: a fixed number of requests are kept in flight, every completion starts the next one. If a target rate is
+ *   given, latencies are corrected for coordinated omission against the expected interval per slot.
+ *
+ * Without a host, an in-process {@link MockServer} is started, which makes this usable as a regression check in CI
+ * together with maxP99Micros.
+ *
+ * Run with: ./gradlew benchmark -Pbench=com.couchbase.client.core.benchmark.LoadGenerator -Dmode=open -Drate=20000
+ *
+ * Supported system properties (defaults in brackets): mode [closed], rate [0 = unbounded in closed mode, 10000 in open
+ * mode], concurrency [64], duration [10 seconds], warmup [2 seconds], mix [get=80,upsert=15,noop=5,design=0],
+ * memcacheEndpoints [2], designEndpoints [1], host, memcachePort [11210], designPort [8092], bucket [default],
+ * valueSize [128], keySpace [10000], compression [0 = disabled, else the value size threshold], mockLatencyMicros [0],
+ * mockJitterMicros [0], maxP99Micros.
+ */
+public class LoadGenerator {
+
+    enum OpType {
+        GET, UPSERT, NOOP, DESIGN
+    }
+
+    private final Environment env;
+    private final List<Endpoint> memcacheEndpoints;
+    private final List<Endpoint> designEndpoints;
+    private final OpType[] mix;
+    private final byte[] value;
+    private final int keySpace;
+    private final String bucket;
+    private final AtomicInteger nextEndpoint = new AtomicInteger();
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[OpType.values().length];
+    private final AtomicLongArray completions = new AtomicLongArray(OpType.values().length);
+    private final AtomicLongArray errors = new AtomicLongArray(OpType.values().length);
+    private final AtomicLong inFlight = new AtomicLong();
+    private volatile long recordFrom;
+    private volatile long recordUntil;
+    private volatile boolean running;
+
+    LoadGenerator(Environment env, List<Endpoint> memcacheEndpoints, List<Endpoint> designEndpoints, OpType[] mix,
+        int valueSize, int keySpace, String bucket) {
+        this.env = env;
+        this.memcacheEndpoints = memcacheEndpoints;
+        this.designEndpoints = designEndpoints;
+        this.mix = mix;
+        this.value = new byte[valueSize];
+        this.keySpace = keySpace;
+        this.bucket = bucket;
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    public static void main(String... args) throws Exception {
+        String mode = System.getProperty("mode", "closed");
+        boolean open = "open".equals(mode);
+        long rate = Long.getLong("rate", open ? 10000 : 0);
+        int concurrency = Integer.getInteger("concurrency", 64);
+        int duration = Integer.getInteger("duration", 10);
+        int warmup = Integer.getInteger("warmup", 2);
+        OpType[] mix = parseMix(System.getProperty("mix", "get=80,upsert=15,noop=5,design=0"));
+        String host = System.getProperty("host");
+        Long maxP99Micros = Long.getLong("maxP99Micros");
+
+        Environment env = new Environment();
+        NioEventLoopGroup group = new NioEventLoopGroup();
+        MockServer server = null;
+        InetSocketAddress memcacheAddress;
+        InetSocketAddress designAddress;
+        if (host == null) {
+            server = new MockServer(group)
+                .setValueSize(Integer.getInteger("valueSize", 128))
+                .setLatency(Long.getLong("mockLatencyMicros", 0), TimeUnit.MICROSECONDS)
+                .setJitter(Long.getLong("mockJitterMicros", 0), TimeUnit.MICROSECONDS)
+                .start();
+            memcacheAddress = server.memcacheAddress();
+            designAddress = server.designAddress();
+        } else {
+            memcacheAddress = new InetSocketAddress(host, Integer.getInteger("memcachePort", 11210));
+            designAddress = new InetSocketAddress(host, Integer.getInteger("designPort", 8092));
+        }
+
+        List<Endpoint> memcache = connect(new EndpointSpec(env, memcacheAddress, ServiceType.MEMCACHE)
+            .setEventLoopGroup(group).setCompression(Integer.getInteger("compression", 0)), Integer.getInteger("memcacheEndpoints", 2));
+        List<Endpoint> design = connect(new EndpointSpec(env, designAddress, ServiceType.DESIGN)
+            .setEventLoopGroup(group), Integer.getInteger("designEndpoints", 1));
+
+        LoadGenerator generator = new LoadGenerator(env, memcache, design, mix,
+            Integer.getInteger("valueSize", 128), Integer.getInteger("keySpace", 10000),
+            System.getProperty("bucket", "default"));
+
+        int exitCode = 0;
+        try {
+            System.out.println("Running " + mode + " loop, rate=" + rate + ", concurrency=" + concurrency
+                + ", duration=" + duration + "s, warmup=" + warmup + "s");
+            generator.run(open, rate, concurrency, warmup, duration);
+            System.out.print(generator.report(duration));
+
+            long p99 = TimeUnit.NANOSECONDS.toMicros(generator.total().percentile(99.0));
+            if (maxP99Micros != null && p99 > maxP99Micros) {
+                System.out.println("FAILED: p99 of " + p99 + "us exceeds the allowed " + maxP99Micros + "us");
+                exitCode = 1;
+            }
+        } finally {
+            for (Endpoint endpoint : memcache) {
+                endpoint.disconnect().await();
+            }
+            for (Endpoint endpoint : design) {
+                endpoint.disconnect().await();
+            }
+            if (server != null) {
+                server.stop();
+            }
+            group.shutdownGracefully();
+            env.shutdown();
+        }
+        System.exit(exitCode);
+    }
+
+    void run(boolean open, long rate, int concurrency, int warmupSeconds, int durationSeconds)
+        throws InterruptedException {
+        long now = System.nanoTime();
+        recordFrom = now + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        recordUntil = recordFrom + TimeUnit.SECONDS.toNanos(durationSeconds);
+        running = true;
+
+        if (open) {
+            runOpenLoop(rate, recordUntil);
+        } else {
+            runClosedLoop(rate, concurrency, recordUntil);
+        }
+
+        running = false;
+        long drainDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (inFlight.get() > 0 && System.nanoTime() < drainDeadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private void runOpenLoop(long rate, long end) {
+        long interval = TimeUnit.SECONDS.toNanos(1) / Math.max(1, rate);
+        Random random = new Random();
+        long intended = System.nanoTime();
+        while (intended < end) {
+            parkUntil(intended);
+            send(mix[random.nextInt(mix.length)], intended, 0, random, null);
+            intended += interval;
+        }
+    }
+
+    private void runClosedLoop(long rate, int concurrency, long end) {
+        final long expectedInterval = rate > 0 ? TimeUnit.SECONDS.toNanos(concurrency) / rate : 0;
+        for (int i = 0; i < concurrency; i++) {
+            final Random random = new Random();
+            send(mix[random.nextInt(mix.length)], System.nanoTime(), expectedInterval, random, new Runnable() {
+                @Override
+                public void run() {
+                    if (running) {
+                        send(mix[random.nextInt(mix.length)], System.nanoTime(), expectedInterval, random, this);
+                    }
+                }
+            });
+        }
+        parkUntil(end);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void send(final OpType type, final long start, final long expectedInterval, final Random random,
+        final Runnable next) {
+        inFlight.incrementAndGet();
+        Promise<Object> promise;
+        try {
+            promise = endpointFor(type).sendAndReceive(Event.wrap(request(type, random)), ReplyDispatch.IO_THREAD);
+        } catch (Exception ex) {
+            completed(type, start, expectedInterval, false);
+            if (next != null) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+                next.run();
+            }
+            return;
+        }
+
+        promise.onComplete(new Consumer<Promise<Object>>() {
+            @Override
+            public void accept(Promise<Object> p) {
+                if (p.isSuccess() && p.get() instanceof GetResponse) {
+                    ((GetResponse) p.get()).content().release();
+                }
+                completed(type, start, expectedInterval, p.isSuccess());
+                if (next != null) {
+                    next.run();
+                }
+            }
+        });
+    }
+
+    private void completed(OpType type, long start, long expectedInterval, boolean success) {
+        inFlight.decrementAndGet();
+        if (start < recordFrom || start >= recordUntil) {
+            return;
+        }
+        if (success) {
+            completions.incrementAndGet(type.ordinal());
+            histograms[type.ordinal()].recordWithExpectedInterval(System.nanoTime() - start, expectedInterval);
+        } else {
+            errors.incrementAndGet(type.ordinal());
+        }
+    }
+
+    private Object request(OpType type, Random random) {
+        String key = "key" + random.nextInt(keySpace);
+        switch (type) {
+            case GET:
+                return new GetRequest(key);
+            case UPSERT:
+                return new UpsertRequest(key, Unpooled.wrappedBuffer(value));
+            case NOOP:
+                return new NoopRequest();
+            case DESIGN:
+                return new GetDesignDocumentRequest(bucket, "design" + random.nextInt(10), "", "");
+            default:
+                throw new IllegalArgumentException("Unknown type " + type);
+        }
+    }
+
+    private Endpoint endpointFor(OpType type) {
+        List<Endpoint> pool = type == OpType.DESIGN ? designEndpoints : memcacheEndpoints;
+        return pool.get((nextEndpoint.getAndIncrement() & Integer.MAX_VALUE) % pool.size());
+    }
+
+    LatencyHistogram total() {
+        LatencyHistogram total = new LatencyHistogram();
+        for (LatencyHistogram histogram : histograms) {
+            total.add(histogram);
+        }
+        return total;
+    }
+
+    /**
+     * Renders the report. Counts and throughput are actual completions; the percentiles include the samples backfilled
+     * for coordinated omission, if any.
+     */
+    String report(int durationSeconds) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-8s %10s %8s %10s %9s %9s %9s %9s %9s %9s%n", "op", "count", "errors", "ops/s",
+            "p50(us)", "p90", "p99", "p99.9", "p99.99", "max"));
+        long totalCount = 0;
+        long totalErrors = 0;
+        for (OpType type : OpType.values()) {
+            long count = completions.get(type.ordinal());
+            long failed = errors.get(type.ordinal());
+            totalCount += count;
+            totalErrors += failed;
+            if (count > 0 || failed > 0) {
+                appendLine(sb, type.name(), histograms[type.ordinal()], count, failed, durationSeconds);
+            }
+        }
+        appendLine(sb, "TOTAL", total(), totalCount, totalErrors, durationSeconds);
+        return sb.toString();
+    }
+
+    private static void appendLine(StringBuilder sb, String name, LatencyHistogram h, long count, long errors,
+        int duration) {
+        sb.append(String.format("%-8s %10d %8d %10d %9d %9d %9d %9d %9d %9d%n", name, count, errors,
+            count / Math.max(1, duration), micros(h.percentile(50)), micros(h.percentile(90)),
+            micros(h.percentile(99)), micros(h.percentile(99.9)), micros(h.percentile(99.99)), micros(h.max())));
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    private static void parkUntil(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            if (remaining > 100000) {
+                LockSupport.parkNanos(remaining - 50000);
+            }
+        }
+    }
+
+    private static List<Endpoint> connect(EndpointSpec spec, int count) {
+        List<Endpoint> endpoints = new ArrayList<Endpoint>();
+        for (int i = 0; i < count; i++) {
+            Endpoint endpoint = spec.get();
+            endpoint.connect();
+            endpoints.add(endpoint);
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        for (Endpoint endpoint : endpoints) {
+            while (!endpoint.isConnected() && System.nanoTime() < deadline) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+            }
+        }
+        return endpoints;
+    }
+
+    static OpType[] parseMix(String mix) {
+        List<OpType> table = new ArrayList<OpType>();
+        for (String part : mix.split(",")) {
+            String[] kv = part.trim().split("=");
+            OpType type = OpType.valueOf(kv[0].trim().toUpperCase());
+            int weight = Integer.parseInt(kv[1].trim());
+            for (int i = 0; i < weight; i++) {
+                table.add(type);
+            }
+        }
+        if (table.isEmpty()) {
+            throw new IllegalArgumentException("The mix must contain at least one operation: " + mix);
+        }
+        return table.toArray(new OpType[table.size()]);
+    }
+}
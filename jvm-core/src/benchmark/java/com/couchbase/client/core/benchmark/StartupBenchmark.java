@@ -0,0 +1,196 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.core.benchmark;
+
+import com.couchbase.client.core.io.endpoint.spec.EndpointSpec;
+import com.couchbase.client.core.io.service.AbstractService;
+import com.couchbase.client.core.io.service.Service;
+import com.couchbase.client.core.io.service.ServiceBootstrap;
+import com.couchbase.client.core.io.service.ServiceState;
+import com.couchbase.client.core.io.service.ServiceType;
+import com.couchbase.client.core.message.request.memcache.GetRequest;
+import com.couchbase.client.core.message.request.memcache.MemcacheRequest;
+import com.couchbase.client.core.message.response.memcache.GetResponse;
+import com.couchbase.client.core.message.response.memcache.MemcacheResponse;
+import com.couchbase.client.core.mock.MockServer;
+import com.couchbase.client.core.util.LatencyHistogram;
+import io.netty.channel.nio.NioEventLoopGroup;
+import reactor.core.Environment;
+import reactor.event.Event;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long it takes until a set of memcache services is ready against the local {@link MockServer}, and
+ * what the first request afterwards costs.
+ *
+ * The sequential mode connects one service after the other and waits for each, the parallel mode connects all of
+ * them at once through a {@link ServiceBootstrap}, the warm mode does the same but warms up every connection with a
+ * noop first, and the lazy mode only connects once the first request arrives. Startup is the time until the services
+ * are ready, first request the time of one get through each service right after.
+ *
+ * Run with: ./gradlew benchmark -Pbench=com.couchbase.client.core.benchmark.StartupBenchmark
+ *
+ * Supported system properties (defaults in brackets): services [16], poolSize [4], rounds [20], latencyMicros [200].
+ */
+public class StartupBenchmark {
+
+    private static final int SERVICES = Integer.getInteger("services", 16);
+    private static final int POOL_SIZE = Integer.getInteger("poolSize", 4);
+    private static final int ROUNDS = Integer.getInteger("rounds", 20);
+
+    public static void main(String... args) throws Exception {
+        Environment env = new Environment();
+        NioEventLoopGroup group = new NioEventLoopGroup();
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        MockServer server = new MockServer(group)
+            .setLatency(Integer.getInteger("latencyMicros", 200), TimeUnit.MICROSECONDS)
+            .start();
+        try {
+            EndpointSpec spec = new EndpointSpec(env, server.memcacheAddress(), ServiceType.MEMCACHE)
+                .setEventLoopGroup(group);
+            EndpointSpec warmSpec = new EndpointSpec(env, server.memcacheAddress(), ServiceType.MEMCACHE)
+                .setEventLoopGroup(group)
+                .setWarmUp(10, TimeUnit.SECONDS);
+            ServiceBootstrap bootstrap = new ServiceBootstrap(env, scheduler);
+
+            // A throwaway round per mode to get the connect and request paths compiled.
+            for (Mode mode : Mode.values()) {
+                run(mode, mode == Mode.WARM ? warmSpec : spec, env, bootstrap);
+            }
+
+            System.out.println(String.format("%-12s %8s %8s %14s %14s %14s", "mode", "services", "pool",
+                "startup(us)", "first p50(us)", "first p99"));
+            for (Mode mode : Mode.values()) {
+                LatencyHistogram startup = new LatencyHistogram();
+                LatencyHistogram first = new LatencyHistogram();
+                for (int i = 0; i < ROUNDS; i++) {
+                    Round round = run(mode, mode == Mode.WARM ? warmSpec : spec, env, bootstrap);
+                    startup.record(round.startupNanos);
+                    for (long nanos : round.firstRequestNanos) {
+                        first.record(nanos);
+                    }
+                }
+                System.out.println(String.format("%-12s %8d %8d %14d %14d %14d", mode.name().toLowerCase(),
+                    SERVICES, POOL_SIZE, micros(startup.percentile(50)), micros(first.percentile(50)),
+                    micros(first.percentile(99))));
+            }
+        } finally {
+            server.stop();
+            scheduler.shutdown();
+            group.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+            env.shutdown();
+        }
+    }
+
+    /**
+     * Start all services in the given mode, send one get through each and disconnect them again.
+     */
+    private static Round run(final Mode mode, final EndpointSpec spec, final Environment env,
+        final ServiceBootstrap bootstrap) throws Exception {
+        List<MemcacheService> services = new ArrayList<MemcacheService>(SERVICES);
+        for (int i = 0; i < SERVICES; i++) {
+            MemcacheService service = new MemcacheService(spec, env);
+            service.setLazy(mode == Mode.LAZY);
+            services.add(service);
+        }
+
+        Round round = new Round();
+        long start = System.nanoTime();
+        if (mode == Mode.SEQUENTIAL) {
+            for (MemcacheService service : services) {
+                if (service.connect().await(10, TimeUnit.SECONDS) != ServiceState.CONNECTED) {
+                    throw new IllegalStateException("Could not connect the service");
+                }
+            }
+        } else {
+            Map<Service<?, ?>, ServiceState> states = bootstrap.connect(services, 10, TimeUnit.SECONDS)
+                .await(20, TimeUnit.SECONDS);
+            if (mode != Mode.LAZY && !allConnected(states)) {
+                throw new IllegalStateException("Could not connect the services: " + states.values());
+            }
+        }
+        round.startupNanos = System.nanoTime() - start;
+
+        round.firstRequestNanos = new long[SERVICES];
+        for (int i = 0; i < SERVICES; i++) {
+            long requestStart = System.nanoTime();
+            MemcacheResponse response = services.get(i).sendAndReceive(Event.<MemcacheRequest>wrap(
+                new GetRequest("key"))).await(10, TimeUnit.SECONDS);
+            round.firstRequestNanos[i] = System.nanoTime() - requestStart;
+            if (response instanceof GetResponse) {
+                ((GetResponse) response).content().release();
+            }
+        }
+
+        for (MemcacheService service : services) {
+            service.disconnect().await(10, TimeUnit.SECONDS);
+        }
+        return round;
+    }
+
+    private static boolean allConnected(final Map<Service<?, ?>, ServiceState> states) {
+        for (ServiceState state : states.values()) {
+            if (state != ServiceState.CONNECTED) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long micros(final long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    private static enum Mode {
+        SEQUENTIAL,
+        PARALLEL,
+        WARM,
+        LAZY
+    }
+
+    private static final class Round {
+        long startupNanos;
+        long[] firstRequestNanos;
+    }
+
+    /**
+     * A plain memcache service over the endpoints of the given spec.
+     */
+    private static final class MemcacheService extends AbstractService<MemcacheRequest, MemcacheResponse> {
+
+        MemcacheService(final EndpointSpec spec, final Environment env) {
+            super(spec, POOL_SIZE, env);
+        }
+
+        @Override
+        protected ServiceType serviceType() {
+            return ServiceType.MEMCACHE;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.client.core.benchmark;
+
+import com.couchbase.client.core.io.endpoint.Endpoint;
+import com.couchbase.client.core.io.endpoint.EndpointState;
+import com.couchbase.client.core.io.endpoint.ReplyDispatch;
+import com.couchbase.client.core.io.endpoint.spec.EndpointSpec;
+import com.couchbase.client.core.io.endpoint.spec.SslSpec;
+import com.couchbase.client.core.io.service.ServiceType;
+import com.couchbase.client.core.message.request.memcache.GetRequest;
+import com.couchbase.client.core.message.response.memcache.GetResponse;
+import com.couchbase.client.core.mock.MockServer;
+import com.couchbase.client.core.util.LatencyHistogram;
+import io.netty.channel.nio.NioEventLoopGroup;
+import reactor.core.Environment;
+import reactor.core.composable.Promise;
+import reactor.event.Event;
+import reactor.function.Consumer;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures what TLS costs per operation and per connect against the local {@link MockServer}.
+ *
+ * The op phase runs the same closed loop of gets over a plaintext and a TLS endpoint and reports throughput and
+ * latency of both. The connect phase opens connections one after the other, once with a new TLS context per
+ * connection (every connect is a full handshake) and once with a shared one (every connect after the first resumes
+ * the cached session), which is what a reconnect storm costs with and without session resumption.
+ *
+ * Run with: ./gradlew benchmark -Pbench=com.couchbase.client.core.benchmark.TlsOverheadBenchmark
+ *
+ * Supported system properties (defaults in brackets): ops [200000], warmupOps [50000], concurrency [32],
+ * valueSize [128], connects [200], protocol [TLSv1.2].
+ */
+public class TlsOverheadBenchmark {
+
+    private static final int OPS = Integer.getInteger("ops", 200000);
+    private static final int WARMUP_OPS = Integer.getInteger("warmupOps", 50000);
+    private static final int CONCURRENCY = Integer.getInteger("concurrency", 32);
+    private static final int CONNECTS = Integer.getInteger("connects", 200);
+    private static final String PROTOCOL = System.getProperty("protocol", "TLSv1.2");
+
+    public static void main(String... args) throws Exception {
+        Environment env = new Environment();
+        NioEventLoopGroup group = new NioEventLoopGroup();
+        MockServer plainServer = new MockServer(group).setValueSize(Integer.getInteger("valueSize", 128)).start();
+        MockServer sslServer = new MockServer(group).setValueSize(Integer.getInteger("valueSize", 128))
+            .setSsl(true).start();
+        try {
+            EndpointSpec plain = new EndpointSpec(env, plainServer.memcacheAddress(), ServiceType.MEMCACHE)
+                .setEventLoopGroup(group);
+            EndpointSpec ssl = new EndpointSpec(env, sslServer.memcacheAddress(), ServiceType.MEMCACHE)
+                .setEventLoopGroup(group)
+                .setSsl(sslSpec());
+
+            System.out.println(String.format("%-10s %10s %10s %9s %9s %9s", "mode", "ops", "ops/s", "p50(us)", "p99",
+                "p99.9"));
+            System.out.println(runOps("plain", plain));
+            System.out.println(runOps("tls", ssl));
+
+            System.out.println();
+            System.out.println(runConnects("full", sslServer, env, group, false));
+            System.out.println(runConnects("resumed", sslServer, env, group, true));
+        } finally {
+            plainServer.stop();
+            sslServer.stop();
+            group.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+            env.shutdown();
+        }
+    }
+
+    private static SslSpec sslSpec() {
+        return new SslSpec().setTrustStore(MockServer.keyStore()).setProtocols(PROTOCOL);
+    }
+
+    private static String runOps(final String name, final EndpointSpec spec) throws Exception {
+        Endpoint endpoint = spec.get();
+        if (endpoint.connect().await(10, TimeUnit.SECONDS) != EndpointState.CONNECTED) {
+            throw new IllegalStateException("Could not connect the " + name + " endpoint");
+        }
+        try {
+            closedLoop(endpoint, WARMUP_OPS, new LatencyHistogram());
+
+            LatencyHistogram histogram = new LatencyHistogram();
+            long start = System.nanoTime();
+            closedLoop(endpoint, OPS, histogram);
+            long elapsed = System.nanoTime() - start;
+
+            return String.format("%-10s %10d %10d %9d %9d %9d", name, OPS, OPS * TimeUnit.SECONDS.toNanos(1) / elapsed,
+                micros(histogram.percentile(50)), micros(histogram.percentile(99)),
+                micros(histogram.percentile(99.9)));
+        } finally {
+            endpoint.disconnect().await();
+        }
+    }
+
+    /**
+     * Keeps the given number of gets in flight until all ops are done.
+     */
+    private static void closedLoop(final Endpoint endpoint, final int ops, final LatencyHistogram histogram)
+        throws InterruptedException {
+        final AtomicLong remaining = new AtomicLong(ops);
+        final CountDownLatch done = new CountDownLatch(CONCURRENCY);
+        for (int i = 0; i < CONCURRENCY; i++) {
+            new Runnable() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public void run() {
+                    if (remaining.getAndDecrement() <= 0) {
+                        done.countDown();
+                        return;
+                    }
+                    final long start = System.nanoTime();
+                    final Runnable next = this;
+                    Promise<Object> promise = endpoint.sendAndReceive(Event.wrap(new GetRequest("key")),
+                        ReplyDispatch.IO_THREAD);
+                    promise.onComplete(new Consumer<Promise<Object>>() {
+                        @Override
+                        public void accept(Promise<Object> p) {
+                            histogram.record(System.nanoTime() - start);
+                            if (p.isSuccess() && p.get() instanceof GetResponse) {
+                                ((GetResponse) p.get()).content().release();
+                            }
+                            next.run();
+                        }
+                    });
+                }
+            }.run();
+        }
+        done.await();
+    }
+
+    /**
+     * Connects and disconnects one endpoint after the other and reports the time until each was connected.
+     */
+    private static String runConnects(final String name, final MockServer server, final Environment env,
+        final NioEventLoopGroup group, final boolean shared) throws Exception {
+        SslSpec sharedSpec = sslSpec();
+        int sessionsBefore = server.tlsSessions();
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < CONNECTS; i++) {
+            Endpoint endpoint = new EndpointSpec(env, server.memcacheAddress(), ServiceType.MEMCACHE)
+                .setEventLoopGroup(group)
+                .setSsl(shared ? sharedSpec : sslSpec())
+                .get();
+            long start = System.nanoTime();
+            if (endpoint.connect().await(10, TimeUnit.SECONDS) != EndpointState.CONNECTED) {
+                throw new IllegalStateException("Could not connect the endpoint");
+            }
+            histogram.record(System.nanoTime() - start);
+            endpoint.disconnect().await();
+        }
+
+        return String.format("%-10s %6d connects, %6d full handshakes, p50 %7d us, p99 %7d us per connect", name,
+            CONNECTS, server.tlsSessions() - sessionsBefore, micros(histogram.percentile(50)),
+            micros(histogram.percentile(99)));
+    }
+
+    private static long micros(final long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
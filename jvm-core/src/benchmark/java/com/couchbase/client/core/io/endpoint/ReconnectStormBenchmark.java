@@ -0,0 +1,146 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.core.io.endpoint;
+
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.embedded.EmbeddedChannel;
+import reactor.core.Environment;
+import reactor.function.Consumer;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Simulates reconnect storms against a large number of {@link AbstractEndpoint}s.
+ *
+ * Every round connects and disconnects all endpoints, once observing the transitions through the
+ * {@link Endpoint#stateStream()} and once through a {@link EndpointStateListener}. The report shows the time and the
+ * garbage collection activity per round for both modes.
+ *
+ * Run with: ./gradlew benchmark -Pbench=com.couchbase.client.core.io.endpoint.ReconnectStormBenchmark
+ */
+public class ReconnectStormBenchmark {
+
+    private static final int ENDPOINTS = Integer.getInteger("endpoints", 500);
+    private static final int WARMUP_ROUNDS = Integer.getInteger("warmupRounds", 200);
+    private static final int ROUNDS = Integer.getInteger("rounds", 1000);
+
+    public static void main(String... args) throws Exception {
+        Environment env = new Environment();
+        try {
+            run("stream", env, true, WARMUP_ROUNDS);
+            run("listener", env, false, WARMUP_ROUNDS);
+
+            System.out.println(run("stream", env, true, ROUNDS));
+            System.out.println(run("listener", env, false, ROUNDS));
+        } finally {
+            env.shutdown();
+        }
+    }
+
+    private static String run(final String name, final Environment env, final boolean useStream, final int rounds)
+        throws Exception {
+        final AtomicLong transitions = new AtomicLong();
+        BenchmarkEndpoint[] endpoints = new BenchmarkEndpoint[ENDPOINTS];
+        for (int i = 0; i < endpoints.length; i++) {
+            endpoints[i] = new BenchmarkEndpoint(env);
+            if (useStream) {
+                endpoints[i].stateStream().consume(new Consumer<EndpointState>() {
+                    @Override
+                    public void accept(EndpointState state) {
+                        transitions.incrementAndGet();
+                    }
+                });
+            } else {
+                endpoints[i].addStateListener(new EndpointStateListener() {
+                    @Override
+                    public void onStateChange(Endpoint<?, ?> endpoint, EndpointState oldState,
+                        EndpointState newState) {
+                        transitions.incrementAndGet();
+                    }
+                });
+            }
+        }
+
+        long gcCountBefore = gcCount();
+        long gcTimeBefore = gcTime();
+        long start = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            for (int i = 0; i < endpoints.length; i++) {
+                endpoints[i].connect();
+            }
+            for (int i = 0; i < endpoints.length; i++) {
+                endpoints[i].disconnect().await();
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+
+        return String.format("%-10s %8d rounds x %5d endpoints: %8.2f us/round, %5d GCs (%5d ms), %d transitions",
+            name, rounds, ENDPOINTS, elapsed / 1000.0 / rounds, gcCount() - gcCountBefore, gcTime() - gcTimeBefore,
+            transitions.get());
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, bean.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcTime() {
+        long time = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(0, bean.getCollectionTime());
+        }
+        return time;
+    }
+
+    /**
+     * Hands out already connected embedded channels instead of opening sockets.
+     */
+    static class EmbeddedBootstrapAdapter extends BootstrapAdapter {
+
+        EmbeddedBootstrapAdapter() {
+            super(null);
+        }
+
+        @Override
+        public ChannelFuture connect() {
+            return new EmbeddedChannel().newSucceededFuture();
+        }
+    }
+
+    static class BenchmarkEndpoint extends AbstractEndpoint<Object, Object> {
+
+        BenchmarkEndpoint(Environment env) {
+            super(new EmbeddedBootstrapAdapter(), env);
+        }
+
+        @Override
+        protected void customEndpointHandlers(ChannelPipeline pipeline) {
+        }
+    }
+}
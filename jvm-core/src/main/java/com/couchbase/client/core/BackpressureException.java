@@ -0,0 +1,51 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.core;
+
+/**
+ * Identifies that the request has been rejected without being sent because the client can not take on more
+ * work right now.
+ */
+public class BackpressureException extends CouchbaseException {
+
+    private static final BackpressureException SHARED
+        = new BackpressureException("The request has been rejected because of backpressure", true);
+
+    public BackpressureException(String message) {
+        super(message);
+    }
+
+    private BackpressureException(String message, boolean shared) {
+        super(message, shared);
+    }
+
+    /**
+     * Returns the shared instance, or a new one with a stack trace if {@link #stackTraces()} are enabled.
+     *
+     * @return the exception to fail the request with.
+     */
+    public static BackpressureException instance() {
+        return stackTraces() ? new BackpressureException(SHARED.getMessage()) : SHARED;
+    }
+
+}
@@ -24,9 +24,24 @@ package com.couchbase.client.core;
 
 /**
  * The root exception for everything raised by this driver.
+ *
+ * Failures which can happen for every request, like a missing key or a timeout, are raised through a shared instance
+ * without a stack trace. This keeps an outage, where every request fails, from allocating a full stack trace per
+ * request. For debugging, {@link #setStackTraces(boolean)} (or the {@value #STACK_TRACES_PROPERTY} system property)
+ * turns them back on, and every failure then gets its own instance.
  */
 public class CouchbaseException extends RuntimeException {
 
+    /**
+     * System property which enables stack traces for the shared failures when set to true.
+     */
+    public static final String STACK_TRACES_PROPERTY = "com.couchbase.client.core.stackTraces";
+
+    /**
+     * If every failure should capture its own stack trace.
+     */
+    private static volatile boolean stackTraces = Boolean.getBoolean(STACK_TRACES_PROPERTY);
+
     public CouchbaseException() {
     }
 
@@ -45,4 +60,33 @@ public class CouchbaseException extends RuntimeException {
     public CouchbaseException(String message, Throwable cause, boolean enableSuppression, boolean writableStackTrace) {
         super(message, cause, enableSuppression, writableStackTrace);
     }
+
+    /**
+     * Creates an exception which can be shared across failures: it has neither a stack trace nor suppressed
+     * exceptions.
+     *
+     * @param message the message of the exception.
+     * @param shared if the instance is shared.
+     */
+    protected CouchbaseException(String message, boolean shared) {
+        super(message, null, !shared, !shared);
+    }
+
+    /**
+     * Returns if every failure captures its own stack trace.
+     *
+     * @return true if stack traces are enabled.
+     */
+    public static boolean stackTraces() {
+        return stackTraces;
+    }
+
+    /**
+     * Enables or disables stack traces for the failures which are otherwise raised through a shared instance.
+     *
+     * @param enabled true to give every failure its own instance with a stack trace.
+     */
+    public static void setStackTraces(boolean enabled) {
+        stackTraces = enabled;
+    }
 }
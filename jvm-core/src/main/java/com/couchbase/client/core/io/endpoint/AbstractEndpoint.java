@@ -22,6 +22,10 @@
 
 package com.couchbase.client.core.io.endpoint;
 
+import com.couchbase.client.core.AuthenticationException;
+import com.couchbase.client.core.io.topology.PinnedEventLoopGroup;
+import com.couchbase.client.core.trace.Span;
+import com.couchbase.client.core.trace.Tracer;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.*;
@@ -30,6 +34,9 @@ import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.handler.logging.LogLevel;
 import io.netty.handler.logging.LoggingHandler;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.IdleStateHandler;
 import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.GenericFutureListener;
 import org.slf4j.Logger;
@@ -41,9 +48,17 @@ import reactor.core.composable.Stream;
 import reactor.core.composable.spec.Promises;
 import reactor.core.composable.spec.Streams;
 import reactor.event.Event;
+import reactor.event.dispatch.Dispatcher;
+import reactor.event.dispatch.SynchronousDispatcher;
+import reactor.function.Consumer;
 
+import javax.net.ssl.SSLPeerUnverifiedException;
 import java.net.InetSocketAddress;
+import java.util.EnumMap;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Implements common functionality needed by all {@link Endpoint}s.
@@ -62,6 +77,43 @@ public abstract class AbstractEndpoint<REQ, RES> implements Endpoint<REQ, RES> {
     private static final EndpointNotConnectedException NOT_CONNECTED_EXCEPTION
         = new EndpointNotConnectedException("Endpoint is not connected");
 
+    /**
+     * Caching the stateless exception for requests rejected by the {@link CircuitBreaker}.
+     */
+    private static final CircuitOpenException CIRCUIT_OPEN_EXCEPTION
+        = new CircuitOpenException("Circuit breaker of the Endpoint is open");
+
+    /**
+     * Already completed promises for every {@link EndpointState}, shared across all endpoints.
+     */
+    private static final Map<EndpointState, Promise<EndpointState>> COMPLETED_STATES =
+        new EnumMap<EndpointState, Promise<EndpointState>>(EndpointState.class);
+
+    /**
+     * Marker for an empty listener list.
+     */
+    private static final EndpointStateListener[] NO_LISTENERS = new EndpointStateListener[0];
+
+    /**
+     * Dispatcher used to complete replies directly on the IO thread.
+     */
+    private static final Dispatcher SYNCHRONOUS_DISPATCHER = new SynchronousDispatcher();
+
+    /**
+     * How often a draining endpoint checks for outstanding requests.
+     */
+    private static final long DRAIN_POLL_MICROS = 500;
+
+    /**
+     * The delay before the first retry of a failed connect attempt, doubled on every further failed attempt.
+     */
+    private static final long RECONNECT_INITIAL_DELAY_MILLIS = 10;
+
+    /**
+     * The upper bound of the delay between two failed connect attempts.
+     */
+    private static final long RECONNECT_MAX_DELAY_MILLIS = 5000;
+
     /**
      * The {@link Environment} to attach to.
      */
@@ -73,14 +125,14 @@ public abstract class AbstractEndpoint<REQ, RES> implements Endpoint<REQ, RES> {
     private final String defaultPromiseEnv =  Environment.THREAD_POOL;
 
     /**
-     * Deferred to get populated when the {@link EndpointState} changes.
+     * Deferred to get populated when the {@link EndpointState} changes, created on first use of the stream.
      */
-    private final Deferred<EndpointState, Stream<EndpointState>> endpointStateDeferred;
+    private volatile Deferred<EndpointState, Stream<EndpointState>> endpointStateDeferred;
 
     /**
-     * Stream of {@link EndpointState} changes.
+     * Listeners notified synchronously on every {@link EndpointState} change (copy on write).
      */
-    private final Stream<EndpointState> endpointStateStream;
+    private volatile EndpointStateListener[] stateListeners = NO_LISTENERS;
 
     /**
      * {@link Bootstrap} to use for this endpoint.
@@ -92,21 +144,97 @@ public abstract class AbstractEndpoint<REQ, RES> implements Endpoint<REQ, RES> {
      */
     private volatile Channel channel;
 
+    /**
+     * The {@link GenericEndpointHandler} of the latest channel, null before the first connect.
+     */
+    private volatile GenericEndpointHandler<REQ, RES> handler;
+
     /**
      * Holds the current {@link EndpointState}.
      */
     private volatile EndpointState state = EndpointState.DISCONNECTED;
 
+    /**
+     * Where replies are delivered if the caller does not specify it.
+     */
+    private volatile ReplyDispatch defaultReplyDispatch = ReplyDispatch.RING_BUFFER;
+
+    /**
+     * Tracks the response latencies of this endpoint.
+     */
+    private final LatencyTracker latency = new LatencyTracker(10, TimeUnit.SECONDS);
+
+    /**
+     * Traces requests if set, null by default.
+     */
+    private volatile Tracer tracer;
+
+    /**
+     * Rejects requests while the endpoint is unhealthy if set, null by default.
+     */
+    private volatile CircuitBreaker circuitBreaker;
+
+    /**
+     * Send a keepalive after the connection did not read anything for this long, 0 disables it.
+     */
+    private volatile long keepAliveIdleNanos;
+
+    /**
+     * How long to wait for the keepalive reply before the connection is considered dead.
+     */
+    private volatile long keepAliveTimeoutNanos;
+
+    /**
+     * If a keepalive is currently outstanding.
+     */
+    private volatile boolean keepAlivePending;
+
+    /**
+     * How long requests in the lower priority lanes wait at most for the higher ones.
+     */
+    private volatile long starvationGuardNanos = PriorityLanes.DEFAULT_STARVATION_GUARD_NANOS;
+
+    /**
+     * How long the warm-up request of a fresh connection may take, 0 if connections are not warmed up.
+     */
+    private volatile long warmUpTimeoutNanos;
+
+    /**
+     * Creates the TLS stage of new connections, null for plaintext.
+     */
+    private volatile SslEngineFactory ssl;
+
     /**
      * If the {@link Endpoint} should still retry if the connection closes.
      */
     private volatile boolean shouldRetry = true;
 
+    /**
+     * The number of connect attempts which failed in a row, reset once connected.
+     */
+    private volatile int failedAttempts;
+
+    /**
+     * The pin of the event loop inside an {@link com.couchbase.client.core.io.topology.IoTopology}, null if the
+     * endpoint was not created on one.
+     */
+    private final PinnedEventLoopGroup pin;
+
+    /**
+     * If the endpoint currently holds its pin, it is given back on disconnect and taken again on connect.
+     */
+    private final AtomicBoolean pinned = new AtomicBoolean(true);
+
     /**
      * Preload the exceptions to make sure they do not contain misleading values.
      */
     static {
         NOT_CONNECTED_EXCEPTION.setStackTrace(new StackTraceElement[0]);
+        CIRCUIT_OPEN_EXCEPTION.setStackTrace(new StackTraceElement[0]);
+
+        for (EndpointState state : EndpointState.values()) {
+            COMPLETED_STATES.put(state, Promises.success(state).get());
+        }
     }
 
     /**
@@ -117,9 +245,8 @@ public abstract class AbstractEndpoint<REQ, RES> implements Endpoint<REQ, RES> {
      */
     AbstractEndpoint(final BootstrapAdapter bootstrap, final Environment env) {
         this.env = env;
-        endpointStateDeferred = Streams.defer(env, defaultPromiseEnv);
-        endpointStateStream = endpointStateDeferred.compose();
         connectionBootstrap = bootstrap;
+        pin = null;
     }
 
     /**
@@ -131,8 +258,7 @@ public abstract class AbstractEndpoint<REQ, RES> implements Endpoint<REQ, RES> {
      */
     protected AbstractEndpoint(final InetSocketAddress addr, final Environment env, final EventLoopGroup group) {
         this.env = env;
-        endpointStateDeferred = Streams.defer(env, defaultPromiseEnv);
-        endpointStateStream = endpointStateDeferred.compose();
+        pin = group instanceof PinnedEventLoopGroup ? (PinnedEventLoopGroup) group : null;
 
         connectionBootstrap = new BootstrapAdapter(new Bootstrap()
             .group(group)
@@ -141,12 +267,35 @@ public abstract class AbstractEndpoint<REQ, RES> implements Endpoint<REQ, RES> {
                 @Override
                 protected void initChannel(final SocketChannel ch) throws Exception {
                     ChannelPipeline pipeline = ch.pipeline();
+                    SslEngineFactory sslFactory = ssl;
+                    if (sslFactory != null) {
+                        pipeline.addLast(sslFactory.newHandler(addr));
+                    }
                     if (LOGGER.isTraceEnabled()) {
                         pipeline.addLast(new LoggingHandler(LogLevel.TRACE));
                     }
 
+                    if (keepAliveIdleNanos > 0 && probeRequest() != null) {
+                        pipeline.addLast(new IdleStateHandler(keepAliveIdleNanos, 0, 0, TimeUnit.NANOSECONDS) {
+                            @Override
+                            protected void channelIdle(ChannelHandlerContext ctx, IdleStateEvent evt) {
+                                sendKeepAlive(ctx.channel());
+                            }
+                        });
+                    }
+
+                    ReadTimestampHandler readTimestamps = null;
+                    if (tracer != null) {
+                        readTimestamps = new ReadTimestampHandler();
+                        pipeline.addLast(readTimestamps);
+                    }
+
                     customEndpointHandlers(pipeline);
-                    pipeline.addLast(new GenericEndpointHandler<REQ, RES>());
+                    GenericEndpointHandler<REQ, RES> endpointHandler = new GenericEndpointHandler<REQ, RES>(
+                        readTimestamps, latency, starvationGuardNanos);
+                    pipeline.addLast(endpointHandler);
+                    handler = endpointHandler;
+                    endpointHandler.setTracer(tracer);
                 }
             })
             .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
@@ -165,105 +314,624 @@ public abstract class AbstractEndpoint<REQ, RES> implements Endpoint<REQ, RES> {
     @Override
     public Promise<EndpointState> connect() {
         if (state == EndpointState.CONNECTED || state  == EndpointState.CONNECTING) {
-            return Promises.success(state).get();
+            return COMPLETED_STATES.get(state);
         }
 
+        shouldRetry = true;
+        if (pin != null && pinned.compareAndSet(false, true)) {
+            pin.topology().retain(pin);
+        }
+        final Deferred<EndpointState, Promise<EndpointState>> deferred = Promises.defer(env, defaultPromiseEnv);
+        doConnect(deferred);
+        return deferred.compose();
+    }
+
+    /**
+     * Reconnect without handing out a {@link Promise}, since nobody is waiting on the outcome.
+     */
+    private void reconnect() {
+        if (state == EndpointState.CONNECTED || state  == EndpointState.CONNECTING) {
+            return;
+        }
+        doConnect(null);
+    }
+
+    /**
+     * Perform the actual connect attempt.
+     *
+     * @param deferred the deferred to complete with the outcome, may be null.
+     */
+    private void doConnect(final Deferred<EndpointState, Promise<EndpointState>> deferred) {
         if (state != EndpointState.RECONNECTING) {
             transitionState(EndpointState.CONNECTING);
         }
 
-        final Deferred<EndpointState, Promise<EndpointState>> deferred = Promises.defer(env, defaultPromiseEnv);
         connectionBootstrap.connect().addListener(new ChannelFutureListener() {
             @Override
             public void operationComplete(final ChannelFuture future) throws Exception {
-                if (future.isSuccess()) {
-                    channel = future.channel();
-                    transitionState(EndpointState.CONNECTED);
-                    if (LOGGER.isDebugEnabled()) {
-                        LOGGER.debug("Successfully connected Endpoint to: " + channel.remoteAddress());
-                    }
-                } else {
-                    channel = null;
-                    transitionState(EndpointState.RECONNECTING);
-                    long nextReconnectDelay = nextReconnectDelay();
-                    if (LOGGER.isDebugEnabled()) {
-                        LOGGER.debug("Could not connect to Endpoint, retrying with delay: " + nextReconnectDelay,
-                            future.cause());
-                    }
+                if (!future.isSuccess()) {
+                    connectFailed(future.channel(), future.cause(), deferred);
+                    return;
+                }
 
-                    future.channel().eventLoop().schedule(new Runnable() {
-                        @Override
-                        public void run() {
-                            if (shouldRetry) {
-                                connect();
+                final Channel ch = future.channel();
+                final SslHandler sslHandler = ch.pipeline().get(SslHandler.class);
+                final SslEngineFactory sslFactory = ssl;
+                if (sslHandler == null || sslFactory == null) {
+                    completeHandshake(ch, deferred);
+                    return;
+                }
+                sslHandler.handshakeFuture().addListener(new GenericFutureListener<Future<Channel>>() {
+                    @Override
+                    public void operationComplete(final Future<Channel> sslFuture) throws Exception {
+                        Throwable cause = sslFuture.cause();
+                        if (sslFuture.isSuccess()) {
+                            try {
+                                sslFactory.verifyPeer(sslHandler.engine());
+                                completeHandshake(ch, deferred);
+                                return;
+                            } catch (SSLPeerUnverifiedException ex) {
+                                cause = ex;
                             }
                         }
-                    }, nextReconnectDelay, TimeUnit.MILLISECONDS);
+                        ch.close();
+                        connectFailed(ch, cause, deferred);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Run the {@link #handshake(Channel)} of the endpoint on a connected (and if configured, encrypted) channel.
+     *
+     * @param ch the connected channel.
+     * @param deferred the deferred to complete with the outcome, may be null.
+     */
+    private void completeHandshake(final Channel ch, final Deferred<EndpointState, Promise<EndpointState>> deferred) {
+        handshake(ch).addListener(new GenericFutureListener<Future<Void>>() {
+            @Override
+            public void operationComplete(final Future<Void> handshakeFuture) throws Exception {
+                if (!handshakeFuture.isSuccess()) {
+                    ch.close();
+                    connectFailed(ch, handshakeFuture.cause(), deferred);
+                } else if (warmUpTimeoutNanos > 0 && probeRequest() != null) {
+                    warmUp(ch, deferred);
+                } else {
+                    connected(ch, deferred);
                 }
+            }
+        });
+    }
+
+    /**
+     * Send the {@link #probeRequest()} on a freshly connected channel and only complete the connect attempt once it
+     * is answered, so the first real request does not pay for the cold connection.
+     *
+     * A channel which does not answer in time is closed and the connect attempt retried like a failed handshake.
+     *
+     * @param ch the connected channel.
+     * @param deferred the deferred to complete with the outcome, may be null.
+     */
+    private void warmUp(final Channel ch, final Deferred<EndpointState, Promise<EndpointState>> deferred) {
+        WarmUpReply reply = new WarmUpReply(ch, deferred);
+        Event<REQ> warmUpEvent = Event.wrap(probeRequest());
+        warmUpEvent.setReplyTo(reply);
+        ch.writeAndFlush(warmUpEvent);
+        ch.eventLoop().schedule(reply, warmUpTimeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Completes the connect attempt with the warm-up reply or its timeout, whichever comes first. Both are called on
+     * the event loop of the channel.
+     */
+    private final class WarmUpReply implements Consumer<Object>, Runnable {
+
+        private final Channel ch;
+        private final Deferred<EndpointState, Promise<EndpointState>> deferred;
+        private boolean done;
+
+        WarmUpReply(final Channel ch, final Deferred<EndpointState, Promise<EndpointState>> deferred) {
+            this.ch = ch;
+            this.deferred = deferred;
+        }
+
+        @Override
+        public void accept(final Object response) {
+            if (done) {
+                return;
+            }
+            done = true;
+            if (response instanceof Throwable) {
+                ch.close();
+                connectFailed(ch, (Throwable) response, deferred);
+            } else {
+                connected(ch, deferred);
+            }
+        }
+
+        @Override
+        public void run() {
+            if (done) {
+                return;
+            }
+            done = true;
+            ch.close();
+            String message = "Warm-up of Endpoint " + ch.remoteAddress() + " not answered within "
+                + TimeUnit.NANOSECONDS.toMillis(warmUpTimeoutNanos) + "ms";
+            connectFailed(ch, new TimeoutException(message), deferred);
+        }
+    }
+
+    /**
+     * Complete a connect attempt once the channel is connected and the handshake succeeded.
+     *
+     * @param ch the connected channel.
+     * @param deferred the deferred to complete with the outcome, may be null.
+     */
+    private void connected(final Channel ch, final Deferred<EndpointState, Promise<EndpointState>> deferred) {
+        channel = ch;
+        failedAttempts = 0;
+        transitionState(EndpointState.CONNECTED);
+        addRetryListener(ch);
+        CircuitBreaker breaker = circuitBreaker;
+        if (breaker != null && breaker.state() == CircuitBreaker.State.OPEN) {
+            scheduleProbe(breaker);
+        }
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Successfully connected Endpoint to: " + ch.remoteAddress());
+        }
+        if (deferred != null) {
+            deferred.accept(state);
+        }
+    }
+
+    /**
+     * Fail a connect attempt and schedule the next one after the backoff delay.
+     *
+     * An {@link AuthenticationException} means the server rejected the credentials, which retrying does not change,
+     * so the endpoint gives up and ends in {@link EndpointState#DISCONNECTED} until connected again explicitly.
+     *
+     * @param ch the channel of the failed attempt.
+     * @param cause the reason why the connect or the handshake failed.
+     * @param deferred the deferred to complete with the outcome, may be null.
+     */
+    private void connectFailed(final Channel ch, final Throwable cause,
+        final Deferred<EndpointState, Promise<EndpointState>> deferred) {
+        channel = null;
+        if (cause instanceof AuthenticationException) {
+            LOGGER.warn("Could not authenticate against Endpoint, giving up until connected again.", cause);
+            shouldRetry = false;
+            transitionState(EndpointState.DISCONNECTED);
+            if (deferred != null) {
                 deferred.accept(state);
             }
+            return;
+        }
+
+        transitionState(EndpointState.RECONNECTING);
+        long nextReconnectDelay = nextReconnectDelay();
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Could not connect to Endpoint, retrying with delay: " + nextReconnectDelay, cause);
+        }
+
+        ch.eventLoop().schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (shouldRetry) {
+                    reconnect();
+                }
+            }
+        }, nextReconnectDelay, TimeUnit.MILLISECONDS);
+        if (deferred != null) {
+            deferred.accept(state);
+        }
+    }
+
+    /**
+     * Perform the protocol level handshake (like authentication) on a freshly connected and, if TLS is enabled,
+     * encrypted channel.
+     *
+     * The endpoint only becomes {@link EndpointState#CONNECTED} once the returned future succeeds. If it fails, the
+     * channel is closed and the connect attempt is retried like a failed TCP connect, unless it failed with an
+     * {@link AuthenticationException}. The default implementation has nothing to negotiate and succeeds immediately.
+     *
+     * @param ch the freshly connected channel.
+     * @return the future completed once the handshake is done.
+     */
+    protected Future<Void> handshake(final Channel ch) {
+        return ch.newSucceededFuture();
+    }
+
+    /**
+     * Adds a listener to reconnect if the given channel gets closed while it is still the current one.
+     *
+     * @param ch the freshly connected channel.
+     */
+    private void addRetryListener(final Channel ch) {
+        ch.closeFuture().addListener(new GenericFutureListener<Future<Void>>() {
+            @Override
+            public void operationComplete(Future<Void> future) throws Exception {
+                if (shouldRetry && channel == ch && state == EndpointState.CONNECTED) {
+                    LOGGER.debug("Channel to Endpoint " + ch.remoteAddress() + " closed, reconnecting.");
+                    transitionState(EndpointState.RECONNECTING);
+                    reconnect();
+                }
+            }
         });
-        addRetryListener();
-        return deferred.compose();
     }
 
     /**
-     * Adds a listener to retry if the underlying channel gets closed.
+     * Send a keepalive on an idle channel and close it if the reply does not arrive in time.
+     *
+     * Closing triggers the regular reconnect, so a silently dead socket is replaced before a real request hits it.
+     * Only one keepalive is outstanding at a time, the idle handler keeps firing while nothing is read.
+     *
+     * @param ch the idle channel.
      */
-    private void addRetryListener() {
-        if (state == EndpointState.CONNECTED) {
-            channel.closeFuture().addListener(new GenericFutureListener<Future<Void>>() {
-                @Override
-                public void operationComplete(Future<Void> future) throws Exception {
-                    if (shouldRetry) {
-                        connect();
-                    }
+    private void sendKeepAlive(final Channel ch) {
+        REQ keepAliveRequest = probeRequest();
+        if (keepAliveRequest == null || ch != channel || !isConnected() || keepAlivePending) {
+            return;
+        }
+
+        keepAlivePending = true;
+        final long timeout = keepAliveTimeoutNanos;
+        final KeepAliveReply reply = new KeepAliveReply();
+        Event<REQ> keepAliveEvent = Event.wrap(keepAliveRequest);
+        keepAliveEvent.setReplyTo(reply);
+        ch.writeAndFlush(keepAliveEvent);
+        ch.eventLoop().schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (!reply.received) {
+                    LOGGER.warn("Keepalive to Endpoint " + ch.remoteAddress() + " not answered within "
+                        + TimeUnit.NANOSECONDS.toMillis(timeout) + "ms, closing the connection.");
+                    keepAlivePending = false;
+                    ch.close();
                 }
-            });
+            }
+        }, timeout, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Marks a keepalive as answered, called on the event loop like the timeout check.
+     */
+    private final class KeepAliveReply implements Consumer<Object> {
+
+        private boolean received;
+
+        @Override
+        public void accept(final Object response) {
+            received = true;
+            keepAlivePending = false;
         }
     }
 
     @Override
     public Promise<EndpointState> disconnect() {
+        return disconnect(0, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public Promise<EndpointState> disconnect(final long timeout, final TimeUnit unit) {
         shouldRetry = false;
+        if (pin != null && pinned.compareAndSet(true, false)) {
+            pin.topology().release(pin);
+        }
         if (state != EndpointState.CONNECTED) {
             if (state == EndpointState.CONNECTING || state == EndpointState.RECONNECTING) {
                 transitionState(EndpointState.DISCONNECTED);
             }
 
-            return Promises.success(state).get();
+            return COMPLETED_STATES.get(state);
         }
 
         transitionState(EndpointState.DISCONNECTING);
 
         final Deferred<EndpointState, Promise<EndpointState>> deferred = Promises.defer(env, defaultPromiseEnv);
-        channel.disconnect().addListener(new ChannelFutureListener() {
+        final Channel ch = channel;
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        // Runs behind the writes already handed to the event loop, so they are counted as outstanding.
+        Runnable drain = new Runnable() {
+            @Override
+            public void run() {
+                GenericEndpointHandler<REQ, RES> current = handler;
+                if (current == null || current.outstanding() == 0 || System.nanoTime() - deadline >= 0) {
+                    closeChannel(ch, deferred);
+                } else {
+                    ch.eventLoop().schedule(this, DRAIN_POLL_MICROS, TimeUnit.MICROSECONDS);
+                }
+            }
+        };
+        if (ch.eventLoop().inEventLoop()) {
+            drain.run();
+        } else {
+            ch.eventLoop().execute(drain);
+        }
+        return deferred.compose();
+    }
+
+    /**
+     * Disconnect the drained channel, the requests still outstanding fail once it is inactive.
+     */
+    private void closeChannel(final Channel ch, final Deferred<EndpointState, Promise<EndpointState>> deferred) {
+        final int cancelled = handler == null ? 0 : handler.outstanding();
+        ch.disconnect().addListener(new ChannelFutureListener() {
             @Override
             public void operationComplete(final ChannelFuture future) throws Exception {
                 transitionState(EndpointState.DISCONNECTED);
                 deferred.accept(state);
                 if (future.isSuccess()) {
-                    LOGGER.debug("Successfully disconnected Endpoint from: " + channel.remoteAddress());
+                    LOGGER.debug("Successfully disconnected Endpoint from: " + ch.remoteAddress());
                 } else {
                     LOGGER.error("Detected error during Endpoint disconnect phase from: "
-                        + channel.remoteAddress(), future.cause());
+                        + ch.remoteAddress(), future.cause());
+                }
+                if (cancelled > 0) {
+                    LOGGER.warn("Cancelled " + cancelled + " outstanding requests on disconnect from: "
+                        + ch.remoteAddress());
+                }
+                if (channel == ch) {
+                    channel = null;
                 }
-                channel = null;
             }
         });
-        return deferred.compose();
     }
 
     @Override
     public Promise<RES> sendAndReceive(final Event<? extends REQ> requestEvent) throws EndpointNotConnectedException {
+        return sendAndReceive(requestEvent, defaultReplyDispatch);
+    }
+
+    @Override
+    public Promise<RES> sendAndReceive(final Event<? extends REQ> requestEvent, final ReplyDispatch dispatch)
+        throws EndpointNotConnectedException {
+        return sendAndReceive(requestEvent, dispatch, RequestPriority.NORMAL);
+    }
+
+    @Override
+    public Promise<RES> sendAndReceive(final Event<? extends REQ> requestEvent, final ReplyDispatch dispatch,
+        final RequestPriority priority) throws EndpointNotConnectedException {
         if (!isConnected()) {
             throw NOT_CONNECTED_EXCEPTION;
         }
 
-        final Deferred<RES, Promise<RES>> deferred = Promises.defer(env, Environment.RING_BUFFER);
-        requestEvent.setReplyTo(deferred);
-        channel.write(requestEvent);
-        return deferred.compose();
+        final ReplyDispatch replyDispatch = dispatch == null ? defaultReplyDispatch : dispatch;
+        final Deferred<RES, Promise<RES>> deferred;
+        final Object reply;
+        switch (replyDispatch.mode()) {
+            case IO_THREAD:
+                deferred = Promises.defer(env, SYNCHRONOUS_DISPATCHER);
+                reply = deferred;
+                break;
+            case EXECUTOR:
+                deferred = Promises.defer(env, SYNCHRONOUS_DISPATCHER);
+                reply = new ReplyDispatch.ExecutorReply<RES>(replyDispatch.executor(), deferred);
+                break;
+            default:
+                deferred = Promises.defer(env, Environment.RING_BUFFER);
+                reply = deferred;
+        }
+
+        Span span = write(requestEvent, reply, priority, false);
+        Promise<RES> promise = deferred.compose();
+        if (span != null) {
+            promise.onComplete(span.<RES>completion());
+        }
+        return promise;
+    }
+
+    @Override
+    public void send(final Event<? extends REQ> requestEvent, final Consumer<Object> reply,
+        final RequestPriority priority) throws EndpointNotConnectedException {
+        if (!isConnected()) {
+            throw NOT_CONNECTED_EXCEPTION;
+        }
+        write(requestEvent, reply, priority, true);
+    }
+
+    /**
+     * Let the request pass the {@link CircuitBreaker} and write it with the given reply.
+     *
+     * @return the span tracing the request, null if not traced.
+     */
+    private Span write(final Event<? extends REQ> requestEvent, final Object reply, final RequestPriority priority,
+        final boolean callback) {
+        final Channel ch = channel;
+        final CircuitBreaker breaker = circuitBreaker;
+        long sentAt = 0;
+        boolean probe = false;
+        if (breaker != null) {
+            sentAt = System.nanoTime();
+            if (!breaker.allowRequest(sentAt)) {
+                if (!breaker.tryHalfOpen(sentAt)) {
+                    throw CIRCUIT_OPEN_EXCEPTION;
+                }
+                REQ probeRequest = probeRequest();
+                if (probeRequest != null) {
+                    sendProbe(ch, breaker, probeRequest, sentAt);
+                    throw CIRCUIT_OPEN_EXCEPTION;
+                }
+                probe = true;
+            }
+        }
+
+        if (pin != null) {
+            pin.recordOperations(1);
+        }
+
+        final Tracer currentTracer = tracer;
+        final Span span = currentTracer == null ? null : currentTracer.start(requestEvent.getData(), ch.remoteAddress());
+
+        requestEvent.setReplyTo(reply);
+        if (breaker != null) {
+            CircuitBreakerReply breakerReply = new CircuitBreakerReply(breaker, requestEvent.getReplyTo(), sentAt,
+                probe);
+            requestEvent.setReplyTo(breakerReply);
+            if (probe) {
+                ch.eventLoop().schedule(breakerReply, breaker.requestTimeoutNanos(), TimeUnit.NANOSECONDS);
+            } else {
+                breaker.onSend(sentAt);
+            }
+        }
+
+        if (span == null) {
+            ch.write(PriorityLanes.prioritize(requestEvent, priority));
+            return null;
+        }
+
+        requestEvent.setReplyTo(callback ? span.wrapCallback(requestEvent.getReplyTo())
+            : span.wrapReply(requestEvent.getReplyTo()));
+        ch.write(PriorityLanes.prioritize(requestEvent, priority)).addListener(span);
+        return span;
+    }
+
+    /**
+     * Send the half-open probe on behalf of the {@link CircuitBreaker}, its reply is only reported to the breaker.
+     */
+    private void sendProbe(final Channel ch, final CircuitBreaker breaker, final REQ probeRequest, final long now) {
+        LOGGER.debug("Probing Endpoint " + ch.remoteAddress() + " with half-open circuit breaker.");
+        Event<REQ> probeEvent = Event.wrap(probeRequest);
+        CircuitBreakerReply probeReply = new CircuitBreakerReply(breaker, null, now, true);
+        probeEvent.setReplyTo(probeReply);
+        ch.write(probeEvent);
+        ch.eventLoop().schedule(probeReply, breaker.requestTimeoutNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * The lightweight request sent to probe a half-open {@link CircuitBreaker} and to keep idle connections alive.
+     *
+     * If null (the default), the next regular request is let through as the circuit breaker probe instead and no
+     * keepalive is sent.
+     *
+     * @return the probe request or null.
+     */
+    protected REQ probeRequest() {
+        return null;
+    }
+
+    /**
+     * Send a keepalive once the connection did not read anything for the given idle time and reconnect if it is not
+     * answered within the timeout. Needs to be set before connecting, an idle time of 0 disables it.
+     *
+     * @param idle the idle time after which a keepalive is sent.
+     * @param timeout how long to wait for the keepalive reply.
+     * @param unit the unit of idle time and timeout.
+     */
+    public void setKeepAlive(final long idle, final long timeout, final TimeUnit unit) {
+        keepAliveIdleNanos = unit.toNanos(idle);
+        keepAliveTimeoutNanos = unit.toNanos(timeout);
+    }
+
+    /**
+     * Attach a {@link CircuitBreaker} to this endpoint, or detach it with null.
+     *
+     * @param circuitBreaker the circuit breaker to use, exclusively for this endpoint.
+     */
+    public void setCircuitBreaker(final CircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+        if (circuitBreaker != null) {
+            circuitBreaker.setListener(new CircuitBreaker.Listener() {
+                @Override
+                public void onOpen(final CircuitBreaker breaker) {
+                    LOGGER.warn("Circuit breaker of Endpoint " + channel + " opened: " + breaker);
+                    scheduleProbe(breaker);
+                }
+            });
+        }
+    }
+
+    /**
+     * Schedule the half-open probe for when the open duration of the breaker passed.
+     *
+     * Without a channel there is nothing to probe, connecting schedules it again.
+     */
+    private void scheduleProbe(final CircuitBreaker breaker) {
+        Channel ch = channel;
+        if (ch == null) {
+            return;
+        }
+
+        ch.eventLoop().schedule(new Runnable() {
+            @Override
+            public void run() {
+                REQ probeRequest = probeRequest();
+                Channel current = channel;
+                if (probeRequest == null || current == null || !isConnected() || breaker != circuitBreaker) {
+                    return;
+                }
+
+                long now = System.nanoTime();
+                if (breaker.remainingOpenNanos(now) > 0) {
+                    scheduleProbe(breaker);
+                } else if (breaker.tryHalfOpen(now)) {
+                    sendProbe(current, breaker, probeRequest, now);
+                }
+            }
+        }, breaker.remainingOpenNanos(System.nanoTime()), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Set where replies are delivered when no {@link ReplyDispatch} is given on send.
+     *
+     * @param dispatch the default reply dispatch.
+     */
+    public void setDefaultReplyDispatch(final ReplyDispatch dispatch) {
+        if (dispatch == null) {
+            throw new IllegalArgumentException("The ReplyDispatch must not be null.");
+        }
+        defaultReplyDispatch = dispatch;
+    }
+
+    /**
+     * Encrypt connections opened afterwards with TLS, or send plaintext again with null.
+     *
+     * Share one factory between all endpoints talking to the same cluster, so that a reconnecting endpoint can
+     * resume the TLS session of an earlier connection instead of running a full handshake.
+     *
+     * @param ssl the factory for the TLS stage.
+     */
+    public void setSsl(final SslEngineFactory ssl) {
+        this.ssl = ssl;
+    }
+
+    /**
+     * Limit how long requests in the lower {@link RequestPriority} lanes wait for the higher lanes while the
+     * connection is backed up. Needs to be set before connecting, 0 never holds them back.
+     *
+     * @param guard the maximum time to wait.
+     * @param unit the unit of the guard.
+     */
+    public void setStarvationGuard(final long guard, final TimeUnit unit) {
+        starvationGuardNanos = unit.toNanos(guard);
+    }
+
+    /**
+     * Send the {@link #probeRequest()} on every fresh connection and only report the endpoint connected once it is
+     * answered, or retry the connection if it is not answered within the timeout. A timeout of 0 (the default)
+     * disables the warm-up, as does an endpoint without a probe request.
+     *
+     * @param timeout how long to wait for the warm-up reply.
+     * @param unit the unit of the timeout.
+     */
+    public void setWarmUp(final long timeout, final TimeUnit unit) {
+        warmUpTimeoutNanos = unit.toNanos(timeout);
+    }
+
+    /**
+     * Attach a {@link Tracer} to this endpoint, or detach it with null.
+     *
+     * Set it before connecting to get separate wire and decode timings, otherwise both are reported as wire time.
+     *
+     * @param tracer the tracer to use.
+     */
+    public void setTracer(final Tracer tracer) {
+        this.tracer = tracer;
+        GenericEndpointHandler<REQ, RES> current = handler;
+        if (current != null) {
+            current.setTracer(tracer);
+        }
     }
 
     @Override
@@ -273,7 +941,71 @@ public abstract class AbstractEndpoint<REQ, RES> implements Endpoint<REQ, RES> {
 
     @Override
     public Stream<EndpointState> stateStream() {
-        return endpointStateStream;
+        Deferred<EndpointState, Stream<EndpointState>> deferred = endpointStateDeferred;
+        if (deferred == null) {
+            synchronized (this) {
+                deferred = endpointStateDeferred;
+                if (deferred == null) {
+                    deferred = Streams.defer(env, defaultPromiseEnv);
+                    endpointStateDeferred = deferred;
+                }
+            }
+        }
+        return deferred.compose();
+    }
+
+    @Override
+    public void addStateListener(final EndpointStateListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("The EndpointStateListener must not be null.");
+        }
+
+        synchronized (this) {
+            EndpointStateListener[] current = stateListeners;
+            EndpointStateListener[] updated = new EndpointStateListener[current.length + 1];
+            System.arraycopy(current, 0, updated, 0, current.length);
+            updated[current.length] = listener;
+            stateListeners = updated;
+        }
+    }
+
+    @Override
+    public void removeStateListener(final EndpointStateListener listener) {
+        synchronized (this) {
+            EndpointStateListener[] current = stateListeners;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i] == listener) {
+                    if (current.length == 1) {
+                        stateListeners = NO_LISTENERS;
+                    } else {
+                        EndpointStateListener[] updated = new EndpointStateListener[current.length - 1];
+                        System.arraycopy(current, 0, updated, 0, i);
+                        System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                        stateListeners = updated;
+                    }
+                    return;
+                }
+            }
+        }
+    }
+
+    @Override
+    public LatencyTracker latency() {
+        return latency;
+    }
+
+    @Override
+    public int outstanding() {
+        GenericEndpointHandler<REQ, RES> current = handler;
+        boolean open = state == EndpointState.CONNECTED || state == EndpointState.DISCONNECTING;
+        return current == null || !open ? 0 : current.outstanding();
+    }
+
+    @Override
+    public long queueDelayNanos() {
+        GenericEndpointHandler<REQ, RES> current = handler;
+        boolean open = state == EndpointState.CONNECTED || state == EndpointState.DISCONNECTING;
+        return current == null || !open ? 0 : current.queueDelayNanos();
     }
 
     @Override
@@ -281,29 +1013,64 @@ public abstract class AbstractEndpoint<REQ, RES> implements Endpoint<REQ, RES> {
         return state == EndpointState.CONNECTED;
     }
 
+    @Override
+    public boolean isWritable() {
+        Channel ch = channel;
+        CircuitBreaker breaker = circuitBreaker;
+        return isConnected() && ch != null && ch.isWritable()
+            && (breaker == null || breaker.state() == CircuitBreaker.State.CLOSED);
+    }
+
     /**
-     * Transition the {@link EndpointState} and notify the stream.
+     * Transition the {@link EndpointState} and notify the listeners and the stream.
+     *
+     * Listeners are called on the current thread (most of the time the event loop), the stream only gets
+     * populated if it has been requested through {@link #stateStream()}.
      *
      * @param newState the new state to apply.
      */
     private void transitionState(final EndpointState newState) {
-        if (state != newState) {
+        EndpointState oldState = state;
+        if (oldState != newState) {
             if (LOGGER.isDebugEnabled()) {
-                LOGGER.debug("Transitioning Endpoint from " + state + " into " + newState);
+                LOGGER.debug("Transitioning Endpoint from " + oldState + " into " + newState);
             }
             state = newState;
-            endpointStateDeferred.accept(newState);
+
+            EndpointStateListener[] listeners = stateListeners;
+            for (int i = 0; i < listeners.length; i++) {
+                try {
+                    listeners[i].onStateChange(this, oldState, newState);
+                } catch (Exception ex) {
+                    LOGGER.warn("EndpointStateListener threw an exception on " + newState, ex);
+                }
+            }
+
+            Deferred<EndpointState, Stream<EndpointState>> deferred = endpointStateDeferred;
+            if (deferred != null) {
+                deferred.accept(newState);
+            }
         }
     }
 
     /**
-     * Calculates the next reconnect delay in Miliseconds.
-     *
-     * TODO: add configurable backoff delay
+     * Calculates the delay before the next connect attempt in milliseconds and counts the failed attempt.
      *
-     * @return the reconnect delay based on a strategy.
+     * @return the reconnect delay.
      */
     private long nextReconnectDelay() {
-        return 0;
+        return reconnectDelay(failedAttempts++);
+    }
+
+    /**
+     * Calculates the delay before a connect attempt in milliseconds, an exponential backoff starting at 10
+     * milliseconds and capped at 5 seconds.
+     *
+     * @param failedAttempts the number of connect attempts which failed in a row before this one.
+     * @return the reconnect delay.
+     */
+    static long reconnectDelay(final int failedAttempts) {
+        long delay = RECONNECT_INITIAL_DELAY_MILLIS << Math.min(failedAttempts, 20);
+        return Math.min(RECONNECT_MAX_DELAY_MILLIS, delay);
     }
 }
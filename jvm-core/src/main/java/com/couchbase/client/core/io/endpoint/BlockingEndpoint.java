@@ -0,0 +1,116 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.client.core.io.endpoint;
+
+import com.couchbase.client.core.util.Blocking;
+import reactor.event.Event;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A blocking facade over an {@link Endpoint}, meant for thread-per-request code (including virtual threads).
+ *
+ * Replies are completed on the IO thread which directly unparks the calling thread, so there is no additional thread
+ * hop between the response being decoded and the caller continuing.
+ */
+public class BlockingEndpoint<REQ, RES> {
+
+    /**
+     * The wrapped endpoint.
+     */
+    private final Endpoint<REQ, RES> endpoint;
+
+    /**
+     * The timeout applied to every operation.
+     */
+    private final long timeout;
+
+    /**
+     * The unit of the timeout.
+     */
+    private final TimeUnit timeUnit;
+
+    /**
+     * Create a new {@link BlockingEndpoint}.
+     *
+     * @param endpoint the endpoint to wrap.
+     * @param timeout the timeout applied to every operation.
+     * @param timeUnit the unit of the timeout.
+     */
+    public BlockingEndpoint(final Endpoint<REQ, RES> endpoint, final long timeout, final TimeUnit timeUnit) {
+        this.endpoint = endpoint;
+        this.timeout = timeout;
+        this.timeUnit = timeUnit;
+    }
+
+    /**
+     * Connect the endpoint and wait for the outcome.
+     *
+     * @return the state after the connect attempt.
+     */
+    public EndpointState connect() {
+        return Blocking.await(endpoint.connect(), timeout, timeUnit);
+    }
+
+    /**
+     * Disconnect the endpoint and wait for the outcome.
+     *
+     * @return the state after the disconnect attempt.
+     */
+    public EndpointState disconnect() {
+        return Blocking.await(endpoint.disconnect(), timeout, timeUnit);
+    }
+
+    /**
+     * Send the request and wait for the response.
+     *
+     * @param request the request to send.
+     * @return the response.
+     * @throws EndpointNotConnectedException if currently not connected.
+     */
+    public RES send(final REQ request) {
+        return send(request, timeout, timeUnit);
+    }
+
+    /**
+     * Send the request and wait for the response with a custom timeout.
+     *
+     * @param request the request to send.
+     * @param timeout the maximum time to wait.
+     * @param timeUnit the unit of the timeout.
+     * @return the response.
+     * @throws EndpointNotConnectedException if currently not connected.
+     */
+    public RES send(final REQ request, final long timeout, final TimeUnit timeUnit) {
+        return Blocking.await(endpoint.sendAndReceive(Event.wrap(request), ReplyDispatch.IO_THREAD), timeout,
+            timeUnit);
+    }
+
+    /**
+     * Returns the wrapped {@link Endpoint}.
+     *
+     * @return the async endpoint.
+     */
+    public Endpoint<REQ, RES> async() {
+        return endpoint;
+    }
+}
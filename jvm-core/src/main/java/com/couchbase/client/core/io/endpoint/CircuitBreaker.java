@@ -0,0 +1,261 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.client.core.io.endpoint;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tracks the failure rate of a single {@link Endpoint} and stops traffic to it while it is unhealthy.
+ *
+ * A request counts as failed if its reply is an exception or if it took longer than the request timeout. If requests
+ * are outstanding and no reply arrived for longer than the request timeout, the endpoint is considered stalled and
+ * the breaker opens right away. Otherwise it opens once the window holds at least the minimum number of requests and
+ * the failure percentage is reached.
+ *
+ * While open, all requests are rejected. After the open duration, the breaker goes half-open and the endpoint sends a
+ * single probe: success closes the breaker, failure or timeout opens it again. Endpoints without a dedicated probe
+ * request let the next regular request through as the probe instead.
+ *
+ * All methods are lock-free and meant to be called from the endpoint with a {@link System#nanoTime()} timestamp.
+ */
+public class CircuitBreaker {
+
+    /**
+     * Notified when a {@link CircuitBreaker} opens, used by the endpoint to schedule its probe.
+     */
+    public interface Listener {
+
+        /**
+         * Called on the thread which opened the breaker.
+         *
+         * @param breaker the breaker which opened.
+         */
+        void onOpen(CircuitBreaker breaker);
+    }
+
+    /**
+     * The states of a {@link CircuitBreaker}.
+     */
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int minimumRequests;
+    private final int failurePercentage;
+    private final long windowNanos;
+    private final long openNanos;
+    private final long requestTimeoutNanos;
+
+    /**
+     * The shared status of every closed breaker.
+     */
+    private static final Status CLOSED = new Status(State.CLOSED, 0);
+
+    private final AtomicReference<Status> status = new AtomicReference<Status>(CLOSED);
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger failures = new AtomicInteger();
+    private final AtomicLong windowStart = new AtomicLong(System.nanoTime());
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile long lastProgress = System.nanoTime();
+    private volatile Listener listener;
+
+    /**
+     * Create a new {@link CircuitBreaker}.
+     *
+     * @param minimumRequests the number of requests needed in a window before the failure rate is considered.
+     * @param failurePercentage the percentage of failed requests in a window which opens the breaker.
+     * @param window the length of the window.
+     * @param openDuration how long the breaker stays open before probing.
+     * @param requestTimeout after which a reply counts as failed and an endpoint without replies as stalled.
+     * @param unit the unit of the durations.
+     */
+    public CircuitBreaker(final int minimumRequests, final int failurePercentage, final long window,
+        final long openDuration, final long requestTimeout, final TimeUnit unit) {
+        if (failurePercentage <= 0 || failurePercentage > 100) {
+            throw new IllegalArgumentException("The failure percentage needs to be between 1 and 100.");
+        }
+        this.minimumRequests = minimumRequests;
+        this.failurePercentage = failurePercentage;
+        this.windowNanos = unit.toNanos(window);
+        this.openNanos = unit.toNanos(openDuration);
+        this.requestTimeoutNanos = unit.toNanos(requestTimeout);
+    }
+
+    /**
+     * Returns the current {@link State}.
+     *
+     * @return the current state.
+     */
+    public State state() {
+        return status.get().state;
+    }
+
+    /**
+     * Set the {@link Listener} notified when the breaker opens.
+     *
+     * @param listener the listener.
+     */
+    public void setListener(final Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Returns how long the breaker stays open before it can be probed.
+     *
+     * @param now the current time.
+     * @return the remaining nanoseconds, 0 if it can be probed or is not open.
+     */
+    public long remainingOpenNanos(final long now) {
+        Status current = status.get();
+        return current.state == State.OPEN ? Math.max(0, current.openUntil - now) : 0;
+    }
+
+    /**
+     * The request timeout, also used to time out probes.
+     *
+     * @return the request timeout in nanoseconds.
+     */
+    public long requestTimeoutNanos() {
+        return requestTimeoutNanos;
+    }
+
+    /**
+     * Check if a request may be sent, opens the breaker if the endpoint stalled.
+     *
+     * @param now the current time.
+     * @return true if the request may be sent.
+     */
+    public boolean allowRequest(final long now) {
+        if (status.get() != CLOSED) {
+            return false;
+        }
+        if (inFlight.get() > 0 && now - lastProgress > requestTimeoutNanos) {
+            trip(CLOSED, now);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Move from open to half-open if the open duration passed.
+     *
+     * @param now the current time.
+     * @return true if the caller is now responsible for sending the single probe.
+     */
+    public boolean tryHalfOpen(final long now) {
+        Status current = status.get();
+        return current.state == State.OPEN && now - current.openUntil >= 0
+            && status.compareAndSet(current, new Status(State.HALF_OPEN, 0));
+    }
+
+    /**
+     * Record that a request has been sent.
+     *
+     * @param now the current time.
+     */
+    public void onSend(final long now) {
+        if (inFlight.getAndIncrement() <= 0) {
+            lastProgress = now;
+        }
+    }
+
+    /**
+     * Record the reply of a request sent while closed.
+     *
+     * @param sentAt when the request has been sent.
+     * @param now the current time.
+     * @param failed if the reply was an error.
+     */
+    public void onReply(final long sentAt, final long now, final boolean failed) {
+        inFlight.decrementAndGet();
+        lastProgress = now;
+
+        long start = windowStart.get();
+        if (now - start > windowNanos && windowStart.compareAndSet(start, now)) {
+            requests.set(0);
+            failures.set(0);
+        }
+
+        int total = requests.incrementAndGet();
+        int failedTotal = (failed || now - sentAt > requestTimeoutNanos) ? failures.incrementAndGet() : failures.get();
+        if (total >= minimumRequests && failedTotal * 100L >= (long) failurePercentage * total) {
+            trip(CLOSED, now);
+        }
+    }
+
+    /**
+     * Record the outcome of the probe sent while half-open.
+     *
+     * @param success if the probe succeeded in time.
+     * @param now the current time.
+     */
+    public void onProbeResult(final boolean success, final long now) {
+        Status current = status.get();
+        if (current.state != State.HALF_OPEN) {
+            return;
+        }
+
+        if (success) {
+            requests.set(0);
+            failures.set(0);
+            windowStart.set(now);
+            // replies of requests sent before the breaker opened may never arrive
+            inFlight.set(0);
+            lastProgress = now;
+            status.compareAndSet(current, CLOSED);
+        } else {
+            trip(current, now);
+        }
+    }
+
+    private void trip(final Status expected, final long now) {
+        if (status.compareAndSet(expected, new Status(State.OPEN, now + openNanos))) {
+            Listener current = listener;
+            if (current != null) {
+                current.onOpen(this);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CircuitBreaker{state=" + state() + ", requests=" + requests.get() + ", failures="
+            + failures.get() + ", inFlight=" + inFlight.get() + '}';
+    }
+
+    /**
+     * Immutable state and reopen time, swapped as a whole so both are always consistent.
+     */
+    private static final class Status {
+
+        private final State state;
+        private final long openUntil;
+
+        Status(final State state, final long openUntil) {
+            this.state = state;
+            this.openUntil = openUntil;
+        }
+    }
+}
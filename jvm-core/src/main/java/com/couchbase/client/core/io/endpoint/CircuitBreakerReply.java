@@ -0,0 +1,103 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.client.core.io.endpoint;
+
+import com.couchbase.client.core.CouchbaseException;
+import com.couchbase.client.core.RequestCancelledException;
+import com.couchbase.client.core.RequestTimeoutException;
+import com.couchbase.client.core.TemporaryFailureException;
+import reactor.function.Consumer;
+
+/**
+ * Reports the outcome of a request to the {@link CircuitBreaker} before handing the reply on.
+ *
+ * Only replies which say something about the health of the node count as failures: transport errors, timeouts,
+ * cancellations and temporary failures. A status about the key itself, like a miss or a CAS conflict, is an answer
+ * from a healthy node and counts as a success.
+ *
+ * Probes also run as the timeout task on the event loop, which is the same thread that delivers the reply, so the
+ * first of both wins without further synchronization.
+ */
+final class CircuitBreakerReply implements Consumer<Object>, Runnable {
+
+    private final CircuitBreaker breaker;
+    private final Consumer<Object> reply;
+    private final long sentAt;
+    private final boolean probe;
+    private boolean done;
+
+    /**
+     * Create a new {@link CircuitBreakerReply}.
+     *
+     * @param breaker the breaker to report to.
+     * @param reply the original reply consumer, null for internal probes.
+     * @param sentAt when the request has been sent.
+     * @param probe if the request is the half-open probe.
+     */
+    @SuppressWarnings("unchecked")
+    CircuitBreakerReply(final CircuitBreaker breaker, final Object reply, final long sentAt, final boolean probe) {
+        this.breaker = breaker;
+        this.reply = (Consumer<Object>) reply;
+        this.sentAt = sentAt;
+        this.probe = probe;
+    }
+
+    @Override
+    public void accept(final Object response) {
+        long now = System.nanoTime();
+        boolean failed = isFailure(response);
+        if (!probe) {
+            breaker.onReply(sentAt, now, failed);
+        } else if (!done) {
+            done = true;
+            breaker.onProbeResult(!failed && now - sentAt <= breaker.requestTimeoutNanos(), now);
+        }
+
+        if (reply != null) {
+            ReplyDispatch.deliver(reply, response);
+        }
+    }
+
+    /**
+     * Returns if the reply counts as a failure of the node.
+     *
+     * @param response the reply of the request.
+     * @return true for transport errors, timeouts, cancellations and temporary failures.
+     */
+    static boolean isFailure(final Object response) {
+        if (!(response instanceof Throwable)) {
+            return false;
+        }
+        return !(response instanceof CouchbaseException)
+            || response instanceof RequestTimeoutException
+            || response instanceof RequestCancelledException
+            || response instanceof TemporaryFailureException;
+    }
+
+    @Override
+    public void run() {
+        if (!done) {
+            done = true;
+            breaker.onProbeResult(false, System.nanoTime());
+        }
+    }
+}
@@ -25,6 +25,9 @@ package com.couchbase.client.core.io.endpoint;
 import reactor.core.composable.Promise;
 import reactor.core.composable.Stream;
 import reactor.event.Event;
+import reactor.function.Consumer;
+
+import java.util.concurrent.TimeUnit;
 
 /**
  * A {@link Endpoint} that communicates with the IO layer.
@@ -49,6 +52,17 @@ public interface Endpoint<REQ, RES> {
      */
     Promise<EndpointState> disconnect();
 
+    /**
+     * Stop accepting requests and disconnect once the outstanding ones are answered.
+     *
+     * Requests still outstanding when the timeout passes are failed with a
+     * {@link com.couchbase.client.core.RequestCancelledException}.
+     *
+     * @param timeout how long to wait for the outstanding requests, 0 to fail them right away.
+     * @param unit the unit of the timeout.
+     * @return the state once disconnected.
+     */
+    Promise<EndpointState> disconnect(long timeout, TimeUnit unit);
 
     /**
      * Attempt to send the request and receive a response.
@@ -59,6 +73,46 @@ public interface Endpoint<REQ, RES> {
      */
     Promise<RES> sendAndReceive(Event<? extends REQ> requestEvent) throws EndpointNotConnectedException;
 
+    /**
+     * Attempt to send the request and receive a response, delivering the reply as defined by the
+     * {@link ReplyDispatch}.
+     *
+     * @param requestEvent the incoming request wrapped in an {@link Event}.
+     * @param dispatch where the reply should be delivered.
+     * @return the deferred response.
+     * @throws EndpointNotConnectedException if currently not connected.
+     */
+    Promise<RES> sendAndReceive(Event<? extends REQ> requestEvent, ReplyDispatch dispatch)
+        throws EndpointNotConnectedException;
+
+    /**
+     * Attempt to send the request with the given {@link RequestPriority} and receive a response, delivering the reply
+     * as defined by the {@link ReplyDispatch}.
+     *
+     * @param requestEvent the incoming request wrapped in an {@link Event}.
+     * @param dispatch where the reply should be delivered, null for the default of the endpoint.
+     * @param priority the lane the request waits in to be written.
+     * @return the deferred response.
+     * @throws EndpointNotConnectedException if currently not connected.
+     */
+    Promise<RES> sendAndReceive(Event<? extends REQ> requestEvent, ReplyDispatch dispatch, RequestPriority priority)
+        throws EndpointNotConnectedException;
+
+    /**
+     * Attempt to send the request and hand its reply to the given callback, without a promise in between.
+     *
+     * The callback is called on the IO thread with either the response or the {@link Throwable} the request failed
+     * with. Once it has been called, the endpoint holds no reference to the event anymore, so the caller may reuse
+     * the event and the callback for its next request.
+     *
+     * @param requestEvent the incoming request wrapped in an {@link Event}.
+     * @param reply the callback receiving the response or failure.
+     * @param priority the lane the request waits in to be written.
+     * @throws EndpointNotConnectedException if currently not connected.
+     */
+    void send(Event<? extends REQ> requestEvent, Consumer<Object> reply, RequestPriority priority)
+        throws EndpointNotConnectedException;
+
 
     /**
      * The current {@link EndpointState}.
@@ -73,6 +127,20 @@ public interface Endpoint<REQ, RES> {
      */
     Stream<EndpointState> stateStream();
 
+    /**
+     * Register a {@link EndpointStateListener} that is called synchronously on every {@link EndpointState} change.
+     *
+     * @param listener the listener to add.
+     */
+    void addStateListener(EndpointStateListener listener);
+
+    /**
+     * Remove a previously registered {@link EndpointStateListener}.
+     *
+     * @param listener the listener to remove.
+     */
+    void removeStateListener(EndpointStateListener listener);
+
     /**
      * Helper method to identify if this {@link Endpoint} is connected.
      *
@@ -80,4 +148,34 @@ public interface Endpoint<REQ, RES> {
      */
     boolean isConnected();
 
+    /**
+     * Helper method to identify if this {@link Endpoint} can currently accept writes without queueing up in memory.
+     *
+     * @return true if connected and the underlying channel is writable.
+     */
+    boolean isWritable();
+
+    /**
+     * Returns the {@link LatencyTracker} with the recent response latencies of this {@link Endpoint}.
+     *
+     * @return the latency tracker.
+     */
+    LatencyTracker latency();
+
+    /**
+     * Returns the number of requests sent through this {@link Endpoint} which are still waiting to be written or for
+     * their response.
+     *
+     * @return the outstanding requests, 0 if neither connected nor draining.
+     */
+    int outstanding();
+
+    /**
+     * Returns how long the oldest request sent through this {@link Endpoint} which has not been written yet has been
+     * waiting, which grows while the connection is backed up.
+     *
+     * @return the queueing delay in nanoseconds, 0 if no request is waiting or the endpoint is not connected.
+     */
+    long queueDelayNanos();
+
 }
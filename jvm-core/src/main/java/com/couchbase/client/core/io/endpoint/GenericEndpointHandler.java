@@ -22,18 +22,22 @@
 
 package com.couchbase.client.core.io.endpoint;
 
+import com.couchbase.client.core.RequestCancelledException;
+import com.couchbase.client.core.trace.Span;
+import com.couchbase.client.core.trace.Tracer;
 import io.netty.channel.ChannelHandlerAppender;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.EncoderException;
 import io.netty.handler.codec.MessageToMessageDecoder;
 import io.netty.handler.codec.MessageToMessageEncoder;
-import reactor.core.composable.Deferred;
-import reactor.core.composable.Promise;
+import io.netty.util.concurrent.ScheduledFuture;
 import reactor.event.Event;
 
+import java.nio.channels.ClosedChannelException;
 import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.List;
-import java.util.Queue;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -43,35 +47,206 @@ import java.util.concurrent.TimeUnit;
  * It also makes sure that proper error handling is triggered and the communication with the upper endpoint works
  * as expected by both parties. The actual codecs do only need to manage the actual messages, not the future completion
  * and so on.
+ *
+ * Requests are held in {@link PriorityLanes} until the periodic flush, which writes them out in priority order.
  */
 public class GenericEndpointHandler<REQ, RES> extends ChannelHandlerAppender {
 
-    private final Queue<Event<REQ>> queue = new ArrayDeque<Event<REQ>>();
+    private final Deque<Event<REQ>> queue = new ArrayDeque<Event<REQ>>();
+
+    /**
+     * The size of the queue, published for readers outside of the event loop.
+     */
+    private volatile int inFlight;
+
+    /**
+     * Read timestamps for traced requests, null if tracing was not enabled on connect.
+     */
+    private final ReadTimestampHandler readTimestamps;
+
+    /**
+     * Records the response latencies, null if not tracked.
+     */
+    private final LatencyTracker latency;
+
+    /**
+     * Reports the requests which were not traced from the start but turn out to be slow, null if none.
+     */
+    private volatile Tracer tracer;
+
+    /**
+     * Holds the requests until they are written.
+     */
+    private final PriorityLanes lanes;
+
+    /**
+     * Write timestamps and, while traced, the sizes of the outstanding requests, rings parallel to the queue.
+     */
+    private long[] writtenAt = new long[16];
+    private int[] writtenBytes = new int[16];
+    private int writtenHead;
+    private int writtenSize;
+    private int polledBytes;
+
+    /**
+     * The periodic flush of the channel, cancelled once the channel is closed.
+     */
+    private volatile ScheduledFuture<?> flushTask;
 
     public GenericEndpointHandler() {
-        add(new EventResponseDecoder(), new EventRequestEncoder());
+        this(null, null, PriorityLanes.DEFAULT_STARVATION_GUARD_NANOS);
+    }
+
+    GenericEndpointHandler(final ReadTimestampHandler readTimestamps, final LatencyTracker latency,
+        final long starvationGuardNanos) {
+        this.readTimestamps = readTimestamps;
+        this.latency = latency;
+        lanes = new PriorityLanes(starvationGuardNanos);
+        add(new EventResponseDecoder(), new EventRequestEncoder(), lanes);
+    }
+
+    /**
+     * Returns the number of requests which are waiting to be written or for their response.
+     *
+     * @return the outstanding requests.
+     */
+    int outstanding() {
+        return inFlight + lanes.pending();
+    }
+
+    /**
+     * Returns how long the oldest request in the priority lanes has been waiting to be written.
+     *
+     * @return the queueing delay in nanoseconds, 0 if no request is waiting.
+     */
+    long queueDelayNanos() {
+        long since = lanes.oldestPendingAt();
+        return since == 0 ? 0 : Math.max(0, System.nanoTime() - since);
+    }
+
+    /**
+     * Sets the tracer which gets the slow requests reported, or removes it with null.
+     */
+    void setTracer(final Tracer tracer) {
+        this.tracer = tracer;
+    }
+
+    private void pushWritten(final long timestamp, final int bytes) {
+        if (writtenSize == writtenAt.length) {
+            long[] grown = new long[writtenAt.length << 1];
+            int[] grownBytes = new int[writtenAt.length << 1];
+            for (int i = 0; i < writtenSize; i++) {
+                grown[i] = writtenAt[(writtenHead + i) & (writtenAt.length - 1)];
+                grownBytes[i] = writtenBytes[(writtenHead + i) & (writtenAt.length - 1)];
+            }
+            writtenAt = grown;
+            writtenBytes = grownBytes;
+            writtenHead = 0;
+        }
+        int index = (writtenHead + writtenSize++) & (writtenAt.length - 1);
+        writtenAt[index] = timestamp;
+        writtenBytes[index] = bytes;
+    }
+
+    /**
+     * Take the write timestamp of the oldest request, its size is left in {@link #polledBytes}.
+     */
+    private long pollWritten() {
+        if (writtenSize == 0) {
+            return 0;
+        }
+        long timestamp = writtenAt[writtenHead];
+        polledBytes = writtenBytes[writtenHead];
+        writtenHead = (writtenHead + 1) & (writtenAt.length - 1);
+        writtenSize--;
+        return timestamp;
     }
 
     @Override
     public void handlerAdded(final ChannelHandlerContext ctx) throws Exception {
         super.handlerAdded(ctx);
 
-        ctx.channel().eventLoop().scheduleAtFixedRate(new Runnable() {
+        // The handler is added before the channel connects. A flush reaching the SslHandler that early starts the
+        // TLS handshake on a channel which can not write yet, and the hello is lost. The flush starts at the tail
+        // of the pipeline so the priority lanes are drained first.
+        flushTask = ctx.channel().eventLoop().scheduleAtFixedRate(new Runnable() {
             @Override
             public void run() {
-                ctx.flush();
+                if (ctx.channel().isActive()) {
+                    ctx.channel().flush();
+                } else if (!ctx.channel().isOpen()) {
+                    // A channel which never connected does not see channelInactive.
+                    cancelFlush();
+                }
             }
         }, 0, 75, TimeUnit.MICROSECONDS);
     }
 
+    /**
+     * Stop the periodic flush, so it does not keep ticking for a channel which has been replaced.
+     */
+    private void cancelFlush() {
+        ScheduledFuture<?> task = flushTask;
+        if (task != null) {
+            task.cancel(false);
+        }
+    }
+
+    /**
+     * Returns the periodic flush task, null before the handler is added to a pipeline.
+     */
+    ScheduledFuture<?> flushTask() {
+        return flushTask;
+    }
+
     final class EventResponseDecoder extends MessageToMessageDecoder<RES> {
 
         @Override
         protected void decode(ChannelHandlerContext ctx, RES in, List<Object> out) throws Exception {
             Event<REQ> event = queue.poll();
+            inFlight = queue.size();
+            long writtenAt = 0;
+            long now = 0;
+            if (latency != null && writtenSize > 0) {
+                now = System.nanoTime();
+                writtenAt = pollWritten();
+                latency.record(now - writtenAt, now);
+            }
 
-            Deferred<RES, Promise<RES>> deferred = (Deferred<RES, Promise<RES>>) event.getReplyTo();
-            deferred.accept(in);
+            if (event.getReplyTo() instanceof Span) {
+                if (readTimestamps != null) {
+                    ((Span) event.getReplyTo()).markReceived(readTimestamps.lastRead());
+                }
+            } else if (writtenAt != 0) {
+                Tracer current = tracer;
+                if (current != null && current.isSlow(now - writtenAt)) {
+                    current.reportSlow(event.getData(), ctx.channel().remoteAddress(), polledBytes, writtenAt,
+                        readTimestamps == null ? 0 : readTimestamps.lastRead(), now, in);
+                }
+            }
+            ReplyDispatch.deliver(event.getReplyTo(), in);
+        }
+
+        /**
+         * The responses to the requests still in the queue will never arrive, fail them instead of letting their
+         * callers wait forever.
+         */
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            Event<REQ> event;
+            while ((event = queue.poll()) != null) {
+                ReplyDispatch.deliver(event.getReplyTo(), RequestCancelledException.instance());
+            }
+            inFlight = 0;
+            writtenSize = 0;
+            cancelFlush();
+            super.channelInactive(ctx);
+        }
+
+        @Override
+        public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+            cancelFlush();
+            super.handlerRemoved(ctx);
         }
 
     }
@@ -81,9 +256,48 @@ public class GenericEndpointHandler<REQ, RES> extends ChannelHandlerAppender {
         @Override
         protected void encode(ChannelHandlerContext ctx, Event<REQ> msg, List<Object> out) throws Exception {
             queue.offer(msg);
+            inFlight = queue.size();
+            if (latency != null) {
+                pushWritten(System.nanoTime(), tracer == null ? 0 : Tracer.requestBytes(msg.getData()));
+            }
             out.add(msg.getData());
         }
 
+        @Override
+        public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+            Span span = null;
+            if (msg instanceof Event && ((Event<?>) msg).getReplyTo() instanceof Span) {
+                span = (Span) ((Event<?>) msg).getReplyTo();
+                span.markWritten();
+            }
+            super.write(ctx, msg, promise);
+            if (span != null) {
+                span.markEncoded();
+            }
+            if (promise.isDone() && !promise.isSuccess() && queue.peekLast() == msg) {
+                failEncoding((Event<?>) msg, promise.cause());
+            }
+        }
+
+        /**
+         * A codec further down failed to encode the request (for example because its value could not be
+         * transcoded) or the channel is already closed, so no response will arrive for it. Take it back out of the
+         * queue to keep the remaining responses in line and fail its reply.
+         */
+        private void failEncoding(final Event<?> event, final Throwable cause) {
+            queue.pollLast();
+            inFlight = queue.size();
+            if (latency != null && writtenSize > 0) {
+                writtenSize--;
+            }
+            Throwable failure = cause instanceof EncoderException && cause.getCause() != null
+                ? cause.getCause() : cause;
+            if (failure instanceof ClosedChannelException) {
+                failure = RequestCancelledException.instance();
+            }
+            ReplyDispatch.deliver(event.getReplyTo(), failure);
+        }
+
         /*@Override
         public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
             super.write(ctx, msg, promise);
@@ -0,0 +1,123 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.client.core.io.endpoint;
+
+import com.couchbase.client.core.util.LatencyHistogram;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks the response latency of an {@link Endpoint} over a rolling window.
+ *
+ * Latencies are measured on the event loop from the write of a request to the decoded response, so they cover the
+ * network and the server but not client side queueing. Percentiles are taken from the current window once it holds
+ * enough samples, from the previous window otherwise, and are cached briefly since they are meant to be queried on
+ * the request path (for example to decide when to hedge a request).
+ */
+public class LatencyTracker {
+
+    /**
+     * How long a computed percentile is reused.
+     */
+    private static final long CACHE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * Samples needed before the current window is used for percentiles.
+     */
+    private static final long MIN_SAMPLES = 100;
+
+    private final long windowNanos;
+    private volatile LatencyHistogram current = new LatencyHistogram();
+    private volatile LatencyHistogram previous;
+    private volatile long windowStart = System.nanoTime();
+    private volatile Cached cached;
+
+    /**
+     * Create a new {@link LatencyTracker}.
+     *
+     * @param window the length of the rolling window.
+     * @param unit the unit of the window.
+     */
+    public LatencyTracker(final long window, final TimeUnit unit) {
+        windowNanos = unit.toNanos(window);
+    }
+
+    /**
+     * Record a single response latency.
+     *
+     * @param latency the latency in nanoseconds.
+     * @param now the current {@link System#nanoTime()}.
+     */
+    public void record(final long latency, final long now) {
+        if (now - windowStart > windowNanos) {
+            roll(now);
+        }
+        current.record(latency);
+    }
+
+    private synchronized void roll(final long now) {
+        if (now - windowStart > windowNanos) {
+            previous = current;
+            current = new LatencyHistogram();
+            windowStart = now;
+        }
+    }
+
+    /**
+     * Returns the latency at the given percentile.
+     *
+     * @param percentile the percentile between 0.0 and 100.0.
+     * @return the latency in nanoseconds, 0 if nothing has been recorded yet.
+     */
+    public long percentile(final double percentile) {
+        long now = System.nanoTime();
+        Cached last = cached;
+        if (last != null && last.percentile == percentile && now - last.computedAt < CACHE_NANOS) {
+            return last.value;
+        }
+
+        LatencyHistogram source = current;
+        LatencyHistogram old = previous;
+        if (source.count() < MIN_SAMPLES && old != null) {
+            source = old;
+        }
+        long value = source.percentile(percentile);
+        cached = new Cached(percentile, value, now);
+        return value;
+    }
+
+    /**
+     * A computed percentile, replaced as a whole so readers never mix up values.
+     */
+    private static final class Cached {
+
+        private final double percentile;
+        private final long value;
+        private final long computedAt;
+
+        Cached(final double percentile, final long value, final long computedAt) {
+            this.percentile = percentile;
+            this.value = value;
+            this.computedAt = computedAt;
+        }
+    }
+}
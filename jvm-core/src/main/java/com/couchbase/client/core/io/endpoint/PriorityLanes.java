@@ -0,0 +1,234 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.core.io.endpoint;
+
+import io.netty.channel.ChannelHandlerAdapter;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds the requests written to a channel in one lane per {@link RequestPriority} until the next flush, and then
+ * writes them on from the highest lane to the lowest, so higher priority requests are ahead on the wire.
+ *
+ * The highest lane is always drained completely. Once the channel is no longer writable, the lower lanes wait for
+ * the backlog to clear instead of queueing up behind it, unless their oldest request has been waiting for longer than
+ * the starvation guard. The lanes are only touched from the event loop.
+ */
+final class PriorityLanes extends ChannelHandlerAdapter {
+
+    /**
+     * How long a request in a lower lane waits at most for the higher lanes, unless configured otherwise.
+     */
+    static final long DEFAULT_STARVATION_GUARD_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private static final int NORMAL = RequestPriority.NORMAL.ordinal();
+
+    private final Lane[] lanes = new Lane[RequestPriority.values().length];
+
+    /**
+     * How long a request in a lower lane waits at most, 0 never holds them back.
+     */
+    private final long starvationGuardNanos;
+
+    /**
+     * The number of requests in all lanes, published for readers outside of the event loop.
+     */
+    private volatile int pending;
+
+    /**
+     * When the oldest request in the lanes was offered, 0 if they are empty. Published like the pending requests.
+     */
+    private volatile long oldestPendingAt;
+
+    PriorityLanes(final long starvationGuardNanos) {
+        this.starvationGuardNanos = starvationGuardNanos;
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new Lane();
+        }
+    }
+
+    /**
+     * Returns the message to write for a request of the given priority, the request itself for the default.
+     *
+     * @param request the request to write.
+     * @param priority the priority of the request.
+     * @return the message to write on the channel.
+     */
+    static Object prioritize(final Object request, final RequestPriority priority) {
+        return priority == RequestPriority.NORMAL ? request : new Prioritized(request, priority);
+    }
+
+    /**
+     * Returns the number of requests waiting in the lanes.
+     *
+     * @return the pending requests.
+     */
+    int pending() {
+        return pending;
+    }
+
+    /**
+     * Returns the {@link System#nanoTime()} when the oldest request waiting in the lanes was offered.
+     *
+     * @return the time the oldest request has been waiting since, 0 if none is waiting.
+     */
+    long oldestPendingAt() {
+        return oldestPendingAt;
+    }
+
+    @Override
+    public void write(final ChannelHandlerContext ctx, final Object msg, final ChannelPromise promise) {
+        long offeredAt;
+        if (msg instanceof Prioritized) {
+            Prioritized prioritized = (Prioritized) msg;
+            offeredAt = lanes[prioritized.priority.ordinal()].offer(prioritized.request, promise);
+        } else {
+            offeredAt = lanes[NORMAL].offer(msg, promise);
+        }
+        if (pending++ == 0) {
+            oldestPendingAt = offeredAt;
+        }
+    }
+
+    @Override
+    public void flush(final ChannelHandlerContext ctx) {
+        drain(ctx);
+        ctx.flush();
+    }
+
+    /**
+     * Write the remaining requests on when the channel closes, they are failed by the handlers below like any other
+     * write to a closed channel.
+     */
+    @Override
+    public void channelInactive(final ChannelHandlerContext ctx) throws Exception {
+        for (int i = 0; i < lanes.length; i++) {
+            while (!lanes[i].isEmpty()) {
+                pending--;
+                lanes[i].writeNext(ctx);
+            }
+        }
+        oldestPendingAt = 0;
+        ctx.fireChannelInactive();
+    }
+
+    private void drain(final ChannelHandlerContext ctx) {
+        for (int i = 0; i < lanes.length; i++) {
+            Lane lane = lanes[i];
+            while (!lane.isEmpty() && (i == 0 || ctx.channel().isWritable() || starved(lane))) {
+                pending--;
+                lane.writeNext(ctx);
+            }
+        }
+
+        long oldest = 0;
+        for (int i = 0; i < lanes.length; i++) {
+            if (!lanes[i].isEmpty() && (oldest == 0 || lanes[i].oldestOfferedAt() - oldest < 0)) {
+                oldest = lanes[i].oldestOfferedAt();
+            }
+        }
+        if (oldest != oldestPendingAt) {
+            oldestPendingAt = oldest;
+        }
+    }
+
+    private boolean starved(final Lane lane) {
+        return System.nanoTime() - lane.oldestOfferedAt() >= starvationGuardNanos;
+    }
+
+    /**
+     * A request written with a priority other than {@link RequestPriority#NORMAL}.
+     */
+    static final class Prioritized {
+
+        private final Object request;
+        private final RequestPriority priority;
+
+        Prioritized(final Object request, final RequestPriority priority) {
+            this.request = request;
+            this.priority = priority;
+        }
+    }
+
+    /**
+     * The pending writes of one priority, a ring of messages, their promises and when they were offered.
+     */
+    private static final class Lane {
+
+        private Object[] messages = new Object[16];
+        private ChannelPromise[] promises = new ChannelPromise[16];
+        private long[] offeredAt = new long[16];
+        private int head;
+        private int size;
+
+        long offer(final Object msg, final ChannelPromise promise) {
+            if (size == messages.length) {
+                grow();
+            }
+            int index = (head + size++) & (messages.length - 1);
+            messages[index] = msg;
+            promises[index] = promise;
+            offeredAt[index] = System.nanoTime();
+            return offeredAt[index];
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        long oldestOfferedAt() {
+            return offeredAt[head];
+        }
+
+        /**
+         * Remove the oldest request from the lane and write it on.
+         */
+        void writeNext(final ChannelHandlerContext ctx) {
+            Object msg = messages[head];
+            ChannelPromise promise = promises[head];
+            messages[head] = null;
+            promises[head] = null;
+            head = (head + 1) & (messages.length - 1);
+            size--;
+            ctx.write(msg, promise);
+        }
+
+        private void grow() {
+            Object[] grownMessages = new Object[messages.length << 1];
+            ChannelPromise[] grownPromises = new ChannelPromise[messages.length << 1];
+            long[] grownOfferedAt = new long[messages.length << 1];
+            for (int i = 0; i < size; i++) {
+                int index = (head + i) & (messages.length - 1);
+                grownMessages[i] = messages[index];
+                grownPromises[i] = promises[index];
+                grownOfferedAt[i] = offeredAt[index];
+            }
+            messages = grownMessages;
+            promises = grownPromises;
+            offeredAt = grownOfferedAt;
+            head = 0;
+        }
+    }
+}
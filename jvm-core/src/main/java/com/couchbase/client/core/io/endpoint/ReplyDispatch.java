@@ -0,0 +1,152 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.core.io.endpoint;
+
+import reactor.core.composable.Deferred;
+import reactor.function.Consumer;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Defines where the reply of a request sent through an {@link Endpoint} is delivered to the caller.
+ *
+ * - {@link #IO_THREAD}: the reply is completed directly on the event loop which decoded the response. This is the
+ *   fastest option, but callbacks must be cheap and must never block.
+ * - {@link #executor(Executor)}: the reply is handed off to the given {@link Executor}.
+ * - {@link #RING_BUFFER}: the reply is dispatched through the ring buffer of the reactor environment (the default).
+ */
+public final class ReplyDispatch {
+
+    /**
+     * Complete the reply on the IO thread.
+     */
+    public static final ReplyDispatch IO_THREAD = new ReplyDispatch(Mode.IO_THREAD, null);
+
+    /**
+     * Complete the reply on the reactor ring buffer dispatcher.
+     */
+    public static final ReplyDispatch RING_BUFFER = new ReplyDispatch(Mode.RING_BUFFER, null);
+
+    /**
+     * The dispatch mode.
+     */
+    private final Mode mode;
+
+    /**
+     * The executor, only set in {@link Mode#EXECUTOR}.
+     */
+    private final Executor executor;
+
+    private ReplyDispatch(final Mode mode, final Executor executor) {
+        this.mode = mode;
+        this.executor = executor;
+    }
+
+    /**
+     * Complete the reply on the given {@link Executor}.
+     *
+     * @param executor the executor to hand off to.
+     * @return the {@link ReplyDispatch} for this executor.
+     */
+    public static ReplyDispatch executor(final Executor executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("The Executor must not be null.");
+        }
+        return new ReplyDispatch(Mode.EXECUTOR, executor);
+    }
+
+    /**
+     * Returns the dispatch mode.
+     *
+     * @return the mode.
+     */
+    public Mode mode() {
+        return mode;
+    }
+
+    /**
+     * Returns the executor used in {@link Mode#EXECUTOR}, null otherwise.
+     *
+     * @return the executor.
+     */
+    public Executor executor() {
+        return executor;
+    }
+
+    /**
+     * Hands a response to a reply consumer, where a {@link Throwable} response signals a failed request.
+     *
+     * Consumers wrapping the reply (tracing, circuit breaking, executor hand-off) pass failures on as they are, so
+     * only the final {@link Deferred} needs to be told apart: it has to be failed instead of being completed with the
+     * exception as its value.
+     *
+     * @param reply the reply consumer of the request.
+     * @param response the response or the cause of the failure.
+     */
+    @SuppressWarnings("unchecked")
+    public static void deliver(final Object reply, final Object response) {
+        if (response instanceof Throwable && reply instanceof Deferred) {
+            ((Deferred<?, ?>) reply).accept((Throwable) response);
+        } else {
+            ((Consumer<Object>) reply).accept(response);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return mode == Mode.EXECUTOR ? mode + "(" + executor + ")" : mode.toString();
+    }
+
+    /**
+     * All supported dispatch modes.
+     */
+    public static enum Mode {
+        IO_THREAD,
+        EXECUTOR,
+        RING_BUFFER
+    }
+
+    /**
+     * Hands the completion of the wrapped consumer off to an {@link Executor}.
+     */
+    static final class ExecutorReply<T> implements Consumer<T> {
+
+        private final Executor executor;
+        private final Consumer<T> target;
+
+        ExecutorReply(final Executor executor, final Consumer<T> target) {
+            this.executor = executor;
+            this.target = target;
+        }
+
+        @Override
+        public void accept(final T value) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    deliver(target, value);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.core.io.endpoint;
+
+/**
+ * Defines in which order requests waiting to be written on the same {@link Endpoint} go out on the wire.
+ *
+ * Every endpoint keeps one pending lane per priority. When pending writes are flushed, the lanes are drained from the
+ * highest priority to the lowest. While the connection is backed up, the lower lanes wait for the higher ones, but
+ * never longer than the starvation guard of the endpoint.
+ */
+public enum RequestPriority {
+
+    /**
+     * Latency sensitive requests, for example on behalf of a user waiting for the result.
+     */
+    INTERACTIVE,
+
+    /**
+     * Regular requests, the default.
+     */
+    NORMAL,
+
+    /**
+     * Background work like batch jobs, which should not delay the other lanes.
+     */
+    BULK
+
+}
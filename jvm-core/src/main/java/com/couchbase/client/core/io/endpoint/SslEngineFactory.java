@@ -0,0 +1,275 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.client.core.io.endpoint;
+
+import io.netty.handler.ssl.SslHandler;
+
+import javax.naming.InvalidNameException;
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.Rdn;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSessionContext;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateParsingException;
+import java.security.cert.X509Certificate;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Creates the client side TLS stage for endpoint connections out of one shared {@link SSLContext}.
+ *
+ * The context caches the sessions of completed handshakes by peer host and port. Every engine is created for the
+ * address of its endpoint, so a new connection to a node which has been talked to before resumes the cached session
+ * (an abbreviated handshake without the expensive key exchange) instead of negotiating a new one. This only works if
+ * all endpoints share the same factory. The engines are wrapped into a {@link SessionPreservingSslEngine}, otherwise
+ * closing a connection would invalidate its session.
+ *
+ * Unless disabled, the certificate of the server has to be issued for the host connected to, a trusted chain alone is
+ * not enough. On JDKs which support it the engine checks this itself during the handshake ("HTTPS" endpoint
+ * identification), on older ones {@link #verifyPeer(SSLEngine)} matches the subject alternative names (or the common
+ * name) once the handshake is done.
+ *
+ * The {@link SslHandler} encrypts and decrypts between buffers of the channel allocator, which is the pooled direct
+ * allocator for all endpoints.
+ */
+public class SslEngineFactory {
+
+    /**
+     * {@link SSLParameters#setEndpointIdentificationAlgorithm(String)}, which only exists since Java 7.
+     */
+    private static final Method SET_ENDPOINT_IDENTIFICATION = endpointIdentificationSetter();
+
+    private static final Pattern IPV4_LITERAL = Pattern.compile("\\d{1,3}(\\.\\d{1,3}){3}");
+    private static final int SAN_DNS_NAME = 2;
+    private static final int SAN_IP_ADDRESS = 7;
+
+    private final SSLContext context;
+    private final String[] protocols;
+    private final long handshakeTimeoutMillis;
+    private final boolean hostnameVerification;
+
+    /**
+     * Create a new {@link SslEngineFactory} which verifies the hostname.
+     *
+     * @param context the context to create engines from.
+     * @param protocols the enabled protocols, null for the defaults of the context.
+     * @param handshakeTimeoutMillis the time a handshake may take before the connection is given up.
+     */
+    public SslEngineFactory(final SSLContext context, final String[] protocols, final long handshakeTimeoutMillis) {
+        this(context, protocols, handshakeTimeoutMillis, true);
+    }
+
+    /**
+     * Create a new {@link SslEngineFactory}.
+     *
+     * @param context the context to create engines from.
+     * @param protocols the enabled protocols, null for the defaults of the context.
+     * @param handshakeTimeoutMillis the time a handshake may take before the connection is given up.
+     * @param hostnameVerification whether the certificate of the server has to match the host connected to.
+     */
+    public SslEngineFactory(final SSLContext context, final String[] protocols, final long handshakeTimeoutMillis,
+        final boolean hostnameVerification) {
+        this.context = context;
+        this.protocols = protocols == null ? null : protocols.clone();
+        this.handshakeTimeoutMillis = handshakeTimeoutMillis;
+        this.hostnameVerification = hostnameVerification;
+    }
+
+    /**
+     * Create the TLS stage for a new connection.
+     *
+     * @param peer the address the connection goes to, used to find a session to resume and to verify the hostname.
+     * @return the handler to put at the head of the pipeline.
+     */
+    public SslHandler newHandler(final InetSocketAddress peer) {
+        SSLEngine engine = context.createSSLEngine(peerHost(peer), peer.getPort());
+        engine.setUseClientMode(true);
+        if (protocols != null) {
+            engine.setEnabledProtocols(protocols);
+        }
+        if (hostnameVerification && SET_ENDPOINT_IDENTIFICATION != null) {
+            SSLParameters parameters = engine.getSSLParameters();
+            try {
+                SET_ENDPOINT_IDENTIFICATION.invoke(parameters, "HTTPS");
+            } catch (Exception ex) {
+                throw new IllegalStateException("Could not enable the endpoint identification", ex);
+            }
+            engine.setSSLParameters(parameters);
+        }
+        SslHandler handler = new SslHandler(new SessionPreservingSslEngine(engine));
+        handler.setHandshakeTimeoutMillis(handshakeTimeoutMillis);
+        return handler;
+    }
+
+    /**
+     * Checks that the certificate of the server matches the host, after the handshake of an engine of this factory.
+     *
+     * This is a no-op if the engine already did the check during the handshake or if the verification is disabled.
+     *
+     * @param engine the engine which completed its handshake.
+     * @throws SSLPeerUnverifiedException if the certificate is not issued for the host.
+     */
+    public void verifyPeer(final SSLEngine engine) throws SSLPeerUnverifiedException {
+        if (!hostnameVerification || SET_ENDPOINT_IDENTIFICATION != null) {
+            return;
+        }
+        String host = engine.getPeerHost();
+        Certificate[] chain = engine.getSession().getPeerCertificates();
+        if (chain.length == 0 || !(chain[0] instanceof X509Certificate)
+            || !matchesHost(host, (X509Certificate) chain[0])) {
+            throw new SSLPeerUnverifiedException("The certificate of the server is not issued for " + host);
+        }
+    }
+
+    /**
+     * Returns the client session cache of the shared context.
+     */
+    public SSLSessionContext sessionContext() {
+        return context.getClientSessionContext();
+    }
+
+    /**
+     * Checks if the certificate is issued for the host, following RFC 2818.
+     *
+     * An IP address has to be listed as IP address in the subject alternative names. A hostname has to match one of
+     * the DNS names there, or if there are none, the most specific common name of the subject. A wildcard is only
+     * allowed as the complete left-most label and stands for exactly one label.
+     *
+     * @param host the hostname or IP address connected to.
+     * @param certificate the certificate of the server.
+     * @return true if it matches.
+     */
+    static boolean matchesHost(final String host, final X509Certificate certificate) {
+        Collection<List<?>> alternativeNames;
+        try {
+            alternativeNames = certificate.getSubjectAlternativeNames();
+        } catch (CertificateParsingException ex) {
+            return false;
+        }
+
+        if (isIpLiteral(host)) {
+            if (alternativeNames == null) {
+                return false;
+            }
+            for (List<?> name : alternativeNames) {
+                if (((Integer) name.get(0)) == SAN_IP_ADDRESS && sameAddress(host, (String) name.get(1))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        String hostname = host.toLowerCase(Locale.ENGLISH);
+        if (hostname.endsWith(".")) {
+            hostname = hostname.substring(0, hostname.length() - 1);
+        }
+        boolean hasDnsNames = false;
+        if (alternativeNames != null) {
+            for (List<?> name : alternativeNames) {
+                if (((Integer) name.get(0)) == SAN_DNS_NAME) {
+                    hasDnsNames = true;
+                    if (matchesName(hostname, (String) name.get(1))) {
+                        return true;
+                    }
+                }
+            }
+        }
+        if (hasDnsNames) {
+            return false;
+        }
+        String commonName = commonName(certificate);
+        return commonName != null && matchesName(hostname, commonName);
+    }
+
+    static boolean matchesName(final String hostname, final String pattern) {
+        String name = pattern.toLowerCase(Locale.ENGLISH);
+        if (!name.startsWith("*.")) {
+            return hostname.equals(name);
+        }
+        String suffix = name.substring(1);
+        int firstDot = hostname.indexOf('.');
+        return suffix.indexOf('.', 1) > 0 && firstDot > 0 && hostname.substring(firstDot).equals(suffix);
+    }
+
+    private static String commonName(final X509Certificate certificate) {
+        try {
+            List<Rdn> rdns = new LdapName(certificate.getSubjectX500Principal().getName()).getRdns();
+            for (int i = rdns.size() - 1; i >= 0; i--) {
+                if ("CN".equalsIgnoreCase(rdns.get(i).getType())) {
+                    return rdns.get(i).getValue().toString();
+                }
+            }
+        } catch (InvalidNameException ex) {
+            return null;
+        }
+        return null;
+    }
+
+    private static boolean isIpLiteral(final String host) {
+        return host.indexOf(':') >= 0 || IPV4_LITERAL.matcher(host).matches();
+    }
+
+    /**
+     * Compares two IP literals, both are parsed without any lookup.
+     */
+    private static boolean sameAddress(final String literal, final String other) {
+        if (!isIpLiteral(other)) {
+            return false;
+        }
+        try {
+            return InetAddress.getByName(literal).equals(InetAddress.getByName(other));
+        } catch (UnknownHostException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * The host the session cache is keyed on and the certificate is verified against: the hostname as given, or the
+     * IP address if the address was created from one. Either is taken without a (reverse) lookup.
+     */
+    static String peerHost(final InetSocketAddress peer) {
+        InetAddress address = peer.getAddress();
+        if (address == null) {
+            return peer.getHostName();
+        }
+        String text = address.toString();
+        int slash = text.indexOf('/');
+        return slash > 0 ? text.substring(0, slash) : address.getHostAddress();
+    }
+
+    private static Method endpointIdentificationSetter() {
+        try {
+            return SSLParameters.class.getMethod("setEndpointIdentificationAlgorithm", String.class);
+        } catch (NoSuchMethodException ex) {
+            return null;
+        }
+    }
+}
@@ -22,6 +22,10 @@
 
 package com.couchbase.client.core.io.endpoint.design;
 
+import com.couchbase.client.core.UnexpectedStatusException;
+import com.couchbase.client.core.transcoder.StringTranscoder;
+import com.couchbase.client.core.transcoder.Transcoder;
+import com.couchbase.client.core.transcoder.TranscodingException;
 import com.couchbase.client.core.util.HttpUtils;
 import com.couchbase.client.core.message.request.design.DesignRequest;
 import com.couchbase.client.core.message.request.design.GetDesignDocumentRequest;
@@ -29,12 +33,12 @@ import com.couchbase.client.core.message.request.design.HasDesignDocumentRequest
 import com.couchbase.client.core.message.response.design.DesignResponse;
 import com.couchbase.client.core.message.response.design.GetDesignDocumentResponse;
 import com.couchbase.client.core.message.response.design.HasDesignDocumentResponse;
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerAppender;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.MessageToMessageDecoder;
 import io.netty.handler.codec.MessageToMessageEncoder;
 import io.netty.handler.codec.http.*;
-import io.netty.util.CharsetUtil;
 
 import java.util.ArrayDeque;
 import java.util.List;
@@ -43,7 +47,7 @@ import java.util.Queue;
 class DesignCodec extends ChannelHandlerAppender {
 
 
-    private final Queue<Class<?>> queue = new ArrayDeque<Class<?>>();
+    private final Queue<DesignRequest> queue = new ArrayDeque<DesignRequest>();
 
     public DesignCodec() {
         add(new DesignDecoder(), new DesignEncoder());
@@ -55,7 +59,7 @@ class DesignCodec extends ChannelHandlerAppender {
 
         @Override
         protected void encode(ChannelHandlerContext ctx, DesignRequest msg, List<Object> out) throws Exception {
-            queue.offer(msg.getClass());
+            queue.offer(msg);
 
             HttpRequest request = null;
             if (msg instanceof HasDesignDocumentRequest) {
@@ -73,15 +77,20 @@ class DesignCodec extends ChannelHandlerAppender {
 
         @Override
         protected void decode(ChannelHandlerContext ctx, HttpResponse response, List<Object> in) throws Exception {
-            Class<?> clazz = queue.poll();
-            DesignResponse.Status status = decodeResponseCode(response.getStatus().code());
+            DesignRequest request = queue.poll();
+            int code = response.getStatus().code();
+            DesignResponse.Status status = decodeResponseCode(code);
+            if (status == null) {
+                in.add(new UnexpectedStatusException("Found unhandled server code: " + code, code));
+                return;
+            }
 
             FullHttpResponse fullResponse = (FullHttpResponse) response;
 
-            if (clazz.equals(HasDesignDocumentRequest.class)) {
+            if (request instanceof HasDesignDocumentRequest) {
                 decodeHasDesignDocument(in, status);
-            } else if (clazz.equals(GetDesignDocumentRequest.class)) {
-                decodeGetDesignDocument(fullResponse, in, status);
+            } else if (request instanceof GetDesignDocumentRequest) {
+                decodeGetDesignDocument(fullResponse, in, status, ((GetDesignDocumentRequest) request).transcoder());
             }
         }
 
@@ -89,16 +98,29 @@ class DesignCodec extends ChannelHandlerAppender {
             in.add(new HasDesignDocumentResponse(status));
         }
 
-        private void decodeGetDesignDocument(FullHttpResponse response, List<Object> in, DesignResponse.Status status) {
-            String body = response.content().toString(CharsetUtil.UTF_8);
-            in.add(new GetDesignDocumentResponse(status, body));
+        /**
+         * Decodes the body with the transcoder of the request, a body that can not be decoded fails the request.
+         *
+         * Error responses carry a plain message instead of the document, so they are always decoded as a string.
+         */
+        private void decodeGetDesignDocument(FullHttpResponse response, List<Object> in, DesignResponse.Status status,
+            Transcoder<?> transcoder) {
+            ByteBuf body = response.content();
+            if (status != DesignResponse.Status.FOUND) {
+                transcoder = StringTranscoder.INSTANCE;
+            }
+            try {
+                in.add(new GetDesignDocumentResponse(status, transcoder.decode(body), body.readableBytes()));
+            } catch (TranscodingException ex) {
+                in.add(ex);
+            }
         }
 
         /**
          * Maps the potential HTTP responses to internal response enums.
          *
          * @param code the code to convert.
-         * @return the converted Status.
+         * @return the converted Status, or null if the code is not handled.
          */
         private DesignResponse.Status decodeResponseCode(int code) {
             DesignResponse.Status status;
@@ -128,7 +150,7 @@ class DesignCodec extends ChannelHandlerAppender {
                     status = DesignResponse.Status.SERVER_ERROR;
                     break;
                 default:
-                    throw new IllegalStateException("Found unhandled server code: " + code);
+                    status = null;
             }
 
             return status;
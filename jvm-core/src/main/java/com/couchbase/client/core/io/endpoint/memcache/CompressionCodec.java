@@ -0,0 +1,187 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.core.io.endpoint.memcache;
+
+import com.couchbase.client.core.CouchbaseException;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerAppender;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToMessageDecoder;
+import io.netty.handler.codec.MessageToMessageEncoder;
+import io.netty.handler.codec.compression.DecompressionException;
+import io.netty.handler.codec.compression.Snappy;
+import io.netty.handler.codec.memcache.binary.BinaryMemcacheRequestHeader;
+import io.netty.handler.codec.memcache.binary.BinaryMemcacheResponseHeader;
+import io.netty.handler.codec.memcache.binary.DefaultFullBinaryMemcacheRequest;
+import io.netty.handler.codec.memcache.binary.DefaultFullBinaryMemcacheResponse;
+import io.netty.handler.codec.memcache.binary.FullBinaryMemcacheRequest;
+import io.netty.handler.codec.memcache.binary.FullBinaryMemcacheResponse;
+
+import java.util.List;
+
+/**
+ * Compresses large values on write and decompresses values on read with raw Snappy.
+ *
+ * Values of at least the configured threshold are compressed and marked with the {@link MemcacheCodec#DATATYPE_SNAPPY}
+ * datatype, but only if that saves at least an eighth of their size; values that do not compress well (already
+ * compressed binaries for example) are sent as they are. Responses carrying the datatype are decompressed whatever
+ * their size, up to the largest value the server stores; a response announcing more fails its request without
+ * allocating anything. Both directions work between pooled buffers of the channel allocator, so no intermediate
+ * arrays are created.
+ *
+ * The stage sits between the {@link io.netty.handler.codec.memcache.binary.BinaryMemcacheObjectAggregator} and the
+ * {@link MemcacheCodec}, so it only sees full messages.
+ */
+class CompressionCodec extends ChannelHandlerAppender {
+
+    /**
+     * The largest value the server stores, 20MB. A preamble announcing more is corrupt.
+     */
+    static final int MAX_UNCOMPRESSED_LENGTH = 20 * 1024 * 1024;
+
+    private final int threshold;
+
+    /**
+     * The Snappy implementation keeps state between calls, so every channel needs its own.
+     */
+    private final Snappy snappy = new Snappy();
+
+    /**
+     * Create a new {@link CompressionCodec}.
+     *
+     * @param threshold the minimum size in bytes for values to be compressed.
+     */
+    CompressionCodec(final int threshold) {
+        this.threshold = threshold;
+        add(new CompressionDecoder(), new CompressionEncoder());
+    }
+
+    /**
+     * Reads the uncompressed length from the varint preamble without moving the reader index.
+     */
+    static int uncompressedLength(final ByteBuf in) {
+        int result = 0;
+        for (int i = 0; i < 5; i++) {
+            byte b = in.getByte(in.readerIndex() + i);
+            result |= (b & 0x7f) << (7 * i);
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new DecompressionException("Invalid Snappy preamble");
+    }
+
+    class CompressionEncoder extends MessageToMessageEncoder<FullBinaryMemcacheRequest> {
+
+        @Override
+        public boolean acceptOutboundMessage(final Object msg) throws Exception {
+            if (!(msg instanceof FullBinaryMemcacheRequest)) {
+                return false;
+            }
+            FullBinaryMemcacheRequest request = (FullBinaryMemcacheRequest) msg;
+            return request.content().readableBytes() >= threshold
+                && (request.getHeader().getDataType() & MemcacheCodec.DATATYPE_SNAPPY) == 0;
+        }
+
+        @Override
+        protected void encode(ChannelHandlerContext ctx, FullBinaryMemcacheRequest msg, List<Object> out)
+            throws Exception {
+            ByteBuf content = msg.content();
+            int length = content.readableBytes();
+            ByteBuf compressed = ctx.alloc().buffer(length);
+            try {
+                snappy.encode(content.duplicate(), compressed, length);
+            } finally {
+                snappy.reset();
+            }
+
+            if (compressed.readableBytes() > length - (length >>> 3)) {
+                compressed.release();
+                out.add(msg.retain());
+                return;
+            }
+
+            BinaryMemcacheRequestHeader header = msg.getHeader();
+            header.setDataType((byte) (header.getDataType() | MemcacheCodec.DATATYPE_SNAPPY));
+            header.setTotalBodyLength(header.getTotalBodyLength() - length + compressed.readableBytes());
+            out.add(new DefaultFullBinaryMemcacheRequest(header, msg.getKey(), msg.getExtras().retain(), compressed));
+        }
+    }
+
+    class CompressionDecoder extends MessageToMessageDecoder<FullBinaryMemcacheResponse> {
+
+        @Override
+        public boolean acceptInboundMessage(final Object msg) throws Exception {
+            return msg instanceof FullBinaryMemcacheResponse
+                && (((FullBinaryMemcacheResponse) msg).getHeader().getDataType() & MemcacheCodec.DATATYPE_SNAPPY) != 0;
+        }
+
+        @Override
+        protected void decode(ChannelHandlerContext ctx, FullBinaryMemcacheResponse msg, List<Object> out)
+            throws Exception {
+            ByteBuf content = msg.content();
+            int length = content.readableBytes();
+            int uncompressedLength = uncompressedLength(content);
+            if (uncompressedLength < 0 || uncompressedLength > MAX_UNCOMPRESSED_LENGTH) {
+                out.add(new UndecodableResponse(msg.getHeader(), new CouchbaseException(
+                    "The compressed value announces more than the maximum of " + MAX_UNCOMPRESSED_LENGTH + " bytes")));
+                return;
+            }
+            ByteBuf decompressed = ctx.alloc().buffer(uncompressedLength);
+            try {
+                snappy.decode(content.duplicate(), decompressed);
+            } catch (Exception ex) {
+                decompressed.release();
+                throw ex;
+            } finally {
+                snappy.reset();
+            }
+
+            ByteBuf extras = msg.getExtras();
+            extras = extras != null ? extras.retain() : Unpooled.EMPTY_BUFFER;
+            BinaryMemcacheResponseHeader header = msg.getHeader();
+            header.setDataType((byte) (header.getDataType() & ~MemcacheCodec.DATATYPE_SNAPPY));
+            header.setTotalBodyLength(header.getTotalBodyLength() - length + decompressed.readableBytes());
+            out.add(new DefaultFullBinaryMemcacheResponse(header, msg.getKey(), extras, decompressed));
+        }
+    }
+
+    /**
+     * Takes the place of a response which could not be decompressed, so the {@link MemcacheCodec} still matches it
+     * with its request and fails that request with the cause.
+     */
+    static final class UndecodableResponse extends DefaultFullBinaryMemcacheResponse {
+
+        private final CouchbaseException cause;
+
+        UndecodableResponse(final BinaryMemcacheResponseHeader header, final CouchbaseException cause) {
+            super(header, null, Unpooled.EMPTY_BUFFER, Unpooled.EMPTY_BUFFER);
+            this.cause = cause;
+        }
+
+        CouchbaseException cause() {
+            return cause;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.core.io.endpoint.memcache;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.memcache.MemcacheObject;
+import io.netty.handler.codec.memcache.binary.BinaryMemcacheObjectAggregator;
+import io.netty.handler.codec.memcache.binary.BinaryMemcacheResponse;
+import io.netty.handler.codec.memcache.binary.FullBinaryMemcacheResponse;
+
+import java.util.List;
+
+/**
+ * A {@link BinaryMemcacheObjectAggregator} which keeps the extras of a response alive.
+ *
+ * The aggregator hands the extras of the response head on to the full response without retaining them, and the head
+ * is released once decoded, which frees the extras (the flags of a get) before the stages above can read them. Taking
+ * an extra reference here makes the full response their only owner, which releases them with the rest of it.
+ */
+class ExtrasRetainingAggregator extends BinaryMemcacheObjectAggregator {
+
+    ExtrasRetainingAggregator(final int maxContentLength) {
+        super(maxContentLength);
+    }
+
+    @Override
+    protected void decode(final ChannelHandlerContext ctx, final MemcacheObject msg, final List<Object> out)
+        throws Exception {
+        if (msg instanceof BinaryMemcacheResponse && !(msg instanceof FullBinaryMemcacheResponse)) {
+            ByteBuf extras = ((BinaryMemcacheResponse) msg).getExtras();
+            if (extras != null) {
+                extras.retain();
+            }
+        }
+        super.decode(ctx, msg, out);
+    }
+}
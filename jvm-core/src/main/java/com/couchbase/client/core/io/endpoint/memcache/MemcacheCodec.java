@@ -22,17 +22,33 @@
 
 package com.couchbase.client.core.io.endpoint.memcache;
 
+import com.couchbase.client.core.CouchbaseException;
+import com.couchbase.client.core.KeyExistsException;
+import com.couchbase.client.core.KeyNotFoundException;
+import com.couchbase.client.core.NotMyVbucketException;
+import com.couchbase.client.core.TemporaryFailureException;
+import com.couchbase.client.core.UnexpectedStatusException;
 import com.couchbase.client.core.message.request.memcache.GetRequest;
 import com.couchbase.client.core.message.request.memcache.MemcacheRequest;
 import com.couchbase.client.core.message.request.memcache.NoopRequest;
+import com.couchbase.client.core.message.request.memcache.ObserveRequest;
+import com.couchbase.client.core.message.request.memcache.ReplicaGetRequest;
+import com.couchbase.client.core.message.request.memcache.UpsertRequest;
 import com.couchbase.client.core.message.response.memcache.GetResponse;
 import com.couchbase.client.core.message.response.memcache.NoopResponse;
+import com.couchbase.client.core.message.response.memcache.ObserveResponse;
+import com.couchbase.client.core.message.response.memcache.UpsertResponse;
+import com.couchbase.client.core.transcoder.Transcoder;
+import com.couchbase.client.core.transcoder.TranscodingException;
+import com.couchbase.client.core.transcoder.Utf8;
+import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerAppender;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.MessageToMessageDecoder;
 import io.netty.handler.codec.MessageToMessageEncoder;
 import io.netty.handler.codec.memcache.binary.*;
+import io.netty.util.CharsetUtil;
 
 import java.util.ArrayDeque;
 import java.util.List;
@@ -41,56 +57,267 @@ import java.util.Queue;
 
 public class MemcacheCodec extends ChannelHandlerAppender {
 
-    private final Queue<Class<?>> queue = new ArrayDeque<Class<?>>();
+    /**
+     * Couchbase specific opcode to read from a replica, not part of the memcache protocol.
+     */
+    public static final byte OPCODE_GET_REPLICA = (byte) 0x83;
+
+    /**
+     * Couchbase specific opcode to check the replication and persistence state of keys.
+     */
+    public static final byte OPCODE_OBSERVE = (byte) 0x92;
+
+    /**
+     * Datatype bit marking a Snappy compressed value.
+     */
+    public static final byte DATATYPE_SNAPPY = 0x02;
+
+    /**
+     * Couchbase specific status for a request sent to a node which does not own the vbucket of the key.
+     */
+    public static final short STATUS_NOT_MY_VBUCKET = 0x07;
+
+    /**
+     * Couchbase specific status for a server which is too busy to handle the request.
+     */
+    public static final short STATUS_EBUSY = 0x85;
+
+    /**
+     * Couchbase specific status for a temporary failure, for example while the bucket is warming up.
+     */
+    public static final short STATUS_TMPFAIL = 0x86;
+
+    /**
+     * Responses without content are all alike, shared in recycling mode.
+     */
+    private static final NoopResponse NOOP_RESPONSE = new NoopResponse();
+    private static final UpsertResponse UPSERT_RESPONSE = new UpsertResponse();
+
+    private final Queue<MemcacheRequest> queue = new ArrayDeque<MemcacheRequest>();
+
+    /**
+     * If pooled and shared message objects are used instead of allocating them per request.
+     */
+    private final boolean recycling;
+
+    /**
+     * The request header reused in recycling mode, it is written out before the next request is encoded.
+     */
+    private final BinaryMemcacheRequestHeader reusableHeader;
 
     public MemcacheCodec() {
+        this(false);
+    }
+
+    /**
+     * Create a new {@link MemcacheCodec}.
+     *
+     * In recycling mode, the request header is reused, responses without content are shared and {@link GetResponse}s
+     * come from the pool of the event loop, so their receivers have to {@link GetResponse#recycle()} them.
+     *
+     * @param recycling if message objects are recycled.
+     */
+    public MemcacheCodec(final boolean recycling) {
+        this.recycling = recycling;
+        reusableHeader = recycling ? new DefaultBinaryMemcacheRequestHeader() : null;
         add(new MemcacheDecoder(), new MemcacheEncoder());
     }
 
+    /**
+     * Returns a fresh request header, or the reset reusable one in recycling mode.
+     */
+    private BinaryMemcacheRequestHeader requestHeader() {
+        if (!recycling) {
+            return new DefaultBinaryMemcacheRequestHeader();
+        }
+        BinaryMemcacheRequestHeader header = reusableHeader;
+        header.setKeyLength((short) 0);
+        header.setExtrasLength((byte) 0);
+        header.setDataType((byte) 0);
+        header.setReserved((short) 0);
+        header.setTotalBodyLength(0);
+        header.setOpaque(0);
+        header.setCAS(0);
+        return header;
+    }
+
     public class MemcacheEncoder extends MessageToMessageEncoder<MemcacheRequest> {
 
         @Override
         protected void encode(ChannelHandlerContext ctx, MemcacheRequest msg, List<Object> out) throws Exception {
-            queue.offer(msg.getClass());
-
             BinaryMemcacheRequest request = null;
-            BinaryMemcacheRequestHeader header = new DefaultBinaryMemcacheRequestHeader();
+            BinaryMemcacheRequestHeader header = requestHeader();
             if (msg instanceof GetRequest) {
                 GetRequest req = (GetRequest) msg;
+                int keyLength = Utf8.length(req.key());
                 header.setOpcode(BinaryMemcacheOpcodes.GET);
-                header.setKeyLength((short) req.key().length());
-                header.setTotalBodyLength((short) req.key().length());
+                header.setKeyLength((short) keyLength);
+                header.setTotalBodyLength(keyLength);
                 request = new DefaultBinaryMemcacheRequest(header, req.key());
+            } else if (msg instanceof ReplicaGetRequest) {
+                ReplicaGetRequest req = (ReplicaGetRequest) msg;
+                int keyLength = Utf8.length(req.key());
+                header.setOpcode(OPCODE_GET_REPLICA);
+                header.setKeyLength((short) keyLength);
+                header.setTotalBodyLength(keyLength);
+                request = new DefaultBinaryMemcacheRequest(header, req.key());
+            } else if (msg instanceof ObserveRequest) {
+                ObserveRequest req = (ObserveRequest) msg;
+                byte[] key = req.key().getBytes(CharsetUtil.UTF_8);
+                ByteBuf content = ctx.alloc().buffer(4 + key.length);
+                content.writeShort(0);
+                content.writeShort(key.length);
+                content.writeBytes(key);
+                header.setOpcode(OPCODE_OBSERVE);
+                header.setTotalBodyLength(content.readableBytes());
+                request = new DefaultFullBinaryMemcacheRequest(header, null, Unpooled.EMPTY_BUFFER, content);
             } else if (msg instanceof NoopRequest) {
                 header.setOpcode(BinaryMemcacheOpcodes.NOOP);
                 request = new DefaultBinaryMemcacheRequest(header);
+            } else if (msg instanceof UpsertRequest) {
+                UpsertRequest req = (UpsertRequest) msg;
+                // The binary encoder copies the extras but never releases them, so keep them off the pooled allocator.
+                ByteBuf extras = Unpooled.buffer(8);
+                extras.writeInt(req.flags());
+                extras.writeInt(req.expiration());
+                int keyLength = Utf8.length(req.key());
+                header.setOpcode(BinaryMemcacheOpcodes.SET);
+                header.setKeyLength((short) keyLength);
+                header.setExtrasLength((byte) extras.readableBytes());
+                ByteBuf content = req.transcoder() == null ? req.content() : transcode(ctx, req);
+                header.setTotalBodyLength(keyLength + extras.readableBytes() + content.readableBytes());
+                request = new DefaultFullBinaryMemcacheRequest(header, req.key(), extras, content);
             }
 
+            // Only queued once encoded, a failed request never gets a response.
+            queue.offer(msg);
             out.add(request);
         }
     }
 
+    /**
+     * Encodes the value of the request straight into a buffer of the channel allocator.
+     */
+    private static ByteBuf transcode(final ChannelHandlerContext ctx, final UpsertRequest request) {
+        ByteBuf content = ctx.alloc().buffer(request.transcoder().estimateSize(request.value()));
+        try {
+            request.transcoder().encode(request.value(), content);
+            return content;
+        } catch (RuntimeException ex) {
+            content.release();
+            throw ex;
+        }
+    }
+
     public class MemcacheDecoder extends MessageToMessageDecoder<BinaryMemcacheResponse> {
 
         @Override
         protected void decode(ChannelHandlerContext ctx, BinaryMemcacheResponse response, List<Object> in) throws Exception {
-            Class<?> clazz = queue.poll();
+            MemcacheRequest request = queue.poll();
+
+            if (response instanceof CompressionCodec.UndecodableResponse) {
+                in.add(((CompressionCodec.UndecodableResponse) response).cause());
+                return;
+            }
 
             FullBinaryMemcacheResponse fullResponse = (FullBinaryMemcacheResponse) response;
-            if (clazz.equals(GetRequest.class)) {
-                decodeGet(in, fullResponse);
-            } else if (clazz.equals(NoopRequest.class)) {
+            short status = fullResponse.getHeader().getStatus();
+            if (status != BinaryMemcacheResponseStatus.SUCCESS) {
+                in.add(failure(status));
+                return;
+            }
+
+            if (request instanceof GetRequest) {
+                decodeGet(in, fullResponse, ((GetRequest) request).transcoder());
+            } else if (request instanceof ReplicaGetRequest) {
+                decodeGet(in, fullResponse, null);
+            } else if (request instanceof NoopRequest) {
                 decodeNoop(in, fullResponse);
+            } else if (request instanceof UpsertRequest) {
+                decodeUpsert(in, fullResponse);
+            } else if (request instanceof ObserveRequest) {
+                decodeObserve(in, fullResponse, (ObserveRequest) request);
+            }
+        }
+
+        /**
+         * Maps an error status to the exception the request fails with, shared where possible since a failing node
+         * usually fails every request.
+         */
+        private CouchbaseException failure(short status) {
+            switch (status) {
+                case BinaryMemcacheResponseStatus.KEY_ENOENT:
+                    return KeyNotFoundException.instance();
+                case BinaryMemcacheResponseStatus.KEY_EEXISTS:
+                    return KeyExistsException.instance();
+                case STATUS_NOT_MY_VBUCKET:
+                    return NotMyVbucketException.instance();
+                case BinaryMemcacheResponseStatus.ENOMEM:
+                case STATUS_EBUSY:
+                case STATUS_TMPFAIL:
+                    return TemporaryFailureException.instance();
+                default:
+                    return new UnexpectedStatusException("Unexpected status from the server: 0x"
+                        + Integer.toHexString(status & 0xFFFF), status);
             }
         }
 
-        private void decodeGet(List<Object> in, FullBinaryMemcacheResponse response) {
-            // real decoding here.
-            in.add(new GetResponse());
+        /**
+         * Decodes the value with the transcoder of the request if there is one, a value that can not be decoded fails
+         * the request.
+         */
+        private void decodeGet(List<Object> in, FullBinaryMemcacheResponse response, Transcoder<?> transcoder) {
+            ByteBuf extras = response.getExtras();
+            int flags = extras != null && extras.readableBytes() >= 4 ? extras.getInt(extras.readerIndex()) : 0;
+            long cas = response.getHeader().getCAS();
+            ByteBuf content;
+            Object value;
+            if (transcoder == null) {
+                content = response.content().retain();
+                value = null;
+            } else {
+                try {
+                    content = Unpooled.EMPTY_BUFFER;
+                    value = transcoder.decode(response.content());
+                } catch (TranscodingException ex) {
+                    in.add(ex);
+                    return;
+                }
+            }
+            in.add(recycling ? GetResponse.newInstance(content, value, flags, cas)
+                : new GetResponse(content, value, flags, cas));
         }
 
         private void decodeNoop(List<Object> in, FullBinaryMemcacheResponse response) {
-            in.add(new NoopResponse());
+            in.add(recycling ? NOOP_RESPONSE : new NoopResponse());
+        }
+
+        private void decodeUpsert(List<Object> in, FullBinaryMemcacheResponse response) {
+            in.add(recycling ? UPSERT_RESPONSE : new UpsertResponse());
+        }
+
+        /**
+         * Decodes the body of a single key observe: vbucket, key length, key, key state and CAS. A body which is too
+         * short or carries an unknown key state fails the request, like a value that can not be decoded.
+         */
+        private void decodeObserve(List<Object> in, FullBinaryMemcacheResponse response, ObserveRequest request) {
+            ByteBuf content = response.content();
+            int length = content.readableBytes();
+            if (length < 4 || length < 4 + content.getUnsignedShort(content.readerIndex() + 2) + 9) {
+                in.add(new CouchbaseException("Malformed observe response of " + length + " bytes"));
+                return;
+            }
+            content.skipBytes(2);
+            content.skipBytes(content.readUnsignedShort());
+            ObserveResponse.KeyState state;
+            try {
+                state = ObserveResponse.KeyState.valueOf(content.readByte());
+            } catch (IllegalArgumentException ex) {
+                in.add(new CouchbaseException(ex.getMessage(), ex));
+                return;
+            }
+            long cas = content.readLong();
+            in.add(new ObserveResponse(state, cas, request.replica()));
         }
 
     }
@@ -24,11 +24,13 @@ package com.couchbase.client.core.io.endpoint.memcache;
 
 import com.couchbase.client.core.io.endpoint.AbstractEndpoint;
 import com.couchbase.client.core.message.request.memcache.MemcacheRequest;
+import com.couchbase.client.core.message.request.memcache.NoopRequest;
 import com.couchbase.client.core.message.response.memcache.MemcacheResponse;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.EventLoopGroup;
 import io.netty.handler.codec.memcache.binary.BinaryMemcacheClientCodec;
-import io.netty.handler.codec.memcache.binary.BinaryMemcacheObjectAggregator;
+import io.netty.util.concurrent.Future;
 import reactor.core.Environment;
 import reactor.function.Consumer;
 import reactor.tcp.Reconnect;
@@ -43,6 +45,22 @@ import java.net.InetSocketAddress;
  */
 public class MemcacheEndpoint extends AbstractEndpoint<MemcacheRequest, MemcacheResponse> {
 
+    /**
+     * The minimum value size to compress, 0 if compression is disabled.
+     */
+    private volatile int compressionThreshold;
+
+    /**
+     * The credentials to authenticate with, no authentication if the user is null.
+     */
+    private volatile String username;
+    private volatile String password;
+
+    /**
+     * If message objects are recycled, disabled by default.
+     */
+    private volatile boolean recycling;
+
     public MemcacheEndpoint(final InetSocketAddress addr, final Environment env, final EventLoopGroup group) {
         super(addr, env, group);
     }
@@ -51,8 +69,57 @@ public class MemcacheEndpoint extends AbstractEndpoint<MemcacheRequest, Memcache
     protected void customEndpointHandlers(final ChannelPipeline pipeline) {
         pipeline
             .addLast(new BinaryMemcacheClientCodec())
-            .addLast(new BinaryMemcacheObjectAggregator(Integer.MAX_VALUE))
-            .addLast(new MemcacheCodec());
+            .addLast(new ExtrasRetainingAggregator(Integer.MAX_VALUE));
+        if (username != null) {
+            pipeline.addLast(new SaslAuthHandler(username, password));
+        }
+        if (compressionThreshold > 0) {
+            pipeline.addLast(new CompressionCodec(compressionThreshold));
+        }
+        pipeline.addLast(new MemcacheCodec(recycling));
+    }
+
+    /**
+     * Compress values of at least the given size with Snappy, applied to connections opened afterwards.
+     *
+     * @param threshold the minimum value size in bytes, 0 to disable compression.
+     */
+    public void setCompressionThreshold(final int threshold) {
+        compressionThreshold = threshold;
+    }
+
+    /**
+     * Authenticate with the given credentials via SASL, applied to connections opened afterwards.
+     *
+     * @param username the user (or bucket) name, null to disable authentication.
+     * @param password the password.
+     */
+    public void setCredentials(final String username, final String password) {
+        this.password = password;
+        this.username = username;
+    }
+
+    /**
+     * Recycle message objects instead of allocating them per request, applied to connections opened afterwards.
+     *
+     * {@link com.couchbase.client.core.message.response.memcache.GetResponse}s are then pooled and have to be
+     * recycled by their receivers, see {@link MemcacheCodec#MemcacheCodec(boolean)}.
+     *
+     * @param recycling true to recycle message objects.
+     */
+    public void setRecycling(final boolean recycling) {
+        this.recycling = recycling;
+    }
+
+    @Override
+    protected Future<Void> handshake(final Channel ch) {
+        SaslAuthHandler auth = ch.pipeline().get(SaslAuthHandler.class);
+        return auth == null ? super.handshake(ch) : auth.handshakeFuture();
+    }
+
+    @Override
+    protected MemcacheRequest probeRequest() {
+        return new NoopRequest();
     }
 
 }
@@ -0,0 +1,346 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.client.core.io.endpoint.memcache;
+
+import com.couchbase.client.core.AuthenticationException;
+import com.couchbase.client.core.RequestTimeoutException;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerAdapter;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.base64.Base64;
+import io.netty.handler.codec.memcache.binary.BinaryMemcacheRequestHeader;
+import io.netty.handler.codec.memcache.binary.DefaultBinaryMemcacheRequestHeader;
+import io.netty.handler.codec.memcache.binary.DefaultFullBinaryMemcacheRequest;
+import io.netty.handler.codec.memcache.binary.FullBinaryMemcacheResponse;
+import io.netty.util.CharsetUtil;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.FutureListener;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.nio.channels.ClosedChannelException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Authenticates a freshly connected memcache channel with SASL before any request is sent over it.
+ *
+ * The handler asks the server for its mechanisms once the channel becomes active, picks the strongest supported one
+ * (see {@link SaslMechanism}) and runs the PLAIN or SCRAM exchange. For SCRAM the server signature is verified as
+ * well, so a server not knowing the password is detected. The derived SCRAM keys come from the {@link ScramKeys}
+ * cache; while they are still being derived, the exchange waits for them without blocking the event loop. Once done, the handler removes itself from the pipeline and completes the {@link #handshakeFuture()}.
+ *
+ * The handler sits between the {@link io.netty.handler.codec.memcache.binary.BinaryMemcacheObjectAggregator} and the
+ * rest of the memcache stack, so it only sees full messages and the stages above never see the handshake.
+ */
+class SaslAuthHandler extends ChannelHandlerAdapter {
+
+    static final byte OPCODE_SASL_LIST_MECHS = 0x20;
+    static final byte OPCODE_SASL_AUTH = 0x21;
+    static final byte OPCODE_SASL_STEP = 0x22;
+
+    static final short STATUS_SUCCESS = 0x00;
+    static final short STATUS_AUTH_ERROR = 0x20;
+    static final short STATUS_AUTH_CONTINUE = 0x21;
+
+    /**
+     * How long the whole exchange may take before the channel is given up.
+     */
+    static final long HANDSHAKE_TIMEOUT_MILLIS = 10000;
+
+    /**
+     * The base64 encoded GS2 header "n,,", no channel binding is used.
+     */
+    private static final String GS2_HEADER = "n,,";
+    private static final String GS2_HEADER_BASE64 = "biws";
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final String username;
+    private final String password;
+
+    private ChannelPromise handshakePromise;
+    private ScheduledFuture<?> timeout;
+    private SaslMechanism mechanism;
+    private String clientNonce;
+    private String clientFirstBare;
+    private String authMessage;
+    private ScramKeys keys;
+
+    SaslAuthHandler(final String username, final String password) {
+        this.username = username;
+        this.password = password;
+    }
+
+    /**
+     * Returns the future completed once the channel is authenticated, or failed if that did not work out.
+     */
+    Future<Void> handshakeFuture() {
+        return handshakePromise;
+    }
+
+    @Override
+    public void handlerAdded(final ChannelHandlerContext ctx) throws Exception {
+        handshakePromise = ctx.newPromise();
+        if (ctx.channel().isActive()) {
+            start(ctx);
+        }
+    }
+
+    @Override
+    public void channelActive(final ChannelHandlerContext ctx) throws Exception {
+        ctx.fireChannelActive();
+        start(ctx);
+    }
+
+    @Override
+    public void channelInactive(final ChannelHandlerContext ctx) throws Exception {
+        // Not an AuthenticationException, the server did not reject anything and the connect is retried.
+        fail(ctx, new ClosedChannelException());
+        ctx.fireChannelInactive();
+    }
+
+    @Override
+    public void exceptionCaught(final ChannelHandlerContext ctx, final Throwable cause) throws Exception {
+        fail(ctx, cause);
+    }
+
+    @Override
+    public void channelRead(final ChannelHandlerContext ctx, final Object msg) throws Exception {
+        if (!(msg instanceof FullBinaryMemcacheResponse)) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+
+        FullBinaryMemcacheResponse response = (FullBinaryMemcacheResponse) msg;
+        try {
+            String value = response.content().toString(CharsetUtil.UTF_8);
+            short status = response.getHeader().getStatus();
+            switch (response.getHeader().getOpcode()) {
+                case OPCODE_SASL_LIST_MECHS:
+                    handleMechanisms(ctx, status, value);
+                    break;
+                case OPCODE_SASL_AUTH:
+                    handleAuth(ctx, status, value);
+                    break;
+                case OPCODE_SASL_STEP:
+                    handleStep(ctx, status, value);
+                    break;
+                default:
+                    fail(ctx, new AuthenticationException("Unexpected response during authentication, opcode: "
+                        + response.getHeader().getOpcode()));
+            }
+        } catch (Exception ex) {
+            fail(ctx, ex instanceof AuthenticationException ? ex
+                : new AuthenticationException("Invalid response during authentication", ex));
+        } finally {
+            ReferenceCountUtil.release(msg);
+        }
+    }
+
+    private void start(final ChannelHandlerContext ctx) {
+        if (timeout != null) {
+            return;
+        }
+        timeout = ctx.executor().schedule(new Runnable() {
+            @Override
+            public void run() {
+                fail(ctx, new RequestTimeoutException("Authentication did not complete within "
+                    + HANDSHAKE_TIMEOUT_MILLIS + "ms"));
+            }
+        }, HANDSHAKE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        send(ctx, OPCODE_SASL_LIST_MECHS, null, null);
+    }
+
+    private void handleMechanisms(final ChannelHandlerContext ctx, final short status, final String value) {
+        if (status != STATUS_SUCCESS) {
+            fail(ctx, new AuthenticationException("Could not list the SASL mechanisms, status: " + status));
+            return;
+        }
+        mechanism = SaslMechanism.strongest(value);
+        if (mechanism == null) {
+            fail(ctx, new AuthenticationException("No supported SASL mechanism offered: " + value));
+            return;
+        }
+
+        if (mechanism.isScram()) {
+            byte[] nonce = new byte[24];
+            RANDOM.nextBytes(nonce);
+            clientNonce = base64(nonce);
+            clientFirstBare = "n=" + escape(username) + ",r=" + clientNonce;
+            send(ctx, OPCODE_SASL_AUTH, mechanism.saslName(), GS2_HEADER + clientFirstBare);
+        } else {
+            send(ctx, OPCODE_SASL_AUTH, mechanism.saslName(), '\0' + username + '\0' + password);
+        }
+    }
+
+    private void handleAuth(final ChannelHandlerContext ctx, final short status, final String value) {
+        if (status == STATUS_SUCCESS && !mechanism.isScram()) {
+            succeed(ctx);
+        } else if (status == STATUS_AUTH_CONTINUE && mechanism.isScram()) {
+            final String nonce = attribute(value, 'r');
+            if (!nonce.startsWith(clientNonce)) {
+                throw new AuthenticationException("The server nonce does not extend the client nonce");
+            }
+            final Future<ScramKeys> derived = ScramKeys.get(mechanism, password, unbase64(attribute(value, 's')),
+                Integer.parseInt(attribute(value, 'i')));
+            if (derived.isDone()) {
+                sendProof(ctx, derived, nonce, value);
+                return;
+            }
+            derived.addListener(new FutureListener<ScramKeys>() {
+                @Override
+                public void operationComplete(final Future<ScramKeys> future) throws Exception {
+                    ctx.executor().execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            sendProof(ctx, derived, nonce, value);
+                        }
+                    });
+                }
+            });
+        } else {
+            failStatus(ctx, status);
+        }
+    }
+
+    /**
+     * Sends the client proof once the keys are derived, unless the exchange has been given up in the meantime.
+     */
+    private void sendProof(final ChannelHandlerContext ctx, final Future<ScramKeys> derived, final String nonce,
+        final String serverFirst) {
+        if (handshakePromise.isDone()) {
+            return;
+        }
+        if (!derived.isSuccess()) {
+            Throwable cause = derived.cause();
+            fail(ctx, cause instanceof AuthenticationException ? cause
+                : new AuthenticationException("Invalid response during authentication", cause));
+            return;
+        }
+        keys = derived.getNow();
+
+        String clientFinalWithoutProof = "c=" + GS2_HEADER_BASE64 + ",r=" + nonce;
+        authMessage = clientFirstBare + "," + serverFirst + "," + clientFinalWithoutProof;
+        send(ctx, OPCODE_SASL_STEP, mechanism.saslName(),
+            clientFinalWithoutProof + ",p=" + base64(keys.clientProof(authMessage)));
+    }
+
+    private void handleStep(final ChannelHandlerContext ctx, final short status, final String value) {
+        if (status != STATUS_SUCCESS || keys == null) {
+            failStatus(ctx, status);
+            return;
+        }
+        byte[] signature = unbase64(attribute(value, 'v'));
+        if (!MessageDigest.isEqual(signature, keys.serverSignature(authMessage))) {
+            fail(ctx, new AuthenticationException("The server signature does not match, the server does not know "
+                + "the password"));
+            return;
+        }
+        succeed(ctx);
+    }
+
+    private void failStatus(final ChannelHandlerContext ctx, final short status) {
+        if (status == STATUS_AUTH_ERROR) {
+            fail(ctx, new AuthenticationException("Authentication failed for user " + username));
+        } else {
+            fail(ctx, new AuthenticationException("Unexpected status during authentication: " + status));
+        }
+    }
+
+    private void succeed(final ChannelHandlerContext ctx) {
+        timeout.cancel(false);
+        ctx.pipeline().remove(this);
+        handshakePromise.trySuccess();
+    }
+
+    private void fail(final ChannelHandlerContext ctx, final Throwable cause) {
+        if (handshakePromise.tryFailure(cause)) {
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+            ctx.close();
+        }
+    }
+
+    private void send(final ChannelHandlerContext ctx, final byte opcode, final String key, final String value) {
+        ByteBuf content = value == null ? Unpooled.EMPTY_BUFFER : Unpooled.copiedBuffer(value, CharsetUtil.UTF_8);
+        short keyLength = key == null ? 0 : (short) key.length();
+        BinaryMemcacheRequestHeader header = new DefaultBinaryMemcacheRequestHeader();
+        header.setOpcode(opcode);
+        header.setKeyLength(keyLength);
+        header.setTotalBodyLength(keyLength + content.readableBytes());
+        ctx.writeAndFlush(new DefaultFullBinaryMemcacheRequest(header, key, Unpooled.EMPTY_BUFFER, content))
+            .addListener(new ChannelFutureListener() {
+                @Override
+                public void operationComplete(final ChannelFuture future) throws Exception {
+                    if (!future.isSuccess()) {
+                        fail(ctx, future.cause());
+                    }
+                }
+            });
+    }
+
+    /**
+     * Returns the value of the given attribute of a SCRAM message.
+     */
+    static String attribute(final String message, final char name) {
+        for (String part : message.split(",")) {
+            if (part.length() > 1 && part.charAt(0) == name && part.charAt(1) == '=') {
+                return part.substring(2);
+            }
+        }
+        throw new AuthenticationException("Missing attribute " + name + " in SCRAM message");
+    }
+
+    /**
+     * Escapes the characters SCRAM reserves in user names.
+     */
+    static String escape(final String username) {
+        return username.replace("=", "=3D").replace(",", "=2C");
+    }
+
+    static String base64(final byte[] data) {
+        ByteBuf encoded = Base64.encode(Unpooled.wrappedBuffer(data), false);
+        try {
+            return encoded.toString(CharsetUtil.UTF_8);
+        } finally {
+            encoded.release();
+        }
+    }
+
+    static byte[] unbase64(final String data) {
+        ByteBuf decoded = Base64.decode(Unpooled.copiedBuffer(data, CharsetUtil.UTF_8));
+        try {
+            byte[] result = new byte[decoded.readableBytes()];
+            decoded.readBytes(result);
+            return result;
+        } finally {
+            decoded.release();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.client.core.io.endpoint.memcache;
+
+/**
+ * The SASL mechanisms supported to authenticate memcache connections, from the strongest to the weakest.
+ *
+ * The strongest mechanism offered by the server is picked. PLAIN sends the password in the clear and is only used
+ * if the server offers nothing else.
+ */
+public enum SaslMechanism {
+
+    SCRAM_SHA512("SCRAM-SHA512", "HmacSHA512", "SHA-512"),
+    SCRAM_SHA256("SCRAM-SHA256", "HmacSHA256", "SHA-256"),
+    SCRAM_SHA1("SCRAM-SHA1", "HmacSHA1", "SHA-1"),
+    PLAIN("PLAIN", null, null);
+
+    private final String saslName;
+    private final String hmacAlgorithm;
+    private final String digestAlgorithm;
+
+    SaslMechanism(final String saslName, final String hmacAlgorithm, final String digestAlgorithm) {
+        this.saslName = saslName;
+        this.hmacAlgorithm = hmacAlgorithm;
+        this.digestAlgorithm = digestAlgorithm;
+    }
+
+    /**
+     * Returns the name of the mechanism as listed by the server.
+     */
+    public String saslName() {
+        return saslName;
+    }
+
+    /**
+     * Returns the JCA name of the HMAC used by the SCRAM mechanism, null for PLAIN.
+     */
+    public String hmacAlgorithm() {
+        return hmacAlgorithm;
+    }
+
+    /**
+     * Returns the JCA name of the hash used by the SCRAM mechanism, null for PLAIN.
+     */
+    public String digestAlgorithm() {
+        return digestAlgorithm;
+    }
+
+    /**
+     * Check if this is one of the SCRAM mechanisms.
+     */
+    public boolean isScram() {
+        return hmacAlgorithm != null;
+    }
+
+    /**
+     * Pick the strongest mechanism of the ones listed by the server.
+     *
+     * @param serverMechanisms the space separated list of mechanisms offered by the server.
+     * @return the mechanism to use or null if none of them is supported.
+     */
+    public static SaslMechanism strongest(final String serverMechanisms) {
+        String[] offered = serverMechanisms.trim().split("\\s+");
+        for (SaslMechanism mechanism : values()) {
+            for (String name : offered) {
+                if (mechanism.saslName.equals(name)) {
+                    return mechanism;
+                }
+            }
+        }
+        return null;
+    }
+}
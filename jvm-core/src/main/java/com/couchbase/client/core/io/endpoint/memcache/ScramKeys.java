@@ -0,0 +1,264 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.client.core.io.endpoint.memcache;
+
+import com.couchbase.client.core.AuthenticationException;
+import io.netty.util.CharsetUtil;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import io.netty.util.concurrent.Promise;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The keys a SCRAM client derives from its password (RFC 5802).
+ *
+ * Deriving them runs the password through thousands of PBKDF2 iterations, which is by design the expensive part of
+ * the handshake. Since the salt and the iteration count only change when the password changes on the server, the
+ * keys are cached per mechanism, password, salt and iteration count: a reconnect storm over many sockets pays for
+ * the derivation once, every further handshake only costs two HMACs.
+ *
+ * The first caller for a key puts a pending future into the cache before deriving, so concurrent handshakes wait for
+ * that single derivation instead of running their own. The derivation runs on the {@link GlobalEventExecutor}, off
+ * the IO event loops. The cache only holds a digest of the password, never the password itself.
+ *
+ * PBKDF2 is computed on top of {@link Mac}, since the JDK only ships a SHA-1 variant of it.
+ */
+public final class ScramKeys {
+
+    /**
+     * Upper bound of cached keys, the cache is cleared once it is exceeded.
+     */
+    static final int MAX_CACHED_KEYS = 256;
+
+    private static final ConcurrentMap<CacheKey, Future<ScramKeys>> CACHE
+        = new ConcurrentHashMap<CacheKey, Future<ScramKeys>>();
+
+    private final SaslMechanism mechanism;
+    private final byte[] clientKey;
+    private final byte[] storedKey;
+    private final byte[] serverKey;
+
+    private ScramKeys(final SaslMechanism mechanism, final byte[] saltedPassword) {
+        this.mechanism = mechanism;
+        clientKey = hmac(mechanism, saltedPassword, "Client Key".getBytes(CharsetUtil.UTF_8));
+        storedKey = digest(mechanism, clientKey);
+        serverKey = hmac(mechanism, saltedPassword, "Server Key".getBytes(CharsetUtil.UTF_8));
+    }
+
+    /**
+     * Returns the keys for the given parameters, deriving them off the event loop only if they are not cached yet.
+     *
+     * The returned future is already done if the keys are cached. A failed derivation is not cached.
+     *
+     * @param mechanism the SCRAM mechanism.
+     * @param password the password.
+     * @param salt the salt sent by the server.
+     * @param iterations the iteration count sent by the server.
+     * @return a future completed with the derived keys.
+     */
+    public static Future<ScramKeys> get(final SaslMechanism mechanism, final String password, final byte[] salt,
+        final int iterations) {
+        final CacheKey key = new CacheKey(mechanism, password, salt, iterations);
+        Future<ScramKeys> keys = CACHE.get(key);
+        if (keys != null) {
+            return keys;
+        }
+
+        if (CACHE.size() >= MAX_CACHED_KEYS) {
+            CACHE.clear();
+        }
+        final Promise<ScramKeys> pending = GlobalEventExecutor.INSTANCE.newPromise();
+        Future<ScramKeys> existing = CACHE.putIfAbsent(key, pending);
+        if (existing != null) {
+            return existing;
+        }
+        final byte[] saltCopy = salt.clone();
+        GlobalEventExecutor.INSTANCE.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    pending.setSuccess(derive(mechanism, password, saltCopy, iterations));
+                } catch (RuntimeException ex) {
+                    CACHE.remove(key, pending);
+                    pending.setFailure(ex);
+                }
+            }
+        });
+        return pending;
+    }
+
+    /**
+     * Derives the keys for the given parameters without consulting the cache.
+     *
+     * @param mechanism the SCRAM mechanism.
+     * @param password the password.
+     * @param salt the salt.
+     * @param iterations the iteration count.
+     * @return the derived keys.
+     */
+    public static ScramKeys derive(final SaslMechanism mechanism, final String password, final byte[] salt,
+        final int iterations) {
+        if (!mechanism.isScram()) {
+            throw new IllegalArgumentException(mechanism + " is not a SCRAM mechanism");
+        }
+        if (iterations < 1) {
+            throw new IllegalArgumentException("The iteration count must be positive");
+        }
+        return new ScramKeys(mechanism, saltedPassword(mechanism, password, salt, iterations));
+    }
+
+    /**
+     * Drop all cached keys, for example after credentials have been rotated.
+     */
+    public static void clearCache() {
+        CACHE.clear();
+    }
+
+    /**
+     * Returns the number of cached keys.
+     */
+    static int cacheSize() {
+        return CACHE.size();
+    }
+
+    /**
+     * Computes the proof the client sends to show it knows the password.
+     *
+     * @param authMessage the auth message of the exchange.
+     * @return the client proof.
+     */
+    public byte[] clientProof(final String authMessage) {
+        byte[] proof = hmac(mechanism, storedKey, authMessage.getBytes(CharsetUtil.UTF_8));
+        for (int i = 0; i < proof.length; i++) {
+            proof[i] ^= clientKey[i];
+        }
+        return proof;
+    }
+
+    /**
+     * Computes the signature the server sends to show it knows the password as well.
+     *
+     * @param authMessage the auth message of the exchange.
+     * @return the server signature.
+     */
+    public byte[] serverSignature(final String authMessage) {
+        return hmac(mechanism, serverKey, authMessage.getBytes(CharsetUtil.UTF_8));
+    }
+
+    /**
+     * PBKDF2 limited to a single block, SCRAM asks for exactly one hash length of output.
+     */
+    private static byte[] saltedPassword(final SaslMechanism mechanism, final String password, final byte[] salt,
+        final int iterations) {
+        Mac mac = mac(mechanism, password.getBytes(CharsetUtil.UTF_8));
+        mac.update(salt);
+        mac.update(new byte[] { 0, 0, 0, 1 });
+        byte[] u = mac.doFinal();
+        byte[] result = u.clone();
+        for (int i = 1; i < iterations; i++) {
+            u = mac.doFinal(u);
+            for (int j = 0; j < result.length; j++) {
+                result[j] ^= u[j];
+            }
+        }
+        return result;
+    }
+
+    static byte[] hmac(final SaslMechanism mechanism, final byte[] key, final byte[] data) {
+        return mac(mechanism, key).doFinal(data);
+    }
+
+    static byte[] digest(final SaslMechanism mechanism, final byte[] data) {
+        try {
+            return MessageDigest.getInstance(mechanism.digestAlgorithm()).digest(data);
+        } catch (GeneralSecurityException ex) {
+            throw new AuthenticationException(mechanism.digestAlgorithm() + " is not available", ex);
+        }
+    }
+
+    private static Mac mac(final SaslMechanism mechanism, final byte[] key) {
+        try {
+            Mac mac = Mac.getInstance(mechanism.hmacAlgorithm());
+            mac.init(new SecretKeySpec(key, mechanism.hmacAlgorithm()));
+            return mac;
+        } catch (GeneralSecurityException ex) {
+            throw new AuthenticationException(mechanism.hmacAlgorithm() + " is not available", ex);
+        }
+    }
+
+    /**
+     * Identifies a set of derived keys, the salt is copied so it cannot change underneath the cache. The password is
+     * only kept as a SHA-256 digest, so it does not linger in memory for as long as the keys are cached.
+     */
+    private static final class CacheKey {
+
+        private final SaslMechanism mechanism;
+        private final byte[] password;
+        private final byte[] salt;
+        private final int iterations;
+        private final int hash;
+
+        CacheKey(final SaslMechanism mechanism, final String password, final byte[] salt, final int iterations) {
+            this.mechanism = mechanism;
+            this.password = sha256(password.getBytes(CharsetUtil.UTF_8));
+            this.salt = salt.clone();
+            this.iterations = iterations;
+            int h = mechanism.hashCode();
+            h = 31 * h + Arrays.hashCode(this.password);
+            h = 31 * h + Arrays.hashCode(this.salt);
+            hash = 31 * h + iterations;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof CacheKey)) {
+                return false;
+            }
+            CacheKey other = (CacheKey) o;
+            return mechanism == other.mechanism && iterations == other.iterations
+                && Arrays.equals(password, other.password) && Arrays.equals(salt, other.salt);
+        }
+
+        private static byte[] sha256(final byte[] data) {
+            try {
+                return MessageDigest.getInstance("SHA-256").digest(data);
+            } catch (GeneralSecurityException ex) {
+                throw new AuthenticationException("SHA-256 is not available", ex);
+            }
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.core.io.endpoint.spec;
+
+import com.couchbase.client.core.io.endpoint.CircuitBreaker;
+import reactor.function.Supplier;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Describes the {@link CircuitBreaker} every {@link com.couchbase.client.core.io.endpoint.Endpoint} gets, since
+ * breakers track a single endpoint and can not be shared.
+ */
+public class CircuitBreakerSpec implements Supplier<CircuitBreaker> {
+
+    private int minimumRequests = 20;
+    private int failurePercentage = 50;
+    private long windowMillis = TimeUnit.SECONDS.toMillis(10);
+    private long openMillis = TimeUnit.SECONDS.toMillis(5);
+    private long requestTimeoutMillis = 2500;
+
+    /**
+     * Sets how many requests a window needs before its failure rate is considered, 20 by default.
+     *
+     * @param minimumRequests the minimum number of requests.
+     * @return the {@link CircuitBreakerSpec} for proper chaining.
+     */
+    public CircuitBreakerSpec setMinimumRequests(final int minimumRequests) {
+        this.minimumRequests = minimumRequests;
+        return this;
+    }
+
+    /**
+     * Sets the percentage of failed requests which opens the breaker, 50 by default.
+     *
+     * @param failurePercentage the failure percentage.
+     * @return the {@link CircuitBreakerSpec} for proper chaining.
+     */
+    public CircuitBreakerSpec setFailurePercentage(final int failurePercentage) {
+        this.failurePercentage = failurePercentage;
+        return this;
+    }
+
+    /**
+     * Sets the length of the window the failure rate is measured over, 10 seconds by default.
+     *
+     * @param window the window length.
+     * @param unit the unit of the window.
+     * @return the {@link CircuitBreakerSpec} for proper chaining.
+     */
+    public CircuitBreakerSpec setWindow(final long window, final TimeUnit unit) {
+        this.windowMillis = unit.toMillis(window);
+        return this;
+    }
+
+    /**
+     * Sets how long the breaker stays open before probing, 5 seconds by default.
+     *
+     * @param openDuration the open duration.
+     * @param unit the unit of the duration.
+     * @return the {@link CircuitBreakerSpec} for proper chaining.
+     */
+    public CircuitBreakerSpec setOpenDuration(final long openDuration, final TimeUnit unit) {
+        this.openMillis = unit.toMillis(openDuration);
+        return this;
+    }
+
+    /**
+     * Sets after which time a request counts as failed, 2.5 seconds by default.
+     *
+     * @param requestTimeout the request timeout.
+     * @param unit the unit of the timeout.
+     * @return the {@link CircuitBreakerSpec} for proper chaining.
+     */
+    public CircuitBreakerSpec setRequestTimeout(final long requestTimeout, final TimeUnit unit) {
+        this.requestTimeoutMillis = unit.toMillis(requestTimeout);
+        return this;
+    }
+
+    @Override
+    public CircuitBreaker get() {
+        return new CircuitBreaker(minimumRequests, failurePercentage, windowMillis, openMillis, requestTimeoutMillis,
+            TimeUnit.MILLISECONDS);
+    }
+}
@@ -22,15 +22,20 @@
 
 package com.couchbase.client.core.io.endpoint.spec;
 
+import com.couchbase.client.core.io.endpoint.AbstractEndpoint;
 import com.couchbase.client.core.io.endpoint.Endpoint;
+import com.couchbase.client.core.io.endpoint.ReplyDispatch;
 import com.couchbase.client.core.io.endpoint.design.DesignEndpoint;
 import com.couchbase.client.core.io.endpoint.memcache.MemcacheEndpoint;
 import com.couchbase.client.core.io.service.ServiceType;
+import com.couchbase.client.core.io.topology.IoTopology;
+import com.couchbase.client.core.trace.Tracer;
 import io.netty.channel.EventLoopGroup;
 import reactor.core.Environment;
 import reactor.function.Supplier;
 
 import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
 
 public class EndpointSpec implements Supplier<Endpoint> {
 
@@ -38,6 +43,20 @@ public class EndpointSpec implements Supplier<Endpoint> {
     private final InetSocketAddress addr;
     private final ServiceType serviceType;
     private EventLoopGroup eventLoopGroup;
+    private ReplyDispatch replyDispatch = ReplyDispatch.RING_BUFFER;
+    private IoTopology ioTopology;
+    private int partition;
+    private Tracer tracer;
+    private CircuitBreakerSpec circuitBreaker;
+    private long keepAliveIdleMillis;
+    private long keepAliveTimeoutMillis;
+    private long warmUpTimeoutMillis;
+    private long starvationGuardNanos = -1;
+    private int compressionThreshold;
+    private boolean recycling;
+    private SslSpec ssl;
+    private String username;
+    private String password;
 
     public EndpointSpec(Environment env, InetSocketAddress addr, ServiceType serviceType) {
         this.env = env;
@@ -56,19 +75,184 @@ public class EndpointSpec implements Supplier<Endpoint> {
         return this;
     }
 
+    /**
+     * Pins the created {@link Endpoint}s to the loop of the given node partition inside the {@link IoTopology}.
+     *
+     * If set, it takes precedence over {@link #setEventLoopGroup(EventLoopGroup)}.
+     *
+     * @param ioTopology the topology to pin into.
+     * @param partition the partition the endpoints serve.
+     * @return the {@link EndpointSpec} for proper chaining.
+     */
+    public EndpointSpec setIoTopology(final IoTopology ioTopology, final int partition) {
+        this.ioTopology = ioTopology;
+        this.partition = partition;
+        return this;
+    }
+
+    /**
+     * Sets where replies are delivered by default.
+     *
+     * @param replyDispatch the reply dispatch to use.
+     * @return the {@link EndpointSpec} for proper chaining.
+     */
+    public EndpointSpec setReplyDispatch(final ReplyDispatch replyDispatch) {
+        this.replyDispatch = replyDispatch;
+        return this;
+    }
+
+    /**
+     * Sets the {@link Tracer} used to trace requests, none by default.
+     *
+     * @param tracer the tracer to use.
+     * @return the {@link EndpointSpec} for proper chaining.
+     */
+    public EndpointSpec setTracer(final Tracer tracer) {
+        this.tracer = tracer;
+        return this;
+    }
+
+    /**
+     * Gives every created {@link Endpoint} its own circuit breaker as described, none by default.
+     *
+     * @param circuitBreaker the circuit breaker description.
+     * @return the {@link EndpointSpec} for proper chaining.
+     */
+    public EndpointSpec setCircuitBreaker(final CircuitBreakerSpec circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+        return this;
+    }
+
+    /**
+     * Sends a keepalive on connections which did not read anything for the given idle time and reconnects if it is
+     * not answered within the timeout. Disabled by default.
+     *
+     * @param idle the idle time after which a keepalive is sent.
+     * @param timeout how long to wait for the keepalive reply.
+     * @param unit the unit of idle time and timeout.
+     * @return the {@link EndpointSpec} for proper chaining.
+     */
+    public EndpointSpec setKeepAlive(final long idle, final long timeout, final TimeUnit unit) {
+        this.keepAliveIdleMillis = unit.toMillis(idle);
+        this.keepAliveTimeoutMillis = unit.toMillis(timeout);
+        return this;
+    }
+
+    /**
+     * Warms up fresh connections with a probe request (a noop on memcache endpoints) before they take requests, and
+     * reconnects if it is not answered within the timeout. Disabled by default.
+     *
+     * @param timeout how long to wait for the warm-up reply.
+     * @param unit the unit of the timeout.
+     * @return the {@link EndpointSpec} for proper chaining.
+     */
+    public EndpointSpec setWarmUp(final long timeout, final TimeUnit unit) {
+        this.warmUpTimeoutMillis = unit.toMillis(timeout);
+        return this;
+    }
+
+    /**
+     * Limits how long requests in the lower {@link com.couchbase.client.core.io.endpoint.RequestPriority} lanes wait
+     * for the higher ones while a connection is backed up. 10 milliseconds by default.
+     *
+     * @param guard the maximum time to wait, 0 never holds them back.
+     * @param unit the unit of the guard.
+     * @return the {@link EndpointSpec} for proper chaining.
+     */
+    public EndpointSpec setStarvationGuard(final long guard, final TimeUnit unit) {
+        this.starvationGuardNanos = unit.toNanos(guard);
+        return this;
+    }
+
+    /**
+     * Compresses values of at least the given size on memcache endpoints. Disabled by default.
+     *
+     * @param threshold the minimum value size in bytes, 0 to disable compression.
+     * @return the {@link EndpointSpec} for proper chaining.
+     */
+    public EndpointSpec setCompression(final int threshold) {
+        this.compressionThreshold = threshold;
+        return this;
+    }
+
+    /**
+     * Recycles message objects on memcache endpoints instead of allocating them per request. Disabled by default.
+     *
+     * Responses to gets are then pooled, their receivers hand them back with
+     * {@link com.couchbase.client.core.message.response.memcache.GetResponse#recycle()}.
+     *
+     * @param recycling true to recycle message objects.
+     * @return the {@link EndpointSpec} for proper chaining.
+     */
+    public EndpointSpec setRecycling(final boolean recycling) {
+        this.recycling = recycling;
+        return this;
+    }
+
+    /**
+     * Encrypts connections with TLS as described, plaintext by default.
+     *
+     * All endpoints created by this spec share the TLS context of the given {@link SslSpec}, and with it the cache
+     * of sessions to resume.
+     *
+     * @param ssl the TLS description.
+     * @return the {@link EndpointSpec} for proper chaining.
+     */
+    public EndpointSpec setSsl(final SslSpec ssl) {
+        this.ssl = ssl;
+        return this;
+    }
+
+    /**
+     * Authenticates memcache connections with the given credentials before they are used. None by default.
+     *
+     * @param username the user (or bucket) name.
+     * @param password the password.
+     * @return the {@link EndpointSpec} for proper chaining.
+     */
+    public EndpointSpec setCredentials(final String username, final String password) {
+        this.username = username;
+        this.password = password;
+        return this;
+    }
+
     @Override
     public Endpoint get() {
-        if (eventLoopGroup == null) {
-            throw new IllegalStateException("A EventLoopGroup must be provided.");
+        if (eventLoopGroup == null && ioTopology == null) {
+            throw new IllegalStateException("A EventLoopGroup or IoTopology must be provided.");
         }
 
+        EventLoopGroup group = ioTopology == null ? eventLoopGroup : ioTopology.pin(addr, partition);
+        AbstractEndpoint<?, ?> endpoint;
         switch (serviceType) {
             case DESIGN:
-                return new DesignEndpoint(addr, env, eventLoopGroup);
+                endpoint = new DesignEndpoint(addr, env, group);
+                break;
             case MEMCACHE:
-                return new MemcacheEndpoint(addr, env, eventLoopGroup);
+                MemcacheEndpoint memcacheEndpoint = new MemcacheEndpoint(addr, env, group);
+                memcacheEndpoint.setCompressionThreshold(compressionThreshold);
+                memcacheEndpoint.setRecycling(recycling);
+                if (username != null) {
+                    memcacheEndpoint.setCredentials(username, password);
+                }
+                endpoint = memcacheEndpoint;
+                break;
             default:
                 throw new IllegalArgumentException("Could not create Endpoint for type: " + serviceType);
         }
+        endpoint.setDefaultReplyDispatch(replyDispatch);
+        endpoint.setTracer(tracer);
+        endpoint.setKeepAlive(keepAliveIdleMillis, keepAliveTimeoutMillis, TimeUnit.MILLISECONDS);
+        endpoint.setWarmUp(warmUpTimeoutMillis, TimeUnit.MILLISECONDS);
+        if (starvationGuardNanos >= 0) {
+            endpoint.setStarvationGuard(starvationGuardNanos, TimeUnit.NANOSECONDS);
+        }
+        if (circuitBreaker != null) {
+            endpoint.setCircuitBreaker(circuitBreaker.get());
+        }
+        if (ssl != null) {
+            endpoint.setSsl(ssl.get());
+        }
+        return endpoint;
     }
 }
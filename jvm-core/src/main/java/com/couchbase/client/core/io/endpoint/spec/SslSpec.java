@@ -0,0 +1,155 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.client.core.io.endpoint.spec;
+
+import com.couchbase.client.core.CouchbaseException;
+import com.couchbase.client.core.io.endpoint.SslEngineFactory;
+import reactor.function.Supplier;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.TrustManagerFactory;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Describes how {@link com.couchbase.client.core.io.endpoint.Endpoint}s encrypt their connections with TLS.
+ *
+ * The {@link SslEngineFactory} is built once on the first {@link #get()} and handed to every endpoint afterwards, so
+ * all of them share one client context and with it one session cache. Reconnecting endpoints resume cached sessions
+ * instead of running full handshakes.
+ */
+public class SslSpec implements Supplier<SslEngineFactory> {
+
+    private SSLContext context;
+    private KeyStore trustStore;
+    private String[] protocols;
+    private int sessionCacheSize = 1024;
+    private long sessionTimeoutSeconds = TimeUnit.HOURS.toSeconds(1);
+    private long handshakeTimeoutMillis = TimeUnit.SECONDS.toMillis(10);
+    private boolean hostnameVerification = true;
+    private SslEngineFactory factory;
+
+    /**
+     * Uses the given, already initialized context instead of building one. The session cache settings are applied
+     * to it as well.
+     *
+     * @param context the context to use.
+     * @return the {@link SslSpec} for proper chaining.
+     */
+    public SslSpec setContext(final SSLContext context) {
+        this.context = context;
+        return this;
+    }
+
+    /**
+     * Trusts the certificates of the given store, the JDK default trust store is used otherwise.
+     *
+     * @param trustStore the trust store.
+     * @return the {@link SslSpec} for proper chaining.
+     */
+    public SslSpec setTrustStore(final KeyStore trustStore) {
+        this.trustStore = trustStore;
+        return this;
+    }
+
+    /**
+     * Restricts the enabled protocols (like TLSv1.2), the defaults of the context are used otherwise.
+     *
+     * The TLS stage of the Netty version in use predates TLSv1.3, so on JDKs enabling it by default the protocols
+     * should be restricted to TLSv1.2.
+     *
+     * @param protocols the protocols to enable.
+     * @return the {@link SslSpec} for proper chaining.
+     */
+    public SslSpec setProtocols(final String... protocols) {
+        this.protocols = protocols;
+        return this;
+    }
+
+    /**
+     * Sets how many sessions are cached for resumption and for how long, 1024 for an hour by default.
+     *
+     * @param size the maximum number of cached sessions, 0 for no limit.
+     * @param timeout how long a session can be resumed.
+     * @param unit the unit of the timeout.
+     * @return the {@link SslSpec} for proper chaining.
+     */
+    public SslSpec setSessionCache(final int size, final long timeout, final TimeUnit unit) {
+        this.sessionCacheSize = size;
+        this.sessionTimeoutSeconds = unit.toSeconds(timeout);
+        return this;
+    }
+
+    /**
+     * Sets the time a TLS handshake may take before the connection is given up, 10 seconds by default.
+     *
+     * @param handshakeTimeout the handshake timeout.
+     * @param unit the unit of the timeout.
+     * @return the {@link SslSpec} for proper chaining.
+     */
+    public SslSpec setHandshakeTimeout(final long handshakeTimeout, final TimeUnit unit) {
+        this.handshakeTimeoutMillis = unit.toMillis(handshakeTimeout);
+        return this;
+    }
+
+    /**
+     * Sets whether the certificate of the server has to be issued for the host connected to, enabled by default.
+     *
+     * Without the check any certificate the trust store accepts is good for every host, so only disable it if the
+     * trust store holds nothing but the certificates of the cluster.
+     *
+     * @param hostnameVerification true to verify the hostname.
+     * @return the {@link SslSpec} for proper chaining.
+     */
+    public SslSpec setHostnameVerification(final boolean hostnameVerification) {
+        this.hostnameVerification = hostnameVerification;
+        return this;
+    }
+
+    @Override
+    public synchronized SslEngineFactory get() {
+        if (factory == null) {
+            SSLContext sslContext = context == null ? buildContext() : context;
+            SSLSessionContext sessions = sslContext.getClientSessionContext();
+            sessions.setSessionCacheSize(sessionCacheSize);
+            sessions.setSessionTimeout((int) sessionTimeoutSeconds);
+            factory = new SslEngineFactory(sslContext, protocols, handshakeTimeoutMillis,
+                hostnameVerification);
+        }
+        return factory;
+    }
+
+    private SSLContext buildContext() {
+        try {
+            TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(
+                TrustManagerFactory.getDefaultAlgorithm());
+            trustManagers.init(trustStore);
+            SSLContext sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(null, trustManagers.getTrustManagers(), null);
+            return sslContext;
+        } catch (GeneralSecurityException ex) {
+            throw new CouchbaseException("Could not initialize the SSL context", ex);
+        }
+    }
+}
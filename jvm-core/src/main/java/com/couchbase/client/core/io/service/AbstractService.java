@@ -22,22 +22,34 @@
 
 package com.couchbase.client.core.io.service;
 
+import com.couchbase.client.core.BackpressureException;
 import com.couchbase.client.core.io.endpoint.Endpoint;
+import com.couchbase.client.core.io.endpoint.EndpointState;
+import com.couchbase.client.core.io.endpoint.RequestPriority;
 import com.couchbase.client.core.io.endpoint.spec.EndpointSpec;
+import org.reactivestreams.Publisher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import reactor.core.Environment;
 import reactor.core.composable.Deferred;
 import reactor.core.composable.Promise;
 import reactor.core.composable.Stream;
+import reactor.core.composable.spec.Promises;
 import reactor.core.composable.spec.Streams;
 import reactor.event.Event;
 import reactor.event.registry.CachingRegistry;
 import reactor.event.registry.Registration;
 import reactor.event.registry.Registry;
+import reactor.function.Consumer;
 
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static reactor.event.selector.Selectors.$;
 
@@ -57,6 +69,11 @@ public abstract class AbstractService<REQ, RES> implements Service<REQ, RES> {
     private static final ServiceNotConnectedException NOT_CONNECTED_EXCEPTION
         = new ServiceNotConnectedException("Service is not connected");
 
+    /**
+     * The longest time an {@link Endpoint} leaving the pool is given to answer its outstanding requests.
+     */
+    private static final long DRAIN_TIMEOUT_MILLIS = 30000;
+
     /**
      * Default execution pool to use for promises.
      */
@@ -82,11 +99,62 @@ public abstract class AbstractService<REQ, RES> implements Service<REQ, RES> {
      */
     private final Registry<Endpoint<REQ, RES>> endpointRegistry;
 
+    /**
+     * Snapshot of the registered {@link Endpoint}s for lock-free selection on the request path.
+     */
+    private volatile Endpoint<REQ, RES>[] endpoints;
+
+    /**
+     * Counter used to select the next {@link Endpoint} in a round-robin fashion.
+     */
+    private final AtomicInteger nextEndpoint = new AtomicInteger();
+
+    /**
+     * Limits the rate of requests if set, null by default.
+     */
+    private volatile RateLimits rateLimits;
+
+    /**
+     * The bucket the rate limits are matched against, null if this service serves all buckets.
+     */
+    private volatile String bucket;
+
     /**
      * Holds the current {@link ServiceState}.
      */
     private volatile ServiceState state = ServiceState.DISCONNECTED;
 
+    /**
+     * Describes the endpoints added when the pool grows, null if the endpoints were handed in.
+     */
+    private final EndpointSpec spec;
+
+    /**
+     * The number of endpoints in the pool, registered as "/TYPE/0" up to "/TYPE/(poolSize - 1)".
+     */
+    private int poolSize;
+
+    /**
+     * If {@link #connect()} was called, so that endpoints added to the pool connect as well.
+     */
+    private volatile boolean connectRequested;
+
+    /**
+     * If the endpoints only connect once the first request needs them.
+     */
+    private volatile boolean lazy;
+
+    /**
+     * The connect attempt started by the first request in lazy mode, null until then.
+     */
+    private Promise<ServiceState> lazyConnect;
+
+    /**
+     * Resizes the pool if set, null by default.
+     */
+    private EndpointPoolSizer poolSizer;
+    private ScheduledFuture<?> poolSizing;
+
     /**
      * Preload the exceptions to make sure they do not contain misleading values.
      */
@@ -110,6 +178,9 @@ public abstract class AbstractService<REQ, RES> implements Service<REQ, RES> {
     AbstractService(Registry<Endpoint<REQ, RES>> registry, Environment env) {
         this.env = env;
         endpointRegistry = registry;
+        spec = null;
+        refreshEndpoints();
+        poolSize = endpoints.length;
 
         serviceStateDeferred = Streams.defer(env, defaultPool);
         serviceStateStream = serviceStateDeferred.compose();
@@ -128,40 +199,433 @@ public abstract class AbstractService<REQ, RES> implements Service<REQ, RES> {
 
         ServiceType serviceType = serviceType();
 
-        EndpointSpec spec = new EndpointSpec(env, remoteAddress, serviceType);
+        spec = new EndpointSpec(env, remoteAddress, serviceType);
         for (int i = 0; i < endpointPoolSize; i++) {
             endpointRegistry.register($("/" + serviceType + "/" + i), spec.get());
         }
+        poolSize = endpointPoolSize;
+        refreshEndpoints();
 
         serviceStateDeferred = Streams.defer(env, defaultPool);
         serviceStateStream = serviceStateDeferred.compose();
     }
 
+    /**
+     * Create a new {@link AbstractService} with endpoints as described by the given {@link EndpointSpec}.
+     *
+     * @param spec the description of the endpoints.
+     * @param endpointPoolSize the amount of {@link Endpoint} objects to manage.
+     * @param env the environment to use.
+     */
+    protected AbstractService(final EndpointSpec spec, final int endpointPoolSize, final Environment env) {
+        this.env = env;
+        endpointRegistry = new CachingRegistry<Endpoint<REQ, RES>>();
+        this.spec = spec;
+
+        ServiceType serviceType = serviceType();
+        for (int i = 0; i < endpointPoolSize; i++) {
+            endpointRegistry.register($("/" + serviceType + "/" + i), spec.get());
+        }
+        poolSize = endpointPoolSize;
+        refreshEndpoints();
+
+        serviceStateDeferred = Streams.defer(env, defaultPool);
+        serviceStateStream = serviceStateDeferred.compose();
+    }
+
+    /**
+     * Connect all {@link Endpoint}s in parallel.
+     *
+     * The returned promise completes once every endpoint finished its connect attempt, with
+     * {@link ServiceState#CONNECTED} if at least one of them is connected and {@link ServiceState#RECONNECTING} if
+     * none is and they keep retrying. In lazy mode nothing is connected yet and the current state is returned.
+     *
+     * @return the state once all endpoints finished connecting.
+     */
     @Override
     public Promise<ServiceState> connect() {
-        Iterator<Registration<? extends Endpoint<REQ, RES>>> iter = endpointRegistry.iterator();
-        while (iter.hasNext()) {
-            Registration<? extends Endpoint<REQ, RES>> registration = iter.next();
-            Endpoint endpoint = registration.getObject();
-            endpoint.connect();
+        connectRequested = true;
+        if (lazy) {
+            return Promises.success(state).get();
         }
-        return null;
+        return connectEndpoints();
     }
 
+    /**
+     * Disconnect all {@link Endpoint}s in parallel, the returned promise completes once all of them are disconnected.
+     *
+     * @return the state once all endpoints are disconnected.
+     */
     @Override
     public Promise<ServiceState> disconnect() {
-        Iterator<Registration<? extends Endpoint<REQ, RES>>> iter = endpointRegistry.iterator();
-        while (iter.hasNext()) {
-            Registration<? extends Endpoint<REQ, RES>> registration = iter.next();
-            Endpoint endpoint = registration.getObject();
-            endpoint.disconnect();
+        connectRequested = false;
+        synchronized (this) {
+            lazyConnect = null;
+        }
+        transitionState(ServiceState.DISCONNECTING);
+        Endpoint<REQ, RES>[] current = endpoints;
+        List<Promise<EndpointState>> promises = new ArrayList<Promise<EndpointState>>(current.length);
+        for (int i = 0; i < current.length; i++) {
+            promises.add(current[i].disconnect());
+        }
+        return whenAll(promises, false);
+    }
+
+    /**
+     * Start a connect attempt on every {@link Endpoint} at once.
+     */
+    private Promise<ServiceState> connectEndpoints() {
+        transitionState(ServiceState.CONNECTING);
+        Endpoint<REQ, RES>[] current = endpoints;
+        List<Promise<EndpointState>> promises = new ArrayList<Promise<EndpointState>>(current.length);
+        for (int i = 0; i < current.length; i++) {
+            promises.add(current[i].connect());
         }
-        return null;
+        return whenAll(promises, true);
+    }
+
+    /**
+     * Returns a promise completed once all of the given endpoint promises are, with the state the service settled in.
+     *
+     * @param promises the endpoint promises to wait for, null entries are treated as completed.
+     * @param connecting true if waiting for a connect, false for a disconnect.
+     * @return the promise with the settled state.
+     */
+    private Promise<ServiceState> whenAll(final List<Promise<EndpointState>> promises, final boolean connecting) {
+        final Deferred<ServiceState, Promise<ServiceState>> deferred = Promises.defer(env, defaultPool);
+        final AtomicInteger remaining = new AtomicInteger(promises.size() + 1);
+        Consumer<Promise<EndpointState>> completion = new Consumer<Promise<EndpointState>>() {
+            @Override
+            public void accept(final Promise<EndpointState> promise) {
+                if (remaining.decrementAndGet() == 0) {
+                    deferred.accept(settleState(connecting));
+                }
+            }
+        };
+        for (Promise<EndpointState> promise : promises) {
+            if (promise == null) {
+                completion.accept(null);
+            } else {
+                promise.onComplete(completion);
+            }
+        }
+        completion.accept(null);
+        return deferred.compose();
+    }
+
+    /**
+     * Derive the {@link ServiceState} from the endpoints once a connect or disconnect completed, unless the other
+     * one was requested in the meantime.
+     *
+     * A connect settles in {@link ServiceState#CONNECTED} if at least one endpoint is connected. Otherwise it stays
+     * {@link ServiceState#CONNECTING} while another attempt is still in flight, and moves to
+     * {@link ServiceState#RECONNECTING} once the endpoints are left retrying.
+     */
+    private synchronized ServiceState settleState(final boolean connecting) {
+        if (connectRequested != connecting) {
+            return state;
+        }
+        if (!connecting) {
+            transitionState(ServiceState.DISCONNECTED);
+            return state;
+        }
+
+        Endpoint<REQ, RES>[] current = endpoints;
+        ServiceState settled = ServiceState.RECONNECTING;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i].isConnected()) {
+                settled = ServiceState.CONNECTED;
+                break;
+            } else if (current[i].state() == EndpointState.CONNECTING) {
+                settled = ServiceState.CONNECTING;
+            }
+        }
+        transitionState(settled);
+        return state;
+    }
+
+    /**
+     * Only connect the {@link Endpoint}s once the first request needs them, for services which are rarely used.
+     * Needs to be set before {@link #connect()}; the first requests wait for the endpoints to finish connecting.
+     *
+     * @param lazy true to connect on first use.
+     */
+    public void setLazy(final boolean lazy) {
+        this.lazy = lazy;
     }
 
     @Override
     public Promise<RES> sendAndReceive(Event<REQ> requestEvent) throws ServiceNotConnectedException {
-        return null;
+        return sendAndReceive(requestEvent, RequestPriority.NORMAL);
+    }
+
+    @Override
+    public Promise<RES> sendAndReceive(Event<REQ> requestEvent, RequestPriority priority)
+        throws ServiceNotConnectedException {
+        RateLimits limits = rateLimits;
+        if (limits != null) {
+            String tag = limits.isTagged() ? requestEvent.getHeaders().get(RateLimits.TAG_HEADER) : null;
+            RateLimiter limiter = limits.find(bucket, serviceType(), tag);
+            if (limiter != null) {
+                long wait = limiter.acquire(System.nanoTime());
+                if (wait < 0) {
+                    throw BackpressureException.instance();
+                } else if (wait > 0) {
+                    return dispatchLater(requestEvent, priority, limits.scheduler(), wait);
+                }
+            }
+        }
+        return dispatch(requestEvent, priority);
+    }
+
+    /**
+     * Send the request through the next {@link Endpoint}.
+     */
+    private Promise<RES> dispatch(final Event<REQ> requestEvent, final RequestPriority priority) {
+        Endpoint<REQ, RES> endpoint = selectEndpoint();
+        if (endpoint == null) {
+            if (lazy && connectRequested) {
+                return dispatchOnConnect(requestEvent, priority);
+            }
+            throw NOT_CONNECTED_EXCEPTION;
+        }
+        if (priority == RequestPriority.NORMAL) {
+            return endpoint.sendAndReceive(requestEvent);
+        }
+        return endpoint.sendAndReceive(requestEvent, null, priority);
+    }
+
+    /**
+     * Send the request once its {@link RateLimiter} permit is free, a failure to send fails the returned promise.
+     */
+    private Promise<RES> dispatchLater(final Event<REQ> requestEvent, final RequestPriority priority,
+        final ScheduledExecutorService scheduler, final long delayNanos) {
+        final Deferred<RES, Promise<RES>> deferred = Promises.defer(env, Environment.RING_BUFFER);
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                dispatchTo(requestEvent, priority, deferred);
+            }
+        }, delayNanos, TimeUnit.NANOSECONDS);
+        return deferred.compose();
+    }
+
+    /**
+     * Send the request through the next {@link Endpoint} and complete the given deferred with its outcome, including
+     * a failure to send.
+     */
+    private void dispatchTo(final Event<REQ> requestEvent, final RequestPriority priority,
+        final Deferred<RES, Promise<RES>> deferred) {
+        try {
+            dispatch(requestEvent, priority).onComplete(new Consumer<Promise<RES>>() {
+                @Override
+                public void accept(final Promise<RES> promise) {
+                    if (promise.isSuccess()) {
+                        deferred.accept(promise.get());
+                    } else {
+                        deferred.accept(promise.reason());
+                    }
+                }
+            });
+        } catch (RuntimeException ex) {
+            deferred.accept(ex);
+        }
+    }
+
+    /**
+     * Send the request once the lazy connect of the {@link Endpoint}s completed, starting it if this is the first
+     * request. If the endpoints already finished connecting without success, the request fails right away.
+     */
+    private Promise<RES> dispatchOnConnect(final Event<REQ> requestEvent, final RequestPriority priority) {
+        Promise<ServiceState> connecting;
+        synchronized (this) {
+            if (lazyConnect == null) {
+                lazyConnect = connectEndpoints();
+            }
+            connecting = lazyConnect;
+        }
+        if (connecting.isComplete()) {
+            throw NOT_CONNECTED_EXCEPTION;
+        }
+
+        final Deferred<RES, Promise<RES>> deferred = Promises.defer(env, Environment.RING_BUFFER);
+        connecting.onComplete(new Consumer<Promise<ServiceState>>() {
+            @Override
+            public void accept(final Promise<ServiceState> connected) {
+                dispatchTo(requestEvent, priority, deferred);
+            }
+        });
+        return deferred.compose();
+    }
+
+    /**
+     * Apply the given {@link RateLimits} to the requests sent through this service, or remove them with null.
+     *
+     * @param limits the limits to apply.
+     * @param bucket the bucket this service talks to, null if it serves all buckets.
+     */
+    public void setRateLimits(final RateLimits limits, final String bucket) {
+        this.bucket = bucket;
+        this.rateLimits = limits;
+    }
+
+    /**
+     * Grow and shrink the pool of {@link Endpoint}s as decided by the given {@link EndpointPoolSizer}, checked at the
+     * given interval. A null sizer stops resizing and keeps the current pool.
+     *
+     * Endpoints leaving the pool get no new requests and are drained with {@link Endpoint#disconnect(long, TimeUnit)},
+     * so their outstanding requests have 30 seconds to be answered.
+     *
+     * @param sizer the sizer to use.
+     * @param scheduler the scheduler running the checks.
+     * @param interval the interval between the checks.
+     * @param unit the unit of the interval.
+     */
+    public synchronized void setPoolSizing(final EndpointPoolSizer sizer, final ScheduledExecutorService scheduler,
+        final long interval, final TimeUnit unit) {
+        if (poolSizing != null) {
+            poolSizing.cancel(false);
+            poolSizing = null;
+        }
+        poolSizer = sizer;
+        if (sizer != null) {
+            poolSizing = scheduler.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        resizePool();
+                    } catch (RuntimeException ex) {
+                        LOGGER.warn("Could not resize the endpoint pool.", ex);
+                    }
+                }
+            }, interval, interval, unit);
+        }
+    }
+
+    /**
+     * Create a new {@link Endpoint} for the growing pool.
+     *
+     * @return the new endpoint, or null if this service can not create endpoints.
+     */
+    @SuppressWarnings("unchecked")
+    protected Endpoint<REQ, RES> newEndpoint() {
+        return spec == null ? null : spec.get();
+    }
+
+    /**
+     * Ask the {@link EndpointPoolSizer} for the next pool size and add or remove one {@link Endpoint} accordingly.
+     */
+    synchronized void resizePool() {
+        if (poolSizer == null) {
+            return;
+        }
+
+        Endpoint<REQ, RES>[] current = endpoints;
+        int connected = 0;
+        int outstanding = 0;
+        long queueDelay = 0;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i].isConnected()) {
+                connected++;
+                outstanding += current[i].outstanding();
+                queueDelay += current[i].queueDelayNanos();
+            }
+        }
+
+        long averageQueueDelay = connected == 0 ? 0 : queueDelay / connected;
+        int target = poolSizer.resize(poolSize, connected, outstanding, averageQueueDelay, System.nanoTime());
+        if (target > poolSize) {
+            Endpoint<REQ, RES> endpoint = newEndpoint();
+            if (endpoint == null) {
+                return;
+            }
+            endpointRegistry.register($("/" + serviceType() + "/" + poolSize++), endpoint);
+            refreshEndpoints();
+            if (connectRequested) {
+                endpoint.connect();
+            }
+            LOGGER.debug("Grew the {} endpoint pool to {} endpoints.", serviceType(), poolSize);
+        } else if (target < poolSize) {
+            String key = "/" + serviceType() + "/" + --poolSize;
+            List<Registration<? extends Endpoint<REQ, RES>>> removed = endpointRegistry.select(key);
+            endpointRegistry.unregister(key);
+            refreshEndpoints();
+            for (Registration<? extends Endpoint<REQ, RES>> registration : removed) {
+                registration.getObject().disconnect(DRAIN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            }
+            LOGGER.debug("Shrunk the {} endpoint pool to {} endpoints.", serviceType(), poolSize);
+        }
+    }
+
+    @Override
+    public Publisher<RES> sendAndReceiveStream(Publisher<REQ> requests, int maxInFlight) {
+        return new StreamingPublisher<REQ, RES>(this, requests, maxInFlight, env.getRootTimer());
+    }
+
+    @Override
+    public long latency(final double percentile) {
+        Endpoint<REQ, RES>[] current = endpoints;
+        long highest = 0;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i].isConnected()) {
+                highest = Math.max(highest, current[i].latency().percentile(percentile));
+            }
+        }
+        return highest;
+    }
+
+    /**
+     * Check if at least one {@link Endpoint} can currently accept writes.
+     *
+     * @return true if a writable endpoint is available.
+     */
+    boolean hasWritableEndpoint() {
+        Endpoint<REQ, RES>[] current = endpoints;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i].isWritable()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Select the next connected {@link Endpoint} in round-robin fashion, preferring writable ones.
+     *
+     * @return the selected endpoint or null if none is connected.
+     */
+    private Endpoint<REQ, RES> selectEndpoint() {
+        Endpoint<REQ, RES>[] current = endpoints;
+        int length = current.length;
+        if (length == 0) {
+            return null;
+        }
+
+        int offset = (nextEndpoint.getAndIncrement() & Integer.MAX_VALUE) % length;
+        Endpoint<REQ, RES> fallback = null;
+        for (int i = 0; i < length; i++) {
+            Endpoint<REQ, RES> endpoint = current[(offset + i) % length];
+            if (endpoint.isWritable()) {
+                return endpoint;
+            }
+            if (fallback == null && endpoint.isConnected()) {
+                fallback = endpoint;
+            }
+        }
+        return fallback;
+    }
+
+    /**
+     * Rebuild the snapshot of {@link Endpoint}s from the registry.
+     */
+    @SuppressWarnings("unchecked")
+    private void refreshEndpoints() {
+        List<Endpoint<REQ, RES>> list = new ArrayList<Endpoint<REQ, RES>>();
+        Iterator<Registration<? extends Endpoint<REQ, RES>>> iter = endpointRegistry.iterator();
+        while (iter.hasNext()) {
+            list.add(iter.next().getObject());
+        }
+        endpoints = list.toArray(new Endpoint[list.size()]);
     }
 
     @Override
@@ -0,0 +1,114 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.client.core.io.service;
+
+import com.couchbase.client.core.util.Blocking;
+import reactor.event.Event;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A blocking facade over a {@link Service}, meant for thread-per-request code (including virtual threads).
+ *
+ * See {@link Blocking} for how the calling thread waits.
+ */
+public class BlockingService<REQ, RES> {
+
+    /**
+     * The wrapped service.
+     */
+    private final Service<REQ, RES> service;
+
+    /**
+     * The timeout applied to every operation.
+     */
+    private final long timeout;
+
+    /**
+     * The unit of the timeout.
+     */
+    private final TimeUnit timeUnit;
+
+    /**
+     * Create a new {@link BlockingService}.
+     *
+     * @param service the service to wrap.
+     * @param timeout the timeout applied to every operation.
+     * @param timeUnit the unit of the timeout.
+     */
+    public BlockingService(final Service<REQ, RES> service, final long timeout, final TimeUnit timeUnit) {
+        this.service = service;
+        this.timeout = timeout;
+        this.timeUnit = timeUnit;
+    }
+
+    /**
+     * Connect the service and wait for the outcome.
+     *
+     * @return the state after the connect attempt.
+     */
+    public ServiceState connect() {
+        return Blocking.await(service.connect(), timeout, timeUnit);
+    }
+
+    /**
+     * Disconnect the service and wait for the outcome.
+     *
+     * @return the state after the disconnect attempt.
+     */
+    public ServiceState disconnect() {
+        return Blocking.await(service.disconnect(), timeout, timeUnit);
+    }
+
+    /**
+     * Send the request and wait for the response.
+     *
+     * @param request the request to send.
+     * @return the response.
+     * @throws ServiceNotConnectedException if currently not connected.
+     */
+    public RES send(final REQ request) {
+        return send(request, timeout, timeUnit);
+    }
+
+    /**
+     * Send the request and wait for the response with a custom timeout.
+     *
+     * @param request the request to send.
+     * @param timeout the maximum time to wait.
+     * @param timeUnit the unit of the timeout.
+     * @return the response.
+     * @throws ServiceNotConnectedException if currently not connected.
+     */
+    public RES send(final REQ request, final long timeout, final TimeUnit timeUnit) {
+        return Blocking.await(service.sendAndReceive(Event.wrap(request)), timeout, timeUnit);
+    }
+
+    /**
+     * Returns the wrapped {@link Service}.
+     *
+     * @return the async service.
+     */
+    public Service<REQ, RES> async() {
+        return service;
+    }
+}
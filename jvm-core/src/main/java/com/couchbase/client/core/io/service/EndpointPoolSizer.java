@@ -0,0 +1,152 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.core.io.service;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides how many {@link com.couchbase.client.core.io.endpoint.Endpoint}s a {@link Service} should keep, between a
+ * minimum and a maximum, based on its load.
+ *
+ * The pool grows by one endpoint whenever the outstanding requests per connected endpoint reach the grow threshold,
+ * or requests wait in the priority lanes of the connected endpoints for the grow queue delay on average. The queueing
+ * delay only counts the time before a request is written, not the time the server takes to answer it. The pool
+ * shrinks by one endpoint once it has been idle for the idle timeout, where idle means that the outstanding requests
+ * would stay below half the grow threshold even with one endpoint less. That margin keeps a shrink from triggering
+ * the next grow right away.
+ *
+ * Meant to be called periodically from a single thread with a {@link System#nanoTime()} timestamp.
+ */
+public class EndpointPoolSizer {
+
+    private final int minEndpoints;
+    private final int maxEndpoints;
+    private final int growOutstanding;
+    private final long growQueueDelayNanos;
+    private final long idleTimeoutNanos;
+
+    /**
+     * If the pool was idle on the last call, and since when.
+     */
+    private boolean idle;
+    private long idleSince;
+
+    /**
+     * Create a new {@link EndpointPoolSizer}.
+     *
+     * @param minEndpoints the number of endpoints to keep at least.
+     * @param maxEndpoints the number of endpoints to keep at most.
+     * @param growOutstanding the outstanding requests per connected endpoint at which the pool grows.
+     * @param growQueueDelay the average queueing delay at which the pool grows, 0 to only grow on outstanding
+     *                       requests.
+     * @param idleTimeout how long the pool needs to be idle before it shrinks.
+     * @param unit the unit of the grow queue delay and idle timeout.
+     */
+    public EndpointPoolSizer(final int minEndpoints, final int maxEndpoints, final int growOutstanding,
+        final long growQueueDelay, final long idleTimeout, final TimeUnit unit) {
+        if (minEndpoints <= 0 || maxEndpoints < minEndpoints) {
+            throw new IllegalArgumentException("The pool needs at least one endpoint and no less than the minimum.");
+        }
+        if (growOutstanding <= 0) {
+            throw new IllegalArgumentException("The grow threshold must be greater than 0.");
+        }
+        this.minEndpoints = minEndpoints;
+        this.maxEndpoints = maxEndpoints;
+        this.growOutstanding = growOutstanding;
+        this.growQueueDelayNanos = unit.toNanos(growQueueDelay);
+        this.idleTimeoutNanos = unit.toNanos(idleTimeout);
+    }
+
+    /**
+     * Returns the size the pool should have next.
+     *
+     * @param size the current number of endpoints.
+     * @param connected how many of them are connected.
+     * @param outstanding the outstanding requests of all connected endpoints.
+     * @param queueDelayNanos the average time the oldest request waits in the connected endpoints before being written.
+     * @param now the current time.
+     * @return the new size, at most one endpoint more or less than the current size.
+     */
+    public int resize(final int size, final int connected, final int outstanding, final long queueDelayNanos,
+        final long now) {
+        if (size < minEndpoints) {
+            idle = false;
+            return size + 1;
+        }
+        if (size > maxEndpoints) {
+            idle = false;
+            return size - 1;
+        }
+        if (connected == 0) {
+            idle = false;
+            return size;
+        }
+
+        boolean loaded = outstanding >= growOutstanding * connected
+            || (growQueueDelayNanos > 0 && queueDelayNanos >= growQueueDelayNanos);
+        if (loaded) {
+            idle = false;
+            return size < maxEndpoints ? size + 1 : size;
+        }
+
+        if (size == minEndpoints || outstanding * 2 >= growOutstanding * (size - 1)) {
+            idle = false;
+            return size;
+        }
+        if (!idle) {
+            idle = true;
+            idleSince = now;
+            return size;
+        }
+        if (now - idleSince >= idleTimeoutNanos) {
+            idle = false;
+            return size - 1;
+        }
+        return size;
+    }
+
+    /**
+     * Returns the number of endpoints to keep at least.
+     *
+     * @return the minimum pool size.
+     */
+    public int minEndpoints() {
+        return minEndpoints;
+    }
+
+    /**
+     * Returns the number of endpoints to keep at most.
+     *
+     * @return the maximum pool size.
+     */
+    public int maxEndpoints() {
+        return maxEndpoints;
+    }
+
+    @Override
+    public String toString() {
+        return "EndpointPoolSizer{min=" + minEndpoints + ", max=" + maxEndpoints + ", growOutstanding="
+            + growOutstanding + ", growQueueDelayNanos=" + growQueueDelayNanos + ", idleTimeoutNanos="
+            + idleTimeoutNanos + "}";
+    }
+}
@@ -0,0 +1,160 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.core.io.service;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A token bucket which limits the rate of requests sent through a {@link Service}.
+ *
+ * Permits are refilled at a steady rate and up to the burst size can be taken at once. Once the bucket is empty, a
+ * limiter in {@link Mode#REJECT} turns requests away, one in {@link Mode#DELAY} lets them wait for their permit unless
+ * that takes longer than the maximum delay.
+ *
+ * The bucket is kept as the time at which the next permit is free (the generic cell rate algorithm), so taking a
+ * permit is a single compare-and-set and never blocks.
+ */
+public class RateLimiter {
+
+    /**
+     * What happens with a request once the bucket is empty.
+     */
+    public enum Mode {
+        REJECT, DELAY
+    }
+
+    private final Mode mode;
+    private final long intervalNanos;
+    private final long burstNanos;
+    private final long maxDelayNanos;
+
+    /**
+     * The time at which the next permit is free, earlier times than now mean the bucket is (partially) refilled.
+     */
+    private final AtomicLong nextFree = new AtomicLong(System.nanoTime());
+
+    private final AtomicLong permitted = new AtomicLong();
+    private final AtomicLong delayed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * Create a new {@link RateLimiter} which rejects requests once the bucket is empty.
+     *
+     * @param permitsPerSecond the steady rate at which permits are refilled.
+     * @param burst the number of permits which can be taken at once.
+     */
+    public RateLimiter(final double permitsPerSecond, final int burst) {
+        this(Mode.REJECT, permitsPerSecond, burst, 0, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Create a new {@link RateLimiter}.
+     *
+     * @param mode what happens with a request once the bucket is empty.
+     * @param permitsPerSecond the steady rate at which permits are refilled.
+     * @param burst the number of permits which can be taken at once.
+     * @param maxDelay how long a request waits at most for its permit in {@link Mode#DELAY}, it is rejected if it
+     *        would have to wait longer.
+     * @param unit the unit of the maximum delay.
+     */
+    public RateLimiter(final Mode mode, final double permitsPerSecond, final int burst, final long maxDelay,
+        final TimeUnit unit) {
+        if (permitsPerSecond <= 0 || burst <= 0) {
+            throw new IllegalArgumentException("The rate and burst must be greater than 0.");
+        }
+        this.mode = mode;
+        this.intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+        this.burstNanos = intervalNanos * (burst - 1);
+        this.maxDelayNanos = mode == Mode.DELAY ? unit.toNanos(maxDelay) : 0;
+    }
+
+    /**
+     * Take a permit for one request.
+     *
+     * @param now the current {@link System#nanoTime()}.
+     * @return the nanoseconds the request has to wait for its permit, 0 to send right away or -1 if it is rejected.
+     */
+    public long acquire(final long now) {
+        while (true) {
+            long free = nextFree.get();
+            long start = free - now > 0 ? free : now;
+            long wait = start - burstNanos - now;
+            if (wait > maxDelayNanos) {
+                rejected.incrementAndGet();
+                return -1;
+            }
+            if (nextFree.compareAndSet(free, start + intervalNanos)) {
+                if (wait > 0) {
+                    delayed.incrementAndGet();
+                    return wait;
+                }
+                permitted.incrementAndGet();
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Returns what happens with a request once the bucket is empty.
+     *
+     * @return the mode.
+     */
+    public Mode mode() {
+        return mode;
+    }
+
+    /**
+     * Returns the number of requests which got their permit right away.
+     *
+     * @return the permitted requests.
+     */
+    public long permitted() {
+        return permitted.get();
+    }
+
+    /**
+     * Returns the number of requests which had to wait for their permit.
+     *
+     * @return the delayed requests.
+     */
+    public long delayed() {
+        return delayed.get();
+    }
+
+    /**
+     * Returns the number of requests which have been turned away.
+     *
+     * @return the rejected requests.
+     */
+    public long rejected() {
+        return rejected.get();
+    }
+
+    @Override
+    public String toString() {
+        return "RateLimiter{mode=" + mode + ", permitsPerSecond=" + TimeUnit.SECONDS.toNanos(1) / intervalNanos
+            + ", burst=" + (burstNanos / intervalNanos + 1) + ", permitted=" + permitted + ", delayed=" + delayed
+            + ", rejected=" + rejected + "}";
+    }
+}
@@ -0,0 +1,194 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.core.io.service;
+
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * The {@link RateLimiter}s applied to requests sent through {@link AbstractService}s, chosen by bucket,
+ * {@link ServiceType} and the tag of the caller.
+ *
+ * Each limit matches on any combination of the three, a null value matches everything. A request is only limited by
+ * the most specific matching limit, so a limit for one tenant takes precedence over the limit of its bucket. The
+ * caller tag is read from the {@link #TAG_HEADER} header of the request event, and only if a limit asks for a tag.
+ *
+ * Share one instance between all services so that a limit spans them.
+ */
+public class RateLimits {
+
+    /**
+     * The header of the request event which identifies the caller.
+     */
+    public static final String TAG_HEADER = "tag";
+
+    private static final Limit[] NO_LIMITS = new Limit[0];
+
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * The configured limits (copy on write).
+     */
+    private volatile Limit[] limits = NO_LIMITS;
+
+    /**
+     * If at least one limit matches on the caller tag.
+     */
+    private volatile boolean tagged;
+
+    /**
+     * Create a new {@link RateLimits}.
+     *
+     * @param scheduler runs the requests delayed by a {@link RateLimiter.Mode#DELAY} limiter, the IO event loop
+     *        group works fine.
+     */
+    public RateLimits(final ScheduledExecutorService scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Limit the matching requests with the given {@link RateLimiter}, replacing an earlier limit for the same match.
+     *
+     * @param bucket the bucket to match, null for all.
+     * @param serviceType the service type to match, null for all.
+     * @param tag the caller tag to match, null for all.
+     * @param limiter the limiter to apply.
+     * @return the {@link RateLimits} for proper chaining.
+     */
+    public synchronized RateLimits limit(final String bucket, final ServiceType serviceType, final String tag,
+        final RateLimiter limiter) {
+        if (limiter == null) {
+            throw new IllegalArgumentException("The RateLimiter must not be null.");
+        }
+
+        Limit[] current = limits;
+        Limit[] updated = new Limit[current.length + 1];
+        int size = 0;
+        for (int i = 0; i < current.length; i++) {
+            if (!current[i].sameMatch(bucket, serviceType, tag)) {
+                updated[size++] = current[i];
+            }
+        }
+        updated[size++] = new Limit(bucket, serviceType, tag, limiter);
+        Limit[] result = new Limit[size];
+        System.arraycopy(updated, 0, result, 0, size);
+        tagged |= tag != null;
+        limits = result;
+        return this;
+    }
+
+    /**
+     * Returns the most specific {@link RateLimiter} matching the request.
+     *
+     * @param bucket the bucket of the request, null if not bound to one.
+     * @param serviceType the service type of the request.
+     * @param tag the caller tag of the request, null if it has none.
+     * @return the limiter to apply or null if the request is not limited.
+     */
+    public RateLimiter find(final String bucket, final ServiceType serviceType, final String tag) {
+        Limit[] current = limits;
+        Limit best = null;
+        for (int i = 0; i < current.length; i++) {
+            Limit limit = current[i];
+            if (limit.matches(bucket, serviceType, tag) && (best == null || limit.specificity > best.specificity)) {
+                best = limit;
+            }
+        }
+        return best == null ? null : best.limiter;
+    }
+
+    /**
+     * Returns if at least one limit matches on the caller tag, otherwise the tag does not need to be read.
+     *
+     * @return true if tags are matched.
+     */
+    public boolean isTagged() {
+        return tagged;
+    }
+
+    /**
+     * Returns the scheduler for delayed requests.
+     *
+     * @return the scheduler.
+     */
+    ScheduledExecutorService scheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Lists all limits with the statistics of their {@link RateLimiter}.
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("RateLimits{");
+        Limit[] current = limits;
+        for (int i = 0; i < current.length; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(current[i]);
+        }
+        return sb.append('}').toString();
+    }
+
+    /**
+     * One configured limit and what it matches.
+     */
+    private static final class Limit {
+
+        private final String bucket;
+        private final ServiceType serviceType;
+        private final String tag;
+        private final RateLimiter limiter;
+
+        /**
+         * The number of fields matched on, the caller tag weighs most.
+         */
+        private final int specificity;
+
+        Limit(final String bucket, final ServiceType serviceType, final String tag, final RateLimiter limiter) {
+            this.bucket = bucket;
+            this.serviceType = serviceType;
+            this.tag = tag;
+            this.limiter = limiter;
+            this.specificity = (tag == null ? 0 : 4) + (bucket == null ? 0 : 2) + (serviceType == null ? 0 : 1);
+        }
+
+        boolean matches(final String bucket, final ServiceType serviceType, final String tag) {
+            return (this.tag == null || this.tag.equals(tag))
+                && (this.bucket == null || this.bucket.equals(bucket))
+                && (this.serviceType == null || this.serviceType == serviceType);
+        }
+
+        boolean sameMatch(final String bucket, final ServiceType serviceType, final String tag) {
+            return (this.tag == null ? tag == null : this.tag.equals(tag))
+                && (this.bucket == null ? bucket == null : this.bucket.equals(bucket))
+                && this.serviceType == serviceType;
+        }
+
+        @Override
+        public String toString() {
+            return "/" + (bucket == null ? "*" : bucket) + "/" + (serviceType == null ? "*" : serviceType) + "/"
+                + (tag == null ? "*" : tag) + "=" + limiter;
+        }
+    }
+}
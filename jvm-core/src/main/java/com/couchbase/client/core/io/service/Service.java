@@ -22,6 +22,8 @@
 
 package com.couchbase.client.core.io.service;
 
+import com.couchbase.client.core.io.endpoint.RequestPriority;
+import org.reactivestreams.Publisher;
 import reactor.core.composable.Promise;
 import reactor.core.composable.Stream;
 import reactor.event.Event;
@@ -53,9 +55,36 @@ public interface Service<REQ, RES> {
      * @param requestEvent the incoming request wrapped in an {@link reactor.event.Event}.
      * @return the deferred response.
      * @throws ServiceNotConnectedException if currently not connected.
+     * @throws com.couchbase.client.core.BackpressureException if the request is rejected by a {@link RateLimiter}.
      */
     Promise<RES> sendAndReceive(Event<REQ> requestEvent) throws ServiceNotConnectedException;
 
+    /**
+     * Attempt to send the request with the given priority and receive a response.
+     *
+     * @param requestEvent the incoming request wrapped in an {@link reactor.event.Event}.
+     * @param priority the lane the request waits in to be written on its
+     *        {@link com.couchbase.client.core.io.endpoint.Endpoint}.
+     * @return the deferred response.
+     * @throws ServiceNotConnectedException if currently not connected.
+     * @throws com.couchbase.client.core.BackpressureException if the request is rejected by a {@link RateLimiter}.
+     */
+    Promise<RES> sendAndReceive(Event<REQ> requestEvent, RequestPriority priority)
+        throws ServiceNotConnectedException;
+
+    /**
+     * Send a stream of requests and receive the stream of responses, honoring the demand of the subscriber.
+     *
+     * Requests are only pulled from the given {@link Publisher} if the subscriber has demand for more responses, an
+     * {@link com.couchbase.client.core.io.endpoint.Endpoint} is writable and the in-flight limit is not reached.
+     * Responses are emitted in the order they complete, which is not necessarily the order of the requests.
+     *
+     * @param requests the publisher of requests.
+     * @param maxInFlight the maximum number of requests sent but not yet completed.
+     * @return the publisher of responses.
+     */
+    Publisher<RES> sendAndReceiveStream(Publisher<REQ> requests, int maxInFlight);
+
 
     /**
      * The current {@link ServiceState}.
@@ -77,4 +106,12 @@ public interface Service<REQ, RES> {
      * @return
      */
     boolean isConnected();
+
+    /**
+     * Returns the response latency at the given percentile, the highest across the connected endpoints.
+     *
+     * @param percentile the percentile between 0.0 and 100.0.
+     * @return the latency in nanoseconds, 0 if unknown.
+     */
+    long latency(double percentile);
 }
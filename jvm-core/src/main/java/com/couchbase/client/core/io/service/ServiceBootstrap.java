@@ -0,0 +1,129 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.core.io.service;
+
+import reactor.core.Environment;
+import reactor.core.composable.Deferred;
+import reactor.core.composable.Promise;
+import reactor.core.composable.spec.Promises;
+import reactor.function.Consumer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Connects a set of {@link Service}s in parallel under one deadline, so that startup takes as long as the slowest
+ * connect instead of the sum of all of them.
+ *
+ * The outcome is reported once every service finished connecting or the deadline passed, whichever comes first, as
+ * the {@link ServiceState} of each service at that point. Services which missed the deadline keep connecting in the
+ * background. Lazy services (see {@link AbstractService#setLazy(boolean)}) report their state right away, since they
+ * only connect on first use.
+ */
+public class ServiceBootstrap {
+
+    /**
+     * Default execution pool to use for promises.
+     */
+    private final String defaultPool = Environment.THREAD_POOL;
+
+    /**
+     * The {@link Environment} to attach to.
+     */
+    private final Environment env;
+
+    /**
+     * The scheduler enforcing the deadline.
+     */
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Create a new {@link ServiceBootstrap}.
+     *
+     * @param env the environment to use.
+     * @param scheduler the scheduler enforcing the deadline.
+     */
+    public ServiceBootstrap(final Environment env, final ScheduledExecutorService scheduler) {
+        this.env = env;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Connect all given services at once.
+     *
+     * @param services the services to connect.
+     * @param timeout the deadline for all of them together.
+     * @param unit the unit of the timeout.
+     * @return the state of every service once all are connected or the deadline passed.
+     */
+    public Promise<Map<Service<?, ?>, ServiceState>> connect(final Collection<? extends Service<?, ?>> services,
+        final long timeout, final TimeUnit unit) {
+        final List<Service<?, ?>> pending = new ArrayList<Service<?, ?>>(services);
+        final Deferred<Map<Service<?, ?>, ServiceState>, Promise<Map<Service<?, ?>, ServiceState>>> deferred =
+            Promises.defer(env, defaultPool);
+        final AtomicBoolean done = new AtomicBoolean();
+        final Runnable complete = new Runnable() {
+            @Override
+            public void run() {
+                if (done.compareAndSet(false, true)) {
+                    Map<Service<?, ?>, ServiceState> states = new IdentityHashMap<Service<?, ?>, ServiceState>();
+                    for (Service<?, ?> service : pending) {
+                        states.put(service, service.state());
+                    }
+                    deferred.accept(states);
+                }
+            }
+        };
+
+        final ScheduledFuture<?> deadline = scheduler.schedule(complete, timeout, unit);
+        final AtomicInteger remaining = new AtomicInteger(pending.size() + 1);
+        Consumer<Promise<ServiceState>> completion = new Consumer<Promise<ServiceState>>() {
+            @Override
+            public void accept(final Promise<ServiceState> promise) {
+                if (remaining.decrementAndGet() == 0) {
+                    deadline.cancel(false);
+                    complete.run();
+                }
+            }
+        };
+        for (Service<?, ?> service : pending) {
+            Promise<ServiceState> promise = service.connect();
+            if (promise == null) {
+                completion.accept(null);
+            } else {
+                promise.onComplete(completion);
+            }
+        }
+        completion.accept(null);
+        return deferred.compose();
+    }
+
+}
@@ -0,0 +1,264 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.core.io.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Holds the {@link Service}s of all nodes and buckets and creates them on first use.
+ *
+ * {@link BucketServiceMapping#ONE_BY_ONE} services are created per node and bucket, while
+ * {@link BucketServiceMapping#ONE_FOR_ALL} services are created once per node and shared by all buckets.
+ *
+ * Lookups read an immutable snapshot without locking or allocating. Creating and removing services is serialized and
+ * publishes a new snapshot, which only copies the maps along the changed path, so opening another bucket does not slow
+ * down requests to the ones already open.
+ */
+public class ServiceRegistry {
+
+    /**
+     * Standard LOGGER to use.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(ServiceRegistry.class);
+
+    /**
+     * The number of service types, the length of the service arrays.
+     */
+    private static final int TYPES = ServiceType.values().length;
+
+    private final ServiceFactory factory;
+
+    /**
+     * The current snapshot of all services by node, never modified once published.
+     */
+    private volatile Map<InetSocketAddress, NodeServices> nodes = Collections.emptyMap();
+
+    /**
+     * Create a new {@link ServiceRegistry}.
+     *
+     * @param factory the factory creating the services.
+     */
+    public ServiceRegistry(final ServiceFactory factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * Returns the {@link Service} of the given type for the node and bucket, creating and connecting it on first use.
+     *
+     * @param node the node to talk to.
+     * @param bucket the bucket of the request, ignored for {@link BucketServiceMapping#ONE_FOR_ALL} services.
+     * @param type the type of the service.
+     * @return the service.
+     */
+    @SuppressWarnings("unchecked")
+    public <REQ, RES> Service<REQ, RES> locate(final InetSocketAddress node, final String bucket,
+        final ServiceType type) {
+        Service<?, ?> service = find(nodes, node, bucket, type);
+        if (service == null) {
+            service = create(node, bucket, type);
+        }
+        return (Service<REQ, RES>) service;
+    }
+
+    /**
+     * Returns the {@link Service} of the given type for the node and bucket if it exists.
+     *
+     * @param node the node to talk to.
+     * @param bucket the bucket of the request, ignored for {@link BucketServiceMapping#ONE_FOR_ALL} services.
+     * @param type the type of the service.
+     * @return the service or null.
+     */
+    @SuppressWarnings("unchecked")
+    public <REQ, RES> Service<REQ, RES> get(final InetSocketAddress node, final String bucket,
+        final ServiceType type) {
+        return (Service<REQ, RES>) find(nodes, node, bucket, type);
+    }
+
+    private static Service<?, ?> find(final Map<InetSocketAddress, NodeServices> snapshot,
+        final InetSocketAddress node, final String bucket, final ServiceType type) {
+        NodeServices services = snapshot.get(node);
+        if (services == null) {
+            return null;
+        }
+        if (type.mapping() == BucketServiceMapping.ONE_FOR_ALL) {
+            return services.shared[type.ordinal()];
+        }
+        Service<?, ?>[] bucketServices = services.buckets.get(bucket);
+        return bucketServices == null ? null : bucketServices[type.ordinal()];
+    }
+
+    /**
+     * Create the missing service under the lock and publish it with a new snapshot.
+     */
+    private synchronized Service<?, ?> create(final InetSocketAddress node, final String bucket,
+        final ServiceType type) {
+        boolean shared = type.mapping() == BucketServiceMapping.ONE_FOR_ALL;
+        if (!shared && bucket == null) {
+            throw new IllegalArgumentException("A bucket is needed to locate a " + type + " service.");
+        }
+
+        Service<?, ?> service = find(nodes, node, bucket, type);
+        if (service != null) {
+            return service;
+        }
+
+        service = factory.create(node, shared ? null : bucket, type);
+        NodeServices current = nodes.get(node);
+        NodeServices updated = current == null ? new NodeServices() : current.copy();
+        if (shared) {
+            updated.shared[type.ordinal()] = service;
+        } else {
+            Service<?, ?>[] bucketServices = updated.buckets.get(bucket);
+            bucketServices = bucketServices == null ? new Service<?, ?>[TYPES] : bucketServices.clone();
+            bucketServices[type.ordinal()] = service;
+            updated.buckets.put(bucket, bucketServices);
+        }
+        publish(node, updated);
+
+        LOGGER.debug("Created " + type + " service for " + node + (shared ? "" : " and bucket " + bucket));
+        service.connect();
+        return service;
+    }
+
+    /**
+     * Remove the services of the given bucket from all nodes and disconnect them. Services shared with other buckets
+     * stay.
+     *
+     * @param bucket the bucket which got closed.
+     * @return the removed services.
+     */
+    public synchronized List<Service<?, ?>> removeBucket(final String bucket) {
+        List<Service<?, ?>> removed = new ArrayList<Service<?, ?>>();
+        Map<InetSocketAddress, NodeServices> updated = new HashMap<InetSocketAddress, NodeServices>(nodes);
+        for (Map.Entry<InetSocketAddress, NodeServices> entry : nodes.entrySet()) {
+            Service<?, ?>[] bucketServices = entry.getValue().buckets.get(bucket);
+            if (bucketServices == null) {
+                continue;
+            }
+            NodeServices copy = entry.getValue().copy();
+            copy.buckets.remove(bucket);
+            updated.put(entry.getKey(), copy);
+            collect(bucketServices, removed);
+        }
+        nodes = Collections.unmodifiableMap(updated);
+        disconnect(removed);
+        return removed;
+    }
+
+    /**
+     * Remove all services of the given node and disconnect them, for example once it left the cluster.
+     *
+     * @param node the node which is gone.
+     * @return the removed services.
+     */
+    public synchronized List<Service<?, ?>> removeNode(final InetSocketAddress node) {
+        List<Service<?, ?>> removed = new ArrayList<Service<?, ?>>();
+        NodeServices services = nodes.get(node);
+        if (services == null) {
+            return removed;
+        }
+        Map<InetSocketAddress, NodeServices> updated = new HashMap<InetSocketAddress, NodeServices>(nodes);
+        updated.remove(node);
+        nodes = Collections.unmodifiableMap(updated);
+
+        collect(services.shared, removed);
+        for (Service<?, ?>[] bucketServices : services.buckets.values()) {
+            collect(bucketServices, removed);
+        }
+        disconnect(removed);
+        return removed;
+    }
+
+    /**
+     * Returns all services currently registered.
+     *
+     * @return the services, in no particular order.
+     */
+    public List<Service<?, ?>> services() {
+        List<Service<?, ?>> services = new ArrayList<Service<?, ?>>();
+        for (NodeServices node : nodes.values()) {
+            collect(node.shared, services);
+            for (Service<?, ?>[] bucketServices : node.buckets.values()) {
+                collect(bucketServices, services);
+            }
+        }
+        return services;
+    }
+
+    private void publish(final InetSocketAddress node, final NodeServices services) {
+        Map<InetSocketAddress, NodeServices> updated = new HashMap<InetSocketAddress, NodeServices>(nodes);
+        updated.put(node, services);
+        nodes = Collections.unmodifiableMap(updated);
+    }
+
+    private static void collect(final Service<?, ?>[] services, final List<Service<?, ?>> into) {
+        for (Service<?, ?> service : services) {
+            if (service != null) {
+                into.add(service);
+            }
+        }
+    }
+
+    private static void disconnect(final List<Service<?, ?>> services) {
+        for (Service<?, ?> service : services) {
+            service.disconnect();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ServiceRegistry{nodes=" + nodes.keySet() + "}";
+    }
+
+    /**
+     * The services of one node, the shared ones and those per bucket, indexed by {@link ServiceType#ordinal()}.
+     *
+     * Copied on every change, a published instance is never modified.
+     */
+    private static final class NodeServices {
+
+        final Service<?, ?>[] shared;
+        final Map<String, Service<?, ?>[]> buckets;
+
+        NodeServices() {
+            this(new Service<?, ?>[TYPES], new HashMap<String, Service<?, ?>[]>());
+        }
+
+        private NodeServices(final Service<?, ?>[] shared, final Map<String, Service<?, ?>[]> buckets) {
+            this.shared = shared;
+            this.buckets = buckets;
+        }
+
+        NodeServices copy() {
+            return new NodeServices(shared.clone(), new HashMap<String, Service<?, ?>[]>(buckets));
+        }
+    }
+}
@@ -0,0 +1,282 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.core.io.service;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import reactor.core.HashWheelTimer;
+import reactor.core.composable.Promise;
+import reactor.event.Event;
+import reactor.function.Consumer;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link Publisher} of responses which pulls requests from an upstream {@link Publisher} as demand allows.
+ *
+ * Upstream demand is derived from the downstream demand, limited by the maximum number of requests in flight and only
+ * signalled while the {@link AbstractService} has a writable endpoint. Every completed response re-evaluates the
+ * demand, so a stream paused because of a full channel resumes once replies drain it. Since there may be no reply
+ * to wait for (no endpoint connected yet, or only other callers filling the channels), a held back demand is also
+ * re-evaluated on the timer until an endpoint is writable again.
+ */
+class StreamingPublisher<REQ, RES> implements Publisher<RES> {
+
+    /**
+     * How long to wait before checking for a writable endpoint again while the upstream demand is held back.
+     */
+    private static final long WRITABLE_RETRY_MILLIS = 10;
+
+    private final AbstractService<REQ, RES> service;
+    private final Publisher<REQ> requests;
+    private final int maxInFlight;
+    private final HashWheelTimer timer;
+
+    StreamingPublisher(final AbstractService<REQ, RES> service, final Publisher<REQ> requests,
+        final int maxInFlight, final HashWheelTimer timer) {
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("The maximum number of requests in flight must be greater than 0.");
+        }
+        this.service = service;
+        this.requests = requests;
+        this.maxInFlight = maxInFlight;
+        this.timer = timer;
+    }
+
+    @Override
+    public void subscribe(final Subscriber<? super RES> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("The Subscriber must not be null.");
+        }
+        StreamSubscription subscription = new StreamSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        requests.subscribe(subscription);
+    }
+
+    /**
+     * Bridges the upstream requests and the downstream responses.
+     *
+     * All signals to the downstream subscriber are serialized through the work-in-progress counter in
+     * {@link #drain()}, since responses complete on arbitrary threads.
+     */
+    final class StreamSubscription implements Subscription, Subscriber<REQ>, Consumer<Promise<RES>> {
+
+        private final Subscriber<? super RES> downstream;
+        private final Queue<RES> ready = new ConcurrentLinkedQueue<RES>();
+        private final AtomicInteger readyCount = new AtomicInteger();
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicLong upstreamOutstanding = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private final AtomicBoolean retryScheduled = new AtomicBoolean();
+
+        private volatile Subscription upstream;
+        private volatile boolean upstreamDone;
+        private volatile Throwable error;
+        private volatile boolean cancelled;
+        private boolean terminated;
+
+        StreamSubscription(final Subscriber<? super RES> downstream) {
+            this.downstream = downstream;
+        }
+
+        @Override
+        public void request(final long n) {
+            if (n <= 0) {
+                fail(new IllegalArgumentException("Requested amount must be positive (Rule 3.9), got: " + n));
+                return;
+            }
+
+            long current;
+            long updated;
+            do {
+                current = demand.get();
+                updated = current + n;
+                if (updated < 0) {
+                    updated = Long.MAX_VALUE;
+                }
+            } while (!demand.compareAndSet(current, updated));
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            Subscription s = upstream;
+            if (s != null) {
+                s.cancel();
+            }
+        }
+
+        @Override
+        public void onSubscribe(final Subscription subscription) {
+            if (upstream != null || cancelled) {
+                subscription.cancel();
+                return;
+            }
+            upstream = subscription;
+            drain();
+        }
+
+        @Override
+        public void onNext(final REQ request) {
+            upstreamOutstanding.decrementAndGet();
+            if (cancelled) {
+                return;
+            }
+
+            inFlight.incrementAndGet();
+            Promise<RES> promise;
+            try {
+                promise = service.sendAndReceive(Event.wrap(request));
+            } catch (Exception ex) {
+                inFlight.decrementAndGet();
+                fail(ex);
+                return;
+            }
+            promise.onComplete(this);
+        }
+
+        @Override
+        public void onError(final Throwable throwable) {
+            upstreamDone = true;
+            fail(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            upstreamDone = true;
+            drain();
+        }
+
+        /**
+         * Called when a single response completes.
+         */
+        @Override
+        public void accept(final Promise<RES> promise) {
+            if (promise.isSuccess()) {
+                ready.offer(promise.get());
+                readyCount.incrementAndGet();
+            } else if (error == null) {
+                error = promise.reason();
+            }
+            inFlight.decrementAndGet();
+            drain();
+        }
+
+        private void fail(final Throwable throwable) {
+            if (error == null) {
+                error = throwable;
+            }
+            drain();
+        }
+
+        /**
+         * Run {@link #drain()} again on the timer, unless a run is already scheduled.
+         */
+        private void retryLater() {
+            if (!retryScheduled.compareAndSet(false, true)) {
+                return;
+            }
+            timer.submit(new Consumer<Long>() {
+                @Override
+                public void accept(final Long now) {
+                    retryScheduled.set(false);
+                    drain();
+                }
+            }, WRITABLE_RETRY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        private void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+
+            int missed = 1;
+            do {
+                if (terminated) {
+                    return;
+                }
+
+                if (cancelled) {
+                    ready.clear();
+                    terminated = true;
+                    return;
+                }
+
+                while (demand.get() > 0 && error == null) {
+                    RES response = ready.poll();
+                    if (response == null) {
+                        break;
+                    }
+                    readyCount.decrementAndGet();
+                    if (demand.get() != Long.MAX_VALUE) {
+                        demand.decrementAndGet();
+                    }
+                    downstream.onNext(response);
+                }
+
+                Throwable failure = error;
+                if (failure != null) {
+                    terminated = true;
+                    ready.clear();
+                    Subscription s = upstream;
+                    if (s != null && !upstreamDone) {
+                        s.cancel();
+                    }
+                    downstream.onError(failure);
+                    return;
+                }
+
+                if (upstreamDone && inFlight.get() == 0 && readyCount.get() == 0) {
+                    terminated = true;
+                    downstream.onComplete();
+                    return;
+                }
+
+                Subscription s = upstream;
+                if (s != null && !upstreamDone) {
+                    long pending = readyCount.get() + inFlight.get() + upstreamOutstanding.get();
+                    long wanted = Math.min(demand.get() - pending, maxInFlight - inFlight.get()
+                        - upstreamOutstanding.get());
+                    if (wanted > 0) {
+                        if (service.hasWritableEndpoint()) {
+                            upstreamOutstanding.addAndGet(wanted);
+                            s.request(wanted);
+                        } else {
+                            retryLater();
+                        }
+                    }
+                }
+
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+    }
+}
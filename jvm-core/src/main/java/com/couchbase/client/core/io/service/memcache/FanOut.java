@@ -0,0 +1,157 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.core.io.service.memcache;
+
+import com.couchbase.client.core.io.service.Service;
+import com.couchbase.client.core.message.request.memcache.MemcacheRequest;
+import com.couchbase.client.core.message.response.memcache.MemcacheResponse;
+import reactor.core.composable.Deferred;
+import reactor.core.composable.Promise;
+import reactor.event.Event;
+import reactor.function.Consumer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Sends one request per node in parallel and aggregates the replies according to a {@link ReplicaMode}.
+ *
+ * With {@link ReplicaMode#FIRST} the result is completed with the first successful reply, with {@link ReplicaMode#ALL}
+ * once every node answered, holding the successful replies in node order. Either way the result only fails (with the
+ * first error seen) if no node answered successfully. Successful replies which do not make it into the result have
+ * their content released.
+ *
+ * @param <T> the expected response type.
+ */
+final class FanOut<T extends MemcacheResponse> {
+
+    private final Deferred<List<T>, Promise<List<T>>> result;
+    private final ReplicaMode mode;
+    private final AtomicReferenceArray<T> replies;
+    private final AtomicInteger outstanding;
+    private final AtomicBoolean done = new AtomicBoolean();
+    private final Throwable notConnected;
+    private volatile Throwable error;
+
+    FanOut(final Deferred<List<T>, Promise<List<T>>> result, final ReplicaMode mode, final int nodes,
+        final Throwable notConnected) {
+        this.result = result;
+        this.mode = mode;
+        this.notConnected = notConnected;
+        replies = new AtomicReferenceArray<T>(nodes);
+        outstanding = new AtomicInteger(nodes);
+    }
+
+    /**
+     * Send the request for the given node slot, a failure to send counts as a failed reply.
+     */
+    void send(final int slot, final Service<MemcacheRequest, MemcacheResponse> service,
+        final MemcacheRequest request) {
+        try {
+            service.sendAndReceive(Event.wrap(request)).onComplete(new Slot(slot));
+        } catch (RuntimeException ex) {
+            failed(ex);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void complete(final int slot, final Promise<MemcacheResponse> reply) {
+        if (!reply.isSuccess()) {
+            failed(reply.reason());
+            return;
+        }
+
+        T response = (T) reply.get();
+        if (mode == ReplicaMode.FIRST) {
+            if (done.compareAndSet(false, true)) {
+                result.accept(Collections.singletonList(response));
+            } else {
+                ReplicaReader.discard(response);
+            }
+            outstanding.decrementAndGet();
+            return;
+        }
+
+        replies.set(slot, response);
+        if (outstanding.decrementAndGet() == 0) {
+            finish();
+        }
+    }
+
+    private void failed(final Throwable cause) {
+        if (error == null) {
+            error = cause;
+        }
+        if (outstanding.decrementAndGet() == 0) {
+            finish();
+        }
+    }
+
+    private void finish() {
+        if (!done.compareAndSet(false, true)) {
+            return;
+        }
+
+        List<T> collected = new ArrayList<T>(replies.length());
+        for (int i = 0; i < replies.length(); i++) {
+            T reply = replies.get(i);
+            if (reply != null) {
+                collected.add(reply);
+            }
+        }
+        if (collected.isEmpty()) {
+            Throwable cause = error;
+            result.accept(cause == null ? notConnected : cause);
+        } else {
+            try {
+                result.accept(collected);
+            } catch (RuntimeException ex) {
+                for (T reply : collected) {
+                    ReplicaReader.discard(reply);
+                }
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * Routes the reply of one node back to its slot.
+     */
+    private final class Slot implements Consumer<Promise<MemcacheResponse>> {
+
+        private final int slot;
+
+        Slot(final int slot) {
+            this.slot = slot;
+        }
+
+        @Override
+        public void accept(final Promise<MemcacheResponse> reply) {
+            complete(slot, reply);
+        }
+    }
+}
@@ -0,0 +1,492 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.core.io.service.memcache;
+
+import com.couchbase.client.core.CouchbaseException;
+import com.couchbase.client.core.KeyNotFoundException;
+import com.couchbase.client.core.RequestTimeoutException;
+import com.couchbase.client.core.io.service.Service;
+import com.couchbase.client.core.io.service.ServiceNotConnectedException;
+import com.couchbase.client.core.message.request.memcache.GetRequest;
+import com.couchbase.client.core.message.request.memcache.MemcacheRequest;
+import com.couchbase.client.core.message.request.memcache.ObserveRequest;
+import com.couchbase.client.core.message.request.memcache.ReplicaGetRequest;
+import com.couchbase.client.core.message.response.memcache.GetResponse;
+import com.couchbase.client.core.message.response.memcache.MemcacheResponse;
+import com.couchbase.client.core.message.response.memcache.ObserveResponse;
+import reactor.core.Environment;
+import reactor.core.composable.Deferred;
+import reactor.core.composable.Promise;
+import reactor.core.composable.spec.Promises;
+import reactor.event.Event;
+import reactor.function.Consumer;
+
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reads documents and their replication state through the memcache services of the active node and its replicas.
+ *
+ * Replica gets and observes are fanned out to all nodes in parallel and aggregated into one promise, see
+ * {@link ReplicaMode}. Durability checks poll observe with an exponential backoff until the requested number of nodes
+ * report the mutation, so callers do not need their own polling loops.
+ *
+ * A hedged get sends the {@link GetRequest} to the active node first. If it did not answer within the current latency
+ * percentile of that node (bounded by a minimum and maximum delay), or failed, a {@link ReplicaGetRequest} goes to the
+ * replica with the lowest latency. The first successful reply wins; the other one can not be cancelled on the wire and
+ * is discarded (its content released) when it arrives. Only reads are hedged, since they are idempotent. A miss on
+ * the active node is final and never hedged, since a lagging replica could still return a document which has just
+ * been deleted.
+ */
+public class ReplicaReader {
+
+    /**
+     * Caching the stateless exception for better runtime performance.
+     */
+    private static final ServiceNotConnectedException NOT_CONNECTED_EXCEPTION
+        = new ServiceNotConnectedException("Neither the active node nor a replica could be reached");
+
+    /**
+     * Preload the exceptions to make sure they do not contain misleading values.
+     */
+    static {
+        NOT_CONNECTED_EXCEPTION.setStackTrace(new StackTraceElement[0]);
+    }
+
+    /**
+     * The first delay between two observe rounds of a durability check, doubled on every round.
+     */
+    private static final long OBSERVE_INITIAL_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * The upper bound of the delay between two observe rounds.
+     */
+    private static final long OBSERVE_MAX_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final Environment env;
+    private final ScheduledExecutorService scheduler;
+    private final double hedgePercentile;
+    private final long minHedgeDelayNanos;
+    private final long maxHedgeDelayNanos;
+    private final AtomicLong hedgesSent = new AtomicLong();
+    private final AtomicLong hedgesWon = new AtomicLong();
+
+    /**
+     * Create a new {@link ReplicaReader}.
+     *
+     * @param env the environment to complete the returned promises on.
+     * @param scheduler the scheduler for the hedge timers, the IO event loop group works fine.
+     * @param hedgePercentile the latency percentile of the active node after which to hedge, for example 95.
+     * @param minHedgeDelay the lower bound of the hedge delay, also used while no latencies are known.
+     * @param maxHedgeDelay the upper bound of the hedge delay.
+     * @param unit the unit of the delays.
+     */
+    public ReplicaReader(final Environment env, final ScheduledExecutorService scheduler, final double hedgePercentile,
+        final long minHedgeDelay, final long maxHedgeDelay, final TimeUnit unit) {
+        this.env = env;
+        this.scheduler = scheduler;
+        this.hedgePercentile = hedgePercentile;
+        this.minHedgeDelayNanos = unit.toNanos(minHedgeDelay);
+        this.maxHedgeDelayNanos = unit.toNanos(maxHedgeDelay);
+    }
+
+    /**
+     * Get a document from the active node, hedged with a replica read if the active node is slow.
+     *
+     * @param key the document key.
+     * @param active the memcache service of the active node.
+     * @param replicas the memcache services of the replica nodes, the first one being replica 1.
+     * @return a promise completed with the first successful reply, failed with a {@link KeyNotFoundException} if
+     *         the active node does not know the key.
+     */
+    public Promise<MemcacheResponse> hedgedGet(final String key,
+        final Service<MemcacheRequest, MemcacheResponse> active,
+        final List<Service<MemcacheRequest, MemcacheResponse>> replicas) {
+        Deferred<MemcacheResponse, Promise<MemcacheResponse>> result = Promises.defer(env, Environment.RING_BUFFER);
+        long delay = Math.min(maxHedgeDelayNanos, Math.max(minHedgeDelayNanos, active.latency(hedgePercentile)));
+        new HedgedGet(key, active, replicas, result).start(delay);
+        return result.compose();
+    }
+
+    /**
+     * Get a document from all replicas in parallel.
+     *
+     * @param key the document key.
+     * @param replicas the memcache services of the replica nodes, the first one being replica 1.
+     * @param mode whether to complete with the first reply or with the replies of all replicas.
+     * @return a promise completed with the successful replies, failed if no replica answered successfully.
+     */
+    public Promise<List<MemcacheResponse>> getFromReplicas(final String key,
+        final List<Service<MemcacheRequest, MemcacheResponse>> replicas, final ReplicaMode mode) {
+        Deferred<List<MemcacheResponse>, Promise<List<MemcacheResponse>>> result =
+            Promises.defer(env, Environment.RING_BUFFER);
+        if (replicas.isEmpty()) {
+            result.accept(NOT_CONNECTED_EXCEPTION);
+            return result.compose();
+        }
+
+        FanOut<MemcacheResponse> fanOut = new FanOut<MemcacheResponse>(result, mode, replicas.size(),
+            NOT_CONNECTED_EXCEPTION);
+        for (int i = 0; i < replicas.size(); i++) {
+            fanOut.send(i, replicas.get(i), new ReplicaGetRequest(key, i + 1));
+        }
+        return result.compose();
+    }
+
+    /**
+     * Observe the state of a document on the active node and all replicas in parallel.
+     *
+     * @param key the document key.
+     * @param active the memcache service of the active node.
+     * @param replicas the memcache services of the replica nodes, the first one being replica 1.
+     * @param mode whether to complete with the first reply or with the replies of all nodes.
+     * @return a promise completed with the successful replies, failed if no node answered successfully.
+     */
+    public Promise<List<ObserveResponse>> observe(final String key,
+        final Service<MemcacheRequest, MemcacheResponse> active,
+        final List<Service<MemcacheRequest, MemcacheResponse>> replicas, final ReplicaMode mode) {
+        Deferred<List<ObserveResponse>, Promise<List<ObserveResponse>>> result =
+            Promises.defer(env, Environment.RING_BUFFER);
+        FanOut<ObserveResponse> fanOut = new FanOut<ObserveResponse>(result, mode, replicas.size() + 1,
+            NOT_CONNECTED_EXCEPTION);
+        fanOut.send(0, active, new ObserveRequest(key, 0));
+        for (int i = 0; i < replicas.size(); i++) {
+            fanOut.send(i + 1, replicas.get(i), new ObserveRequest(key, i + 1));
+        }
+        return result.compose();
+    }
+
+    /**
+     * Wait until a mutation is persisted and replicated to the given number of nodes.
+     *
+     * Every round observes all nodes; the delay between rounds starts at 1ms and doubles up to 100ms. Nodes which fail
+     * to answer in a round simply do not count towards the durability requirements of that round.
+     *
+     * @param key the document key.
+     * @param cas the CAS of the mutation, or 0 to accept any version of the document.
+     * @param persistTo the number of nodes (including the active one) the document must be persisted on.
+     * @param replicateTo the number of replicas the document must be present on.
+     * @param active the memcache service of the active node.
+     * @param replicas the memcache services of the replica nodes, the first one being replica 1.
+     * @param timeout the time after which to give up.
+     * @param unit the unit of the timeout.
+     * @return a promise completed with the observed states once the requirements are met, failed with a
+     *         {@link RequestTimeoutException} if they were not met in time or with a {@link CouchbaseException} if
+     *         the document has been modified concurrently.
+     */
+    public Promise<List<ObserveResponse>> awaitDurability(final String key, final long cas, final int persistTo,
+        final int replicateTo, final Service<MemcacheRequest, MemcacheResponse> active,
+        final List<Service<MemcacheRequest, MemcacheResponse>> replicas, final long timeout, final TimeUnit unit) {
+        if (persistTo > replicas.size() + 1 || replicateTo > replicas.size()) {
+            throw new IllegalArgumentException("Durability requirements exceed the " + replicas.size()
+                + " configured replicas");
+        }
+
+        Deferred<List<ObserveResponse>, Promise<List<ObserveResponse>>> result =
+            Promises.defer(env, Environment.RING_BUFFER);
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        new DurabilityCheck(key, cas, persistTo, replicateTo, active, replicas, deadline, result).run();
+        return result.compose();
+    }
+
+    /**
+     * The number of replica reads sent as hedges.
+     *
+     * @return the hedges sent.
+     */
+    public long hedgesSent() {
+        return hedgesSent.get();
+    }
+
+    /**
+     * The number of hedges which answered before the active node.
+     *
+     * @return the hedges won.
+     */
+    public long hedgesWon() {
+        return hedgesWon.get();
+    }
+
+    /**
+     * Release a successful reply nobody is going to receive, since its receiver would own its content.
+     *
+     * @param response the reply to discard.
+     */
+    static void discard(final MemcacheResponse response) {
+        if (response instanceof GetResponse) {
+            GetResponse get = (GetResponse) response;
+            get.content().release();
+            get.recycle();
+        }
+    }
+
+    /**
+     * Returns the replica indexes ordered by their latency, fastest first.
+     */
+    private int[] replicasByLatency(final List<Service<MemcacheRequest, MemcacheResponse>> replicas) {
+        int size = replicas.size();
+        int[] order = new int[size];
+        long[] latencies = new long[size];
+        for (int i = 0; i < size; i++) {
+            long latency = replicas.get(i).latency(hedgePercentile);
+            int j = i;
+            while (j > 0 && latencies[j - 1] > latency) {
+                order[j] = order[j - 1];
+                latencies[j] = latencies[j - 1];
+                j--;
+            }
+            order[j] = i;
+            latencies[j] = latency;
+        }
+        return order;
+    }
+
+    /**
+     * The state of a single hedged get.
+     *
+     * The outstanding counter is incremented before a request is sent (and before the hedge is marked as sent), so
+     * it can only drop to zero once no reply can arrive anymore.
+     */
+    private final class HedgedGet implements Runnable {
+
+        private final String key;
+        private final Service<MemcacheRequest, MemcacheResponse> active;
+        private final List<Service<MemcacheRequest, MemcacheResponse>> replicas;
+        private final Deferred<MemcacheResponse, Promise<MemcacheResponse>> result;
+        private final AtomicBoolean done = new AtomicBoolean();
+        private final AtomicBoolean hedged = new AtomicBoolean();
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private volatile ScheduledFuture<?> timer;
+        private volatile Throwable error;
+
+        HedgedGet(final String key, final Service<MemcacheRequest, MemcacheResponse> active,
+            final List<Service<MemcacheRequest, MemcacheResponse>> replicas,
+            final Deferred<MemcacheResponse, Promise<MemcacheResponse>> result) {
+            this.key = key;
+            this.active = active;
+            this.replicas = replicas;
+            this.result = result;
+        }
+
+        void start(final long delay) {
+            outstanding.incrementAndGet();
+            if (!send(active, new GetRequest(key), false)) {
+                run();
+                return;
+            }
+            if (!done.get() && !hedged.get()) {
+                timer = scheduler.schedule(this, delay, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        /**
+         * Sends the hedge, either when the timer fires or right away if the active node failed.
+         *
+         * Replicas which can not take the request (because none of their endpoints is connected) are skipped. The
+         * slot reserved up front keeps the counter above zero until the hedge has been sent or given up.
+         */
+        @Override
+        public void run() {
+            if (done.get()) {
+                return;
+            }
+            outstanding.incrementAndGet();
+            if (!hedged.compareAndSet(false, true)) {
+                outstanding.decrementAndGet();
+                return;
+            }
+
+            int[] order = replicasByLatency(replicas);
+            for (int i = 0; i < order.length; i++) {
+                outstanding.incrementAndGet();
+                if (send(replicas.get(order[i]), new ReplicaGetRequest(key, order[i] + 1), true)) {
+                    hedgesSent.incrementAndGet();
+                    break;
+                }
+            }
+            if (outstanding.decrementAndGet() == 0) {
+                fail();
+            }
+        }
+
+        /**
+         * Send the request, the outstanding counter must already account for it.
+         *
+         * @return false if it could not be sent, in which case the counter has been decremented again.
+         */
+        private boolean send(final Service<MemcacheRequest, MemcacheResponse> service, final MemcacheRequest request,
+            final boolean hedge) {
+            try {
+                service.sendAndReceive(Event.wrap(request)).onComplete(new Attempt(this, hedge));
+                return true;
+            } catch (RuntimeException ex) {
+                error = ex;
+                outstanding.decrementAndGet();
+                return false;
+            }
+        }
+
+        void complete(final Promise<MemcacheResponse> reply, final boolean hedge) {
+            int left = outstanding.decrementAndGet();
+            if (reply.isSuccess()) {
+                if (done.compareAndSet(false, true)) {
+                    cancelTimer();
+                    if (hedge) {
+                        hedgesWon.incrementAndGet();
+                    }
+                    result.accept(reply.get());
+                } else {
+                    discard(reply.get());
+                }
+                return;
+            }
+
+            error = reply.reason();
+            if (!hedge && error instanceof KeyNotFoundException) {
+                if (done.compareAndSet(false, true)) {
+                    cancelTimer();
+                    result.accept(reply.reason());
+                }
+            } else if (!hedge && !hedged.get()) {
+                cancelTimer();
+                run();
+            } else if (left == 0) {
+                fail();
+            }
+        }
+
+        private void cancelTimer() {
+            ScheduledFuture<?> pending = timer;
+            if (pending != null) {
+                pending.cancel(false);
+            }
+        }
+
+        private void fail() {
+            if (done.compareAndSet(false, true)) {
+                Throwable cause = error;
+                result.accept(cause == null ? NOT_CONNECTED_EXCEPTION : cause);
+            }
+        }
+    }
+
+    /**
+     * Routes the reply of one attempt back to its {@link HedgedGet}.
+     */
+    private static final class Attempt implements Consumer<Promise<MemcacheResponse>> {
+
+        private final HedgedGet get;
+        private final boolean hedge;
+
+        Attempt(final HedgedGet get, final boolean hedge) {
+            this.get = get;
+            this.hedge = hedge;
+        }
+
+        @Override
+        public void accept(final Promise<MemcacheResponse> reply) {
+            get.complete(reply, hedge);
+        }
+    }
+
+    /**
+     * Polls observe until the durability requirements are met, the deadline passed or the document changed.
+     */
+    private final class DurabilityCheck implements Consumer<Promise<List<ObserveResponse>>>, Runnable {
+
+        private final String key;
+        private final long cas;
+        private final int persistTo;
+        private final int replicateTo;
+        private final Service<MemcacheRequest, MemcacheResponse> active;
+        private final List<Service<MemcacheRequest, MemcacheResponse>> replicas;
+        private final long deadline;
+        private final Deferred<List<ObserveResponse>, Promise<List<ObserveResponse>>> result;
+        private long interval = OBSERVE_INITIAL_INTERVAL_NANOS;
+
+        DurabilityCheck(final String key, final long cas, final int persistTo, final int replicateTo,
+            final Service<MemcacheRequest, MemcacheResponse> active,
+            final List<Service<MemcacheRequest, MemcacheResponse>> replicas, final long deadline,
+            final Deferred<List<ObserveResponse>, Promise<List<ObserveResponse>>> result) {
+            this.key = key;
+            this.cas = cas;
+            this.persistTo = persistTo;
+            this.replicateTo = replicateTo;
+            this.active = active;
+            this.replicas = replicas;
+            this.deadline = deadline;
+            this.result = result;
+        }
+
+        @Override
+        public void run() {
+            observe(key, active, replicas, ReplicaMode.ALL).onComplete(this);
+        }
+
+        @Override
+        public void accept(final Promise<List<ObserveResponse>> reply) {
+            if (reply.isSuccess()) {
+                List<ObserveResponse> states = reply.get();
+                int persisted = 0;
+                int replicated = 0;
+                for (ObserveResponse state : states) {
+                    if (!state.isFound()) {
+                        continue;
+                    }
+                    if (cas != 0 && state.cas() != cas) {
+                        if (state.isActive()) {
+                            result.accept(new CouchbaseException("Document " + key
+                                + " has been modified concurrently"));
+                            return;
+                        }
+                        continue;
+                    }
+                    if (state.isPersisted()) {
+                        persisted++;
+                    }
+                    if (!state.isActive()) {
+                        replicated++;
+                    }
+                }
+                if (persisted >= persistTo && replicated >= replicateTo) {
+                    result.accept(states);
+                    return;
+                }
+            }
+
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                result.accept(new RequestTimeoutException("Durability requirements for " + key
+                    + " not met in time"));
+                return;
+            }
+            scheduler.schedule(this, Math.min(interval, remaining), TimeUnit.NANOSECONDS);
+            interval = Math.min(interval << 1, OBSERVE_MAX_INTERVAL_NANOS);
+        }
+    }
+}
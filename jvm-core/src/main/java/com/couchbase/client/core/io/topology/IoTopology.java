@@ -0,0 +1,355 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.client.core.io.topology;
+
+import io.netty.channel.EventLoop;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Manages one shared {@link NioEventLoopGroup} sized to the available cores and pins endpoints to stable
+ * {@link EventLoop}s.
+ *
+ * All endpoints for the same node and partition (regardless of their service) are pinned to the same loop, so that
+ * their IO shares caches and does not contend across threads. New pins land on the least loaded loop. Since the load
+ * of a pin is only known over time, {@link #rebalance()} can be called periodically to move the hottest pin of the
+ * busiest loop over to the least busy one. Moved endpoints pick up their new loop on the next (re)connect.
+ *
+ * Endpoints on a pin record every request they write and release the pin when they are disconnected, for example
+ * when a pool shrinks, so placement and rebalance only account for endpoints which are still in use.
+ */
+public class IoTopology {
+
+    /**
+     * Standard LOGGER to use.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(IoTopology.class);
+
+    /**
+     * The default imbalance factor between the busiest and the least busy loop before pins get moved.
+     */
+    private static final double DEFAULT_REBALANCE_THRESHOLD = 1.5;
+
+    /**
+     * The shared group.
+     */
+    private final NioEventLoopGroup group;
+
+    /**
+     * The loops of the group, in stable order.
+     */
+    private final EventLoop[] loops;
+
+    /**
+     * Number of endpoints pinned per loop.
+     */
+    private final AtomicInteger[] endpointsPerLoop;
+
+    /**
+     * Number of operations recorded per loop since the last {@link #rebalance()}.
+     */
+    private final AtomicLong[] operationsPerLoop;
+
+    /**
+     * All pins, keyed by node and partition.
+     */
+    private final ConcurrentMap<String, PinnedEventLoopGroup> pins;
+
+    /**
+     * The imbalance factor that triggers a move on rebalance.
+     */
+    private final double rebalanceThreshold;
+
+    /**
+     * Create a new {@link IoTopology} with one loop per available core.
+     */
+    public IoTopology() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create a new {@link IoTopology} with the given number of loops.
+     *
+     * @param loopCount the number of event loops.
+     */
+    public IoTopology(final int loopCount) {
+        this(loopCount, DEFAULT_REBALANCE_THRESHOLD);
+    }
+
+    /**
+     * Create a new {@link IoTopology} with the given number of loops and rebalance threshold.
+     *
+     * @param loopCount the number of event loops.
+     * @param rebalanceThreshold the busiest/least busy ratio that triggers a move on rebalance.
+     */
+    public IoTopology(final int loopCount, final double rebalanceThreshold) {
+        if (loopCount <= 0) {
+            throw new IllegalArgumentException("The loop count must be greater than 0.");
+        }
+
+        this.rebalanceThreshold = rebalanceThreshold;
+        group = new NioEventLoopGroup(loopCount);
+        loops = new EventLoop[loopCount];
+        endpointsPerLoop = new AtomicInteger[loopCount];
+        operationsPerLoop = new AtomicLong[loopCount];
+
+        int i = 0;
+        for (EventExecutor executor : group.children()) {
+            loops[i] = (EventLoop) executor;
+            endpointsPerLoop[i] = new AtomicInteger();
+            operationsPerLoop[i] = new AtomicLong();
+            i++;
+        }
+        pins = new ConcurrentHashMap<String, PinnedEventLoopGroup>();
+    }
+
+    /**
+     * Pin an endpoint for the given node and partition.
+     *
+     * The returned group always hands out the {@link EventLoop} currently assigned to the node and partition, so it
+     * can be passed wherever a {@link io.netty.channel.EventLoopGroup} is expected.
+     *
+     * @param node the address of the node.
+     * @param partition the partition the endpoint serves.
+     * @return the pinned group.
+     */
+    public PinnedEventLoopGroup pin(final InetSocketAddress node, final int partition) {
+        String key = pinKey(node, partition);
+        PinnedEventLoopGroup pin = pins.get(key);
+        if (pin == null) {
+            PinnedEventLoopGroup created = new PinnedEventLoopGroup(this, key, leastLoadedLoop());
+            pin = pins.putIfAbsent(key, created);
+            if (pin == null) {
+                pin = created;
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("Pinned " + key + " to EventLoop " + pin.loopIndex());
+                }
+            }
+        }
+        pin.retain();
+        endpointsPerLoop[pin.loopIndex()].incrementAndGet();
+        return pin;
+    }
+
+    /**
+     * Pin an endpoint again which released its pin through {@link #release(PinnedEventLoopGroup)} before, because it
+     * connects again after a disconnect.
+     *
+     * @param pin the pin to take again.
+     */
+    public void retain(final PinnedEventLoopGroup pin) {
+        if (pin.retain() == 1) {
+            pins.putIfAbsent(pin.key(), pin);
+        }
+        endpointsPerLoop[pin.loopIndex()].incrementAndGet();
+    }
+
+    /**
+     * Release an endpoint previously pinned through {@link #pin(InetSocketAddress, int)}.
+     *
+     * @param pin the pin to release.
+     */
+    public void release(final PinnedEventLoopGroup pin) {
+        endpointsPerLoop[pin.loopIndex()].decrementAndGet();
+        if (pin.release() == 0) {
+            pins.remove(pin.key(), pin);
+        }
+    }
+
+    /**
+     * Move the hottest pin from the busiest loop to the least busy one if they are out of balance.
+     *
+     * The operation counters are reset afterwards, so calling this periodically compares the load of each interval.
+     *
+     * @return true if a pin has been moved.
+     */
+    public boolean rebalance() {
+        int busiest = 0;
+        int idlest = 0;
+        long[] load = new long[loops.length];
+        for (int i = 0; i < loops.length; i++) {
+            load[i] = operationsPerLoop[i].getAndSet(0);
+            if (load[i] > load[busiest]) {
+                busiest = i;
+            }
+            if (load[i] < load[idlest]) {
+                idlest = i;
+            }
+        }
+
+        PinnedEventLoopGroup hottest = null;
+        for (PinnedEventLoopGroup pin : pins.values()) {
+            long operations = pin.resetOperations();
+            if (pin.loopIndex() == busiest && (hottest == null || operations > hottest.lastOperations())) {
+                hottest = pin;
+            }
+        }
+
+        if (busiest == idlest || hottest == null || load[busiest] < load[idlest] * rebalanceThreshold) {
+            return false;
+        }
+
+        // Only move if it actually makes things better and does not just swap the hot spot.
+        long moved = hottest.lastOperations();
+        if (load[idlest] + moved >= load[busiest]) {
+            return false;
+        }
+
+        int endpoints = hottest.references();
+        endpointsPerLoop[busiest].addAndGet(-endpoints);
+        endpointsPerLoop[idlest].addAndGet(endpoints);
+        hottest.moveTo(idlest);
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Moved " + hottest.key() + " from EventLoop " + busiest + " to " + idlest);
+        }
+        return true;
+    }
+
+    /**
+     * Returns a snapshot of the load of every loop.
+     *
+     * @return the load per loop, in loop order.
+     */
+    public LoopLoad[] load() {
+        LoopLoad[] result = new LoopLoad[loops.length];
+        for (int i = 0; i < loops.length; i++) {
+            int pending = loops[i] instanceof SingleThreadEventExecutor
+                ? ((SingleThreadEventExecutor) loops[i]).pendingTasks() : 0;
+            result[i] = new LoopLoad(i, endpointsPerLoop[i].get(), operationsPerLoop[i].get(), pending);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of loops managed.
+     *
+     * @return the loop count.
+     */
+    public int loopCount() {
+        return loops.length;
+    }
+
+    /**
+     * Returns the shared group, for everything that does not need to be pinned.
+     *
+     * @return the shared group.
+     */
+    public NioEventLoopGroup group() {
+        return group;
+    }
+
+    /**
+     * Shuts down the shared group.
+     */
+    public void shutdown() {
+        group.shutdownGracefully();
+    }
+
+    EventLoop loop(final int index) {
+        return loops[index];
+    }
+
+    void recordOperations(final int loopIndex, final long operations) {
+        operationsPerLoop[loopIndex].addAndGet(operations);
+    }
+
+    /**
+     * Find the loop with the least endpoints pinned.
+     *
+     * @return the index of the loop.
+     */
+    private int leastLoadedLoop() {
+        int index = 0;
+        for (int i = 1; i < loops.length; i++) {
+            if (endpointsPerLoop[i].get() < endpointsPerLoop[index].get()) {
+                index = i;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Endpoints of all services on the same host share the pin, so the port is left out.
+     */
+    private static String pinKey(final InetSocketAddress node, final int partition) {
+        String host = node.isUnresolved() ? node.getHostName() : node.getAddress().getHostAddress();
+        return host + "/" + partition;
+    }
+
+    /**
+     * Snapshot of the load of a single loop.
+     */
+    public static class LoopLoad {
+
+        private final int index;
+        private final int endpoints;
+        private final long operations;
+        private final int pendingTasks;
+
+        LoopLoad(int index, int endpoints, long operations, int pendingTasks) {
+            this.index = index;
+            this.endpoints = endpoints;
+            this.operations = operations;
+            this.pendingTasks = pendingTasks;
+        }
+
+        public int index() {
+            return index;
+        }
+
+        /**
+         * The number of endpoints pinned to this loop.
+         */
+        public int endpoints() {
+            return endpoints;
+        }
+
+        /**
+         * The number of operations recorded since the last rebalance.
+         */
+        public long operations() {
+            return operations;
+        }
+
+        /**
+         * The number of tasks waiting to be executed on the loop.
+         */
+        public int pendingTasks() {
+            return pendingTasks;
+        }
+
+        @Override
+        public String toString() {
+            return "LoopLoad{index=" + index + ", endpoints=" + endpoints + ", operations=" + operations
+                + ", pendingTasks=" + pendingTasks + '}';
+        }
+    }
+}
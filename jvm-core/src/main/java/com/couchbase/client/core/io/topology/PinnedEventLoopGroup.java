@@ -0,0 +1,172 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.client.core.io.topology;
+
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.AbstractEventExecutorGroup;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.Future;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link EventLoopGroup} view which always hands out the {@link EventLoop} a node and partition is pinned to by the
+ * {@link IoTopology}.
+ *
+ * The lifecycle methods delegate to the shared group of the topology, so it should be shut down through
+ * {@link IoTopology#shutdown()} and not through one of its pins.
+ */
+public final class PinnedEventLoopGroup extends AbstractEventExecutorGroup implements EventLoopGroup {
+
+    private final IoTopology topology;
+    private final String key;
+    private final AtomicInteger references = new AtomicInteger();
+    private final AtomicLong operations = new AtomicLong();
+    private volatile int loopIndex;
+    private volatile long lastOperations;
+
+    PinnedEventLoopGroup(final IoTopology topology, final String key, final int loopIndex) {
+        this.topology = topology;
+        this.key = key;
+        this.loopIndex = loopIndex;
+    }
+
+    /**
+     * Record operations performed through this pin, used to find hot pins on rebalance. Endpoints record every
+     * request they write.
+     *
+     * @param count the number of operations.
+     */
+    public void recordOperations(final long count) {
+        operations.addAndGet(count);
+        topology.recordOperations(loopIndex, count);
+    }
+
+    /**
+     * The topology this pin belongs to.
+     *
+     * @return the topology.
+     */
+    public IoTopology topology() {
+        return topology;
+    }
+
+    /**
+     * The node and partition key of this pin.
+     *
+     * @return the key.
+     */
+    public String key() {
+        return key;
+    }
+
+    /**
+     * The index of the loop this pin currently uses.
+     *
+     * @return the loop index.
+     */
+    public int loopIndex() {
+        return loopIndex;
+    }
+
+    @Override
+    public EventLoop next() {
+        return topology.loop(loopIndex);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <E extends EventExecutor> Set<E> children() {
+        return Collections.singleton((E) next());
+    }
+
+    @Override
+    public boolean isShuttingDown() {
+        return topology.group().isShuttingDown();
+    }
+
+    @Override
+    public Future<?> shutdownGracefully(long quietPeriod, long timeout, TimeUnit unit) {
+        return topology.group().shutdownGracefully(quietPeriod, timeout, unit);
+    }
+
+    @Override
+    public Future<?> terminationFuture() {
+        return topology.group().terminationFuture();
+    }
+
+    @Override
+    @Deprecated
+    public void shutdown() {
+        topology.group().shutdown();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return topology.group().isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return topology.group().isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return topology.group().awaitTermination(timeout, unit);
+    }
+
+    int retain() {
+        return references.incrementAndGet();
+    }
+
+    int release() {
+        return references.decrementAndGet();
+    }
+
+    int references() {
+        return references.get();
+    }
+
+    long resetOperations() {
+        lastOperations = operations.getAndSet(0);
+        return lastOperations;
+    }
+
+    long lastOperations() {
+        return lastOperations;
+    }
+
+    void moveTo(final int newLoopIndex) {
+        loopIndex = newLoopIndex;
+    }
+
+    @Override
+    public String toString() {
+        return "PinnedEventLoopGroup{key=" + key + ", loop=" + loopIndex + '}';
+    }
+}
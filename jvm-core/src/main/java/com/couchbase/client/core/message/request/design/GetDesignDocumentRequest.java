@@ -22,8 +22,14 @@
 
 package com.couchbase.client.core.message.request.design;
 
+import com.couchbase.client.core.transcoder.StringTranscoder;
+import com.couchbase.client.core.transcoder.Transcoder;
+
 /**
  * Find a design document and return its content.
+ *
+ * The body is decoded with the given {@link Transcoder} straight from the response buffer, as a UTF-8 string by
+ * default.
  */
 public class GetDesignDocumentRequest implements DesignRequest {
 
@@ -31,16 +37,23 @@ public class GetDesignDocumentRequest implements DesignRequest {
     private final String design;
     private final String user;
     private final String password;
+    private final Transcoder<?> transcoder;
 
     public GetDesignDocumentRequest(String bucket, String design) {
         this(bucket, design, null, null);
     }
 
     public GetDesignDocumentRequest(String bucket, String design, String user, String password) {
+        this(bucket, design, user, password, StringTranscoder.INSTANCE);
+    }
+
+    public GetDesignDocumentRequest(String bucket, String design, String user, String password,
+        Transcoder<?> transcoder) {
         this.bucket = bucket;
         this.design = design;
         this.user = user;
         this.password = password;
+        this.transcoder = transcoder;
     }
 
     @Override
@@ -58,4 +71,8 @@ public class GetDesignDocumentRequest implements DesignRequest {
         return password;
     }
 
+    public Transcoder<?> transcoder() {
+        return transcoder;
+    }
+
 }
@@ -22,15 +22,81 @@
 
 package com.couchbase.client.core.message.request.memcache;
 
+import com.couchbase.client.core.transcoder.Transcoder;
+import io.netty.util.Recycler;
+
+/**
+ * Reads a document from the active node.
+ *
+ * Without a {@link Transcoder}, the response carries the raw content buffer. With one, the value is decoded straight
+ * from the response buffer on the event loop, which is released right away.
+ *
+ * Requests from {@link #newInstance(String, Transcoder)} come from a pool of the calling thread and go back to it
+ * with {@link #recycle()} once the response arrived.
+ */
 public class GetRequest implements MemcacheRequest {
 
-    private final String key;
+    private static final Recycler<GetRequest> RECYCLER = new Recycler<GetRequest>() {
+        @Override
+        protected GetRequest newObject(final Handle<GetRequest> handle) {
+            return new GetRequest(handle);
+        }
+    };
+
+    private final Recycler.Handle<GetRequest> handle;
+    private String key;
+    private Transcoder<?> transcoder;
 
     public GetRequest(String key) {
+        this(key, null);
+    }
+
+    public GetRequest(String key, Transcoder<?> transcoder) {
+        this.handle = null;
         this.key = key;
+        this.transcoder = transcoder;
+    }
+
+    private GetRequest(final Recycler.Handle<GetRequest> handle) {
+        this.handle = handle;
+    }
+
+    /**
+     * Returns a pooled request, to be handed back with {@link #recycle()} once its response arrived.
+     *
+     * @param key the key of the document.
+     * @param transcoder the transcoder to decode the value with, null for the raw content.
+     * @return the request.
+     */
+    public static GetRequest newInstance(final String key, final Transcoder<?> transcoder) {
+        GetRequest request = RECYCLER.get();
+        request.key = key;
+        request.transcoder = transcoder;
+        return request;
     }
 
     public String key() {
         return key;
     }
+
+    public Transcoder<?> transcoder() {
+        return transcoder;
+    }
+
+    /**
+     * Hands a pooled request back, it must not be used afterwards. Does nothing for requests which are not pooled.
+     *
+     * Only requests recycled on the thread which took them out of the pool are reused, the others are left to the
+     * garbage collector.
+     *
+     * @return true if the request went back to the pool.
+     */
+    public boolean recycle() {
+        if (handle == null) {
+            return false;
+        }
+        key = null;
+        transcoder = null;
+        return RECYCLER.recycle(this, handle);
+    }
 }
@@ -0,0 +1,51 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.core.message.request.memcache;
+
+/**
+ * Asks a node about the replication and persistence state of a document.
+ */
+public class ObserveRequest implements MemcacheRequest {
+
+    private final String key;
+    private final int replica;
+
+    /**
+     * Create a new {@link ObserveRequest}.
+     *
+     * @param key the document key.
+     * @param replica the node the request is sent to, 0 for the active node and starting at 1 for replicas.
+     */
+    public ObserveRequest(String key, int replica) {
+        this.key = key;
+        this.replica = replica;
+    }
+
+    public String key() {
+        return key;
+    }
+
+    public int replica() {
+        return replica;
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.client.core.message.request.memcache;
+
+import com.couchbase.client.core.transcoder.Transcoder;
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Stores the content under the given key, regardless of whether it already exists.
+ *
+ * The content is either given as a buffer, which is released once the request has been written, or as a value with
+ * the {@link Transcoder} to encode it. Transcoded values are written straight into a buffer of the channel allocator
+ * when the request is encoded.
+ */
+public class UpsertRequest implements MemcacheRequest {
+
+    private final String key;
+    private final ByteBuf content;
+    private final int flags;
+    private final int expiration;
+    private final Object value;
+    private final Transcoder<Object> transcoder;
+
+    public UpsertRequest(String key, ByteBuf content) {
+        this(key, content, 0, 0);
+    }
+
+    public UpsertRequest(String key, ByteBuf content, int flags, int expiration) {
+        this.key = key;
+        this.content = content;
+        this.flags = flags;
+        this.expiration = expiration;
+        this.value = null;
+        this.transcoder = null;
+    }
+
+    public <T> UpsertRequest(String key, T value, Transcoder<T> transcoder) {
+        this(key, value, transcoder, 0);
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> UpsertRequest(String key, T value, Transcoder<T> transcoder, int expiration) {
+        this.key = key;
+        this.content = null;
+        this.flags = transcoder.flags();
+        this.expiration = expiration;
+        this.value = value;
+        this.transcoder = (Transcoder<Object>) transcoder;
+    }
+
+    public String key() {
+        return key;
+    }
+
+    /**
+     * The content buffer, null if the content is given as a transcoded value.
+     */
+    public ByteBuf content() {
+        return content;
+    }
+
+    public Object value() {
+        return value;
+    }
+
+    /**
+     * The transcoder of the value, null if the content is given as a buffer.
+     */
+    public Transcoder<Object> transcoder() {
+        return transcoder;
+    }
+
+    public int flags() {
+        return flags;
+    }
+
+    public int expiration() {
+        return expiration;
+    }
+}
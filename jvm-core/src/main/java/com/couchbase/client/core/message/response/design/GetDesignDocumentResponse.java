@@ -22,14 +22,23 @@
 
 package com.couchbase.client.core.message.response.design;
 
+/**
+ * The content of a design document, decoded by the transcoder of the request.
+ */
 public class GetDesignDocumentResponse implements DesignResponse {
 
     private final Status status;
-    private final String content;
+    private final Object content;
+    private final int contentLength;
 
     public GetDesignDocumentResponse(Status status, String content) {
+        this(status, content, content == null ? 0 : content.length());
+    }
+
+    public GetDesignDocumentResponse(Status status, Object content, int contentLength) {
         this.status = status;
         this.content = content;
+        this.contentLength = contentLength;
     }
 
     @Override
@@ -37,7 +46,15 @@ public class GetDesignDocumentResponse implements DesignResponse {
         return status;
     }
 
-    public String content() {
-        return content;
+    @SuppressWarnings("unchecked")
+    public <T> T content() {
+        return (T) content;
+    }
+
+    /**
+     * The size of the encoded body in bytes.
+     */
+    public int contentLength() {
+        return contentLength;
     }
 }
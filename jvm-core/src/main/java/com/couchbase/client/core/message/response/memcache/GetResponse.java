@@ -22,5 +22,108 @@
 
 package com.couchbase.client.core.message.response.memcache;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.Recycler;
+
+/**
+ * The document returned by a get.
+ *
+ * If the request had no transcoder, the content is a (possibly pooled) buffer owned by the receiver of the response,
+ * who needs to release it. Otherwise the decoded value is returned and the content is empty.
+ *
+ * Endpoints with recycling enabled return pooled responses, which the receiver hands back with {@link #recycle()}
+ * once it is done with them.
+ */
 public class GetResponse implements MemcacheResponse {
+
+    private static final Recycler<GetResponse> RECYCLER = new Recycler<GetResponse>() {
+        @Override
+        protected GetResponse newObject(final Handle<GetResponse> handle) {
+            return new GetResponse(handle);
+        }
+    };
+
+    private final Recycler.Handle<GetResponse> handle;
+    private ByteBuf content;
+    private Object value;
+    private int flags;
+    private long cas;
+
+    public GetResponse() {
+        this(Unpooled.EMPTY_BUFFER, 0, 0);
+    }
+
+    public GetResponse(ByteBuf content, int flags, long cas) {
+        this(content, null, flags, cas);
+    }
+
+    public GetResponse(ByteBuf content, Object value, int flags, long cas) {
+        this.handle = null;
+        this.content = content;
+        this.value = value;
+        this.flags = flags;
+        this.cas = cas;
+    }
+
+    private GetResponse(final Recycler.Handle<GetResponse> handle) {
+        this.handle = handle;
+    }
+
+    /**
+     * Returns a pooled response, to be handed back with {@link #recycle()} by its receiver.
+     *
+     * @param content the raw content.
+     * @param value the decoded value, null if not decoded.
+     * @param flags the flags of the document.
+     * @param cas the CAS of the document.
+     * @return the response.
+     */
+    public static GetResponse newInstance(final ByteBuf content, final Object value, final int flags,
+        final long cas) {
+        GetResponse response = RECYCLER.get();
+        response.content = content;
+        response.value = value;
+        response.flags = flags;
+        response.cas = cas;
+        return response;
+    }
+
+    public ByteBuf content() {
+        return content;
+    }
+
+    /**
+     * The value decoded by the transcoder of the request, null if there was none.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T value() {
+        return (T) value;
+    }
+
+    public int flags() {
+        return flags;
+    }
+
+    public long cas() {
+        return cas;
+    }
+
+    /**
+     * Hands a pooled response back, it must not be used afterwards. Does nothing for responses which are not pooled.
+     *
+     * The content is not released, that is still up to the receiver. Only responses recycled on the thread which
+     * decoded them (the event loop, so replies dispatched on the IO thread) are reused, the others are left to the
+     * garbage collector.
+     *
+     * @return true if the response went back to the pool.
+     */
+    public boolean recycle() {
+        if (handle == null) {
+            return false;
+        }
+        content = null;
+        value = null;
+        return RECYCLER.recycle(this, handle);
+    }
 }
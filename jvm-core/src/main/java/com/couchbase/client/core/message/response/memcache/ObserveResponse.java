@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.core.message.response.memcache;
+
+/**
+ * The replication and persistence state of a document on a single node.
+ */
+public class ObserveResponse implements MemcacheResponse {
+
+    /**
+     * The state of the observed key as reported by the node.
+     */
+    public enum KeyState {
+        FOUND_NOT_PERSISTED((byte) 0x00),
+        FOUND_PERSISTED((byte) 0x01),
+        NOT_FOUND_PERSISTED((byte) 0x80),
+        NOT_FOUND_NOT_PERSISTED((byte) 0x81);
+
+        private final byte value;
+
+        KeyState(byte value) {
+            this.value = value;
+        }
+
+        public byte value() {
+            return value;
+        }
+
+        public static KeyState valueOf(byte value) {
+            switch (value) {
+                case 0x00:
+                    return FOUND_NOT_PERSISTED;
+                case 0x01:
+                    return FOUND_PERSISTED;
+                case (byte) 0x80:
+                    return NOT_FOUND_PERSISTED;
+                case (byte) 0x81:
+                    return NOT_FOUND_NOT_PERSISTED;
+                default:
+                    throw new IllegalArgumentException("Unknown observe key state: " + value);
+            }
+        }
+    }
+
+    private final KeyState state;
+    private final long cas;
+    private final int replica;
+
+    /**
+     * Create a new {@link ObserveResponse}.
+     *
+     * @param state the state of the key.
+     * @param cas the current CAS value of the document on that node.
+     * @param replica the node which answered, 0 for the active node and starting at 1 for replicas.
+     */
+    public ObserveResponse(KeyState state, long cas, int replica) {
+        this.state = state;
+        this.cas = cas;
+        this.replica = replica;
+    }
+
+    public KeyState state() {
+        return state;
+    }
+
+    public long cas() {
+        return cas;
+    }
+
+    public int replica() {
+        return replica;
+    }
+
+    public boolean isActive() {
+        return replica == 0;
+    }
+
+    public boolean isFound() {
+        return state == KeyState.FOUND_NOT_PERSISTED || state == KeyState.FOUND_PERSISTED;
+    }
+
+    public boolean isPersisted() {
+        return state == KeyState.FOUND_PERSISTED || state == KeyState.NOT_FOUND_PERSISTED;
+    }
+
+    @Override
+    public String toString() {
+        return "ObserveResponse{state=" + state + ", cas=" + cas + ", replica=" + replica + '}';
+    }
+}
@@ -0,0 +1,148 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.client.core.trace;
+
+import com.couchbase.client.core.io.service.ServiceType;
+
+import java.net.SocketAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An immutable record of a single slow operation, captured from its {@link Span}.
+ */
+public class SlowOperation {
+
+    private final ServiceType serviceType;
+    private final SocketAddress remote;
+    private final String operation;
+    private final String key;
+    private final int requestBytes;
+    private final int responseBytes;
+    private final long totalNanos;
+    private final long queueNanos;
+    private final long encodeNanos;
+    private final long flushNanos;
+    private final long wireNanos;
+    private final long decodeNanos;
+    private final long deliveryNanos;
+
+    SlowOperation(final ServiceType serviceType, final Span span) {
+        this.serviceType = serviceType;
+        this.remote = span.remote();
+        this.operation = span.operation();
+        this.key = span.key();
+        this.requestBytes = span.requestBytes();
+        this.responseBytes = span.responseBytes();
+        this.totalNanos = span.totalNanos();
+        this.queueNanos = span.queueNanos();
+        this.encodeNanos = span.encodeNanos();
+        this.flushNanos = span.flushNanos();
+        this.wireNanos = span.wireNanos();
+        this.decodeNanos = span.decodeNanos();
+        this.deliveryNanos = span.deliveryNanos();
+    }
+
+    public ServiceType serviceType() {
+        return serviceType;
+    }
+
+    public SocketAddress remote() {
+        return remote;
+    }
+
+    /**
+     * The type of the operation, the simple name of the request class.
+     *
+     * @return the operation.
+     */
+    public String operation() {
+        return operation;
+    }
+
+    /**
+     * The document key or the HTTP path, null if the operation has none.
+     *
+     * @return the key or path.
+     */
+    public String key() {
+        return key;
+    }
+
+    public int requestBytes() {
+        return requestBytes;
+    }
+
+    public int responseBytes() {
+        return responseBytes;
+    }
+
+    public long totalNanos() {
+        return totalNanos;
+    }
+
+    public long queueNanos() {
+        return queueNanos;
+    }
+
+    public long encodeNanos() {
+        return encodeNanos;
+    }
+
+    public long flushNanos() {
+        return flushNanos;
+    }
+
+    public long wireNanos() {
+        return wireNanos;
+    }
+
+    public long decodeNanos() {
+        return decodeNanos;
+    }
+
+    public long deliveryNanos() {
+        return deliveryNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "SlowOperation{"
+            + "service=" + serviceType
+            + ", remote=" + remote
+            + ", operation=" + operation
+            + ", key=" + key
+            + ", requestBytes=" + requestBytes
+            + ", responseBytes=" + responseBytes
+            + ", totalUs=" + micros(totalNanos)
+            + ", queueUs=" + micros(queueNanos)
+            + ", encodeUs=" + micros(encodeNanos)
+            + ", flushUs=" + micros(flushNanos)
+            + ", wireUs=" + micros(wireNanos)
+            + ", decodeUs=" + micros(decodeNanos)
+            + ", deliveryUs=" + micros(deliveryNanos)
+            + '}';
+    }
+
+    private static long micros(final long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
@@ -0,0 +1,324 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.client.core.trace;
+
+import com.couchbase.client.core.io.service.ServiceType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Keeps the N slowest operations per endpoint and {@link ServiceType} over a rolling window and reports them
+ * periodically.
+ *
+ * The detector is a {@link TraceSink}, so it is fed by a {@link Tracer} in threshold mode. Operations below the
+ * threshold cost a comparison against the write timestamp the endpoint keeps anyway and allocate nothing, so with a
+ * threshold of a few hundred microseconds the detector can stay enabled. Everything slower costs a span and a
+ * volatile read against the current top-N floor, and only operations which make it into the top-N are copied and
+ * inserted (lock-free, with a CAS on the slot being replaced). In the AllocationBenchmark (32 gets in flight against
+ * the local mock, 500 microsecond threshold) it adds around 10 bytes per get, all of it spans of operations which
+ * actually were slow.
+ *
+ * Every interval the window is swapped for a fresh one and the old one is handed to the {@link Listener}, slowest
+ * operations first per endpoint and service.
+ */
+public class SlowOperationDetector implements TraceSink {
+
+    /**
+     * Standard LOGGER to use.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(SlowOperationDetector.class);
+
+    /**
+     * Orders by service type and remote address, then slowest first.
+     */
+    private static final Comparator<SlowOperation> REPORT_ORDER = new Comparator<SlowOperation>() {
+        @Override
+        public int compare(final SlowOperation o1, final SlowOperation o2) {
+            int byService = o1.serviceType().compareTo(o2.serviceType());
+            if (byService != 0) {
+                return byService;
+            }
+            int byRemote = String.valueOf(o1.remote()).compareTo(String.valueOf(o2.remote()));
+            if (byRemote != 0) {
+                return byRemote;
+            }
+            return o1.totalNanos() > o2.totalNanos() ? -1 : (o1.totalNanos() == o2.totalNanos() ? 0 : 1);
+        }
+    };
+
+    /**
+     * Logs the report at INFO level, used if no other listener is given.
+     */
+    public static final Listener LOGGING_LISTENER = new Listener() {
+        @Override
+        public void onReport(final List<SlowOperation> slowest) {
+            if (!slowest.isEmpty() && LOGGER.isInfoEnabled()) {
+                StringBuilder sb = new StringBuilder("Slowest operations in the last interval:");
+                for (SlowOperation operation : slowest) {
+                    sb.append("\n  ").append(operation);
+                }
+                LOGGER.info(sb.toString());
+            }
+        }
+    };
+
+    /**
+     * How many operations are kept per endpoint and service.
+     */
+    private final int topN;
+
+    /**
+     * Receives the periodic reports.
+     */
+    private final Listener listener;
+
+    /**
+     * The window currently recorded into.
+     */
+    private final AtomicReference<Window> window = new AtomicReference<Window>(new Window());
+
+    /**
+     * The periodic report task, if started.
+     */
+    private volatile ScheduledFuture<?> reportTask;
+
+    /**
+     * Create a new {@link SlowOperationDetector} which logs its reports.
+     *
+     * @param topN how many operations to keep per endpoint and service.
+     */
+    public SlowOperationDetector(final int topN) {
+        this(topN, LOGGING_LISTENER);
+    }
+
+    /**
+     * Create a new {@link SlowOperationDetector}.
+     *
+     * @param topN how many operations to keep per endpoint and service.
+     * @param listener receives the reports.
+     */
+    public SlowOperationDetector(final int topN, final Listener listener) {
+        if (topN <= 0) {
+            throw new IllegalArgumentException("At least one operation needs to be kept.");
+        }
+        if (listener == null) {
+            throw new IllegalArgumentException("The Listener must not be null.");
+        }
+        this.topN = topN;
+        this.listener = listener;
+    }
+
+    /**
+     * Start reporting (and rolling the window) on the given interval.
+     *
+     * @param scheduler the scheduler to run the report on, the IO event loop group works fine.
+     * @param interval the report interval.
+     * @param unit the unit of the interval.
+     */
+    public void start(final ScheduledExecutorService scheduler, final long interval, final TimeUnit unit) {
+        stop();
+        reportTask = scheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    listener.onReport(roll());
+                } catch (Exception ex) {
+                    LOGGER.warn("Exception while reporting slow operations.", ex);
+                }
+            }
+        }, interval, interval, unit);
+    }
+
+    /**
+     * Stop the periodic report.
+     */
+    public void stop() {
+        ScheduledFuture<?> task = reportTask;
+        if (task != null) {
+            task.cancel(false);
+            reportTask = null;
+        }
+    }
+
+    @Override
+    public void report(final Span span) {
+        ServiceType serviceType = TraceUtils.serviceTypeOf(span.request());
+        if (serviceType == null) {
+            return;
+        }
+        window.get().slowest(span.remote(), serviceType).offer(span, serviceType);
+    }
+
+    /**
+     * Returns the slowest operations of the current window, without resetting it.
+     *
+     * @return the slowest operations, grouped by service and endpoint, slowest first.
+     */
+    public List<SlowOperation> snapshot() {
+        return window.get().collect();
+    }
+
+    /**
+     * Returns the slowest operations of the current window and starts a new one.
+     *
+     * @return the slowest operations, grouped by service and endpoint, slowest first.
+     */
+    public List<SlowOperation> roll() {
+        return window.getAndSet(new Window()).collect();
+    }
+
+    /**
+     * Receives the periodic reports of a {@link SlowOperationDetector}.
+     */
+    public interface Listener {
+
+        /**
+         * Called once per interval with the slowest operations of the past window.
+         *
+         * @param slowest the slowest operations, grouped by service and endpoint, slowest first.
+         */
+        void onReport(List<SlowOperation> slowest);
+    }
+
+    /**
+     * The top-N tables of one window, per remote address and service type.
+     */
+    private final class Window {
+
+        private final ConcurrentMap<SocketAddress, TopN[]> tables = new ConcurrentHashMap<SocketAddress, TopN[]>();
+
+        TopN slowest(final SocketAddress remote, final ServiceType serviceType) {
+            TopN[] perService = tables.get(remote);
+            if (perService == null) {
+                perService = new TopN[ServiceType.values().length];
+                for (int i = 0; i < perService.length; i++) {
+                    perService[i] = new TopN(topN);
+                }
+                TopN[] existing = tables.putIfAbsent(remote, perService);
+                if (existing != null) {
+                    perService = existing;
+                }
+            }
+            return perService[serviceType.ordinal()];
+        }
+
+        List<SlowOperation> collect() {
+            List<SlowOperation> result = new ArrayList<SlowOperation>();
+            for (TopN[] perService : tables.values()) {
+                for (TopN table : perService) {
+                    table.drainTo(result);
+                }
+            }
+            Collections.sort(result, REPORT_ORDER);
+            return result;
+        }
+    }
+
+    /**
+     * A bounded, lock-free table of the slowest operations.
+     *
+     * Entries are only ever replaced by slower ones, so the floor (the fastest entry once the table is full) only
+     * grows and a stale read of it never rejects an operation which belongs in the table.
+     */
+    static final class TopN {
+
+        private final AtomicReferenceArray<SlowOperation> slots;
+        private volatile long floor;
+
+        TopN(final int size) {
+            slots = new AtomicReferenceArray<SlowOperation>(size);
+        }
+
+        boolean offer(final Span span, final ServiceType serviceType) {
+            long total = span.totalNanos();
+            if (total <= floor) {
+                return false;
+            }
+
+            SlowOperation operation = null;
+            while (true) {
+                int index = -1;
+                SlowOperation fastest = null;
+                for (int i = 0; i < slots.length(); i++) {
+                    SlowOperation current = slots.get(i);
+                    if (current == null) {
+                        index = i;
+                        fastest = null;
+                        break;
+                    }
+                    if (fastest == null || current.totalNanos() < fastest.totalNanos()) {
+                        index = i;
+                        fastest = current;
+                    }
+                }
+
+                if (fastest != null && total <= fastest.totalNanos()) {
+                    updateFloor();
+                    return false;
+                }
+                if (operation == null) {
+                    operation = new SlowOperation(serviceType, span);
+                }
+                if (slots.compareAndSet(index, fastest, operation)) {
+                    updateFloor();
+                    return true;
+                }
+            }
+        }
+
+        private void updateFloor() {
+            long min = Long.MAX_VALUE;
+            for (int i = 0; i < slots.length(); i++) {
+                SlowOperation current = slots.get(i);
+                if (current == null) {
+                    return;
+                }
+                min = Math.min(min, current.totalNanos());
+            }
+            if (min > floor) {
+                floor = min;
+            }
+        }
+
+        void drainTo(final List<SlowOperation> target) {
+            for (int i = 0; i < slots.length(); i++) {
+                SlowOperation current = slots.get(i);
+                if (current != null) {
+                    target.add(current);
+                }
+            }
+        }
+    }
+}
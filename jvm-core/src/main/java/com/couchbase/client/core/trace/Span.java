@@ -0,0 +1,304 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.client.core.trace;
+
+import com.couchbase.client.core.io.endpoint.ReplyDispatch;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import reactor.core.composable.Promise;
+import reactor.function.Consumer;
+
+import java.net.SocketAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timestamps a single request on its way through the endpoint.
+ *
+ * The phases, in order:
+ *
+ * - queue: from sendAndReceive until the event loop picks up the write.
+ * - encode: the codec turning the request into its wire format.
+ * - flush: waiting for the (batched) flush until the bytes are written to the socket.
+ * - wire: network and server time until the socket read containing the response started.
+ * - decode: decoding the response from the socket read.
+ * - delivery: handing the reply over to the caller, including dispatcher hops.
+ *
+ * A phase whose timestamp could not be taken (for example the read timestamp if the tracer was set after connect)
+ * is folded into the following phase. Spans are created through {@link Tracer#start(Object, SocketAddress)}, the
+ * mark methods are called by the endpoint internals. Spans of requests only found to be slow once their response
+ * arrived start when the request was written, so they only know the wire and decode phases.
+ *
+ * Sampled spans finish after the reply reached the caller, which may have recycled the request by then, so the
+ * operation and key are captured when the span is created.
+ */
+public class Span implements Consumer<Object>, ChannelFutureListener {
+
+    private static final int STARTED = 0;
+    private static final int WRITTEN = 1;
+    private static final int ENCODED = 2;
+    private static final int FLUSHED = 3;
+    private static final int RECEIVED = 4;
+    private static final int DECODED = 5;
+    private static final int COMPLETED = 6;
+
+    private final Tracer tracer;
+    private final Object request;
+    private final String operation;
+    private final String key;
+    private final SocketAddress remote;
+    private final boolean sampled;
+    private final long[] marks = new long[COMPLETED + 1];
+    private final int requestBytes;
+    private int responseBytes;
+    private Consumer<Object> reply;
+    private boolean finishOnReply;
+
+    Span(final Tracer tracer, final Object request, final SocketAddress remote, final boolean sampled) {
+        this.tracer = tracer;
+        this.request = request;
+        operation = request.getClass().getSimpleName();
+        key = TraceUtils.keyOf(request);
+        this.remote = remote;
+        this.sampled = sampled;
+        requestBytes = TraceUtils.requestBytes(request);
+        marks[STARTED] = System.nanoTime();
+    }
+
+    Span(final Tracer tracer, final Object request, final SocketAddress remote, final int requestBytes,
+        final long writtenAt, final long receivedAt, final long decodedAt, final Object response) {
+        this.tracer = tracer;
+        this.request = request;
+        operation = request.getClass().getSimpleName();
+        key = TraceUtils.keyOf(request);
+        this.remote = remote;
+        this.sampled = false;
+        this.requestBytes = requestBytes;
+        responseBytes = TraceUtils.responseBytes(response);
+        marks[STARTED] = writtenAt;
+        marks[RECEIVED] = receivedAt > writtenAt ? receivedAt : 0;
+        marks[DECODED] = decodedAt;
+        marks[COMPLETED] = decodedAt;
+    }
+
+    /**
+     * Wrap the original reply consumer, so the span sees the decoded response before it is passed on.
+     *
+     * @param reply the original reply consumer.
+     * @return this span, to be used as the new reply consumer.
+     */
+    @SuppressWarnings("unchecked")
+    public Span wrapReply(final Object reply) {
+        this.reply = (Consumer<Object>) reply;
+        return this;
+    }
+
+    /**
+     * Wrap the reply callback of a request sent without a promise, the span is finished once the callback returns.
+     *
+     * @param reply the reply callback.
+     * @return this span, to be used as the new reply consumer.
+     */
+    public Span wrapCallback(final Object reply) {
+        finishOnReply = true;
+        return wrapReply(reply);
+    }
+
+    /**
+     * Returns a consumer which finishes the span once the given promise completes.
+     *
+     * @return the completion consumer.
+     */
+    public <T> Consumer<Promise<T>> completion() {
+        return new Consumer<Promise<T>>() {
+            @Override
+            public void accept(final Promise<T> promise) {
+                marks[COMPLETED] = System.nanoTime();
+                tracer.finish(Span.this);
+            }
+        };
+    }
+
+    /**
+     * Mark that the event loop picked up the write.
+     */
+    public void markWritten() {
+        marks[WRITTEN] = System.nanoTime();
+    }
+
+    /**
+     * Mark that the request has been encoded.
+     */
+    public void markEncoded() {
+        marks[ENCODED] = System.nanoTime();
+    }
+
+    /**
+     * Mark the start of the socket read which contained the response.
+     *
+     * @param timestamp the {@link System#nanoTime()} when the read started.
+     */
+    public void markReceived(final long timestamp) {
+        marks[RECEIVED] = timestamp;
+    }
+
+    @Override
+    public void operationComplete(final ChannelFuture future) throws Exception {
+        marks[FLUSHED] = System.nanoTime();
+    }
+
+    @Override
+    public void accept(final Object response) {
+        marks[DECODED] = System.nanoTime();
+        responseBytes = TraceUtils.responseBytes(response);
+        ReplyDispatch.deliver(reply, response);
+        if (finishOnReply) {
+            marks[COMPLETED] = System.nanoTime();
+            tracer.finish(this);
+        }
+    }
+
+    /**
+     * The traced request, which may already have been recycled by its caller once the span is finished.
+     *
+     * @return the request.
+     */
+    public Object request() {
+        return request;
+    }
+
+    /**
+     * The type of the operation, the simple name of the request class.
+     *
+     * @return the operation.
+     */
+    public String operation() {
+        return operation;
+    }
+
+    /**
+     * The document key or the HTTP path as of when the span started, null if the operation has none.
+     *
+     * @return the key or path.
+     */
+    public String key() {
+        return key;
+    }
+
+    /**
+     * The remote address the request has been sent to.
+     *
+     * @return the remote address.
+     */
+    public SocketAddress remote() {
+        return remote;
+    }
+
+    /**
+     * If the span has been sampled (and not only reported because of the threshold).
+     *
+     * @return true if sampled.
+     */
+    public boolean sampled() {
+        return sampled;
+    }
+
+    /**
+     * The size of the request body in bytes.
+     *
+     * @return the request size.
+     */
+    public int requestBytes() {
+        return requestBytes;
+    }
+
+    /**
+     * The size of the response body, 0 until the response arrived.
+     *
+     * @return the response size.
+     */
+    public int responseBytes() {
+        return responseBytes;
+    }
+
+    public long totalNanos() {
+        return marks[COMPLETED] - marks[STARTED];
+    }
+
+    public long queueNanos() {
+        return phase(WRITTEN);
+    }
+
+    public long encodeNanos() {
+        return phase(ENCODED);
+    }
+
+    public long flushNanos() {
+        return phase(FLUSHED);
+    }
+
+    public long wireNanos() {
+        return phase(RECEIVED);
+    }
+
+    public long decodeNanos() {
+        return phase(DECODED);
+    }
+
+    public long deliveryNanos() {
+        return phase(COMPLETED);
+    }
+
+    /**
+     * Calculates the time between the given mark and the latest mark taken before it.
+     */
+    private long phase(final int mark) {
+        if (marks[mark] == 0) {
+            return 0;
+        }
+        for (int i = mark - 1; i > STARTED; i--) {
+            if (marks[i] != 0) {
+                return marks[mark] - marks[i];
+            }
+        }
+        return marks[mark] - marks[STARTED];
+    }
+
+    @Override
+    public String toString() {
+        return "Span{"
+            + "request=" + operation
+            + ", remote=" + remote
+            + ", sampled=" + sampled
+            + ", totalUs=" + micros(totalNanos())
+            + ", queueUs=" + micros(queueNanos())
+            + ", encodeUs=" + micros(encodeNanos())
+            + ", flushUs=" + micros(flushNanos())
+            + ", wireUs=" + micros(wireNanos())
+            + ", decodeUs=" + micros(decodeNanos())
+            + ", deliveryUs=" + micros(deliveryNanos())
+            + '}';
+    }
+
+    private static long micros(final long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
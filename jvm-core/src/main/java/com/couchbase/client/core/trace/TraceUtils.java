@@ -0,0 +1,90 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.client.core.trace;
+
+import com.couchbase.client.core.io.service.ServiceType;
+import com.couchbase.client.core.message.request.design.DesignRequest;
+import com.couchbase.client.core.message.request.memcache.GetRequest;
+import com.couchbase.client.core.message.request.memcache.MemcacheRequest;
+import com.couchbase.client.core.message.request.memcache.UpsertRequest;
+import com.couchbase.client.core.message.response.design.GetDesignDocumentResponse;
+import com.couchbase.client.core.message.response.memcache.GetResponse;
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Extracts the details of requests and responses which are worth recording alongside a {@link Span}.
+ */
+final class TraceUtils {
+
+    private TraceUtils() {
+    }
+
+    /**
+     * Returns the {@link ServiceType} the request belongs to, or null if unknown.
+     */
+    static ServiceType serviceTypeOf(final Object request) {
+        if (request instanceof MemcacheRequest) {
+            return ServiceType.MEMCACHE;
+        } else if (request instanceof DesignRequest) {
+            return ServiceType.DESIGN;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the document key or the HTTP path of the request, or null if it has none.
+     */
+    static String keyOf(final Object request) {
+        if (request instanceof GetRequest) {
+            return ((GetRequest) request).key();
+        } else if (request instanceof UpsertRequest) {
+            return ((UpsertRequest) request).key();
+        } else if (request instanceof DesignRequest) {
+            return ((DesignRequest) request).path();
+        }
+        return null;
+    }
+
+    /**
+     * Returns the size of the request body in bytes, needs to be called before the request is written.
+     */
+    static int requestBytes(final Object request) {
+        if (request instanceof UpsertRequest) {
+            ByteBuf content = ((UpsertRequest) request).content();
+            return content == null ? 0 : content.readableBytes();
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the size of the response body in bytes, needs to be called before the response is delivered.
+     */
+    static int responseBytes(final Object response) {
+        if (response instanceof GetResponse) {
+            ByteBuf content = ((GetResponse) response).content();
+            return content == null ? 0 : content.readableBytes();
+        } else if (response instanceof GetDesignDocumentResponse) {
+            return ((GetDesignDocumentResponse) response).contentLength();
+        }
+        return 0;
+    }
+}
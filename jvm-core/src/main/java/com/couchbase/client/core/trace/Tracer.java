@@ -0,0 +1,144 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.client.core.trace;
+
+import java.net.SocketAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides which requests get a {@link Span} and which finished spans are reported to the {@link TraceSink}.
+ *
+ * Two triggers are supported and can be combined:
+ *
+ * - sampling: every n-th request is traced from the start and always reported.
+ * - threshold: every request which took at least the given time from being written until its response was decoded
+ *   is reported. The endpoint measures this with the write timestamps it takes for its latency tracking anyway, and
+ *   only creates a span (through {@link #reportSlow(Object, SocketAddress, int, long, long, long, Object)}) once a
+ *   response turns out to be slow. The queue and flush phases are not known for those spans.
+ *
+ * Requests which are not sampled do not get a span at all, so a tracer costs a counter increment per request and a
+ * comparison per response. A single tracer can be shared across all endpoints.
+ */
+public class Tracer {
+
+    /**
+     * Where reported spans go.
+     */
+    private final TraceSink sink;
+
+    /**
+     * Trace every n-th request, 0 disables sampling.
+     */
+    private final int sampleEvery;
+
+    /**
+     * Report spans which took at least this long, 0 disables the threshold.
+     */
+    private final long thresholdNanos;
+
+    /**
+     * Sampling counter, deliberately not atomic: lost updates under contention only skew the sample rate slightly.
+     */
+    private int counter;
+
+    /**
+     * Create a new {@link Tracer}.
+     *
+     * @param sink where reported spans go.
+     * @param sampleEvery trace and report every n-th request, 0 to disable sampling.
+     * @param threshold report every request which took at least this long, 0 to disable.
+     * @param unit the unit of the threshold.
+     */
+    public Tracer(final TraceSink sink, final int sampleEvery, final long threshold, final TimeUnit unit) {
+        if (sink == null) {
+            throw new IllegalArgumentException("The TraceSink must not be null.");
+        }
+        if (sampleEvery < 0 || threshold < 0) {
+            throw new IllegalArgumentException("Sample rate and threshold must not be negative.");
+        }
+        this.sink = sink;
+        this.sampleEvery = sampleEvery;
+        this.thresholdNanos = unit.toNanos(threshold);
+    }
+
+    /**
+     * Start a {@link Span} for the given request if it needs to be traced.
+     *
+     * @param request the request which is about to be sent.
+     * @param remote the remote address the request goes to.
+     * @return the started span or null if the request is not traced.
+     */
+    public Span start(final Object request, final SocketAddress remote) {
+        if (sampleEvery == 0 || ++counter % sampleEvery != 0) {
+            return null;
+        }
+        return new Span(this, request, remote, true);
+    }
+
+    /**
+     * Check if a request which has not been traced from the start took long enough to be reported.
+     *
+     * @param latencyNanos the time from writing the request until its response was decoded.
+     * @return true if it needs to be reported through
+     *   {@link #reportSlow(Object, SocketAddress, int, long, long, long, Object)}.
+     */
+    public boolean isSlow(final long latencyNanos) {
+        return thresholdNanos > 0 && latencyNanos >= thresholdNanos;
+    }
+
+    /**
+     * Report a request over the threshold which has not been traced from the start.
+     *
+     * Needs to be called before the response is delivered, the caller may recycle the request afterwards.
+     *
+     * @param request the slow request.
+     * @param remote the remote address the request has been sent to.
+     * @param requestBytes the size of the request body, taken with {@link #requestBytes(Object)} before it was written.
+     * @param writtenAt the {@link System#nanoTime()} when the request was written.
+     * @param receivedAt the {@link System#nanoTime()} when the socket read with the response started, 0 if unknown.
+     * @param decodedAt the {@link System#nanoTime()} when the response was decoded.
+     * @param response the decoded response.
+     */
+    public void reportSlow(final Object request, final SocketAddress remote, final int requestBytes,
+        final long writtenAt, final long receivedAt, final long decodedAt, final Object response) {
+        sink.report(new Span(this, request, remote, requestBytes, writtenAt, receivedAt, decodedAt, response));
+    }
+
+    /**
+     * Returns the size of the request body in bytes, needs to be called before the request is written.
+     *
+     * @param request the request.
+     * @return the size, 0 if the request has no body.
+     */
+    public static int requestBytes(final Object request) {
+        return TraceUtils.requestBytes(request);
+    }
+
+    /**
+     * Called by a {@link Span} once the reply has been delivered.
+     *
+     * @param span the finished span.
+     */
+    void finish(final Span span) {
+        sink.report(span);
+    }
+}
@@ -0,0 +1,457 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.core.transcoder;
+
+import io.netty.buffer.ByteBuf;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stores JSON documents, mapped to plain Java objects.
+ *
+ * Objects are mapped to {@link Map}s (decoded as insertion ordered {@link LinkedHashMap}s), arrays to {@link List}s
+ * ({@link Iterable}s and object arrays when encoding), strings to {@link String}s, numbers to {@link Long}s (or
+ * {@link BigInteger}s if they do not fit) and {@link Double}s, booleans to {@link Boolean}s and null to null.
+ *
+ * Both directions stream over the buffer: the encoder writes UTF-8 straight into the target, the parser reads the
+ * bytes of the response in place, so no intermediate strings or arrays of the whole document are created.
+ */
+public class JsonTranscoder implements Transcoder<Object> {
+
+    public static final JsonTranscoder INSTANCE = new JsonTranscoder();
+
+    /**
+     * Common flags for JSON documents.
+     */
+    public static final int FLAGS = 2 << 24;
+
+    /**
+     * Nesting limit, guarding against cyclic object graphs and hostile documents.
+     */
+    private static final int MAX_DEPTH = 256;
+
+    private static final byte[] NULL = {'n', 'u', 'l', 'l'};
+    private static final byte[] TRUE = {'t', 'r', 'u', 'e'};
+    private static final byte[] FALSE = {'f', 'a', 'l', 's', 'e'};
+    private static final byte[] HEX = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+
+    @Override
+    public int flags() {
+        return FLAGS;
+    }
+
+    @Override
+    public int estimateSize(final Object value) {
+        if (value instanceof CharSequence) {
+            return ((CharSequence) value).length() + 2;
+        }
+        return 256;
+    }
+
+    @Override
+    public void encode(final Object value, final ByteBuf target) {
+        writeValue(value, target, 0);
+    }
+
+    @Override
+    public Object decode(final ByteBuf source) {
+        Parser parser = new Parser(source);
+        Object value = parser.parseValue(0);
+        parser.skipWhitespace();
+        if (parser.index != parser.end) {
+            throw parser.error("Unexpected content after the document");
+        }
+        return value;
+    }
+
+    private static void writeValue(final Object value, final ByteBuf out, final int depth) {
+        if (depth > MAX_DEPTH) {
+            throw new TranscodingException("Document is nested deeper than " + MAX_DEPTH + " levels");
+        }
+
+        if (value == null) {
+            out.writeBytes(NULL);
+        } else if (value instanceof CharSequence) {
+            writeString((CharSequence) value, out);
+        } else if (value instanceof Boolean) {
+            out.writeBytes((Boolean) value ? TRUE : FALSE);
+        } else if (value instanceof Number) {
+            writeNumber((Number) value, out);
+        } else if (value instanceof Map) {
+            out.writeByte('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if (!first) {
+                    out.writeByte(',');
+                }
+                first = false;
+                writeString(String.valueOf(entry.getKey()), out);
+                out.writeByte(':');
+                writeValue(entry.getValue(), out, depth + 1);
+            }
+            out.writeByte('}');
+        } else if (value instanceof Iterable) {
+            out.writeByte('[');
+            boolean first = true;
+            for (Object element : (Iterable<?>) value) {
+                if (!first) {
+                    out.writeByte(',');
+                }
+                first = false;
+                writeValue(element, out, depth + 1);
+            }
+            out.writeByte(']');
+        } else if (value instanceof Object[]) {
+            Object[] array = (Object[]) value;
+            out.writeByte('[');
+            for (int i = 0; i < array.length; i++) {
+                if (i > 0) {
+                    out.writeByte(',');
+                }
+                writeValue(array[i], out, depth + 1);
+            }
+            out.writeByte(']');
+        } else {
+            throw new TranscodingException("Can not encode " + value.getClass().getName() + " as JSON");
+        }
+    }
+
+    private static void writeNumber(final Number value, final ByteBuf out) {
+        if (value instanceof Double || value instanceof Float) {
+            double d = value.doubleValue();
+            if (Double.isNaN(d) || Double.isInfinite(d)) {
+                throw new TranscodingException("Can not encode " + d + " as JSON");
+            }
+        }
+        String text = value.toString();
+        for (int i = 0; i < text.length(); i++) {
+            out.writeByte(text.charAt(i));
+        }
+    }
+
+    private static void writeString(final CharSequence value, final ByteBuf out) {
+        out.writeByte('"');
+        int length = value.length();
+        int run = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') {
+                continue;
+            }
+
+            Utf8.write(value, run, i, out);
+            run = i + 1;
+            out.writeByte('\\');
+            switch (c) {
+                case '"':
+                case '\\':
+                    out.writeByte(c);
+                    break;
+                case '\n':
+                    out.writeByte('n');
+                    break;
+                case '\r':
+                    out.writeByte('r');
+                    break;
+                case '\t':
+                    out.writeByte('t');
+                    break;
+                case '\b':
+                    out.writeByte('b');
+                    break;
+                case '\f':
+                    out.writeByte('f');
+                    break;
+                default:
+                    out.writeByte('u');
+                    out.writeByte('0');
+                    out.writeByte('0');
+                    out.writeByte(HEX[c >> 4]);
+                    out.writeByte(HEX[c & 0xf]);
+            }
+        }
+        Utf8.write(value, run, length, out);
+        out.writeByte('"');
+    }
+
+    /**
+     * A recursive descent parser reading the bytes of the buffer in place.
+     */
+    private static final class Parser {
+
+        private final ByteBuf buf;
+        private final int end;
+        private int index;
+
+        Parser(final ByteBuf buf) {
+            this.buf = buf;
+            index = buf.readerIndex();
+            end = buf.writerIndex();
+        }
+
+        Object parseValue(final int depth) {
+            if (depth > MAX_DEPTH) {
+                throw error("Document is nested deeper than " + MAX_DEPTH + " levels");
+            }
+
+            skipWhitespace();
+            switch (peek()) {
+                case '{':
+                    return parseObject(depth);
+                case '[':
+                    return parseArray(depth);
+                case '"':
+                    return parseString();
+                case 't':
+                    expect(TRUE);
+                    return Boolean.TRUE;
+                case 'f':
+                    expect(FALSE);
+                    return Boolean.FALSE;
+                case 'n':
+                    expect(NULL);
+                    return null;
+                default:
+                    return parseNumber();
+            }
+        }
+
+        private Map<String, Object> parseObject(final int depth) {
+            Map<String, Object> object = new LinkedHashMap<String, Object>();
+            index++;
+            skipWhitespace();
+            if (peek() == '}') {
+                index++;
+                return object;
+            }
+            while (true) {
+                skipWhitespace();
+                if (peek() != '"') {
+                    throw error("Expected a field name");
+                }
+                String name = parseString();
+                skipWhitespace();
+                if (next() != ':') {
+                    throw error("Expected ':'");
+                }
+                object.put(name, parseValue(depth + 1));
+                skipWhitespace();
+                byte b = next();
+                if (b == '}') {
+                    return object;
+                } else if (b != ',') {
+                    throw error("Expected ',' or '}'");
+                }
+            }
+        }
+
+        private List<Object> parseArray(final int depth) {
+            List<Object> array = new ArrayList<Object>();
+            index++;
+            skipWhitespace();
+            if (peek() == ']') {
+                index++;
+                return array;
+            }
+            while (true) {
+                array.add(parseValue(depth + 1));
+                skipWhitespace();
+                byte b = next();
+                if (b == ']') {
+                    return array;
+                } else if (b != ',') {
+                    throw error("Expected ',' or ']'");
+                }
+            }
+        }
+
+        private String parseString() {
+            index++;
+            int start = index;
+            while (index < end) {
+                byte b = buf.getByte(index);
+                if (b == '"') {
+                    char[] chars = new char[index - start];
+                    for (int i = 0; i < chars.length; i++) {
+                        chars[i] = (char) buf.getByte(start + i);
+                    }
+                    index++;
+                    return new String(chars);
+                } else if (b == '\\' || b < 0x20) {
+                    break;
+                }
+                index++;
+            }
+
+            StringBuilder builder = new StringBuilder(index - start + 16);
+            for (int i = start; i < index; i++) {
+                builder.append((char) buf.getByte(i));
+            }
+            while (true) {
+                int b = next() & 0xff;
+                if (b == '"') {
+                    return builder.toString();
+                } else if (b == '\\') {
+                    parseEscape(builder);
+                } else if (b < 0x20) {
+                    throw error("Unescaped control character in string");
+                } else if (b < 0x80) {
+                    builder.append((char) b);
+                } else if (b < 0xe0) {
+                    builder.append((char) (((b & 0x1f) << 6) | continuation()));
+                } else if (b < 0xf0) {
+                    builder.append((char) (((b & 0x0f) << 12) | (continuation() << 6) | continuation()));
+                } else {
+                    int codePoint = ((b & 0x07) << 18) | (continuation() << 12) | (continuation() << 6)
+                        | continuation();
+                    if (codePoint > Character.MAX_CODE_POINT) {
+                        throw error("Invalid UTF-8 sequence");
+                    }
+                    builder.appendCodePoint(codePoint);
+                }
+            }
+        }
+
+        private void parseEscape(final StringBuilder builder) {
+            byte b = next();
+            switch (b) {
+                case '"':
+                case '\\':
+                case '/':
+                    builder.append((char) b);
+                    break;
+                case 'n':
+                    builder.append('\n');
+                    break;
+                case 'r':
+                    builder.append('\r');
+                    break;
+                case 't':
+                    builder.append('\t');
+                    break;
+                case 'b':
+                    builder.append('\b');
+                    break;
+                case 'f':
+                    builder.append('\f');
+                    break;
+                case 'u':
+                    int c = 0;
+                    for (int i = 0; i < 4; i++) {
+                        int digit = Character.digit(next(), 16);
+                        if (digit < 0) {
+                            throw error("Invalid unicode escape");
+                        }
+                        c = (c << 4) | digit;
+                    }
+                    builder.append((char) c);
+                    break;
+                default:
+                    throw error("Invalid escape character");
+            }
+        }
+
+        private int continuation() {
+            int b = next() & 0xff;
+            if ((b & 0xc0) != 0x80) {
+                throw error("Invalid UTF-8 sequence");
+            }
+            return b & 0x3f;
+        }
+
+        private Object parseNumber() {
+            int start = index;
+            boolean integral = true;
+            while (index < end) {
+                byte b = buf.getByte(index);
+                if (b == '.' || b == 'e' || b == 'E') {
+                    integral = false;
+                } else if (b != '-' && b != '+' && (b < '0' || b > '9')) {
+                    break;
+                }
+                index++;
+            }
+            if (index == start) {
+                throw error("Unexpected character");
+            }
+
+            char[] chars = new char[index - start];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = (char) buf.getByte(start + i);
+            }
+            String text = new String(chars);
+            try {
+                if (!integral) {
+                    return Double.valueOf(text);
+                }
+                return chars.length < 19 ? (Object) Long.valueOf(text) : toInteger(text);
+            } catch (NumberFormatException ex) {
+                throw error("Invalid number " + text);
+            }
+        }
+
+        private Object toInteger(final String text) {
+            BigInteger value = new BigInteger(text);
+            return value.bitLength() < 64 ? (Object) value.longValue() : value;
+        }
+
+        private void expect(final byte[] literal) {
+            for (int i = 0; i < literal.length; i++) {
+                if (next() != literal[i]) {
+                    throw error("Unexpected character");
+                }
+            }
+        }
+
+        void skipWhitespace() {
+            while (index < end) {
+                byte b = buf.getByte(index);
+                if (b != ' ' && b != '\n' && b != '\r' && b != '\t') {
+                    return;
+                }
+                index++;
+            }
+        }
+
+        private byte peek() {
+            if (index >= end) {
+                throw error("Unexpected end of document");
+            }
+            return buf.getByte(index);
+        }
+
+        private byte next() {
+            byte b = peek();
+            index++;
+            return b;
+        }
+
+        TranscodingException error(final String message) {
+            return new TranscodingException(message + " at offset " + (index - buf.readerIndex()));
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.client.core.transcoder;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Stores byte arrays as they are.
+ */
+public class RawTranscoder implements Transcoder<byte[]> {
+
+    public static final RawTranscoder INSTANCE = new RawTranscoder();
+
+    /**
+     * Common flags for binary documents.
+     */
+    public static final int FLAGS = 3 << 24;
+
+    @Override
+    public int flags() {
+        return FLAGS;
+    }
+
+    @Override
+    public int estimateSize(final byte[] value) {
+        return value.length;
+    }
+
+    @Override
+    public void encode(final byte[] value, final ByteBuf target) {
+        target.writeBytes(value);
+    }
+
+    @Override
+    public byte[] decode(final ByteBuf source) {
+        byte[] value = new byte[source.readableBytes()];
+        source.getBytes(source.readerIndex(), value);
+        return value;
+    }
+}
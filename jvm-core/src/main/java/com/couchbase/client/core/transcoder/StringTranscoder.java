@@ -0,0 +1,58 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.client.core.transcoder;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.CharsetUtil;
+
+/**
+ * Stores strings as UTF-8, encoded character by character into the target buffer.
+ */
+public class StringTranscoder implements Transcoder<String> {
+
+    public static final StringTranscoder INSTANCE = new StringTranscoder();
+
+    /**
+     * Common flags for string documents.
+     */
+    public static final int FLAGS = 4 << 24;
+
+    @Override
+    public int flags() {
+        return FLAGS;
+    }
+
+    @Override
+    public int estimateSize(final String value) {
+        return Utf8.length(value);
+    }
+
+    @Override
+    public void encode(final String value, final ByteBuf target) {
+        Utf8.write(value, target);
+    }
+
+    @Override
+    public String decode(final ByteBuf source) {
+        return source.toString(CharsetUtil.UTF_8);
+    }
+}
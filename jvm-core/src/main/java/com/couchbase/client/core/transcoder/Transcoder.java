@@ -0,0 +1,69 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.client.core.transcoder;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Converts application objects to and from document bodies.
+ *
+ * Codecs call the transcoder on the event loop: {@link #encode(Object, ByteBuf)} writes straight into a buffer from the
+ * channel allocator, {@link #decode(ByteBuf)} reads straight from the buffer of the response. This avoids the
+ * intermediate byte arrays (and their copies) of converting objects up front. Implementations must be thread safe.
+ *
+ * @param <T> the type of the application objects.
+ */
+public interface Transcoder<T> {
+
+    /**
+     * The flags stored with documents written by this transcoder, so other clients know how to read them.
+     *
+     * @return the document flags.
+     */
+    int flags();
+
+    /**
+     * Estimates the encoded size of the value, used to size the target buffer.
+     *
+     * @param value the value to encode.
+     * @return the estimated size in bytes.
+     */
+    int estimateSize(T value);
+
+    /**
+     * Encodes the value into the target buffer.
+     *
+     * @param value the value to encode.
+     * @param target the buffer to write to.
+     * @throws TranscodingException if the value can not be encoded.
+     */
+    void encode(T value, ByteBuf target);
+
+    /**
+     * Decodes a value from the readable bytes of the source buffer, which is neither modified nor released.
+     *
+     * @param source the buffer to read from.
+     * @return the decoded value.
+     * @throws TranscodingException if the content can not be decoded.
+     */
+    T decode(ByteBuf source);
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.client.core.transcoder;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Writes strings as UTF-8 straight into buffers, without going through an intermediate byte array.
+ *
+ * Unpaired surrogates are written as '?', like {@link String#getBytes(java.nio.charset.Charset)} does.
+ */
+public final class Utf8 {
+
+    private Utf8() {
+    }
+
+    private static boolean isSurrogate(final char c) {
+        return c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE;
+    }
+
+    /**
+     * Returns the number of bytes the UTF-8 encoding of the given characters takes.
+     */
+    public static int length(final CharSequence value) {
+        int length = value.length();
+        int bytes = length;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x80) {
+                if (c < 0x800) {
+                    bytes++;
+                } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    bytes += 2;
+                    i++;
+                } else if (isSurrogate(c)) {
+                    continue;
+                } else {
+                    bytes += 2;
+                }
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Writes the UTF-8 encoding of the given characters to the target buffer.
+     */
+    static void write(final CharSequence value, final ByteBuf target) {
+        write(value, 0, value.length(), target);
+    }
+
+    /**
+     * Writes the UTF-8 encoding of the characters from start (inclusive) to end (exclusive) to the target buffer.
+     */
+    static void write(final CharSequence value, final int start, final int end, final ByteBuf target) {
+        int length = end;
+        target.ensureWritable(end - start);
+        for (int i = start; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                target.writeByte(c);
+            } else if (c < 0x800) {
+                target.writeByte(0xc0 | (c >> 6));
+                target.writeByte(0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                target.writeByte(0xf0 | (codePoint >> 18));
+                target.writeByte(0x80 | ((codePoint >> 12) & 0x3f));
+                target.writeByte(0x80 | ((codePoint >> 6) & 0x3f));
+                target.writeByte(0x80 | (codePoint & 0x3f));
+            } else if (isSurrogate(c)) {
+                target.writeByte('?');
+            } else {
+                target.writeByte(0xe0 | (c >> 12));
+                target.writeByte(0x80 | ((c >> 6) & 0x3f));
+                target.writeByte(0x80 | (c & 0x3f));
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.client.core.util;
+
+import com.couchbase.client.core.CouchbaseException;
+import com.couchbase.client.core.RequestTimeoutException;
+import reactor.core.composable.Promise;
+import reactor.function.Consumer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Helpers to wait on a {@link Promise} from blocking code.
+ *
+ * The waiting thread is parked through {@link LockSupport} and unparked directly from the thread which completes the
+ * promise. No monitors are held while waiting, so this is safe to use from virtual threads without pinning their
+ * carrier, and no additional thread is involved in the wakeup.
+ */
+public class Blocking {
+
+    private Blocking() {
+    }
+
+    /**
+     * Wait for the {@link Promise} to complete and return its value.
+     *
+     * @param promise the promise to wait on.
+     * @param timeout the maximum time to wait.
+     * @param unit the unit of the timeout.
+     * @return the value of the promise.
+     * @throws RequestTimeoutException if the promise did not complete in time, the shared instance unless stack
+     *         traces are enabled.
+     * @throws CouchbaseException if the promise failed or the thread has been interrupted.
+     */
+    public static <T> T await(final Promise<T> promise, final long timeout, final TimeUnit unit) {
+        if (promise == null) {
+            throw new IllegalArgumentException("The Promise to wait on must not be null.");
+        }
+
+        if (!promise.isComplete()) {
+            Waiter<T> waiter = new Waiter<T>(Thread.currentThread());
+            promise.onComplete(waiter);
+
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            while (!waiter.done) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw CouchbaseException.stackTraces()
+                        ? new RequestTimeoutException("Did not complete within " + timeout + " " + unit)
+                        : RequestTimeoutException.instance();
+                }
+                LockSupport.parkNanos(waiter, remaining);
+                if (Thread.interrupted()) {
+                    Thread.currentThread().interrupt();
+                    throw new CouchbaseException("Interrupted while waiting", new InterruptedException());
+                }
+            }
+        }
+
+        if (promise.isError()) {
+            Throwable reason = promise.reason();
+            if (reason instanceof RuntimeException) {
+                throw (RuntimeException) reason;
+            }
+            throw new CouchbaseException(reason);
+        }
+        return promise.get();
+    }
+
+    /**
+     * Unparks the waiting thread once the promise completes.
+     */
+    static final class Waiter<T> implements Consumer<Promise<T>> {
+
+        private final Thread thread;
+        volatile boolean done;
+
+        Waiter(final Thread thread) {
+            this.thread = thread;
+        }
+
+        @Override
+        public void accept(final Promise<T> promise) {
+            done = true;
+            LockSupport.unpark(thread);
+        }
+    }
+}
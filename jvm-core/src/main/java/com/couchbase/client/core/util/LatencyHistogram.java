@@ -0,0 +1,178 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.client.core.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of latency values with a bounded relative error.
+ *
+ * Values below 64 are recorded exactly, larger values are grouped into 32 linear sub-buckets per power of two, which
+ * bounds the relative error of every reported value to about 3%. Recording is a single atomic increment and never
+ * allocates, so the histogram can be shared between threads on the hot path.
+ */
+public class LatencyHistogram {
+
+    /**
+     * Number of bits used for the linear sub-buckets.
+     */
+    private static final int SUB_BUCKET_BITS = 5;
+
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * Values below this limit are recorded exactly.
+     */
+    private static final int EXACT_LIMIT = SUB_BUCKET_COUNT << 1;
+
+    private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong maxValue = new AtomicLong();
+
+    /**
+     * Record a single value.
+     *
+     * @param value the value, negative values are recorded as 0.
+     */
+    public void record(final long value) {
+        long v = value < 0 ? 0 : value;
+        counts.incrementAndGet(indexOf(v));
+        totalCount.incrementAndGet();
+
+        long max = maxValue.get();
+        while (v > max && !maxValue.compareAndSet(max, v)) {
+            max = maxValue.get();
+        }
+    }
+
+    /**
+     * Record a value and correct for coordinated omission.
+     *
+     * If the value is larger than the expected interval between two recordings, the values the stalled recorder
+     * would have seen are backfilled (value - interval, value - 2 * interval, ...).
+     *
+     * @param value the value to record.
+     * @param expectedInterval the expected interval between two recordings, 0 to disable correction.
+     */
+    public void recordWithExpectedInterval(final long value, final long expectedInterval) {
+        record(value);
+        if (expectedInterval <= 0) {
+            return;
+        }
+        for (long missing = value - expectedInterval; missing >= expectedInterval; missing -= expectedInterval) {
+            record(missing);
+        }
+    }
+
+    /**
+     * Returns the value at the given percentile.
+     *
+     * @param percentile the percentile between 0.0 and 100.0.
+     * @return the highest value equivalent to the bucket of the percentile, 0 if empty.
+     */
+    public long percentile(final double percentile) {
+        long total = totalCount.get();
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(Math.min(100.0, Math.max(0.0, percentile)) / 100.0 * total);
+        if (rank == 0) {
+            rank = 1;
+        }
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highestValueOf(i), maxValue.get());
+            }
+        }
+        return maxValue.get();
+    }
+
+    /**
+     * Returns the number of recorded values.
+     */
+    public long count() {
+        return totalCount.get();
+    }
+
+    /**
+     * Returns the largest recorded value.
+     */
+    public long max() {
+        return maxValue.get();
+    }
+
+    /**
+     * Add all values of the other histogram to this one.
+     *
+     * @param other the histogram to add.
+     */
+    public void add(final LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long count = other.counts.get(i);
+            if (count > 0) {
+                counts.addAndGet(i, count);
+            }
+        }
+        totalCount.addAndGet(other.totalCount.get());
+        long otherMax = other.maxValue.get();
+        long max = maxValue.get();
+        while (otherMax > max && !maxValue.compareAndSet(max, otherMax)) {
+            max = maxValue.get();
+        }
+    }
+
+    /**
+     * Clear all recorded values.
+     *
+     * Values recorded concurrently with the reset may or may not be retained.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, 0);
+        }
+        totalCount.set(0);
+        maxValue.set(0);
+    }
+
+    static int indexOf(final long value) {
+        if (value < EXACT_LIMIT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+    }
+
+    static long highestValueOf(final int index) {
+        if (index < EXACT_LIMIT) {
+            return index;
+        }
+        int shift = (index >> SUB_BUCKET_BITS) - 1;
+        long subBucket = (index & (SUB_BUCKET_COUNT - 1)) + SUB_BUCKET_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
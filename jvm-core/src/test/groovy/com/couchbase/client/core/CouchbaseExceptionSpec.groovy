@@ -0,0 +1,71 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.core
+
+import spock.lang.Specification
+
+/**
+ * Verifies the shared instances of the {@link CouchbaseException} hierarchy.
+ */
+class CouchbaseExceptionSpec extends Specification {
+
+    def cleanup() {
+        CouchbaseException.setStackTraces(false)
+    }
+
+    def "Should share one instance without a stack trace by default"() {
+        when:
+        def first = KeyNotFoundException.instance()
+        first.addSuppressed(new IllegalStateException())
+
+        then:
+        first.is(KeyNotFoundException.instance())
+        first.stackTrace.length == 0
+        first.suppressed.length == 0
+        first instanceof CouchbaseException
+    }
+
+    def "Should create a new instance with a stack trace when enabled"() {
+        when:
+        CouchbaseException.setStackTraces(true)
+        def first = TemporaryFailureException.instance()
+
+        then:
+        !first.is(TemporaryFailureException.instance())
+        first.stackTrace.length > 0
+        first.message == "The server temporarily can not handle the request"
+    }
+
+    def "Should capture the stack trace of an unexpected status only when enabled"() {
+        expect:
+        new UnexpectedStatusException("Unexpected", 0x20).stackTrace.length == 0
+        new UnexpectedStatusException("Unexpected", 0x20).status() == 0x20
+
+        when:
+        CouchbaseException.setStackTraces(true)
+
+        then:
+        new UnexpectedStatusException("Unexpected", 0x20).stackTrace.length > 0
+    }
+
+}
@@ -22,14 +22,20 @@
 
 package com.couchbase.client.core.io.endpoint
 
+import com.couchbase.client.core.AuthenticationException
+import io.netty.channel.Channel
 import io.netty.channel.ChannelPipeline
 import io.netty.channel.EventLoopGroup
 import io.netty.channel.embedded.EmbeddedChannel
 import io.netty.channel.nio.NioEventLoopGroup
+import io.netty.channel.socket.nio.NioSocketChannel
+import io.netty.util.concurrent.Future
 import reactor.core.Environment
 import reactor.event.Event
 import spock.lang.Specification
 
+import java.util.concurrent.Executor
+
 /**
  * Verifies the functionality of the {@link AbstractEndpoint}.
  */
@@ -147,6 +153,134 @@ class AbstractEndpointSpec extends Specification {
         stream.acceptCount == expectedTransitions
     }
 
+    def "Should notify EndpointStateListeners synchronously during phases"() {
+        setup:
+        def transitions = []
+        def listener = { e, oldState, newState -> transitions << [oldState, newState] } as EndpointStateListener
+        endpoint.addStateListener(listener)
+
+        when:
+        endpoint.connect().await()
+        endpoint.disconnect().await()
+
+        then:
+        1 * mockedBootstrap.connect() >> embeddedChannel.newSucceededFuture()
+        transitions == [
+            [EndpointState.DISCONNECTED, EndpointState.CONNECTING],
+            [EndpointState.CONNECTING, EndpointState.CONNECTED],
+            [EndpointState.CONNECTED, EndpointState.DISCONNECTING],
+            [EndpointState.DISCONNECTING, EndpointState.DISCONNECTED]
+        ]
+
+        when:
+        endpoint.removeStateListener(listener)
+        endpoint.connect().await()
+
+        then:
+        1 * mockedBootstrap.connect() >> new EmbeddedChannel().newSucceededFuture()
+        transitions.size() == 4
+    }
+
+    def "Should reuse completed promises when no state change is needed"() {
+        when:
+        def firstDisconnect = endpoint.disconnect()
+        def secondDisconnect = endpoint.disconnect()
+
+        then:
+        firstDisconnect.is(secondDisconnect)
+        firstDisconnect.get() == EndpointState.DISCONNECTED
+    }
+
+    def "Should complete the reply on the IO thread when requested"() {
+        setup:
+        def event = Event.wrap("Payload")
+
+        when:
+        endpoint.connect().await()
+        def replyPromise = endpoint.sendAndReceive(event, ReplyDispatch.IO_THREAD)
+
+        then:
+        1 * mockedBootstrap.connect() >> embeddedChannel.newSucceededFuture()
+        !replyPromise.isComplete()
+
+        when:
+        event.getReplyTo().accept("Response")
+
+        then:
+        replyPromise.isComplete()
+        replyPromise.get() == "Response"
+    }
+
+    def "Should complete the reply on the given Executor when requested"() {
+        setup:
+        def event = Event.wrap("Payload")
+        def tasks = []
+        def executor = { Runnable task -> tasks << task } as Executor
+
+        when:
+        endpoint.connect().await()
+        def replyPromise = endpoint.sendAndReceive(event, ReplyDispatch.executor(executor))
+        event.getReplyTo().accept("Response")
+
+        then:
+        1 * mockedBootstrap.connect() >> embeddedChannel.newSucceededFuture()
+        tasks.size() == 1
+        !replyPromise.isComplete()
+
+        when:
+        tasks[0].run()
+
+        then:
+        replyPromise.get() == "Response"
+    }
+
+    def "A Endpoint should back off exponentially between failed connect attempts"() {
+        expect:
+        (0..11).collect { AbstractEndpoint.reconnectDelay(it) } ==
+            [10, 20, 40, 80, 160, 320, 640, 1280, 2560, 5000, 5000, 5000]
+        AbstractEndpoint.reconnectDelay(Integer.MAX_VALUE) == 5000
+    }
+
+    def "A Endpoint should keep reconnecting after a failed connect attempt"() {
+        setup:
+        def group = new NioEventLoopGroup(1)
+        def channel = new NioSocketChannel(group.next())
+
+        when:
+        def state = endpoint.connect().await()
+
+        then:
+        (1.._) * mockedBootstrap.connect() >> channel.newFailedFuture(new ConnectException("Connection refused"))
+        state == EndpointState.RECONNECTING
+        endpoint.state() == EndpointState.RECONNECTING
+
+        cleanup:
+        endpoint.disconnect()
+        group.shutdownGracefully()
+    }
+
+    def "A Endpoint should stop retrying once authentication is rejected"() {
+        setup:
+        endpoint.handshakeFailure = new AuthenticationException("Authentication failed")
+
+        when:
+        def state = endpoint.connect().await()
+        sleep(100)
+
+        then:
+        1 * mockedBootstrap.connect() >> embeddedChannel.newSucceededFuture()
+        state == EndpointState.DISCONNECTED
+        endpoint.state() == EndpointState.DISCONNECTED
+
+        when:
+        endpoint.handshakeFailure = null
+        state = endpoint.connect().await()
+
+        then:
+        1 * mockedBootstrap.connect() >> new EmbeddedChannel().newSucceededFuture()
+        state == EndpointState.CONNECTED
+    }
+
     /**
      * Represents a simple {@link AbstractEndpoint} implementation.
      */
@@ -160,9 +294,16 @@ class AbstractEndpointSpec extends Specification {
             super(bootstrap, env)
         }
 
+        def handshakeFailure
+
         @Override
         protected void customEndpointHandlers(ChannelPipeline pipeline) {
 
         }
+
+        @Override
+        protected Future<Void> handshake(Channel ch) {
+            return handshakeFailure == null ? super.handshake(ch) : ch.newFailedFuture(handshakeFailure)
+        }
     }
 }
\ No newline at end of file
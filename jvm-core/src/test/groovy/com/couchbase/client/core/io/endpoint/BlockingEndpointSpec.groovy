@@ -0,0 +1,82 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.core.io.endpoint
+
+import com.couchbase.client.core.RequestTimeoutException
+import reactor.core.Environment
+import reactor.core.composable.spec.Promises
+import reactor.event.dispatch.SynchronousDispatcher
+import spock.lang.Specification
+
+import java.util.concurrent.TimeUnit
+
+/**
+ * Verifies the functionality of the {@link BlockingEndpoint}.
+ */
+class BlockingEndpointSpec extends Specification {
+
+    def env = new Environment()
+    def mockedEndpoint = Mock(Endpoint)
+    def endpoint = new BlockingEndpoint<String, String>(mockedEndpoint, 1, TimeUnit.SECONDS)
+
+    def "Should return the response once it arrives on another thread"() {
+        setup:
+        def deferred = Promises.defer(env, new SynchronousDispatcher())
+
+        when:
+        Thread.start {
+            sleep(100)
+            deferred.accept("Response")
+        }
+        def response = endpoint.send("Request")
+
+        then:
+        1 * mockedEndpoint.sendAndReceive(_, ReplyDispatch.IO_THREAD) >> deferred.compose()
+        response == "Response"
+    }
+
+    def "Should throw a RequestTimeoutException if the response does not arrive in time"() {
+        when:
+        endpoint.send("Request", 50, TimeUnit.MILLISECONDS)
+
+        then:
+        1 * mockedEndpoint.sendAndReceive(_, ReplyDispatch.IO_THREAD) >>
+            Promises.defer(env, new SynchronousDispatcher()).compose()
+        thrown(RequestTimeoutException)
+    }
+
+    def "Should rethrow the failure of the response"() {
+        setup:
+        def deferred = Promises.defer(env, new SynchronousDispatcher())
+        deferred.accept(new IllegalStateException("Failed"))
+
+        when:
+        endpoint.send("Request")
+
+        then:
+        1 * mockedEndpoint.sendAndReceive(_, ReplyDispatch.IO_THREAD) >> deferred.compose()
+        def e = thrown(IllegalStateException)
+        e.message == "Failed"
+    }
+
+}
@@ -0,0 +1,162 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.core.io.endpoint
+
+import com.couchbase.client.core.KeyExistsException
+import com.couchbase.client.core.KeyNotFoundException
+import com.couchbase.client.core.TemporaryFailureException
+import spock.lang.Specification
+
+import java.util.concurrent.TimeUnit
+
+/**
+ * Verifies the functionality of the {@link CircuitBreaker}.
+ */
+class CircuitBreakerSpec extends Specification {
+
+    def opened = []
+    def breaker = new CircuitBreaker(4, 50, 10, 1, 1, TimeUnit.SECONDS)
+
+    def setup() {
+        breaker.setListener({ opened << it } as CircuitBreaker.Listener)
+    }
+
+    def "Should open once the failure percentage is reached"() {
+        setup:
+        def now = System.nanoTime()
+
+        when:
+        [false, true, false].each { failed ->
+            breaker.onSend(now)
+            breaker.onReply(now, now, failed)
+        }
+
+        then:
+        breaker.state() == CircuitBreaker.State.CLOSED
+        breaker.allowRequest(now)
+
+        when:
+        breaker.onSend(now)
+        breaker.onReply(now, now, true)
+
+        then:
+        breaker.state() == CircuitBreaker.State.OPEN
+        !breaker.allowRequest(now)
+        opened == [breaker]
+    }
+
+    def "Should stay closed on a run of misses and CAS conflicts"() {
+        setup:
+        def now = System.nanoTime()
+
+        when:
+        8.times {
+            breaker.onSend(now)
+            new CircuitBreakerReply(breaker, null, now, false)
+                .accept(it % 2 == 0 ? KeyNotFoundException.instance() : KeyExistsException.instance())
+        }
+
+        then:
+        breaker.state() == CircuitBreaker.State.CLOSED
+        opened.isEmpty()
+
+        when:
+        8.times {
+            breaker.onSend(now)
+            new CircuitBreakerReply(breaker, null, now, false).accept(TemporaryFailureException.instance())
+        }
+
+        then:
+        breaker.state() == CircuitBreaker.State.OPEN
+    }
+
+    def "Should count late replies as failures"() {
+        setup:
+        def now = System.nanoTime()
+        def late = now + TimeUnit.SECONDS.toNanos(2)
+
+        when:
+        4.times {
+            breaker.onSend(now)
+            breaker.onReply(now, it % 2 == 0 ? now : late, false)
+        }
+
+        then:
+        breaker.state() == CircuitBreaker.State.OPEN
+    }
+
+    def "Should open when requests are outstanding without any reply"() {
+        setup:
+        def now = System.nanoTime()
+
+        when:
+        breaker.onSend(now)
+
+        then:
+        breaker.allowRequest(now)
+        !breaker.allowRequest(now + TimeUnit.SECONDS.toNanos(2))
+        breaker.state() == CircuitBreaker.State.OPEN
+    }
+
+    def "Should allow a single probe once the open duration passed"() {
+        setup:
+        def now = System.nanoTime()
+        breaker.onSend(now)
+        breaker.allowRequest(now + TimeUnit.SECONDS.toNanos(2))
+        def later = now + TimeUnit.SECONDS.toNanos(3)
+
+        expect:
+        !breaker.tryHalfOpen(now + TimeUnit.SECONDS.toNanos(2))
+        breaker.remainingOpenNanos(later) == 0
+        breaker.tryHalfOpen(later)
+        !breaker.tryHalfOpen(later)
+        breaker.state() == CircuitBreaker.State.HALF_OPEN
+        !breaker.allowRequest(later)
+    }
+
+    def "Should close on a successful probe and reopen on a failed one"() {
+        setup:
+        def now = System.nanoTime()
+        breaker.onSend(now)
+        breaker.allowRequest(now + TimeUnit.SECONDS.toNanos(2))
+        def later = now + TimeUnit.SECONDS.toNanos(3)
+        breaker.tryHalfOpen(later)
+
+        when:
+        breaker.onProbeResult(false, later)
+
+        then:
+        breaker.state() == CircuitBreaker.State.OPEN
+        breaker.remainingOpenNanos(later) == TimeUnit.SECONDS.toNanos(1)
+        opened.size() == 2
+
+        when:
+        def muchLater = later + TimeUnit.SECONDS.toNanos(1)
+        breaker.tryHalfOpen(muchLater)
+        breaker.onProbeResult(true, muchLater)
+
+        then:
+        breaker.state() == CircuitBreaker.State.CLOSED
+        breaker.allowRequest(muchLater + TimeUnit.SECONDS.toNanos(2))
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.client.core.io.endpoint
+
+import io.netty.channel.nio.NioEventLoopGroup
+import io.netty.channel.socket.nio.NioSocketChannel
+import spock.lang.Specification
+
+/**
+ * Verifies the lifecycle of the {@link GenericEndpointHandler}.
+ */
+class GenericEndpointHandlerSpec extends Specification {
+
+    def group = new NioEventLoopGroup(1)
+
+    def cleanup() {
+        group.shutdownGracefully()
+    }
+
+    def "Should stop the periodic flush once the channel is closed"() {
+        setup:
+        def channel = new NioSocketChannel(group.next())
+        def handler = new GenericEndpointHandler()
+        channel.pipeline().addLast(handler)
+
+        expect:
+        !handler.flushTask().isCancelled()
+
+        when:
+        channel.close().sync()
+        def deadline = System.currentTimeMillis() + 5000
+        while (!handler.flushTask().isDone() && System.currentTimeMillis() < deadline) {
+            sleep(1)
+        }
+
+        then:
+        handler.flushTask().isCancelled()
+    }
+
+    def "Should stop the periodic flush once the handler is removed"() {
+        setup:
+        def channel = new NioSocketChannel(group.next())
+        def handler = new GenericEndpointHandler()
+        channel.pipeline().addLast(handler)
+
+        when:
+        channel.eventLoop().submit({ channel.pipeline().removeFirst() } as Runnable).sync()
+
+        then:
+        handler.flushTask().isCancelled()
+
+        cleanup:
+        channel.close()
+    }
+}
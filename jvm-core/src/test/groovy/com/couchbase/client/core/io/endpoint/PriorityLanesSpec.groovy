@@ -0,0 +1,158 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.core.io.endpoint
+
+import io.netty.buffer.Unpooled
+import io.netty.channel.embedded.EmbeddedChannel
+import spock.lang.Specification
+
+import java.util.concurrent.TimeUnit
+
+/**
+ * Verifies the ordering and starvation guard of the {@link PriorityLanes}.
+ */
+class PriorityLanesSpec extends Specification {
+
+    def "Should write the higher lanes first on flush"() {
+        setup:
+        def lanes = new PriorityLanes(TimeUnit.SECONDS.toNanos(1))
+        def channel = new EmbeddedChannel(lanes)
+
+        when:
+        channel.write(PriorityLanes.prioritize("bulk1", RequestPriority.BULK))
+        channel.write("normal1")
+        channel.write(PriorityLanes.prioritize("interactive1", RequestPriority.INTERACTIVE))
+        channel.write(PriorityLanes.prioritize("bulk2", RequestPriority.BULK))
+        channel.write(PriorityLanes.prioritize("interactive2", RequestPriority.INTERACTIVE))
+
+        then:
+        channel.outboundMessages().isEmpty()
+        lanes.pending() == 5
+
+        when:
+        channel.flush()
+
+        then:
+        channel.outboundMessages().toList() == ["interactive1", "interactive2", "normal1", "bulk1", "bulk2"]
+        lanes.pending() == 0
+    }
+
+    def "Should hold the lower lanes back while the channel is not writable"() {
+        setup:
+        def channel = backedUpChannel(TimeUnit.HOURS.toNanos(1))
+
+        when:
+        channel.write(PriorityLanes.prioritize(Unpooled.copyInt(2), RequestPriority.BULK))
+        channel.write(Unpooled.copyInt(1))
+        channel.write(PriorityLanes.prioritize(Unpooled.copyInt(0), RequestPriority.INTERACTIVE))
+        channel.flush()
+
+        then:
+        channel.outboundMessages()*.getInt(0) == [0]
+
+        when:
+        channel.flush()
+        channel.flush()
+
+        then:
+        channel.outboundMessages()*.getInt(0) == [0, 1, 2]
+
+        cleanup:
+        channel.outboundMessages()*.release()
+    }
+
+    def "Should track since when the oldest held back request is waiting"() {
+        setup:
+        def channel = backedUpChannel(TimeUnit.HOURS.toNanos(1))
+        def lanes = channel.pipeline().get(PriorityLanes)
+
+        expect:
+        lanes.oldestPendingAt() == 0
+
+        when:
+        def before = System.nanoTime()
+        channel.write(PriorityLanes.prioritize(Unpooled.copyInt(2), RequestPriority.BULK))
+        channel.write(Unpooled.copyInt(1))
+        channel.write(PriorityLanes.prioritize(Unpooled.copyInt(0), RequestPriority.INTERACTIVE))
+        def bulkOfferedAt = lanes.oldestPendingAt()
+        channel.flush()
+
+        then:
+        bulkOfferedAt - before >= 0
+        lanes.pending() == 2
+        lanes.oldestPendingAt() == bulkOfferedAt
+
+        when:
+        channel.flush()
+        channel.flush()
+
+        then:
+        lanes.pending() == 0
+        lanes.oldestPendingAt() == 0
+
+        cleanup:
+        channel.outboundMessages()*.release()
+    }
+
+    def "Should let starved requests of the lower lanes through"() {
+        setup:
+        def channel = backedUpChannel(0)
+
+        when:
+        channel.write(PriorityLanes.prioritize(Unpooled.copyInt(2), RequestPriority.BULK))
+        channel.write(PriorityLanes.prioritize(Unpooled.copyInt(0), RequestPriority.INTERACTIVE))
+        channel.write(Unpooled.copyInt(1))
+        channel.flush()
+
+        then:
+        channel.outboundMessages()*.getInt(0) == [0, 1, 2]
+
+        cleanup:
+        channel.outboundMessages()*.release()
+    }
+
+    def "Should write the pending requests on when the channel closes"() {
+        setup:
+        def channel = new EmbeddedChannel(new PriorityLanes(0))
+
+        when:
+        def future = channel.write(PriorityLanes.prioritize("bulk", RequestPriority.BULK))
+        channel.close()
+        channel.runPendingTasks()
+
+        then:
+        future.isDone()
+        !future.isSuccess()
+    }
+
+    /**
+     * A channel which is no longer writable as soon as a single buffer is pending.
+     */
+    def backedUpChannel(long starvationGuardNanos) {
+        def channel = new EmbeddedChannel(new PriorityLanes(starvationGuardNanos))
+        channel.config().setWriteBufferLowWaterMark(1)
+        channel.config().setWriteBufferHighWaterMark(2)
+        channel
+    }
+
+}
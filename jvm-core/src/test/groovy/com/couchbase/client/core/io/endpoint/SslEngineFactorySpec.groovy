@@ -0,0 +1,81 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.core.io.endpoint
+
+import com.couchbase.client.core.mock.MockServer
+import spock.lang.Specification
+
+import java.security.cert.X509Certificate
+
+/**
+ * Verifies the hostname matching the {@link SslEngineFactory} falls back to on JDKs without endpoint identification.
+ */
+class SslEngineFactorySpec extends Specification {
+
+    static final byte[] LOOPBACK = [127, 0, 0, 1] as byte[]
+
+    def "Should match the host against the subject alternative names of the certificate"() {
+        setup:
+        def certificate = MockServer.keyStore(keyStore).getCertificate("mock") as X509Certificate
+
+        expect:
+        SslEngineFactory.matchesHost(host, certificate) == matches
+
+        where:
+        keyStore                        | host            | matches
+        MockServer.KEY_STORE            | "localhost"     | true
+        MockServer.KEY_STORE            | "LOCALHOST."    | true
+        MockServer.KEY_STORE            | "127.0.0.1"     | true
+        MockServer.KEY_STORE            | "127.0.0.2"     | false
+        MockServer.KEY_STORE            | "::1"           | false
+        MockServer.KEY_STORE            | "example.com"   | false
+        MockServer.WRONG_HOST_KEY_STORE | "wrong.example" | true
+        MockServer.WRONG_HOST_KEY_STORE | "localhost"     | false
+        MockServer.WRONG_HOST_KEY_STORE | "127.0.0.1"     | false
+    }
+
+    def "Should only allow a wildcard as the complete left-most label"() {
+        expect:
+        SslEngineFactory.matchesName(hostname, pattern) == matches
+
+        where:
+        hostname              | pattern             | matches
+        "node1.example.com"   | "*.example.com"     | true
+        "example.com"         | "*.example.com"     | false
+        "a.node1.example.com" | "*.example.com"     | false
+        "node1.com"           | "*.com"             | false
+        "node1.example.com"   | "node*.example.com" | false
+        "node1.example.com"   | "NODE1.example.com" | true
+    }
+
+    def "Should take the host as given without a lookup"() {
+        expect:
+        SslEngineFactory.peerHost(address) == host
+
+        where:
+        address                                                                     | host
+        new InetSocketAddress(InetAddress.getByAddress(LOOPBACK), 11210)            | "127.0.0.1"
+        new InetSocketAddress(InetAddress.getByAddress("node1", LOOPBACK), 11210)   | "node1"
+        InetSocketAddress.createUnresolved("node2.example.com", 11210)              | "node2.example.com"
+    }
+}
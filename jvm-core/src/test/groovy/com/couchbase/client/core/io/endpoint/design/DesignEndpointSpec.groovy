@@ -22,17 +22,75 @@
 
 package com.couchbase.client.core.io.endpoint.design
 
+import com.couchbase.client.core.message.request.design.GetDesignDocumentRequest
+import com.couchbase.client.core.message.request.design.HasDesignDocumentRequest
+import com.couchbase.client.core.message.response.design.DesignResponse
+import com.couchbase.client.core.mock.MockServer
+import com.couchbase.client.core.transcoder.JsonTranscoder
+import io.netty.channel.nio.NioEventLoopGroup
 import reactor.core.Environment
+import reactor.event.Event
 import spock.lang.Specification
 
+import java.util.concurrent.TimeUnit
+
 /**
  * Verifies the correct functionality of the {@link DesignEndpoint}
  */
 class DesignEndpointSpec extends Specification {
 
     def env = new Environment()
+    def group = new NioEventLoopGroup(1)
+    def server = new MockServer(group).setValueSize(1024).start()
+    def endpoint = new DesignEndpoint(server.designAddress(), env, group)
+
+    def cleanup() {
+        endpoint.disconnect().await()
+        server.stop()
+        group.shutdownGracefully()
+    }
 
     def "A DesignEndpoint should accept a DesignRequest and respond with a DesignResponse"() {
+        setup:
+        endpoint.connect().await()
+
+        when:
+        def hasResponse = endpoint.sendAndReceive(Event.wrap(new HasDesignDocumentRequest("default", "dev", "", "")))
+            .await(5, TimeUnit.SECONDS)
+        def getResponse = endpoint.sendAndReceive(Event.wrap(new GetDesignDocumentRequest("default", "dev", "", "")))
+            .await(5, TimeUnit.SECONDS)
+
+        then:
+        hasResponse.status() == DesignResponse.Status.FOUND
+        getResponse.status() == DesignResponse.Status.FOUND
+        getResponse.content().length() > 1024
+    }
+
+    def "A DesignEndpoint should decode the design document with the transcoder of the request"() {
+        setup:
+        endpoint.connect().await()
+
+        when:
+        def response = endpoint.sendAndReceive(Event.wrap(
+            new GetDesignDocumentRequest("default", "dev", "", "", JsonTranscoder.INSTANCE))).await(5, TimeUnit.SECONDS)
+
+        then:
+        response.status() == DesignResponse.Status.FOUND
+        response.content().views.length() == 1024
+        response.contentLength() == 1024 + 12
+    }
+
+    def "A DesignEndpoint should map injected server errors"() {
+        setup:
+        server.setTmpFailRate(1.0)
+        endpoint.connect().await()
+
+        when:
+        def response = endpoint.sendAndReceive(Event.wrap(new GetDesignDocumentRequest("default", "dev", "", "")))
+            .await(5, TimeUnit.SECONDS)
+
+        then:
+        response.status() == DesignResponse.Status.SERVER_ERROR
     }
 
 }
@@ -0,0 +1,146 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.core.io.endpoint.memcache
+
+import com.couchbase.client.core.CouchbaseException
+import com.couchbase.client.core.message.request.memcache.GetRequest
+import com.couchbase.client.core.message.request.memcache.NoopRequest
+import com.couchbase.client.core.message.response.memcache.NoopResponse
+import io.netty.buffer.Unpooled
+import io.netty.channel.embedded.EmbeddedChannel
+import io.netty.handler.codec.compression.Snappy
+import io.netty.handler.codec.memcache.binary.BinaryMemcacheOpcodes
+import io.netty.handler.codec.memcache.binary.DefaultBinaryMemcacheRequestHeader
+import io.netty.handler.codec.memcache.binary.DefaultBinaryMemcacheResponseHeader
+import io.netty.handler.codec.memcache.binary.DefaultFullBinaryMemcacheRequest
+import io.netty.handler.codec.memcache.binary.DefaultFullBinaryMemcacheResponse
+import io.netty.util.CharsetUtil
+import spock.lang.Specification
+
+/**
+ * Verifies the functionality of the {@link CompressionCodec}.
+ */
+class CompressionCodecSpec extends Specification {
+
+    def channel = new EmbeddedChannel(new CompressionCodec(1024))
+    def json = ('{"name":"couchbase","tags":["fast","reliable"],"count":42}' * 100).getBytes(CharsetUtil.UTF_8)
+
+    def "Should compress values above the threshold and mark them"() {
+        when:
+        channel.writeOutbound(setRequest(json))
+        def request = channel.readOutbound()
+
+        then:
+        request.getHeader().getDataType() == MemcacheCodec.DATATYPE_SNAPPY
+        request.content().readableBytes() < json.length / 4
+        request.getHeader().getTotalBodyLength() == 3 + 8 + request.content().readableBytes()
+        request.getKey() == "key"
+        request.getExtras().readableBytes() == 8
+    }
+
+    def "Should not compress values below the threshold"() {
+        setup:
+        def small = new byte[512]
+
+        when:
+        channel.writeOutbound(setRequest(small))
+        def request = channel.readOutbound()
+
+        then:
+        request.getHeader().getDataType() == 0
+        request.content().readableBytes() == small.length
+    }
+
+    def "Should send values which do not compress well as they are"() {
+        setup:
+        def random = new byte[4096]
+        new Random(1).nextBytes(random)
+
+        when:
+        channel.writeOutbound(setRequest(random))
+        def request = channel.readOutbound()
+
+        then:
+        request.getHeader().getDataType() == 0
+        request.content().readableBytes() == random.length
+    }
+
+    def "Should decompress marked responses"() {
+        setup:
+        def compressed = Unpooled.buffer()
+        new Snappy().encode(Unpooled.wrappedBuffer(json), compressed, json.length)
+        def header = new DefaultBinaryMemcacheResponseHeader()
+        header.setOpcode(BinaryMemcacheOpcodes.GET)
+        header.setDataType(MemcacheCodec.DATATYPE_SNAPPY)
+        header.setTotalBodyLength(compressed.readableBytes())
+
+        when:
+        channel.writeInbound(new DefaultFullBinaryMemcacheResponse(header, null, Unpooled.EMPTY_BUFFER, compressed))
+        def response = channel.readInbound()
+
+        then:
+        response.getHeader().getDataType() == 0
+        response.getHeader().getTotalBodyLength() == json.length
+        response.content().toString(CharsetUtil.UTF_8) == new String(json, CharsetUtil.UTF_8)
+    }
+
+    def "Should fail the request of a response announcing more than the maximum value size"() {
+        setup:
+        def pipeline = new EmbeddedChannel(new CompressionCodec(1024), new MemcacheCodec())
+        pipeline.writeOutbound(new GetRequest("key"))
+        pipeline.writeOutbound(new NoopRequest())
+        pipeline.outboundMessages()*.release()
+        def header = new DefaultBinaryMemcacheResponseHeader()
+        header.setOpcode(BinaryMemcacheOpcodes.GET)
+        header.setDataType(MemcacheCodec.DATATYPE_SNAPPY)
+        // a varint preamble of 1GB
+        def content = Unpooled.wrappedBuffer([0x80, 0x80, 0x80, 0x80, 0x04, 0x00] as byte[])
+        header.setTotalBodyLength(content.readableBytes())
+        def noop = new DefaultBinaryMemcacheResponseHeader()
+        noop.setOpcode(BinaryMemcacheOpcodes.NOOP)
+
+        when:
+        pipeline.writeInbound(new DefaultFullBinaryMemcacheResponse(header, null, Unpooled.EMPTY_BUFFER, content))
+        pipeline.writeInbound(new DefaultFullBinaryMemcacheResponse(noop, null, Unpooled.EMPTY_BUFFER,
+            Unpooled.EMPTY_BUFFER))
+
+        then:
+        CompressionCodec.uncompressedLength(Unpooled.wrappedBuffer([0x80, 0x80, 0x80, 0x80, 0x04] as byte[])) ==
+            1 << 30
+        def failure = pipeline.readInbound()
+        failure instanceof CouchbaseException
+        failure.message == "The compressed value announces more than the maximum of 20971520 bytes"
+        pipeline.readInbound() instanceof NoopResponse
+        content.refCnt() == 0
+    }
+
+    def setRequest(byte[] value) {
+        def header = new DefaultBinaryMemcacheRequestHeader()
+        header.setOpcode(BinaryMemcacheOpcodes.SET)
+        header.setKeyLength((short) 3)
+        header.setExtrasLength((byte) 8)
+        header.setTotalBodyLength(3 + 8 + value.length)
+        new DefaultFullBinaryMemcacheRequest(header, "key", Unpooled.buffer(8).writeLong(0),
+            Unpooled.wrappedBuffer(value))
+    }
+}
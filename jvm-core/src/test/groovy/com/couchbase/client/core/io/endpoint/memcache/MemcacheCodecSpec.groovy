@@ -0,0 +1,93 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.client.core.io.endpoint.memcache
+
+import com.couchbase.client.core.CouchbaseException
+import com.couchbase.client.core.message.request.memcache.GetRequest
+import com.couchbase.client.core.message.request.memcache.NoopRequest
+import com.couchbase.client.core.message.request.memcache.ObserveRequest
+import com.couchbase.client.core.message.request.memcache.ReplicaGetRequest
+import com.couchbase.client.core.message.request.memcache.UpsertRequest
+import com.couchbase.client.core.message.response.memcache.NoopResponse
+import io.netty.buffer.Unpooled
+import io.netty.channel.embedded.EmbeddedChannel
+import io.netty.handler.codec.memcache.binary.BinaryMemcacheOpcodes
+import io.netty.handler.codec.memcache.binary.DefaultBinaryMemcacheResponseHeader
+import io.netty.handler.codec.memcache.binary.DefaultFullBinaryMemcacheResponse
+import spock.lang.Specification
+
+/**
+ * Verifies the functionality of the {@link MemcacheCodec}.
+ */
+class MemcacheCodecSpec extends Specification {
+
+    def channel = new EmbeddedChannel(new MemcacheCodec())
+
+    def "Should frame an upsert with the UTF-8 length of its key"() {
+        when:
+        channel.writeOutbound(new UpsertRequest("k\u00e9\u20ac", Unpooled.buffer().writeLong(1)))
+        def request = channel.readOutbound()
+
+        then:
+        request.getHeader().getKeyLength() == 6
+        request.getHeader().getTotalBodyLength() == 6 + 8 + 8
+
+        cleanup:
+        request.release()
+    }
+
+    def "Should frame gets and replica gets with the UTF-8 length of their key"() {
+        when:
+        channel.writeOutbound(request)
+        def encoded = channel.readOutbound()
+
+        then:
+        encoded.getHeader().getKeyLength() == 6
+        encoded.getHeader().getTotalBodyLength() == 6
+
+        where:
+        request << [new GetRequest("k\u00e9\u20ac"), new ReplicaGetRequest("k\u00e9\u20ac", 1)]
+    }
+
+    def "Should fail an observe with a truncated body and decode the next response"() {
+        setup:
+        channel.writeOutbound(new ObserveRequest("key", 0))
+        channel.writeOutbound(new NoopRequest())
+        channel.outboundMessages()*.release()
+
+        when:
+        channel.writeInbound(response(MemcacheCodec.OPCODE_OBSERVE, Unpooled.buffer().writeShort(0).writeShort(3)
+            .writeBytes("key".bytes).writeByte(0x01)))
+        channel.writeInbound(response(BinaryMemcacheOpcodes.NOOP, Unpooled.EMPTY_BUFFER))
+
+        then:
+        channel.readInbound() instanceof CouchbaseException
+        channel.readInbound() instanceof NoopResponse
+    }
+
+    def response(byte opcode, content) {
+        def header = new DefaultBinaryMemcacheResponseHeader()
+        header.setOpcode(opcode)
+        header.setTotalBodyLength(content.readableBytes())
+        new DefaultFullBinaryMemcacheResponse(header, null, Unpooled.EMPTY_BUFFER, content)
+    }
+}
@@ -22,17 +22,678 @@
 
 package com.couchbase.client.core.io.endpoint.memcache
 
+import com.couchbase.client.core.CouchbaseException
+import com.couchbase.client.core.NotMyVbucketException
+import com.couchbase.client.core.RequestCancelledException
+import com.couchbase.client.core.TemporaryFailureException
+import com.couchbase.client.core.io.endpoint.CircuitBreaker
+import com.couchbase.client.core.io.endpoint.CircuitOpenException
+import com.couchbase.client.core.io.endpoint.EndpointNotConnectedException
+import com.couchbase.client.core.io.endpoint.EndpointState
+import com.couchbase.client.core.io.endpoint.EndpointStateListener
+import com.couchbase.client.core.io.endpoint.ReplyDispatch
+import com.couchbase.client.core.io.endpoint.RequestPriority
+import com.couchbase.client.core.io.endpoint.spec.EndpointSpec
+import com.couchbase.client.core.io.endpoint.spec.SslSpec
+import com.couchbase.client.core.io.service.ServiceType
+import com.couchbase.client.core.io.topology.IoTopology
+import com.couchbase.client.core.message.request.memcache.GetRequest
+import com.couchbase.client.core.message.request.memcache.NoopRequest
+import com.couchbase.client.core.message.request.memcache.ObserveRequest
+import com.couchbase.client.core.message.request.memcache.UpsertRequest
+import com.couchbase.client.core.message.response.memcache.GetResponse
+import com.couchbase.client.core.message.response.memcache.NoopResponse
+import com.couchbase.client.core.message.response.memcache.UpsertResponse
+import com.couchbase.client.core.mock.MockServer
+import com.couchbase.client.core.trace.Span
+import com.couchbase.client.core.trace.TraceSink
+import com.couchbase.client.core.trace.Tracer
+import com.couchbase.client.core.transcoder.JsonTranscoder
+import com.couchbase.client.core.transcoder.StringTranscoder
+import com.couchbase.client.core.transcoder.TranscodingException
+import io.netty.buffer.Unpooled
+import io.netty.channel.nio.NioEventLoopGroup
+import io.netty.util.CharsetUtil
 import reactor.core.Environment
+import reactor.event.Event
+import reactor.function.Consumer
 import spock.lang.Specification
 
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+
 /**
  * Verifies the correct functionality of the {@link MemcacheEndpoint}
  */
 class MemcacheEndpointSpec extends Specification {
 
     def env = new Environment()
+    def group = new NioEventLoopGroup(1)
+    def server = new MockServer(group).start()
+    def endpoint = new MemcacheEndpoint(server.memcacheAddress(), env, group)
+
+    def cleanup() {
+        endpoint.disconnect().await()
+        server.stop()
+        group.shutdownGracefully()
+    }
 
     def "A MemcacheEndpoint should accept a MemcacheRequest and respond with a MemcacheResponse"() {
+        when:
+        def state = endpoint.connect().await()
+
+        then:
+        state == EndpointState.CONNECTED
+
+        expect:
+        endpoint.sendAndReceive(Event.wrap(new GetRequest("key"))).await(5, TimeUnit.SECONDS) instanceof GetResponse
+        endpoint.sendAndReceive(Event.wrap(new NoopRequest())).await(5, TimeUnit.SECONDS) instanceof NoopResponse
+    }
+
+    def "A MemcacheEndpoint on an IoTopology should record its requests and release its pin on disconnect"() {
+        setup:
+        def topology = new IoTopology(2)
+        def pin = topology.pin(server.memcacheAddress(), 0)
+        def pinnedEndpoint = new MemcacheEndpoint(server.memcacheAddress(), env, pin)
+        pinnedEndpoint.connect().await(5, TimeUnit.SECONDS)
+
+        when:
+        (1..3).each {
+            pinnedEndpoint.sendAndReceive(Event.wrap(new GetRequest("key" + it))).await(5, TimeUnit.SECONDS)
+        }
+
+        then:
+        topology.load()[pin.loopIndex()].operations() == 3
+
+        when:
+        pinnedEndpoint.disconnect().await(5, TimeUnit.SECONDS)
+
+        then:
+        topology.load()*.endpoints() == [0, 0]
+
+        when:
+        pinnedEndpoint.connect().await(5, TimeUnit.SECONDS)
+
+        then:
+        topology.load()[pin.loopIndex()].endpoints() == 1
+
+        cleanup:
+        pinnedEndpoint.disconnect().await(5, TimeUnit.SECONDS)
+        topology.shutdown()
+    }
+
+    def "A MemcacheEndpoint should receive responses in order despite server latency and jitter"() {
+        setup:
+        server.setLatency(5, TimeUnit.MILLISECONDS).setJitter(5, TimeUnit.MILLISECONDS)
+        endpoint.connect().await()
+
+        when:
+        def start = System.nanoTime()
+        def promises = (1..20).collect {
+            endpoint.sendAndReceive(Event.wrap(it % 2 == 0 ? new GetRequest("key" + it) : new NoopRequest()))
+        }
+        def responses = promises.collect { it.await(5, TimeUnit.SECONDS) }
+
+        then:
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 5
+        responses.eachWithIndex { response, i ->
+            assert response.class == ((i + 1) % 2 == 0 ? GetResponse : NoopResponse)
+        }
+    }
+
+    def "A traced MemcacheEndpoint should report the time spent on the wire"() {
+        setup:
+        def spans = new LinkedBlockingQueue<Span>()
+        endpoint.setTracer(new Tracer({ span -> spans.offer(span) } as TraceSink, 1, 0, TimeUnit.SECONDS))
+        server.setLatency(5, TimeUnit.MILLISECONDS)
+        endpoint.connect().await()
+
+        when:
+        endpoint.sendAndReceive(Event.wrap(new GetRequest("key")), ReplyDispatch.IO_THREAD).await(5, TimeUnit.SECONDS)
+        def span = spans.poll(5, TimeUnit.SECONDS)
+
+        then:
+        span.request() instanceof GetRequest
+        span.sampled()
+        span.responseBytes() == 128
+        span.flushNanos() + span.wireNanos() >= TimeUnit.MILLISECONDS.toNanos(5)
+        span.totalNanos() == span.queueNanos() + span.encodeNanos() + span.flushNanos() + span.wireNanos() +
+            span.decodeNanos() + span.deliveryNanos()
+    }
+
+    def "A MemcacheEndpoint should only report the requests over the threshold of its tracer"() {
+        setup:
+        def spans = new LinkedBlockingQueue<Span>()
+        endpoint.connect().await()
+        // Keep the first (cold) requests away from the tracer, it is attached to the connected endpoint afterwards.
+        (1..10).each { endpoint.sendAndReceive(Event.wrap(new GetRequest("warmup"))).await(5, TimeUnit.SECONDS) }
+        endpoint.setTracer(new Tracer({ span -> spans.offer(span) } as TraceSink, 0, 10, TimeUnit.MILLISECONDS))
+
+        when:
+        endpoint.sendAndReceive(Event.wrap(new GetRequest("fast"))).await(5, TimeUnit.SECONDS)
+        server.setLatency(20, TimeUnit.MILLISECONDS)
+        endpoint.sendAndReceive(Event.wrap(new UpsertRequest("slow", Unpooled.copiedBuffer("value", CharsetUtil.UTF_8))))
+            .await(5, TimeUnit.SECONDS)
+        def span = spans.poll(5, TimeUnit.SECONDS)
+
+        then:
+        spans.isEmpty()
+        span.request() instanceof UpsertRequest
+        span.request().key() == "slow"
+        !span.sampled()
+        span.requestBytes() == 5
+        span.totalNanos() >= TimeUnit.MILLISECONDS.toNanos(20)
+        span.totalNanos() == span.wireNanos() + span.decodeNanos()
+    }
+
+    def "A MemcacheEndpoint should fail fast while its circuit breaker is open and recover through probing"() {
+        setup:
+        def breaker = new CircuitBreaker(5, 50, 10000, 100, 50, TimeUnit.MILLISECONDS)
+        endpoint.setCircuitBreaker(breaker)
+        endpoint.connect().await()
+        server.setLatency(200, TimeUnit.MILLISECONDS)
+
+        when:
+        def promises = (1..5).collect {
+            endpoint.sendAndReceive(Event.wrap(new GetRequest("key" + it)), ReplyDispatch.IO_THREAD)
+        }
+        promises.each { it.await(5, TimeUnit.SECONDS) }
+        endpoint.sendAndReceive(Event.wrap(new GetRequest("key")))
+
+        then:
+        thrown(CircuitOpenException)
+        breaker.state() == CircuitBreaker.State.OPEN
+        !endpoint.isWritable()
+
+        when:
+        server.setLatency(0, TimeUnit.MILLISECONDS)
+        def deadline = System.currentTimeMillis() + 5000
+        while (breaker.state() != CircuitBreaker.State.CLOSED && System.currentTimeMillis() < deadline) {
+            sleep(10)
+        }
+
+        then:
+        breaker.state() == CircuitBreaker.State.CLOSED
+        endpoint.isWritable()
+        endpoint.sendAndReceive(Event.wrap(new GetRequest("key"))).await(5, TimeUnit.SECONDS) instanceof GetResponse
+    }
+
+    def "A MemcacheEndpoint should reconnect when the server closes the connection"() {
+        setup:
+        def transitions = recordTransitions()
+        endpoint.connect().await()
+        server.setDropRate(1.0)
+
+        when:
+        endpoint.sendAndReceive(Event.wrap(new GetRequest("key")))
+        waitFor { transitions.contains(EndpointState.RECONNECTING) && endpoint.isConnected() }
+
+        then:
+        transitions == [EndpointState.CONNECTING, EndpointState.CONNECTED, EndpointState.RECONNECTING,
+            EndpointState.CONNECTED]
+
+        when:
+        server.setDropRate(0)
+
+        then:
+        endpoint.sendAndReceive(Event.wrap(new NoopRequest())).await(5, TimeUnit.SECONDS) instanceof NoopResponse
+    }
+
+    def "A MemcacheEndpoint should hand replies to a callback which may reuse its event"() {
+        setup:
+        endpoint.connect().await()
+        def replies = new LinkedBlockingQueue()
+        def event = Event.wrap(new GetRequest("key"))
+        def callback = { replies << it } as Consumer<Object>
+
+        when:
+        endpoint.send(event, callback, RequestPriority.NORMAL)
+        def first = replies.poll(5, TimeUnit.SECONDS)
+        event.setData(new NoopRequest())
+        endpoint.send(event, callback, RequestPriority.INTERACTIVE)
+        def second = replies.poll(5, TimeUnit.SECONDS)
+
+        then:
+        first instanceof GetResponse
+        second instanceof NoopResponse
+
+        cleanup:
+        first?.content()?.release()
+    }
+
+    def "A recycling MemcacheEndpoint should return pooled responses to be recycled on the IO thread"() {
+        setup:
+        endpoint.setRecycling(true)
+        endpoint.connect().await()
+        def recycled = new LinkedBlockingQueue()
+        def callback = { response ->
+            if (response instanceof GetResponse) {
+                response.content().release()
+                recycled << response.recycle()
+            } else {
+                recycled << response
+            }
+        } as Consumer<Object>
+
+        when:
+        def request = GetRequest.newInstance("key", null)
+        endpoint.send(Event.wrap(request), callback, RequestPriority.NORMAL)
+
+        then:
+        recycled.poll(5, TimeUnit.SECONDS) == true
+        request.recycle()
+        GetRequest.newInstance("other", null).is(request)
+        request.key() == "other"
+        !new GetRequest("key").recycle()
+
+        when:
+        endpoint.send(Event.wrap(new NoopRequest()), callback, RequestPriority.NORMAL)
+        endpoint.send(Event.wrap(new NoopRequest()), callback, RequestPriority.NORMAL)
+
+        then:
+        recycled.poll(5, TimeUnit.SECONDS).is(recycled.poll(5, TimeUnit.SECONDS))
+    }
+
+    def "A MemcacheEndpoint should cancel the outstanding requests when the connection is lost"() {
+        setup:
+        endpoint.connect().await()
+        server.setDropRate(1.0)
+
+        when:
+        endpoint.sendAndReceive(Event.wrap(new GetRequest("key"))).await(5, TimeUnit.SECONDS)
+
+        then:
+        thrown(RequestCancelledException)
+    }
+
+    def "A MemcacheEndpoint should answer the outstanding requests before it disconnects"() {
+        setup:
+        def transitions = recordTransitions()
+        server.setLatency(50, TimeUnit.MILLISECONDS)
+        endpoint.connect().await()
+        def promises = (1..5).collect { endpoint.sendAndReceive(Event.wrap(new GetRequest("key" + it))) }
+
+        when:
+        def disconnected = endpoint.disconnect(5, TimeUnit.SECONDS)
+        endpoint.sendAndReceive(Event.wrap(new NoopRequest()))
+
+        then:
+        thrown(EndpointNotConnectedException)
+
+        expect:
+        promises.every { it.await(5, TimeUnit.SECONDS) instanceof GetResponse }
+        disconnected.await(5, TimeUnit.SECONDS) == EndpointState.DISCONNECTED
+        transitions == [EndpointState.CONNECTING, EndpointState.CONNECTED, EndpointState.DISCONNECTING,
+            EndpointState.DISCONNECTED]
+    }
+
+    def "A MemcacheEndpoint should cancel the requests still outstanding when the drain times out"() {
+        setup:
+        server.setLatency(10, TimeUnit.SECONDS)
+        endpoint.connect().await()
+        def promises = (1..3).collect { endpoint.sendAndReceive(Event.wrap(new GetRequest("key" + it))) }
+
+        when:
+        def start = System.nanoTime()
+        def state = endpoint.disconnect(100, TimeUnit.MILLISECONDS).await(5, TimeUnit.SECONDS)
+        def elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+
+        then:
+        state == EndpointState.DISCONNECTED
+        elapsed >= 100
+        elapsed < 5000
+        promises.every {
+            try {
+                it.await(5, TimeUnit.SECONDS)
+                false
+            } catch (RequestCancelledException e) {
+                true
+            }
+        }
+        endpoint.outstanding() == 0
+    }
+
+    def "A MemcacheEndpoint should fail requests with the shared exception of the response status"() {
+        setup:
+        server.setTmpFailRate(1.0)
+        endpoint.connect().await()
+
+        when:
+        endpoint.sendAndReceive(Event.wrap(new GetRequest("key"))).await(5, TimeUnit.SECONDS)
+
+        then:
+        def e = thrown(TemporaryFailureException)
+        e.is(TemporaryFailureException.instance())
+        e.stackTrace.length == 0
+
+        when:
+        server.setTmpFailRate(0).setNotMyVbucketRate(1.0)
+        endpoint.sendAndReceive(Event.wrap(new GetRequest("key"))).await(5, TimeUnit.SECONDS)
+
+        then:
+        thrown(NotMyVbucketException)
+
+        when:
+        server.setNotMyVbucketRate(0)
+
+        then:
+        endpoint.sendAndReceive(Event.wrap(new GetRequest("key"))).await(5, TimeUnit.SECONDS) instanceof GetResponse
+    }
+
+    def "A MemcacheEndpoint should keep an idle but healthy connection"() {
+        setup:
+        def transitions = recordTransitions()
+        endpoint.setKeepAlive(50, 500, TimeUnit.MILLISECONDS)
+
+        when:
+        endpoint.connect().await()
+        sleep(300)
+
+        then:
+        endpoint.isConnected()
+        transitions == [EndpointState.CONNECTING, EndpointState.CONNECTED]
+    }
+
+    def "A MemcacheEndpoint should reconnect if the keepalive is not answered"() {
+        setup:
+        def transitions = recordTransitions()
+        endpoint.setKeepAlive(50, 100, TimeUnit.MILLISECONDS)
+        endpoint.connect().await()
+
+        when:
+        server.setLatency(10, TimeUnit.SECONDS)
+        waitFor { transitions.contains(EndpointState.RECONNECTING) }
+        server.setLatency(0, TimeUnit.MILLISECONDS)
+        waitFor { endpoint.isConnected() }
+
+        then:
+        transitions.take(4) == [EndpointState.CONNECTING, EndpointState.CONNECTED, EndpointState.RECONNECTING,
+            EndpointState.CONNECTED]
+        endpoint.sendAndReceive(Event.wrap(new NoopRequest())).await(5, TimeUnit.SECONDS) instanceof NoopResponse
+    }
+
+    def "A MemcacheEndpoint should only become connected once the warm-up is answered"() {
+        setup:
+        def transitions = recordTransitions()
+        endpoint.setWarmUp(5, TimeUnit.SECONDS)
+        server.setLatency(200, TimeUnit.MILLISECONDS)
+
+        when:
+        def start = System.nanoTime()
+        def state = endpoint.connect().await(5, TimeUnit.SECONDS)
+
+        then:
+        state == EndpointState.CONNECTED
+        System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(200)
+        transitions == [EndpointState.CONNECTING, EndpointState.CONNECTED]
+    }
+
+    def "A MemcacheEndpoint should retry the connection if the warm-up is not answered"() {
+        setup:
+        endpoint.setWarmUp(100, TimeUnit.MILLISECONDS)
+        server.setLatency(10, TimeUnit.SECONDS)
+
+        when:
+        def state = endpoint.connect().await(5, TimeUnit.SECONDS)
+
+        then:
+        state == EndpointState.RECONNECTING
+        !endpoint.isConnected()
+
+        when:
+        server.setLatency(0, TimeUnit.MILLISECONDS)
+        waitFor { endpoint.isConnected() }
+
+        then:
+        endpoint.sendAndReceive(Event.wrap(new NoopRequest())).await(5, TimeUnit.SECONDS) instanceof NoopResponse
+    }
+
+    def recordTransitions() {
+        def transitions = [].asSynchronized()
+        endpoint.addStateListener({ e, oldState, newState -> transitions << newState } as EndpointStateListener)
+        transitions
+    }
+
+    def "A MemcacheEndpoint should return the flags stored with a value"() {
+        setup:
+        server.setFlags(0x02000000).setValueSize(4096).setCompressValues(compressed)
+        endpoint.setCompressionThreshold(compressed ? 1024 : 0)
+        endpoint.connect().await()
+
+        when:
+        def responses = (1..3).collect {
+            endpoint.sendAndReceive(Event.wrap(new GetRequest("key"))).await(5, TimeUnit.SECONDS)
+        }
+
+        then:
+        responses*.flags() == [0x02000000] * 3
+        responses*.content()*.readableBytes() == [4096] * 3
+
+        cleanup:
+        responses*.content()*.release()
+
+        where:
+        compressed << [false, true]
+    }
+
+    def "A MemcacheEndpoint should decompress values sent compressed by the server"() {
+        setup:
+        server.setValueSize(4096).setCompressValues(true)
+        endpoint.setCompressionThreshold(1024)
+        endpoint.connect().await()
+
+        when:
+        def response = endpoint.sendAndReceive(Event.wrap(new GetRequest("key"))).await(5, TimeUnit.SECONDS)
+
+        then:
+        response.content().readableBytes() == 4096
+        response.content().toString(CharsetUtil.UTF_8).startsWith("abcdefghijklmnopqrstuvwxyzabc")
+
+        cleanup:
+        response?.content()?.release()
+    }
+
+    def "A MemcacheEndpoint should transcode values on the event loop"() {
+        setup:
+        server.setValueSize(16)
+        endpoint.connect().await()
+
+        when:
+        def upsert = endpoint.sendAndReceive(Event.wrap(new UpsertRequest("key", [a: 1], JsonTranscoder.INSTANCE)))
+            .await(5, TimeUnit.SECONDS)
+        def get = endpoint.sendAndReceive(Event.wrap(new GetRequest("key", StringTranscoder.INSTANCE)))
+            .await(5, TimeUnit.SECONDS)
+
+        then:
+        upsert instanceof UpsertResponse
+        get.value() == "abcdefghijklmnop"
+        get.content().readableBytes() == 0
+    }
+
+    def "A MemcacheEndpoint should fail a request whose value can not be encoded and keep serving others"() {
+        setup:
+        endpoint.connect().await()
+
+        when:
+        def failed = endpoint.sendAndReceive(Event.wrap(new UpsertRequest("key", new Object(), JsonTranscoder.INSTANCE)))
+        failed.await(5, TimeUnit.SECONDS)
+
+        then:
+        thrown(TranscodingException)
+
+        expect:
+        endpoint.sendAndReceive(Event.wrap(new NoopRequest())).await(5, TimeUnit.SECONDS) instanceof NoopResponse
+    }
+
+    def "A MemcacheEndpoint should fail a request whose value can not be decoded and keep serving others"() {
+        setup:
+        endpoint.connect().await()
+
+        when:
+        endpoint.sendAndReceive(Event.wrap(new GetRequest("key", JsonTranscoder.INSTANCE))).await(5, TimeUnit.SECONDS)
+
+        then:
+        thrown(TranscodingException)
+
+        expect:
+        endpoint.sendAndReceive(Event.wrap(new NoopRequest())).await(5, TimeUnit.SECONDS) instanceof NoopResponse
+    }
+
+    def "A MemcacheEndpoint should fail an observe with an unknown key state and keep serving others"() {
+        setup:
+        endpoint.connect().await()
+        server.setObserveState((byte) 0x42, 0)
+
+        when:
+        endpoint.sendAndReceive(Event.wrap(new ObserveRequest("key", 0))).await(5, TimeUnit.SECONDS)
+
+        then:
+        def e = thrown(CouchbaseException)
+        e.message == "Unknown observe key state: 66"
+
+        expect:
+        endpoint.sendAndReceive(Event.wrap(new NoopRequest())).await(5, TimeUnit.SECONDS) instanceof NoopResponse
+    }
+
+    def "A MemcacheEndpoint should authenticate with SCRAM before it becomes connected"() {
+        setup:
+        server.setCredentials("user", "secret")
+        endpoint.setCredentials("user", "secret")
+
+        when:
+        def state = endpoint.connect().await(5, TimeUnit.SECONDS)
+
+        then:
+        state == EndpointState.CONNECTED
+        server.authentications() == 1
+
+        expect:
+        endpoint.sendAndReceive(Event.wrap(new NoopRequest())).await(5, TimeUnit.SECONDS) instanceof NoopResponse
+    }
+
+    def "A MemcacheEndpoint should fall back to PLAIN if the server offers nothing stronger"() {
+        setup:
+        server.setCredentials("user", "secret").setSaslMechanisms("CRAM-MD5 PLAIN")
+        endpoint.setCredentials("user", "secret")
+
+        when:
+        def state = endpoint.connect().await(5, TimeUnit.SECONDS)
+
+        then:
+        state == EndpointState.CONNECTED
+        server.authentications() == 1
+
+        expect:
+        endpoint.sendAndReceive(Event.wrap(new NoopRequest())).await(5, TimeUnit.SECONDS) instanceof NoopResponse
+    }
+
+    def "A MemcacheEndpoint should not become connected if the credentials are rejected"() {
+        setup:
+        server.setCredentials("user", "secret").setSaslMechanisms(mechanisms)
+        endpoint.setCredentials("user", "wrong")
+
+        when:
+        def state = endpoint.connect().await(5, TimeUnit.SECONDS)
+
+        then:
+        state == EndpointState.DISCONNECTED
+        !endpoint.isConnected()
+        server.authentications() == 0
+
+        where:
+        mechanisms << ["SCRAM-SHA256", "PLAIN"]
+    }
+
+    def "A MemcacheEndpoint should talk to the server over TLS"() {
+        setup:
+        server.setSsl(true).setCredentials("user", "secret")
+        endpoint.setSsl(new SslSpec().setTrustStore(MockServer.keyStore()).get())
+        endpoint.setCredentials("user", "secret")
+
+        when:
+        def state = endpoint.connect().await(5, TimeUnit.SECONDS)
+
+        then:
+        state == EndpointState.CONNECTED
+        server.authentications() == 1
+        server.tlsHandshakes() == 1
+
+        expect:
+        endpoint.sendAndReceive(Event.wrap(new GetRequest("key"))).await(5, TimeUnit.SECONDS) instanceof GetResponse
+    }
+
+    def "A MemcacheEndpoint should not become connected if the server certificate is not trusted"() {
+        setup:
+        server.setSsl(true)
+        endpoint.setSsl(new SslSpec().get())
+
+        when:
+        def state = endpoint.connect().await(5, TimeUnit.SECONDS)
+
+        then:
+        state == EndpointState.RECONNECTING
+        server.tlsHandshakes() == 0
+    }
+
+    def "A MemcacheEndpoint should not become connected if the server certificate is issued for another host"() {
+        setup:
+        server.setSsl(true).setKeyStore(MockServer.WRONG_HOST_KEY_STORE)
+        endpoint.setSsl(new SslSpec().setTrustStore(MockServer.keyStore(MockServer.WRONG_HOST_KEY_STORE)).get())
+
+        when:
+        def state = endpoint.connect().await(5, TimeUnit.SECONDS)
+
+        then:
+        state == EndpointState.RECONNECTING
+    }
+
+    def "A MemcacheEndpoint should accept a certificate for another host if hostname verification is disabled"() {
+        setup:
+        server.setSsl(true).setKeyStore(MockServer.WRONG_HOST_KEY_STORE)
+        endpoint.setSsl(new SslSpec()
+            .setTrustStore(MockServer.keyStore(MockServer.WRONG_HOST_KEY_STORE))
+            .setHostnameVerification(false)
+            .get())
+
+        when:
+        def state = endpoint.connect().await(5, TimeUnit.SECONDS)
+
+        then:
+        state == EndpointState.CONNECTED
+
+        expect:
+        endpoint.sendAndReceive(Event.wrap(new GetRequest("key"))).await(5, TimeUnit.SECONDS) instanceof GetResponse
+        server.tlsHandshakes() == 1
+    }
+
+    def "MemcacheEndpoints of the same spec should resume the TLS session instead of a full handshake"() {
+        setup:
+        server.setSsl(true)
+        def spec = new EndpointSpec(env, server.memcacheAddress(), ServiceType.MEMCACHE)
+            .setEventLoopGroup(group)
+            .setSsl(new SslSpec().setTrustStore(MockServer.keyStore()).setProtocols("TLSv1.2"))
+        def endpoints = (1..4).collect { spec.get() }
+
+        when:
+        endpoints[0].connect().await(5, TimeUnit.SECONDS)
+        waitFor { server.tlsHandshakes() == 1 }
+        def states = endpoints[1..3].collect { it.connect() }.collect { it.await(5, TimeUnit.SECONDS) }
+        waitFor { server.tlsHandshakes() == 4 }
+
+        then:
+        states.every { it == EndpointState.CONNECTED }
+        server.tlsHandshakes() == 4
+        server.tlsSessions() == 1
+
+        cleanup:
+        endpoints*.disconnect()*.await()
+    }
+
+    def waitFor(Closure condition) {
+        def deadline = System.currentTimeMillis() + 5000
+        while (!condition() && System.currentTimeMillis() < deadline) {
+            sleep(10)
+        }
     }
 
 }
@@ -0,0 +1,129 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.client.core.io.endpoint.memcache
+
+import spock.lang.Specification
+
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+/**
+ * Verifies the key derivation and caching of {@link ScramKeys}.
+ */
+class ScramKeysSpec extends Specification {
+
+    def setup() {
+        ScramKeys.clearCache()
+    }
+
+    def "Should compute the client proof and server signature of the RFC test vectors"() {
+        when:
+        def keys = ScramKeys.derive(mechanism, "pencil", SaslAuthHandler.unbase64(salt), 4096)
+
+        then:
+        SaslAuthHandler.base64(keys.clientProof(authMessage)) == proof
+        SaslAuthHandler.base64(keys.serverSignature(authMessage)) == signature
+
+        where:
+        mechanism << [SaslMechanism.SCRAM_SHA1, SaslMechanism.SCRAM_SHA256]
+        salt << ["QSXCR+Q6sek8bf92", "W22ZaJ0SNY7soEsUEjb6gQ=="]
+        authMessage << [
+            "n=user,r=fyko+d2lbbFgONRv9qkxdawL,r=fyko+d2lbbFgONRv9qkxdawL3rfcNHYJY1ZVvWVs7j,s=QSXCR+Q6sek8bf92,"
+                + "i=4096,c=biws,r=fyko+d2lbbFgONRv9qkxdawL3rfcNHYJY1ZVvWVs7j",
+            'n=user,r=rOprNGfwEbeRWgbNEkqO,r=rOprNGfwEbeRWgbNEkqO%hvYDpWUa2RaTCAfuxFIlj)hNlF$k0,'
+                + 's=W22ZaJ0SNY7soEsUEjb6gQ==,i=4096,c=biws,r=rOprNGfwEbeRWgbNEkqO%hvYDpWUa2RaTCAfuxFIlj)hNlF$k0'
+        ]
+        proof << ["v0X8v3Bz2T0CJGbJQyF0X+HI4Ts=", "dHzbZapWIk4jUhN+Ute9ytag9zjfMHgsqmmiz7AndVQ="]
+        signature << ["rmF9pqV8S7suAoZWja4dJRkFsKQ=", "6rriTRBi23WpRR/wtup+mMhUZUn/dB5nLTJRsjl95G4="]
+    }
+
+    def "Should derive the keys only once per credential"() {
+        setup:
+        def salt = [1, 2, 3, 4] as byte[]
+
+        when:
+        def first = ScramKeys.get(SaslMechanism.SCRAM_SHA512, "secret", salt, 4096).get()
+        def second = ScramKeys.get(SaslMechanism.SCRAM_SHA512, "secret", [1, 2, 3, 4] as byte[], 4096).get()
+
+        then:
+        first.is(second)
+        ScramKeys.cacheSize() == 1
+
+        when:
+        salt[0] = 9
+        def otherSalt = ScramKeys.get(SaslMechanism.SCRAM_SHA512, "secret", salt, 4096).get()
+        def otherPassword = ScramKeys.get(SaslMechanism.SCRAM_SHA512, "other", [1, 2, 3, 4] as byte[], 4096).get()
+        def otherMechanism = ScramKeys.get(SaslMechanism.SCRAM_SHA256, "secret", [1, 2, 3, 4] as byte[], 4096).get()
+
+        then:
+        !otherSalt.is(first)
+        !otherPassword.is(first)
+        !otherMechanism.is(first)
+        ScramKeys.get(SaslMechanism.SCRAM_SHA512, "secret", [1, 2, 3, 4] as byte[], 4096).get().is(first)
+        ScramKeys.cacheSize() == 4
+    }
+
+    def "Should derive the keys once while concurrent handshakes wait for them"() {
+        setup:
+        def start = new CountDownLatch(1)
+        def futures = new CopyOnWriteArrayList()
+        def threads = (1..8).collect {
+            Thread.start {
+                start.await()
+                futures << ScramKeys.get(SaslMechanism.SCRAM_SHA512, "secret", [1, 2, 3, 4] as byte[], 100000)
+            }
+        }
+
+        when:
+        start.countDown()
+        threads*.join()
+
+        then:
+        futures.size() == 8
+        futures.every { it.is(futures[0]) }
+        futures[0].get(10, TimeUnit.SECONDS).is(ScramKeys.get(SaslMechanism.SCRAM_SHA512, "secret",
+            [1, 2, 3, 4] as byte[], 100000).getNow())
+        ScramKeys.cacheSize() == 1
+    }
+
+    def "Should not cache a failed derivation"() {
+        when:
+        def failed = ScramKeys.get(SaslMechanism.SCRAM_SHA512, "secret", [1, 2, 3, 4] as byte[], 0).await()
+
+        then:
+        failed.cause() instanceof IllegalArgumentException
+        ScramKeys.cacheSize() == 0
+    }
+
+    def "Should pick the strongest mechanism offered"() {
+        expect:
+        SaslMechanism.strongest(offered) == expected
+
+        where:
+        offered                                  | expected
+        "PLAIN SCRAM-SHA1 SCRAM-SHA512"          | SaslMechanism.SCRAM_SHA512
+        "SCRAM-SHA1 SCRAM-SHA256"                | SaslMechanism.SCRAM_SHA256
+        " PLAIN "                                | SaslMechanism.PLAIN
+        "CRAM-MD5"                               | null
+    }
+}
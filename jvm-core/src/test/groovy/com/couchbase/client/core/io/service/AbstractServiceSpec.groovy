@@ -22,10 +22,492 @@
 
 package com.couchbase.client.core.io.service
 
+import com.couchbase.client.core.BackpressureException
+import com.couchbase.client.core.io.endpoint.Endpoint
+import com.couchbase.client.core.io.endpoint.EndpointState
+import com.couchbase.client.core.io.endpoint.RequestPriority
+import org.reactivestreams.Publisher
+import org.reactivestreams.Subscriber
+import org.reactivestreams.Subscription
+import reactor.core.Environment
+import reactor.core.composable.spec.Promises
+import reactor.event.Event
+import reactor.event.dispatch.SynchronousDispatcher
+import reactor.event.registry.CachingRegistry
 import spock.lang.Specification
 
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+import static reactor.event.selector.Selectors.$
+
 /**
  * Verifies the functionality of a {@link AbstractService}.
  */
 class AbstractServiceSpec extends Specification {
+
+    def env = new Environment()
+    def registry = new CachingRegistry<Endpoint>()
+    def firstEndpoint = Mock(Endpoint)
+    def secondEndpoint = Mock(Endpoint)
+
+    def setup() {
+        registry.register($("/MEMCACHE/0"), firstEndpoint)
+        registry.register($("/MEMCACHE/1"), secondEndpoint)
+    }
+
+    def "Should throw exception when sending and no Endpoint is connected"() {
+        setup:
+        def service = new DummyService(registry, env)
+
+        when:
+        service.sendAndReceive(Event.wrap("Payload"))
+
+        then:
+        def e = thrown(ServiceNotConnectedException)
+        e.message == "Service is not connected"
+    }
+
+    def "Should connect all Endpoints at once and report when all finished"() {
+        setup:
+        def service = new DummyService(registry, env)
+        def firstConnect = Promises.defer(env, new SynchronousDispatcher())
+        def secondConnect = Promises.defer(env, new SynchronousDispatcher())
+        def connected = false
+        firstEndpoint.isConnected() >> { connected }
+
+        when:
+        def promise = service.connect()
+
+        then:
+        1 * firstEndpoint.connect() >> firstConnect.compose()
+        1 * secondEndpoint.connect() >> secondConnect.compose()
+        !promise.isComplete()
+        service.state() == ServiceState.CONNECTING
+
+        when:
+        connected = true
+        firstConnect.accept(EndpointState.CONNECTED)
+        secondConnect.accept(EndpointState.RECONNECTING)
+
+        then:
+        promise.await(5, TimeUnit.SECONDS) == ServiceState.CONNECTED
+        service.isConnected()
+    }
+
+    def "Should report a Service as reconnecting if none of its Endpoints connected"() {
+        setup:
+        def service = new DummyService(registry, env)
+        firstEndpoint.connect() >> Promises.success(EndpointState.RECONNECTING).get()
+        secondEndpoint.connect() >> Promises.success(EndpointState.RECONNECTING).get()
+
+        when:
+        def state = service.connect().await(5, TimeUnit.SECONDS)
+
+        then:
+        state == ServiceState.RECONNECTING
+        !service.isConnected()
+
+        when:
+        state = service.disconnect().await(5, TimeUnit.SECONDS)
+
+        then:
+        state == ServiceState.DISCONNECTED
+    }
+
+    def "Should connect a lazy Service on the first request"() {
+        setup:
+        def service = new DummyService(registry, env)
+        service.setLazy(true)
+        def firstConnect = Promises.defer(env, new SynchronousDispatcher())
+        def connected = false
+        firstEndpoint.isWritable() >> { connected }
+        firstEndpoint.isConnected() >> { connected }
+        firstEndpoint.sendAndReceive(_) >> { Promises.success("Response").get() }
+
+        when:
+        service.connect()
+
+        then:
+        0 * _.connect()
+        service.state() == ServiceState.DISCONNECTED
+
+        when:
+        def first = service.sendAndReceive(Event.wrap("Payload"))
+        def second = service.sendAndReceive(Event.wrap("Payload"))
+
+        then:
+        1 * firstEndpoint.connect() >> firstConnect.compose()
+        1 * secondEndpoint.connect() >> Promises.success(EndpointState.RECONNECTING).get()
+        !first.isComplete()
+        !second.isComplete()
+
+        when:
+        connected = true
+        firstConnect.accept(EndpointState.CONNECTED)
+
+        then:
+        first.await(5, TimeUnit.SECONDS) == "Response"
+        second.await(5, TimeUnit.SECONDS) == "Response"
+        service.isConnected()
+    }
+
+    def "Should distribute requests across writable Endpoints"() {
+        setup:
+        def service = new DummyService(registry, env)
+        firstEndpoint.isWritable() >> true
+        secondEndpoint.isWritable() >> true
+
+        when:
+        4.times { service.sendAndReceive(Event.wrap("Payload")) }
+
+        then:
+        2 * firstEndpoint.sendAndReceive(_)
+        2 * secondEndpoint.sendAndReceive(_)
+    }
+
+    def "Should hand the priority of a request to the selected Endpoint"() {
+        setup:
+        def service = new DummyService(registry, env)
+        firstEndpoint.isWritable() >> true
+        def event = Event.wrap("Payload")
+
+        when:
+        service.sendAndReceive(event, RequestPriority.BULK)
+        service.sendAndReceive(event, RequestPriority.NORMAL)
+
+        then:
+        1 * firstEndpoint.sendAndReceive(event, null, RequestPriority.BULK)
+        1 * firstEndpoint.sendAndReceive(event)
+    }
+
+    def "Should reject requests beyond the rate limit of the caller"() {
+        setup:
+        def service = new DummyService(registry, env)
+        service.setRateLimits(new RateLimits(null).limit("default", null, "tenant", new RateLimiter(1, 2)), "default")
+        firstEndpoint.isWritable() >> true
+        def tagged = { Event.wrap("Payload").with { getHeaders().set(RateLimits.TAG_HEADER, "tenant"); it } }
+
+        when:
+        2.times { service.sendAndReceive(tagged()) }
+        service.sendAndReceive(tagged())
+
+        then:
+        thrown(BackpressureException)
+        2 * firstEndpoint.sendAndReceive(_)
+
+        when:
+        service.sendAndReceive(Event.wrap("Payload"))
+
+        then:
+        1 * firstEndpoint.sendAndReceive(_)
+    }
+
+    def "Should delay requests until the rate limit permits them"() {
+        setup:
+        def scheduler = Executors.newSingleThreadScheduledExecutor()
+        def service = new DummyService(registry, env)
+        def limiter = new RateLimiter(RateLimiter.Mode.DELAY, 20, 1, 1, TimeUnit.SECONDS)
+        service.setRateLimits(new RateLimits(scheduler).limit(null, null, null, limiter), null)
+        firstEndpoint.isWritable() >> true
+        firstEndpoint.sendAndReceive(_) >> { Promises.success("Response").get() }
+
+        when:
+        def start = System.nanoTime()
+        def responses = (1..3).collect { service.sendAndReceive(Event.wrap("Payload")) }
+            .collect { it.await(5, TimeUnit.SECONDS) }
+
+        then:
+        responses == ["Response"] * 3
+        System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100)
+        limiter.delayed() == 2
+
+        cleanup:
+        scheduler.shutdown()
+    }
+
+    def "Should grow the pool while the Endpoints are loaded"() {
+        setup:
+        def scheduler = Executors.newSingleThreadScheduledExecutor()
+        def thirdEndpoint = Mock(Endpoint)
+        def service = new DummyService(registry, env, [thirdEndpoint])
+        service.setPoolSizing(new EndpointPoolSizer(1, 3, 4, 0, 1, TimeUnit.HOURS), scheduler, 1, TimeUnit.HOURS)
+        [firstEndpoint, secondEndpoint].each {
+            it.isConnected() >> true
+        }
+        firstEndpoint.outstanding() >> 5
+        secondEndpoint.outstanding() >> 3
+
+        when:
+        service.connect()
+        service.resizePool()
+
+        then:
+        1 * thirdEndpoint.connect()
+
+        when:
+        thirdEndpoint.isWritable() >> true
+        3.times { service.sendAndReceive(Event.wrap("Payload")) }
+
+        then:
+        3 * thirdEndpoint.sendAndReceive(_)
+
+        when:
+        service.resizePool()
+
+        then:
+        registry.select("/MEMCACHE/3").isEmpty()
+
+        cleanup:
+        scheduler.shutdown()
+    }
+
+    def "Should grow the pool while requests queue up in the Endpoints"() {
+        setup:
+        def scheduler = Executors.newSingleThreadScheduledExecutor()
+        def thirdEndpoint = Mock(Endpoint)
+        def service = new DummyService(registry, env, [thirdEndpoint])
+        service.setPoolSizing(new EndpointPoolSizer(1, 3, 4, 5, 1000, TimeUnit.MILLISECONDS), scheduler, 1,
+            TimeUnit.HOURS)
+        [firstEndpoint, secondEndpoint].each {
+            it.isConnected() >> true
+            it.outstanding() >> 1
+        }
+        firstEndpoint.queueDelayNanos() >> TimeUnit.MILLISECONDS.toNanos(8)
+
+        when:
+        service.connect()
+        service.resizePool()
+
+        then:
+        registry.select("/MEMCACHE/2").isEmpty()
+
+        when:
+        secondEndpoint.queueDelayNanos() >> TimeUnit.MILLISECONDS.toNanos(2)
+        service.resizePool()
+
+        then:
+        1 * thirdEndpoint.connect()
+
+        cleanup:
+        scheduler.shutdown()
+    }
+
+    def "Should shrink the pool once idle and drain the removed Endpoint"() {
+        setup:
+        def scheduler = Executors.newSingleThreadScheduledExecutor()
+        def service = new DummyService(registry, env)
+        service.setPoolSizing(new EndpointPoolSizer(1, 2, 4, 0, 0, TimeUnit.SECONDS), scheduler, 1, TimeUnit.HOURS)
+        [firstEndpoint, secondEndpoint].each {
+            it.isConnected() >> true
+        }
+        firstEndpoint.outstanding() >> 0
+        secondEndpoint.outstanding() >> 1
+
+        when:
+        service.resizePool()
+
+        then:
+        0 * secondEndpoint.disconnect(*_)
+
+        when:
+        service.resizePool()
+
+        then:
+        registry.select("/MEMCACHE/1").isEmpty()
+        1 * secondEndpoint.disconnect(30000, TimeUnit.MILLISECONDS)
+
+        when:
+        secondEndpoint.isWritable() >> true
+        firstEndpoint.isWritable() >> true
+        service.sendAndReceive(Event.wrap("Payload"))
+
+        then:
+        1 * firstEndpoint.sendAndReceive(_)
+        0 * secondEndpoint.sendAndReceive(_)
+
+        cleanup:
+        scheduler.shutdown()
+    }
+
+    def "Should limit the requests in flight when streaming"() {
+        setup:
+        def service = new DummyService(registry, env)
+        def deferreds = []
+        firstEndpoint.isWritable() >> true
+        secondEndpoint.isConnected() >> false
+        firstEndpoint.sendAndReceive(_) >> {
+            def deferred = Promises.defer(env, new SynchronousDispatcher())
+            deferreds << deferred
+            deferred.compose()
+        }
+        def subscriber = new RecordingSubscriber(Long.MAX_VALUE)
+
+        when:
+        service.sendAndReceiveStream(new ListPublisher((1..10).collect { "Request" + it }), 3).subscribe(subscriber)
+
+        then:
+        deferreds.size() == 3
+
+        when:
+        deferreds[0].accept("Response1")
+
+        then:
+        deferreds.size() == 4
+        subscriber.received == ["Response1"]
+
+        when:
+        def completed = 1
+        while (completed < deferreds.size()) {
+            deferreds[completed].accept("Response" + (++completed))
+        }
+
+        then:
+        deferreds.size() == 10
+        subscriber.received.size() == 10
+        subscriber.completed
+    }
+
+    def "Should not pull more requests than the subscriber demands"() {
+        setup:
+        def service = new DummyService(registry, env)
+        firstEndpoint.isWritable() >> true
+        firstEndpoint.sendAndReceive(_) >> { Promises.success("Response").get() }
+        def subscriber = new RecordingSubscriber(2)
+
+        when:
+        service.sendAndReceiveStream(new ListPublisher((1..10).collect { "Request" + it }), 100).subscribe(subscriber)
+
+        then:
+        subscriber.received == ["Response", "Response"]
+        !subscriber.completed
+
+        when:
+        subscriber.subscription.request(100)
+
+        then:
+        subscriber.received.size() == 10
+        subscriber.completed
+    }
+
+    def "Should start streaming once an Endpoint connects"() {
+        setup:
+        def service = new DummyService(registry, env)
+        def connected = false
+        firstEndpoint.isWritable() >> { connected }
+        firstEndpoint.isConnected() >> { connected }
+        firstEndpoint.sendAndReceive(_) >> { Promises.success("Response").get() }
+        def subscriber = new RecordingSubscriber(Long.MAX_VALUE)
+
+        when:
+        service.sendAndReceiveStream(new ListPublisher((1..10).collect { "Request" + it }), 3).subscribe(subscriber)
+        Thread.sleep(100)
+
+        then:
+        subscriber.received.isEmpty()
+        !subscriber.completed
+
+        when:
+        connected = true
+        def deadline = System.currentTimeMillis() + 5000
+        while (!subscriber.completed && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10)
+        }
+
+        then:
+        subscriber.received.size() == 10
+        subscriber.completed
+    }
+
+    /**
+     * Represents a simple {@link AbstractService} implementation.
+     */
+    class DummyService extends AbstractService<String, String> {
+
+        def spares
+
+        DummyService(registry, env, spares = []) {
+            super(registry, env)
+            this.spares = new LinkedList(spares)
+        }
+
+        @Override
+        protected Endpoint<String, String> newEndpoint() {
+            return spares.poll()
+        }
+
+        @Override
+        protected ServiceType serviceType() {
+            return ServiceType.MEMCACHE
+        }
+    }
+
+    /**
+     * Publishes the given items as requested.
+     */
+    class ListPublisher implements Publisher<String> {
+
+        def items
+
+        ListPublisher(items) {
+            this.items = items
+        }
+
+        @Override
+        void subscribe(Subscriber<? super String> subscriber) {
+            def remaining = new LinkedList(items)
+            subscriber.onSubscribe(new Subscription() {
+                @Override
+                void request(long n) {
+                    while (n-- > 0 && !remaining.isEmpty()) {
+                        subscriber.onNext(remaining.poll())
+                    }
+                    if (remaining.isEmpty()) {
+                        subscriber.onComplete()
+                    }
+                }
+
+                @Override
+                void cancel() {
+                    remaining.clear()
+                }
+            })
+        }
+    }
+
+    /**
+     * Records everything it receives.
+     */
+    class RecordingSubscriber implements Subscriber<String> {
+
+        def initialRequest
+        def received = []
+        def completed = false
+        Subscription subscription
+
+        RecordingSubscriber(initialRequest) {
+            this.initialRequest = initialRequest
+        }
+
+        @Override
+        void onSubscribe(Subscription s) {
+            subscription = s
+            s.request(initialRequest)
+        }
+
+        @Override
+        void onNext(String s) {
+            received << s
+        }
+
+        @Override
+        void onError(Throwable t) {
+            throw t
+        }
+
+        @Override
+        void onComplete() {
+            completed = true
+        }
+    }
 }
@@ -0,0 +1,124 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.core.io.service
+
+import spock.lang.Specification
+
+import java.util.concurrent.TimeUnit
+
+/**
+ * Verifies the decisions of the {@link EndpointPoolSizer}.
+ */
+class EndpointPoolSizerSpec extends Specification {
+
+    def "Should grow up to the minimum and shrink down to the maximum"() {
+        setup:
+        def sizer = new EndpointPoolSizer(2, 4, 8, 0, 1, TimeUnit.SECONDS)
+
+        expect:
+        sizer.resize(0, 0, 0, 0, 0) == 1
+        sizer.resize(1, 0, 0, 0, 0) == 2
+        sizer.resize(5, 5, 0, 0, 0) == 4
+        sizer.resize(2, 0, 0, 0, 0) == 2
+    }
+
+    def "Should grow one endpoint at a time while loaded"() {
+        setup:
+        def sizer = new EndpointPoolSizer(1, 3, 8, 0, 1, TimeUnit.SECONDS)
+
+        expect:
+        sizer.resize(1, 1, 7, 0, 0) == 1
+        sizer.resize(1, 1, 8, 0, 0) == 2
+        sizer.resize(2, 2, 16, 0, 0) == 3
+        sizer.resize(3, 3, 100, 0, 0) == 3
+    }
+
+    def "Should grow on queueing delay if configured"() {
+        setup:
+        def sizer = new EndpointPoolSizer(1, 3, 8, 5, 1, TimeUnit.MILLISECONDS)
+
+        expect:
+        sizer.resize(1, 1, 0, TimeUnit.MILLISECONDS.toNanos(4), 0) == 1
+        sizer.resize(1, 1, 0, TimeUnit.MILLISECONDS.toNanos(5), 0) == 2
+        new EndpointPoolSizer(1, 3, 8, 0, 1, TimeUnit.MILLISECONDS).resize(1, 1, 0, Long.MAX_VALUE, 0) == 1
+    }
+
+    def "Should shrink only after being idle for the timeout"() {
+        setup:
+        def sizer = new EndpointPoolSizer(1, 3, 8, 0, 100, TimeUnit.NANOSECONDS)
+
+        expect:
+        sizer.resize(3, 3, 0, 0, 1000) == 3
+        sizer.resize(3, 3, 0, 0, 1099) == 3
+        sizer.resize(3, 3, 0, 0, 1100) == 2
+        sizer.resize(2, 2, 0, 0, 1150) == 2
+        sizer.resize(2, 2, 0, 0, 1250) == 1
+        sizer.resize(1, 1, 0, 0, 2000) == 1
+    }
+
+    def "Should not shrink if the remaining endpoints would get close to the grow threshold"() {
+        setup:
+        def sizer = new EndpointPoolSizer(1, 3, 8, 0, 100, TimeUnit.NANOSECONDS)
+
+        expect:
+        sizer.resize(3, 3, 8, 0, 0) == 3
+        sizer.resize(3, 3, 8, 0, 1000) == 3
+        sizer.resize(3, 3, 7, 0, 2000) == 3
+        sizer.resize(3, 3, 7, 0, 2100) == 2
+    }
+
+    def "Should restart the idle time when load comes back"() {
+        setup:
+        def sizer = new EndpointPoolSizer(1, 3, 8, 0, 100, TimeUnit.NANOSECONDS)
+
+        expect:
+        sizer.resize(2, 2, 0, 0, 0) == 2
+        sizer.resize(2, 2, 10, 0, 50) == 2
+        sizer.resize(2, 2, 0, 0, 100) == 2
+        sizer.resize(2, 2, 0, 0, 150) == 2
+        sizer.resize(2, 2, 0, 0, 200) == 1
+    }
+
+    def "Should not resize a pool which is not connected"() {
+        setup:
+        def sizer = new EndpointPoolSizer(1, 3, 8, 0, 0, TimeUnit.NANOSECONDS)
+
+        expect:
+        sizer.resize(2, 0, 0, 0, 0) == 2
+        sizer.resize(2, 0, 0, 0, 100) == 2
+    }
+
+    def "Should reject invalid bounds"() {
+        when:
+        new EndpointPoolSizer(min, max, grow, 0, 1, TimeUnit.SECONDS)
+
+        then:
+        thrown(IllegalArgumentException)
+
+        where:
+        min | max | grow
+        0   | 1   | 1
+        2   | 1   | 1
+        1   | 2   | 0
+    }
+}
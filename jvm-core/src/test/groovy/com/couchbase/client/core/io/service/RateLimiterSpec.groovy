@@ -0,0 +1,107 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.core.io.service
+
+import spock.lang.Specification
+
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+/**
+ * Verifies the functionality of the {@link RateLimiter} and the matching of {@link RateLimits}.
+ */
+class RateLimiterSpec extends Specification {
+
+    def second = TimeUnit.SECONDS.toNanos(1)
+
+    def "Should permit the burst and reject once empty"() {
+        setup:
+        def limiter = new RateLimiter(10, 3)
+        def now = System.nanoTime()
+
+        expect:
+        (1..3).collect { limiter.acquire(now) } == [0, 0, 0]
+        limiter.acquire(now) == -1
+        limiter.acquire(now + second.intdiv(10)) == 0
+        limiter.acquire(now + second.intdiv(10)) == -1
+        limiter.permitted() == 4
+        limiter.rejected() == 2
+    }
+
+    def "Should refill at the configured rate"() {
+        setup:
+        def limiter = new RateLimiter(100, 1)
+        def now = System.nanoTime()
+
+        expect:
+        (0..99).every { limiter.acquire(now + it * second.intdiv(100)) == 0 }
+        limiter.acquire(now + 99 * second.intdiv(100)) == -1
+    }
+
+    def "Should delay requests up to the maximum delay"() {
+        setup:
+        def limiter = new RateLimiter(RateLimiter.Mode.DELAY, 10, 1, 250, TimeUnit.MILLISECONDS)
+        def now = System.nanoTime()
+
+        expect:
+        limiter.acquire(now) == 0
+        limiter.acquire(now) == second.intdiv(10)
+        limiter.acquire(now) == 2 * second.intdiv(10)
+        limiter.acquire(now) == -1
+        limiter.delayed() == 2
+        limiter.rejected() == 1
+    }
+
+    def "Should apply the most specific limit"() {
+        setup:
+        def bucket = new RateLimiter(10, 1)
+        def tenant = new RateLimiter(10, 1)
+        def design = new RateLimiter(10, 1)
+        def limits = new RateLimits(Executors.newSingleThreadScheduledExecutor())
+            .limit("default", null, null, bucket)
+            .limit("default", null, "tenant", tenant)
+            .limit(null, ServiceType.DESIGN, null, design)
+
+        expect:
+        limits.isTagged()
+        limits.find("default", ServiceType.MEMCACHE, null).is(bucket)
+        limits.find("default", ServiceType.DESIGN, null).is(bucket)
+        limits.find("default", ServiceType.MEMCACHE, "tenant").is(tenant)
+        limits.find("other", ServiceType.DESIGN, "tenant").is(design)
+        limits.find("other", ServiceType.MEMCACHE, "tenant") == null
+    }
+
+    def "Should replace the limit for the same match"() {
+        setup:
+        def replaced = new RateLimiter(10, 1)
+        def limits = new RateLimits(null)
+            .limit("default", ServiceType.MEMCACHE, null, new RateLimiter(10, 1))
+            .limit("default", ServiceType.MEMCACHE, null, replaced)
+
+        expect:
+        !limits.isTagged()
+        limits.find("default", ServiceType.MEMCACHE, null).is(replaced)
+        limits.toString().count("RateLimiter") == 1
+    }
+
+}
@@ -0,0 +1,94 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.core.io.service
+
+import reactor.core.Environment
+import reactor.core.composable.spec.Promises
+import reactor.event.dispatch.SynchronousDispatcher
+import spock.lang.Specification
+
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+/**
+ * Verifies the parallel connect of a {@link ServiceBootstrap}.
+ */
+class ServiceBootstrapSpec extends Specification {
+
+    def env = new Environment()
+    def scheduler = Executors.newSingleThreadScheduledExecutor()
+    def bootstrap = new ServiceBootstrap(env, scheduler)
+
+    def cleanup() {
+        scheduler.shutdown()
+    }
+
+    def "Should connect all Services at once and report once all are connected"() {
+        setup:
+        def first = Mock(Service)
+        def second = Mock(Service)
+        def firstConnect = Promises.defer(env, new SynchronousDispatcher())
+        def secondConnect = Promises.defer(env, new SynchronousDispatcher())
+        first.state() >> ServiceState.CONNECTED
+        second.state() >> ServiceState.CONNECTED
+
+        when:
+        def promise = bootstrap.connect([first, second], 1, TimeUnit.HOURS)
+
+        then:
+        1 * first.connect() >> firstConnect.compose()
+        1 * second.connect() >> secondConnect.compose()
+        !promise.isComplete()
+
+        when:
+        firstConnect.accept(ServiceState.CONNECTED)
+        secondConnect.accept(ServiceState.CONNECTED)
+
+        then:
+        promise.await(5, TimeUnit.SECONDS) == [(first): ServiceState.CONNECTED, (second): ServiceState.CONNECTED]
+    }
+
+    def "Should report the current states once the deadline passed"() {
+        setup:
+        def fast = Mock(Service)
+        def slow = Mock(Service)
+        fast.connect() >> Promises.success(ServiceState.CONNECTED).get()
+        slow.connect() >> Promises.defer(env, new SynchronousDispatcher()).compose()
+        fast.state() >> ServiceState.CONNECTED
+        slow.state() >> ServiceState.CONNECTING
+
+        when:
+        def start = System.nanoTime()
+        def states = bootstrap.connect([fast, slow], 100, TimeUnit.MILLISECONDS).await(5, TimeUnit.SECONDS)
+
+        then:
+        states == [(fast): ServiceState.CONNECTED, (slow): ServiceState.CONNECTING]
+        System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100)
+    }
+
+    def "Should complete right away without Services"() {
+        expect:
+        bootstrap.connect([], 1, TimeUnit.HOURS).await(5, TimeUnit.SECONDS).isEmpty()
+    }
+
+}
@@ -0,0 +1,172 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.core.io.service
+
+import spock.lang.Specification
+
+import java.util.concurrent.CountDownLatch
+
+/**
+ * Verifies the lookup and lifecycle of the {@link ServiceRegistry}.
+ */
+class ServiceRegistrySpec extends Specification {
+
+    def node1 = new InetSocketAddress("127.0.0.1", 11210)
+    def node2 = new InetSocketAddress("127.0.0.2", 11210)
+    def created = []
+    def factory = { node, bucket, type ->
+        def service = Mock(Service)
+        created << [node, bucket, type, service]
+        service
+    } as ServiceFactory
+    def registry = new ServiceRegistry(factory)
+
+    def "Should create a memcache service per node and bucket on first use"() {
+        when:
+        def first = registry.locate(node1, "default", ServiceType.MEMCACHE)
+        def again = registry.locate(node1, "default", ServiceType.MEMCACHE)
+        def otherBucket = registry.locate(node1, "travel", ServiceType.MEMCACHE)
+        def otherNode = registry.locate(node2, "default", ServiceType.MEMCACHE)
+
+        then:
+        first.is(again)
+        !first.is(otherBucket)
+        !first.is(otherNode)
+        created*.take(3) == [[node1, "default", ServiceType.MEMCACHE], [node1, "travel", ServiceType.MEMCACHE],
+            [node2, "default", ServiceType.MEMCACHE]]
+        3 * _.connect()
+    }
+
+    def "Should share design services across buckets"() {
+        when:
+        def first = registry.locate(node1, "default", ServiceType.DESIGN)
+        def second = registry.locate(node1, "travel", ServiceType.DESIGN)
+        def noBucket = registry.locate(node1, null, ServiceType.DESIGN)
+
+        then:
+        first.is(second)
+        first.is(noBucket)
+        created.size() == 1
+        created[0][1] == null
+    }
+
+    def "Should create a service only once when located concurrently"() {
+        setup:
+        def start = new CountDownLatch(1)
+        def located = [].asSynchronized()
+
+        when:
+        def threads = (1..8).collect {
+            Thread.start {
+                start.await()
+                located << registry.locate(node1, "default", ServiceType.MEMCACHE)
+            }
+        }
+        start.countDown()
+        threads*.join()
+
+        then:
+        created.size() == 1
+        located.size() == 8
+        located.every { it.is(located[0]) }
+    }
+
+    def "Should need a bucket for memcache services"() {
+        when:
+        registry.locate(node1, null, ServiceType.MEMCACHE)
+
+        then:
+        thrown(IllegalArgumentException)
+        created.isEmpty()
+    }
+
+    def "Should only find existing services without creating them"() {
+        expect:
+        registry.get(node1, "default", ServiceType.MEMCACHE) == null
+
+        when:
+        def service = registry.locate(node1, "default", ServiceType.MEMCACHE)
+
+        then:
+        registry.get(node1, "default", ServiceType.MEMCACHE).is(service)
+        registry.get(node1, "travel", ServiceType.MEMCACHE) == null
+        registry.get(node1, "default", ServiceType.DESIGN) == null
+    }
+
+    def "Should keep services of open buckets while more buckets are opened"() {
+        setup:
+        def first = registry.locate(node1, "bucket0", ServiceType.MEMCACHE)
+
+        when:
+        (1..49).each { registry.locate(node1, "bucket" + it, ServiceType.MEMCACHE) }
+
+        then:
+        registry.get(node1, "bucket0", ServiceType.MEMCACHE).is(first)
+        registry.services().size() == 50
+    }
+
+    def "Should remove and disconnect the services of a closed bucket but keep the shared ones"() {
+        setup:
+        def memcache1 = registry.locate(node1, "default", ServiceType.MEMCACHE)
+        def memcache2 = registry.locate(node2, "default", ServiceType.MEMCACHE)
+        def other = registry.locate(node1, "travel", ServiceType.MEMCACHE)
+        def design = registry.locate(node1, "default", ServiceType.DESIGN)
+
+        when:
+        def removed = registry.removeBucket("default")
+
+        then:
+        removed as Set == [memcache1, memcache2] as Set
+        1 * memcache1.disconnect()
+        1 * memcache2.disconnect()
+        0 * other.disconnect()
+        0 * design.disconnect()
+        registry.get(node1, "default", ServiceType.MEMCACHE) == null
+        registry.get(node1, "travel", ServiceType.MEMCACHE).is(other)
+        registry.get(node1, "travel", ServiceType.DESIGN).is(design)
+
+        when:
+        def reopened = registry.locate(node1, "default", ServiceType.MEMCACHE)
+
+        then:
+        !reopened.is(memcache1)
+    }
+
+    def "Should remove and disconnect all services of a node"() {
+        setup:
+        def memcache = registry.locate(node1, "default", ServiceType.MEMCACHE)
+        def design = registry.locate(node1, "default", ServiceType.DESIGN)
+        def otherNode = registry.locate(node2, "default", ServiceType.MEMCACHE)
+
+        when:
+        def removed = registry.removeNode(node1)
+
+        then:
+        removed as Set == [memcache, design] as Set
+        1 * memcache.disconnect()
+        1 * design.disconnect()
+        0 * otherNode.disconnect()
+        registry.services() == [otherNode]
+        registry.removeNode(node1).isEmpty()
+    }
+}
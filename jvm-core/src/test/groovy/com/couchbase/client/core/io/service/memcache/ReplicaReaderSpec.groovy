@@ -0,0 +1,297 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.core.io.service.memcache
+
+import com.couchbase.client.core.CouchbaseException
+import com.couchbase.client.core.KeyNotFoundException
+import com.couchbase.client.core.RequestTimeoutException
+import com.couchbase.client.core.io.endpoint.spec.EndpointSpec
+import com.couchbase.client.core.io.service.AbstractService
+import com.couchbase.client.core.io.service.Service
+import com.couchbase.client.core.io.service.ServiceNotConnectedException
+import com.couchbase.client.core.io.service.ServiceType
+import com.couchbase.client.core.message.request.memcache.MemcacheRequest
+import com.couchbase.client.core.message.request.memcache.NoopRequest
+import com.couchbase.client.core.message.response.memcache.GetResponse
+import com.couchbase.client.core.message.response.memcache.MemcacheResponse
+import com.couchbase.client.core.message.response.memcache.ObserveResponse
+import com.couchbase.client.core.mock.MockServer
+import io.netty.buffer.Unpooled
+import io.netty.channel.nio.NioEventLoopGroup
+import reactor.core.Environment
+import reactor.core.composable.spec.Promises
+import reactor.event.Event
+import reactor.event.dispatch.SynchronousDispatcher
+import spock.lang.Specification
+
+import java.util.concurrent.TimeUnit
+
+/**
+ * Verifies the hedging, fan-out and durability behavior of the {@link ReplicaReader}.
+ */
+class ReplicaReaderSpec extends Specification {
+
+    def env = new Environment()
+    def group = new NioEventLoopGroup(2)
+    def activeServer = new MockServer(group).start()
+    def replicaServer = new MockServer(group).start()
+    def active = new TestService(new EndpointSpec(env, activeServer.memcacheAddress(), ServiceType.MEMCACHE)
+        .setEventLoopGroup(group), env)
+    def replica = new TestService(new EndpointSpec(env, replicaServer.memcacheAddress(), ServiceType.MEMCACHE)
+        .setEventLoopGroup(group), env)
+    def reader = new ReplicaReader(env, group, 95, 10, 1000, TimeUnit.MILLISECONDS)
+
+    def setup() {
+        active.connect()
+        replica.connect()
+        awaitConnected(active)
+        awaitConnected(replica)
+    }
+
+    def cleanup() {
+        active.disconnect()
+        replica.disconnect()
+        activeServer.stop()
+        replicaServer.stop()
+        group.shutdownGracefully()
+    }
+
+    def "Should not hedge when the active node answers in time"() {
+        when:
+        def response = reader.hedgedGet("key", active, [replica]).await(5, TimeUnit.SECONDS)
+
+        then:
+        response instanceof GetResponse
+        reader.hedgesSent() == 0
+        reader.hedgesWon() == 0
+    }
+
+    def "Should hedge to a replica when the active node is slow"() {
+        setup:
+        activeServer.setLatency(300, TimeUnit.MILLISECONDS)
+
+        when:
+        def start = System.nanoTime()
+        def response = reader.hedgedGet("key", active, [replica]).await(5, TimeUnit.SECONDS)
+        def took = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+
+        then:
+        response instanceof GetResponse
+        took < 250
+        reader.hedgesSent() == 1
+        reader.hedgesWon() == 1
+    }
+
+    def "Should release the content of the reply which lost the hedge"() {
+        setup:
+        def slowActive = Mock(Service)
+        def fastReplica = Mock(Service)
+        def activeReply = Promises.defer(env, new SynchronousDispatcher())
+        def activeResponse = new GetResponse(Unpooled.buffer(8).writeLong(1), 0, 0)
+        def replicaResponse = new GetResponse(Unpooled.buffer(8).writeLong(2), 0, 0)
+        slowActive.sendAndReceive(_) >> activeReply.compose()
+        fastReplica.sendAndReceive(_) >> Promises.success(replicaResponse).get()
+        def hedging = new ReplicaReader(env, group, 95, 1, 1, TimeUnit.MILLISECONDS)
+
+        when:
+        def response = hedging.hedgedGet("key", slowActive, [fastReplica]).await(5, TimeUnit.SECONDS)
+        activeReply.accept(activeResponse)
+
+        then:
+        response.is(replicaResponse)
+        replicaResponse.content().refCnt() == 1
+        activeResponse.content().refCnt() == 0
+
+        cleanup:
+        replicaResponse.content().release()
+    }
+
+    def "Should hedge right away when the active node is not connected"() {
+        setup:
+        active.disconnect()
+        sleep(100)
+
+        when:
+        def response = reader.hedgedGet("key", active, [replica]).await(5, TimeUnit.SECONDS)
+
+        then:
+        response instanceof GetResponse
+        reader.hedgesSent() == 1
+        reader.hedgesWon() == 1
+    }
+
+    def "Should not hedge a miss on the active node"() {
+        setup:
+        def missingActive = Mock(Service)
+        def laggingReplica = Mock(Service)
+        def activeReply = Promises.defer(env, new SynchronousDispatcher())
+        missingActive.sendAndReceive(_) >> activeReply.compose()
+        def hedging = new ReplicaReader(env, group, 95, 20, 20, TimeUnit.MILLISECONDS)
+
+        when:
+        def promise = hedging.hedgedGet("key", missingActive, [laggingReplica])
+        activeReply.accept(KeyNotFoundException.instance())
+        sleep(50)
+        promise.await(5, TimeUnit.SECONDS)
+
+        then:
+        thrown(KeyNotFoundException)
+        0 * laggingReplica.sendAndReceive(_)
+        hedging.hedgesSent() == 0
+    }
+
+    def "Should aggregate replica gets according to the ReplicaMode"() {
+        when:
+        def all = reader.getFromReplicas("key", [replica, active], ReplicaMode.ALL).await(5, TimeUnit.SECONDS)
+        def first = reader.getFromReplicas("key", [replica, active], ReplicaMode.FIRST).await(5, TimeUnit.SECONDS)
+
+        then:
+        all.size() == 2
+        all.every { it instanceof GetResponse }
+        first.size() == 1
+    }
+
+    def "Should release the content of the replica gets which did not answer first"() {
+        setup:
+        def responses = (1..3).collect { new GetResponse(Unpooled.buffer(8).writeLong(it), 0, 0) }
+        def replicas = responses.collect { response ->
+            def service = Mock(Service)
+            service.sendAndReceive(_) >> Promises.success(response).get()
+            service
+        }
+
+        when:
+        def first = reader.getFromReplicas("key", replicas, ReplicaMode.FIRST).await(5, TimeUnit.SECONDS)
+
+        then:
+        first == [responses[0]]
+        responses*.content()*.refCnt() == [1, 0, 0]
+
+        cleanup:
+        responses[0].content().release()
+    }
+
+    def "Should complete with the answering replicas when others are not connected"() {
+        setup:
+        active.disconnect()
+        sleep(100)
+
+        when:
+        def all = reader.getFromReplicas("key", [active, replica], ReplicaMode.ALL).await(5, TimeUnit.SECONDS)
+
+        then:
+        all.size() == 1
+    }
+
+    def "Should observe the active node and all replicas"() {
+        setup:
+        activeServer.setObserveState((byte) 0x01, 42)
+        replicaServer.setObserveState((byte) 0x00, 42)
+
+        when:
+        def states = reader.observe("key", active, [replica], ReplicaMode.ALL).await(5, TimeUnit.SECONDS)
+
+        then:
+        states.size() == 2
+        states[0].isActive()
+        states[0].state() == ObserveResponse.KeyState.FOUND_PERSISTED
+        states[0].cas() == 42
+        states[1].replica() == 1
+        states[1].state() == ObserveResponse.KeyState.FOUND_NOT_PERSISTED
+    }
+
+    def "Should complete the durability check once the requirements are met"() {
+        setup:
+        activeServer.setObserveState((byte) 0x01, 42)
+        replicaServer.setObserveState((byte) 0x80, 0)
+
+        when:
+        def promise = reader.awaitDurability("key", 42, 1, 1, active, [replica], 5, TimeUnit.SECONDS)
+        sleep(50)
+        replicaServer.setObserveState((byte) 0x00, 42)
+        def states = promise.await(5, TimeUnit.SECONDS)
+
+        then:
+        states.size() == 2
+    }
+
+    def "Should fail the durability check when it times out"() {
+        setup:
+        replicaServer.setObserveState((byte) 0x80, 0)
+
+        when:
+        def promise = reader.awaitDurability("key", 0, 1, 1, active, [replica], 100, TimeUnit.MILLISECONDS)
+        promise.await(5, TimeUnit.SECONDS)
+
+        then:
+        thrown(RequestTimeoutException)
+    }
+
+    def "Should fail the durability check when the document changed on the active node"() {
+        setup:
+        activeServer.setObserveState((byte) 0x00, 43)
+
+        when:
+        def promise = reader.awaitDurability("key", 42, 1, 0, active, [replica], 5, TimeUnit.SECONDS)
+        promise.await(5, TimeUnit.SECONDS)
+
+        then:
+        def e = thrown(CouchbaseException)
+        e.message == "Document key has been modified concurrently"
+    }
+
+    def "Should reject durability requirements beyond the configured replicas"() {
+        when:
+        reader.awaitDurability("key", 0, 3, 0, active, [replica], 5, TimeUnit.SECONDS)
+
+        then:
+        thrown(IllegalArgumentException)
+    }
+
+    def awaitConnected(service) {
+        def deadline = System.currentTimeMillis() + 5000
+        while (System.currentTimeMillis() < deadline) {
+            try {
+                service.sendAndReceive(Event.wrap(new NoopRequest())).await(5, TimeUnit.SECONDS)
+                return
+            } catch (ServiceNotConnectedException ex) {
+                sleep(10)
+            }
+        }
+    }
+
+    /**
+     * A memcache service backed by real endpoints.
+     */
+    class TestService extends AbstractService<MemcacheRequest, MemcacheResponse> {
+
+        TestService(EndpointSpec spec, Environment env) {
+            super(spec, 1, env)
+        }
+
+        @Override
+        protected ServiceType serviceType() {
+            return ServiceType.MEMCACHE
+        }
+    }
+}
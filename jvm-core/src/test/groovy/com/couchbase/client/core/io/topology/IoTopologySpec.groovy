@@ -0,0 +1,104 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.core.io.topology
+
+import spock.lang.Specification
+
+/**
+ * Verifies the functionality of the {@link IoTopology}.
+ */
+class IoTopologySpec extends Specification {
+
+    def topology = new IoTopology(4)
+
+    def cleanup() {
+        topology.shutdown()
+    }
+
+    def "Should pin endpoints of the same node and partition to the same loop"() {
+        when:
+        def memcachePin = topology.pin(new InetSocketAddress("127.0.0.1", 11210), 1)
+        def designPin = topology.pin(new InetSocketAddress("127.0.0.1", 8092), 1)
+
+        then:
+        memcachePin.is(designPin)
+        memcachePin.next().is(designPin.next())
+        topology.load()[memcachePin.loopIndex()].endpoints() == 2
+    }
+
+    def "Should spread different partitions across loops"() {
+        when:
+        def pins = (0..3).collect { topology.pin(new InetSocketAddress("127.0.0.1", 11210), it) }
+
+        then:
+        pins*.loopIndex().toSet().size() == 4
+        topology.load()*.endpoints() == [1, 1, 1, 1]
+    }
+
+    def "Should release pins"() {
+        setup:
+        def pin = topology.pin(new InetSocketAddress("127.0.0.1", 11210), 1)
+
+        when:
+        topology.release(pin)
+
+        then:
+        topology.load()*.endpoints() == [0, 0, 0, 0]
+    }
+
+    def "Should take a released pin again"() {
+        setup:
+        def pin = topology.pin(new InetSocketAddress("127.0.0.1", 11210), 1)
+        topology.release(pin)
+
+        when:
+        topology.retain(pin)
+
+        then:
+        topology.load()[pin.loopIndex()].endpoints() == 1
+        topology.pin(new InetSocketAddress("127.0.0.1", 8092), 1).is(pin)
+    }
+
+    def "Should move the hottest pin away from the busiest loop on rebalance"() {
+        setup:
+        def pins = (0..4).collect { topology.pin(new InetSocketAddress("127.0.0.1", 11210), it) }
+        def busyLoop = pins[0].loopIndex()
+        def hot = pins.findAll { it.loopIndex() == busyLoop }
+        hot[0].recordOperations(1000)
+        hot[1].recordOperations(500)
+
+        when:
+        def moved = topology.rebalance()
+
+        then:
+        moved
+        hot[0].loopIndex() != busyLoop
+        hot[1].loopIndex() == busyLoop
+
+        when:
+        def movedAgain = topology.rebalance()
+
+        then:
+        !movedAgain
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.core.trace
+
+import com.couchbase.client.core.io.service.ServiceType
+import com.couchbase.client.core.message.request.design.GetDesignDocumentRequest
+import com.couchbase.client.core.message.request.memcache.GetRequest
+import com.couchbase.client.core.message.request.memcache.UpsertRequest
+import io.netty.buffer.Unpooled
+import reactor.function.Consumer
+import spock.lang.Specification
+
+import java.util.concurrent.Executors
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+
+/**
+ * Verifies the functionality of the {@link SlowOperationDetector}.
+ */
+class SlowOperationDetectorSpec extends Specification {
+
+    def node1 = new InetSocketAddress("127.0.0.1", 11210)
+    def node2 = new InetSocketAddress("127.0.0.2", 11210)
+    def detector = new SlowOperationDetector(2)
+    def tracer = new Tracer(detector, 0, 1, TimeUnit.NANOSECONDS)
+
+    def "Should keep the slowest operations per endpoint and service"() {
+        when:
+        [1, 6, 2, 4].each { trace(new GetRequest("key" + it), node1, it * 10) }
+        trace(new GetDesignDocumentRequest("default", "design"), node1, 1)
+        trace(new GetRequest("other"), node2, 1)
+        def slowest = detector.snapshot()
+
+        then:
+        slowest.size() == 4
+        slowest[0].serviceType() == ServiceType.DESIGN
+        slowest[0].key() == "/default/_design/design"
+        slowest[1..2]*.key() == ["key6", "key4"]
+        slowest[1..2].every { it.remote() == node1 && it.operation() == "GetRequest" }
+        slowest[3].key() == "other"
+        slowest[3].remote() == node2
+    }
+
+    def "Should record sizes and the phase breakdown"() {
+        when:
+        trace(new UpsertRequest("key", Unpooled.wrappedBuffer(new byte[128])), node1, 1)
+        def operation = detector.snapshot()[0]
+
+        then:
+        operation.operation() == "UpsertRequest"
+        operation.requestBytes() == 128
+        operation.totalNanos() == TimeUnit.MILLISECONDS.toNanos(1)
+        operation.totalNanos() == operation.queueNanos() + operation.encodeNanos() + operation.flushNanos() +
+            operation.wireNanos() + operation.decodeNanos() + operation.deliveryNanos()
+    }
+
+    def "Should keep the key of a sampled request recycled before its span finished"() {
+        setup:
+        def sampling = new Tracer(detector, 1, 0, TimeUnit.NANOSECONDS)
+        def request = GetRequest.newInstance("key", null)
+        def span = sampling.start(request, node1)
+        span.wrapCallback({ request.recycle() } as Consumer)
+
+        when:
+        span.accept("response")
+        def operation = detector.snapshot()[0]
+
+        then:
+        request.key() == null
+        operation.key() == "key"
+        operation.operation() == "GetRequest"
+    }
+
+    def "Should start a new window when rolled"() {
+        setup:
+        trace(new GetRequest("key"), node1, 1)
+
+        expect:
+        detector.roll().size() == 1
+        detector.snapshot().isEmpty()
+    }
+
+    def "Should report periodically to the listener"() {
+        setup:
+        def reports = new LinkedBlockingQueue()
+        def scheduler = Executors.newSingleThreadScheduledExecutor()
+        def reporting = new SlowOperationDetector(2, { reports.offer(it) } as SlowOperationDetector.Listener)
+        new Tracer(reporting, 0, 1, TimeUnit.NANOSECONDS).reportSlow(new GetRequest("key"), node1, 0, 1, 2, 3, null)
+
+        when:
+        reporting.start(scheduler, 10, TimeUnit.MILLISECONDS)
+        def first = reports.poll(5, TimeUnit.SECONDS)
+        def second = reports.poll(5, TimeUnit.SECONDS)
+
+        then:
+        first*.key() == ["key"]
+        second.isEmpty()
+
+        cleanup:
+        reporting.stop()
+        scheduler.shutdown()
+    }
+
+    def trace(request, remote, millis) {
+        def writtenAt = System.nanoTime()
+        def decodedAt = writtenAt + TimeUnit.MILLISECONDS.toNanos(millis)
+        tracer.reportSlow(request, remote, Tracer.requestBytes(request), writtenAt, writtenAt + 1, decodedAt, null)
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.core.trace
+
+import reactor.function.Consumer
+import spock.lang.Specification
+
+import java.util.concurrent.TimeUnit
+
+/**
+ * Verifies the functionality of the {@link Tracer}.
+ */
+class TracerSpec extends Specification {
+
+    def reported = []
+    def sink = { span -> reported << span } as TraceSink
+
+    def "Should only trace every n-th request when sampling"() {
+        setup:
+        def tracer = new Tracer(sink, 3, 0, TimeUnit.SECONDS)
+
+        when:
+        def spans = (1..9).collect { tracer.start("request", null) }
+        spans.findAll { it != null }.each { it.completion().accept(null) }
+
+        then:
+        spans.count { it != null } == 3
+        reported.size() == 3
+        reported.every { it.sampled() }
+    }
+
+    def "Should only report requests over the threshold, without tracing them from the start"() {
+        setup:
+        def tracer = new Tracer(sink, 0, 10, TimeUnit.MILLISECONDS)
+        def writtenAt = System.nanoTime()
+        def receivedAt = writtenAt + TimeUnit.MILLISECONDS.toNanos(15)
+        def decodedAt = writtenAt + TimeUnit.MILLISECONDS.toNanos(20)
+
+        expect:
+        tracer.start("request", null) == null
+        !tracer.isSlow(TimeUnit.MILLISECONDS.toNanos(5))
+        tracer.isSlow(TimeUnit.MILLISECONDS.toNanos(20))
+
+        when:
+        tracer.reportSlow("slow", null, 128, writtenAt, receivedAt, decodedAt, null)
+
+        then:
+        reported.size() == 1
+        reported[0].request() == "slow"
+        !reported[0].sampled()
+        reported[0].requestBytes() == 128
+        reported[0].totalNanos() == TimeUnit.MILLISECONDS.toNanos(20)
+        reported[0].wireNanos() == TimeUnit.MILLISECONDS.toNanos(15)
+        reported[0].decodeNanos() == TimeUnit.MILLISECONDS.toNanos(5)
+    }
+
+    def "Should fold missing marks into the following phase"() {
+        setup:
+        def span = new Tracer(sink, 1, 0, TimeUnit.SECONDS).start("request", null)
+        def reply = []
+        span.wrapReply({ reply << it } as Consumer)
+
+        when:
+        span.markWritten()
+        span.markEncoded()
+        sleep(5)
+        span.accept("response")
+        span.completion().accept(null)
+
+        then:
+        reply == ["response"]
+        span.flushNanos() == 0
+        span.wireNanos() == 0
+        span.decodeNanos() >= TimeUnit.MILLISECONDS.toNanos(5)
+        span.totalNanos() == span.queueNanos() + span.encodeNanos() + span.decodeNanos() + span.deliveryNanos()
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.client.core.transcoder
+
+import io.netty.buffer.Unpooled
+import io.netty.util.CharsetUtil
+import spock.lang.Specification
+
+/**
+ * Verifies the functionality of the {@link JsonTranscoder}.
+ */
+class JsonTranscoderSpec extends Specification {
+
+    def transcoder = JsonTranscoder.INSTANCE
+
+    def "Should encode a document straight into the buffer"() {
+        setup:
+        def buffer = Unpooled.buffer()
+        def document = [name: "couch\"base", tags: ["a", "b"], nested: [count: 42, ratio: 0.5, ok: true, none: null]]
+
+        when:
+        transcoder.encode(document, buffer)
+
+        then:
+        buffer.toString(CharsetUtil.UTF_8) ==
+            '{"name":"couch\\"base","tags":["a","b"],"nested":{"count":42,"ratio":0.5,"ok":true,"none":null}}'
+    }
+
+    def "Should escape control characters and write non-ASCII characters as UTF-8"() {
+        setup:
+        def buffer = Unpooled.buffer()
+        def text = "tab\tline\nbell\u0007 café € 😀"
+
+        when:
+        transcoder.encode(text, buffer)
+
+        then:
+        buffer.toString(CharsetUtil.UTF_8) == '"tab\\tline\\nbell\\u0007 café € 😀"'
+        transcoder.decode(buffer) == text
+    }
+
+    def "Should decode a document in place"() {
+        setup:
+        def json = ' { "a" : [1, -2, 3.5e2, 12345678901234567890], "b": {"c": false, "d": null}, "e": "x\\u0041\\/" } '
+        def buffer = Unpooled.copiedBuffer(json, CharsetUtil.UTF_8)
+
+        when:
+        def document = transcoder.decode(buffer)
+
+        then:
+        document == [a: [1L, -2L, 350.0d, new BigInteger("12345678901234567890")], b: [c: false, d: null], e: "xA/"]
+        document.a[0] instanceof Long
+        buffer.readableBytes() == json.length()
+    }
+
+    def "Should round trip what it encodes"() {
+        setup:
+        def buffer = Unpooled.buffer()
+        def document = [list: [[], [:], [1, [2, [3]]]], text: "über \"quoted\" \\ back", long: Long.MAX_VALUE]
+
+        when:
+        transcoder.encode(document, buffer)
+
+        then:
+        transcoder.decode(buffer) == document
+    }
+
+    def "Should reject invalid documents"() {
+        when:
+        transcoder.decode(Unpooled.copiedBuffer(json, CharsetUtil.UTF_8))
+
+        then:
+        thrown(TranscodingException)
+
+        where:
+        json << ['{"a":1', '[1,2', '{"a" 1}', 'tru', '"open', '{"a":1} x', '', '[1,]', '"\\q"']
+    }
+
+    def "Should reject values that have no JSON representation"() {
+        when:
+        transcoder.encode(value, Unpooled.buffer())
+
+        then:
+        thrown(TranscodingException)
+
+        where:
+        value << [new Object(), Double.NaN, [a: Double.POSITIVE_INFINITY]]
+    }
+}
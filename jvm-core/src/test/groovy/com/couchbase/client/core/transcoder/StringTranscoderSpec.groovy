@@ -0,0 +1,51 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.client.core.transcoder
+
+import io.netty.buffer.Unpooled
+import io.netty.util.CharsetUtil
+import spock.lang.Specification
+
+/**
+ * Verifies the functionality of the {@link StringTranscoder}.
+ */
+class StringTranscoderSpec extends Specification {
+
+    def transcoder = StringTranscoder.INSTANCE
+
+    def "Should encode strings like the UTF-8 charset does"() {
+        setup:
+        def buffer = Unpooled.buffer()
+
+        when:
+        transcoder.encode(text, buffer)
+
+        then:
+        transcoder.estimateSize(text) == text.getBytes(CharsetUtil.UTF_8).length
+        buffer.readableBytes() == text.getBytes(CharsetUtil.UTF_8).length
+        buffer.array()[0..<buffer.readableBytes()] == text.getBytes(CharsetUtil.UTF_8) as List
+        transcoder.decode(buffer) == new String(text.getBytes(CharsetUtil.UTF_8), CharsetUtil.UTF_8)
+
+        where:
+        text << ["", "ascii", "café", "€100", "smile 😀", "broken \ud83d surrogate", "\ude00"]
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package com.couchbase.client.core.util
+
+import spock.lang.Specification
+
+/**
+ * Verifies the functionality of the {@link LatencyHistogram}.
+ */
+class LatencyHistogramSpec extends Specification {
+
+    def histogram = new LatencyHistogram()
+
+    def "Should record small values exactly"() {
+        when:
+        (1..50).each { histogram.record(it) }
+
+        then:
+        histogram.count() == 50
+        histogram.percentile(50) == 25
+        histogram.percentile(100) == 50
+        histogram.max() == 50
+    }
+
+    def "Should stay within the relative error bound for large values"() {
+        when:
+        histogram.record(123456789)
+
+        then:
+        def p = histogram.percentile(100)
+        p >= 123456789
+        (p - 123456789) / 123456789 < 1 / 32
+    }
+
+    def "Should backfill samples missed through coordinated omission"() {
+        when:
+        histogram.recordWithExpectedInterval(1000, 100)
+
+        then:
+        histogram.count() == 10
+        histogram.percentile(10) < 200
+        histogram.max() == 1000
+    }
+
+    def "Should merge and reset histograms"() {
+        setup:
+        def other = new LatencyHistogram()
+        other.record(10)
+        histogram.record(20)
+
+        when:
+        histogram.add(other)
+
+        then:
+        histogram.count() == 2
+        histogram.percentile(50) == 10
+
+        when:
+        histogram.reset()
+
+        then:
+        histogram.count() == 0
+        histogram.max() == 0
+    }
+}
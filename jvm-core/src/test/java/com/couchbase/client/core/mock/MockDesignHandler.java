@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.client.core.mock;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+
+/**
+ * Answers design document HTTP requests.
+ *
+ * Every design document exists and its body is a JSON document of roughly the configured value size. Injected
+ * NOT_MY_VBUCKET and TMPFAIL errors map to HTTP 500 and 503 respectively.
+ */
+class MockDesignHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
+
+    private final MockResponder responder;
+
+    MockDesignHandler(final MockServer server) {
+        responder = new MockResponder(server);
+    }
+
+    @Override
+    protected void messageReceived(ChannelHandlerContext ctx, FullHttpRequest request) throws Exception {
+        MockResponder.Outcome outcome = responder.nextOutcome();
+        if (outcome == MockResponder.Outcome.DROP) {
+            responder.drop(ctx);
+            return;
+        }
+
+        HttpResponseStatus status = HttpResponseStatus.OK;
+        if (outcome == MockResponder.Outcome.NOT_MY_VBUCKET) {
+            status = HttpResponseStatus.INTERNAL_SERVER_ERROR;
+        } else if (outcome == MockResponder.Outcome.TMPFAIL) {
+            status = HttpResponseStatus.SERVICE_UNAVAILABLE;
+        }
+
+        ByteBuf content = Unpooled.EMPTY_BUFFER;
+        if (status == HttpResponseStatus.OK && !HttpMethod.HEAD.equals(request.getMethod())) {
+            byte[] payload = responder.payload();
+            content = ctx.alloc().buffer(payload.length + 16);
+            content.writeBytes("{\"views\":\"".getBytes("UTF-8")).writeBytes(payload).writeBytes("\"}".getBytes("UTF-8"));
+        }
+
+        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status, content);
+        HttpHeaders.setContentLength(response, content.readableBytes());
+        responder.respond(ctx, response);
+    }
+}
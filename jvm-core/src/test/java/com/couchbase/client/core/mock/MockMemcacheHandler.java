@@ -0,0 +1,211 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.client.core.mock;
+
+import com.couchbase.client.core.io.endpoint.memcache.MemcacheCodec;
+import com.couchbase.client.core.io.endpoint.memcache.SaslMechanism;
+import com.couchbase.client.core.io.endpoint.memcache.ScramKeys;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.base64.Base64;
+import io.netty.handler.codec.compression.Snappy;
+import io.netty.handler.codec.memcache.binary.BinaryMemcacheOpcodes;
+import io.netty.handler.codec.memcache.binary.BinaryMemcacheResponseHeader;
+import io.netty.handler.codec.memcache.binary.DefaultBinaryMemcacheResponseHeader;
+import io.netty.handler.codec.memcache.binary.DefaultFullBinaryMemcacheResponse;
+import io.netty.handler.codec.memcache.binary.FullBinaryMemcacheRequest;
+import io.netty.util.CharsetUtil;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * Answers binary memcache requests.
+ *
+ * Get-like opcodes return a value of the configured size (with 4 bytes of flags as extras, Snappy compressed if
+ * configured), observe returns the configured key state, every other opcode is acknowledged with an empty successful
+ * response. If the server requires credentials, SASL PLAIN and SCRAM are answered and every other request is
+ * rejected with AUTH_ERROR until the connection is authenticated.
+ */
+class MockMemcacheHandler extends SimpleChannelInboundHandler<FullBinaryMemcacheRequest> {
+
+    private static final byte OPCODE_SASL_LIST_MECHS = 0x20;
+    private static final byte OPCODE_SASL_AUTH = 0x21;
+    private static final byte OPCODE_SASL_STEP = 0x22;
+    private static final int SCRAM_ITERATIONS = 4096;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final MockServer server;
+    private final MockResponder responder;
+    private final Snappy snappy = new Snappy();
+    private final byte[] salt = new byte[16];
+    private boolean authenticated;
+    private SaslMechanism scramMechanism;
+    private String clientFirstBare;
+    private String serverFirst;
+
+    MockMemcacheHandler(final MockServer server) {
+        this.server = server;
+        responder = new MockResponder(server);
+        RANDOM.nextBytes(salt);
+    }
+
+    @Override
+    protected void messageReceived(ChannelHandlerContext ctx, FullBinaryMemcacheRequest request) throws Exception {
+        byte opcode = request.getHeader().getOpcode();
+        if (opcode == OPCODE_SASL_LIST_MECHS || opcode == OPCODE_SASL_AUTH || opcode == OPCODE_SASL_STEP) {
+            sasl(ctx, request);
+            return;
+        }
+        if (server.username() != null && !authenticated) {
+            respond(ctx, request, MockServer.AUTH_ERROR, null);
+            return;
+        }
+
+        MockResponder.Outcome outcome = responder.nextOutcome();
+        if (outcome == MockResponder.Outcome.DROP) {
+            responder.drop(ctx);
+            return;
+        }
+
+        BinaryMemcacheResponseHeader header = new DefaultBinaryMemcacheResponseHeader();
+        header.setOpcode(opcode);
+        header.setOpaque(request.getHeader().getOpaque());
+
+        ByteBuf extras = Unpooled.EMPTY_BUFFER;
+        ByteBuf content = Unpooled.EMPTY_BUFFER;
+        if (outcome == MockResponder.Outcome.NOT_MY_VBUCKET) {
+            header.setStatus(MockServer.NOT_MY_VBUCKET);
+        } else if (outcome == MockResponder.Outcome.TMPFAIL) {
+            header.setStatus(MockServer.TMPFAIL);
+        } else if (isGet(opcode)) {
+            byte[] payload = responder.payload();
+            // Unpooled since the encoder does not release the extras.
+            extras = Unpooled.copyInt(server.flags());
+            content = ctx.alloc().buffer(payload.length).writeBytes(payload);
+            if (server.compressValues()) {
+                ByteBuf compressed = ctx.alloc().buffer(payload.length);
+                snappy.encode(content, compressed, payload.length);
+                snappy.reset();
+                content.release();
+                content = compressed;
+                header.setDataType(MemcacheCodec.DATATYPE_SNAPPY);
+            }
+        } else if (opcode == MemcacheCodec.OPCODE_OBSERVE) {
+            ByteBuf body = request.content();
+            int keyLength = body.getUnsignedShort(body.readerIndex() + 2);
+            content = ctx.alloc().buffer(13 + keyLength);
+            content.writeBytes(body, body.readerIndex(), 4 + keyLength);
+            content.writeByte(server.observeState());
+            content.writeLong(server.observeCas());
+        }
+
+        header.setExtrasLength((byte) extras.readableBytes());
+        header.setTotalBodyLength(extras.readableBytes() + content.readableBytes());
+        responder.respond(ctx, new DefaultFullBinaryMemcacheResponse(header, null, extras, content));
+    }
+
+    private void sasl(final ChannelHandlerContext ctx, final FullBinaryMemcacheRequest request) {
+        String value = request.content().toString(CharsetUtil.UTF_8);
+        switch (request.getHeader().getOpcode()) {
+            case OPCODE_SASL_LIST_MECHS:
+                respond(ctx, request, (short) 0, server.saslMechanisms());
+                break;
+            case OPCODE_SASL_AUTH:
+                if ("PLAIN".equals(request.getKey())) {
+                    boolean valid = value.equals('\0' + server.username() + '\0' + server.password());
+                    authenticated = valid;
+                    if (valid) {
+                        server.authenticated();
+                    }
+                    respond(ctx, request, valid ? 0 : MockServer.AUTH_ERROR, null);
+                    return;
+                }
+                scramMechanism = scramMechanism(request.getKey());
+                clientFirstBare = value.substring(3);
+                String clientNonce = clientFirstBare.substring(clientFirstBare.indexOf(",r=") + 3);
+                if (scramMechanism == null || !clientFirstBare.startsWith("n=" + server.username() + ",")) {
+                    respond(ctx, request, MockServer.AUTH_ERROR, null);
+                    return;
+                }
+                serverFirst = "r=" + clientNonce + Long.toHexString(RANDOM.nextLong()) + ",s=" + base64(salt)
+                    + ",i=" + SCRAM_ITERATIONS;
+                respond(ctx, request, MockServer.AUTH_CONTINUE, serverFirst);
+                break;
+            case OPCODE_SASL_STEP:
+                int proofStart = value.lastIndexOf(",p=");
+                String authMessage = clientFirstBare + "," + serverFirst + "," + value.substring(0, proofStart);
+                ScramKeys keys = ScramKeys.derive(scramMechanism, server.password(), salt, SCRAM_ITERATIONS);
+                if (!Arrays.equals(keys.clientProof(authMessage), unbase64(value.substring(proofStart + 3)))) {
+                    respond(ctx, request, MockServer.AUTH_ERROR, null);
+                    return;
+                }
+                authenticated = true;
+                server.authenticated();
+                respond(ctx, request, (short) 0, "v=" + base64(keys.serverSignature(authMessage)));
+                break;
+        }
+    }
+
+    private void respond(final ChannelHandlerContext ctx, final FullBinaryMemcacheRequest request, final short status,
+        final String value) {
+        ByteBuf content = value == null ? Unpooled.EMPTY_BUFFER : Unpooled.copiedBuffer(value, CharsetUtil.UTF_8);
+        BinaryMemcacheResponseHeader header = new DefaultBinaryMemcacheResponseHeader();
+        header.setOpcode(request.getHeader().getOpcode());
+        header.setOpaque(request.getHeader().getOpaque());
+        header.setStatus(status);
+        header.setTotalBodyLength(content.readableBytes());
+        responder.respond(ctx, new DefaultFullBinaryMemcacheResponse(header, null, Unpooled.EMPTY_BUFFER, content));
+    }
+
+    private static SaslMechanism scramMechanism(final String name) {
+        for (SaslMechanism mechanism : SaslMechanism.values()) {
+            if (mechanism.isScram() && mechanism.saslName().equals(name)) {
+                return mechanism;
+            }
+        }
+        return null;
+    }
+
+    private static String base64(final byte[] data) {
+        ByteBuf encoded = Base64.encode(Unpooled.wrappedBuffer(data), false);
+        String result = encoded.toString(CharsetUtil.UTF_8);
+        encoded.release();
+        return result;
+    }
+
+    private static byte[] unbase64(final String data) {
+        ByteBuf decoded = Base64.decode(Unpooled.copiedBuffer(data, CharsetUtil.UTF_8));
+        byte[] result = new byte[decoded.readableBytes()];
+        decoded.readBytes(result);
+        decoded.release();
+        return result;
+    }
+
+    private static boolean isGet(final byte opcode) {
+        return opcode == BinaryMemcacheOpcodes.GET || opcode == BinaryMemcacheOpcodes.GETQ
+            || opcode == BinaryMemcacheOpcodes.GETK || opcode == BinaryMemcacheOpcodes.GETKQ
+            || opcode == MemcacheCodec.OPCODE_GET_REPLICA;
+    }
+}
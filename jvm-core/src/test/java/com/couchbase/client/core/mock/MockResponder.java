@@ -0,0 +1,133 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.client.core.mock;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.util.ReferenceCountUtil;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides the fate of every request and writes responses in order, honoring the configured latency and jitter.
+ *
+ * One instance exists per connection and is only used from its event loop.
+ */
+class MockResponder {
+
+    /**
+     * What should happen with a request.
+     */
+    enum Outcome {
+        SUCCESS,
+        NOT_MY_VBUCKET,
+        TMPFAIL,
+        DROP
+    }
+
+    private final MockServer server;
+    private final Random random = new Random();
+    private long lastDue;
+    private byte[] payload = new byte[0];
+
+    MockResponder(final MockServer server) {
+        this.server = server;
+    }
+
+    /**
+     * Pick the outcome of the next request based on the configured error rates.
+     */
+    Outcome nextOutcome() {
+        double roll = random.nextDouble();
+        double threshold = server.dropRate();
+        if (roll < threshold) {
+            return Outcome.DROP;
+        }
+        threshold += server.notMyVbucketRate();
+        if (roll < threshold) {
+            return Outcome.NOT_MY_VBUCKET;
+        }
+        threshold += server.tmpFailRate();
+        if (roll < threshold) {
+            return Outcome.TMPFAIL;
+        }
+        return Outcome.SUCCESS;
+    }
+
+    /**
+     * Write the response after the configured delay, never overtaking a previously scheduled one.
+     */
+    void respond(final ChannelHandlerContext ctx, final Object response) {
+        long latency = server.latencyNanos();
+        long jitter = server.jitterNanos();
+        if (latency == 0 && jitter == 0) {
+            ctx.writeAndFlush(response);
+            return;
+        }
+
+        long now = System.nanoTime();
+        long delay = latency + (jitter > 0 ? (long) (random.nextDouble() * jitter) : 0);
+        long due = Math.max(now + delay, lastDue);
+        lastDue = due;
+        ctx.executor().schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (ctx.channel().isActive()) {
+                    ctx.writeAndFlush(response);
+                } else {
+                    ReferenceCountUtil.release(response);
+                }
+            }
+        }, due - now, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Close the connection, after the pending responses have been written.
+     */
+    void drop(final ChannelHandlerContext ctx) {
+        long delay = lastDue - System.nanoTime();
+        if (delay <= 0) {
+            ctx.close();
+            return;
+        }
+        ctx.executor().schedule(new Runnable() {
+            @Override
+            public void run() {
+                ctx.close();
+            }
+        }, delay, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns a payload of the configured value size, only recreated when the size changes.
+     */
+    byte[] payload() {
+        int size = server.valueSize();
+        if (payload.length != size) {
+            payload = new byte[size];
+            for (int i = 0; i < size; i++) {
+                payload[i] = (byte) ('a' + (i % 26));
+            }
+        }
+        return payload;
+    }
+}
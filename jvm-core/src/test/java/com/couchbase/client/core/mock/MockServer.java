@@ -0,0 +1,488 @@
+/**
+ * Copyright (C) 2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+package com.couchbase.client.core.mock;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.memcache.binary.BinaryMemcacheObjectAggregator;
+import io.netty.handler.codec.memcache.binary.BinaryMemcacheServerCodec;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.GenericFutureListener;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An in-process server which speaks the binary memcache protocol and the design document HTTP API.
+ *
+ * It is meant to drive endpoints over real sockets on a dev box or in CI, without a cluster. Every response can be
+ * delayed by a fixed latency plus random jitter, and errors (NOT_MY_VBUCKET, TMPFAIL, connection drops) can be
+ * injected with a configurable probability. Responses on the same connection are always sent in request order,
+ * regardless of the jitter. Memcache connections can be required to authenticate with SASL PLAIN or SCRAM first,
+ * and both ports can be served over TLS with the self-signed certificate of {@link #keyStore()}.
+ *
+ * All settings can be changed while the server is running.
+ */
+public class MockServer {
+
+    /**
+     * Binary memcache status for a request sent to the wrong node.
+     */
+    public static final short NOT_MY_VBUCKET = 0x0007;
+
+    /**
+     * Binary memcache status for a temporary failure.
+     */
+    public static final short TMPFAIL = 0x0086;
+
+    /**
+     * Binary memcache status for rejected credentials.
+     */
+    public static final short AUTH_ERROR = 0x0020;
+
+    /**
+     * Binary memcache status asking for the next step of a SASL exchange.
+     */
+    public static final short AUTH_CONTINUE = 0x0021;
+
+    /**
+     * Password of the bundled key stores and of the keys inside.
+     */
+    private static final char[] KEY_STORE_PASSWORD = "password".toCharArray();
+
+    /**
+     * The bundled key store with a certificate for localhost and 127.0.0.1.
+     */
+    public static final String KEY_STORE = "/mock-server.jks";
+
+    /**
+     * A bundled key store with a certificate for wrong.example, which does not match the address of the server.
+     */
+    public static final String WRONG_HOST_KEY_STORE = "/wrong-host.jks";
+
+    private static final Map<String, SSLContext> serverContexts = new HashMap<String, SSLContext>();
+
+    private final EventLoopGroup group;
+    private final boolean ownsGroup;
+    private volatile long latencyNanos;
+    private volatile long jitterNanos;
+    private volatile double notMyVbucketRate;
+    private volatile double tmpFailRate;
+    private volatile double dropRate;
+    private volatile int valueSize = 128;
+    private volatile byte observeState = 0x01;
+    private volatile long observeCas;
+    private volatile boolean compressValues;
+    private volatile int flags;
+    private volatile String username;
+    private volatile String password;
+    private volatile String saslMechanisms = "SCRAM-SHA512 SCRAM-SHA256 SCRAM-SHA1 PLAIN";
+    private final AtomicInteger authentications = new AtomicInteger();
+    private volatile boolean ssl;
+    private volatile String keyStore = KEY_STORE;
+    private final AtomicInteger tlsHandshakes = new AtomicInteger();
+    private final Set<String> tlsSessions = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private Channel memcacheChannel;
+    private Channel designChannel;
+
+    /**
+     * Create a new {@link MockServer} with its own {@link EventLoopGroup}.
+     */
+    public MockServer() {
+        this(new NioEventLoopGroup(), true);
+    }
+
+    /**
+     * Create a new {@link MockServer} on the given {@link EventLoopGroup}.
+     *
+     * @param group the group to serve connections on.
+     */
+    public MockServer(final EventLoopGroup group) {
+        this(group, false);
+    }
+
+    private MockServer(final EventLoopGroup group, final boolean ownsGroup) {
+        this.group = group;
+        this.ownsGroup = ownsGroup;
+    }
+
+    /**
+     * Sets the fixed latency added to every response.
+     *
+     * @return the {@link MockServer} for proper chaining.
+     */
+    public MockServer setLatency(final long latency, final TimeUnit unit) {
+        latencyNanos = unit.toNanos(latency);
+        return this;
+    }
+
+    /**
+     * Sets the maximum random jitter added on top of the latency.
+     *
+     * @return the {@link MockServer} for proper chaining.
+     */
+    public MockServer setJitter(final long jitter, final TimeUnit unit) {
+        jitterNanos = unit.toNanos(jitter);
+        return this;
+    }
+
+    /**
+     * Sets the probability (0.0 - 1.0) of answering with NOT_MY_VBUCKET.
+     *
+     * @return the {@link MockServer} for proper chaining.
+     */
+    public MockServer setNotMyVbucketRate(final double rate) {
+        notMyVbucketRate = rate;
+        return this;
+    }
+
+    /**
+     * Sets the probability (0.0 - 1.0) of answering with a temporary failure.
+     *
+     * @return the {@link MockServer} for proper chaining.
+     */
+    public MockServer setTmpFailRate(final double rate) {
+        tmpFailRate = rate;
+        return this;
+    }
+
+    /**
+     * Sets the probability (0.0 - 1.0) of closing the connection instead of answering.
+     *
+     * @return the {@link MockServer} for proper chaining.
+     */
+    public MockServer setDropRate(final double rate) {
+        dropRate = rate;
+        return this;
+    }
+
+    /**
+     * Sets the size in bytes of document values and design document bodies returned.
+     *
+     * @return the {@link MockServer} for proper chaining.
+     */
+    public MockServer setValueSize(final int size) {
+        valueSize = size;
+        return this;
+    }
+
+    /**
+     * Sets the key state (as defined by the observe command) and CAS returned for every observed key.
+     *
+     * @return the {@link MockServer} for proper chaining.
+     */
+    public MockServer setObserveState(final byte state, final long cas) {
+        observeState = state;
+        observeCas = cas;
+        return this;
+    }
+
+    /**
+     * Sets whether document values are returned Snappy compressed.
+     *
+     * @return the {@link MockServer} for proper chaining.
+     */
+    public MockServer setCompressValues(final boolean compress) {
+        compressValues = compress;
+        return this;
+    }
+
+    /**
+     * Sets the flags returned with every document value, 0 by default.
+     *
+     * @return the {@link MockServer} for proper chaining.
+     */
+    public MockServer setFlags(final int flags) {
+        this.flags = flags;
+        return this;
+    }
+
+    /**
+     * Requires memcache connections to authenticate with the given credentials before anything else is answered.
+     *
+     * @return the {@link MockServer} for proper chaining.
+     */
+    public MockServer setCredentials(final String username, final String password) {
+        this.password = password;
+        this.username = username;
+        return this;
+    }
+
+    /**
+     * Sets the space separated list of SASL mechanisms offered, all supported ones by default.
+     *
+     * @return the {@link MockServer} for proper chaining.
+     */
+    public MockServer setSaslMechanisms(final String mechanisms) {
+        saslMechanisms = mechanisms;
+        return this;
+    }
+
+    /**
+     * Returns the number of successfully authenticated memcache connections.
+     */
+    public int authentications() {
+        return authentications.get();
+    }
+
+    /**
+     * Sets whether new connections on both ports are served over TLS.
+     *
+     * @return the {@link MockServer} for proper chaining.
+     */
+    public MockServer setSsl(final boolean ssl) {
+        this.ssl = ssl;
+        return this;
+    }
+
+    /**
+     * Sets the bundled key store the certificate served over TLS is taken from, {@link #KEY_STORE} by default.
+     *
+     * @return the {@link MockServer} for proper chaining.
+     */
+    public MockServer setKeyStore(final String keyStore) {
+        this.keyStore = keyStore;
+        return this;
+    }
+
+    /**
+     * Returns the number of completed TLS handshakes, full and resumed ones.
+     */
+    public int tlsHandshakes() {
+        return tlsHandshakes.get();
+    }
+
+    /**
+     * Returns the number of distinct TLS sessions, which is the number of full handshakes.
+     */
+    public int tlsSessions() {
+        return tlsSessions.size();
+    }
+
+    /**
+     * Returns the key store holding the self-signed certificate of the server, usable as trust store by clients.
+     */
+    public static KeyStore keyStore() {
+        return keyStore(KEY_STORE);
+    }
+
+    /**
+     * Returns the given bundled key store, usable as trust store by clients.
+     */
+    public static KeyStore keyStore(final String resource) {
+        InputStream in = MockServer.class.getResourceAsStream(resource);
+        try {
+            try {
+                KeyStore keyStore = KeyStore.getInstance("JKS");
+                keyStore.load(in, KEY_STORE_PASSWORD);
+                return keyStore;
+            } finally {
+                in.close();
+            }
+        } catch (Exception ex) {
+            throw new IllegalStateException("Could not load the mock server key store", ex);
+        }
+    }
+
+    private static synchronized SSLContext serverContext(final String keyStore) throws GeneralSecurityException {
+        SSLContext serverContext = serverContexts.get(keyStore);
+        if (serverContext == null) {
+            KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            keyManagers.init(keyStore(keyStore), KEY_STORE_PASSWORD);
+            serverContext = SSLContext.getInstance("TLS");
+            serverContext.init(keyManagers.getKeyManagers(), null, null);
+            serverContexts.put(keyStore, serverContext);
+        }
+        return serverContext;
+    }
+
+    /**
+     * Adds the server side TLS stage if enabled and records the session of every completed handshake.
+     */
+    private void addSsl(final SocketChannel ch) throws GeneralSecurityException {
+        if (!ssl) {
+            return;
+        }
+        SSLEngine engine = serverContext(keyStore).createSSLEngine();
+        engine.setUseClientMode(false);
+        final SslHandler handler = new SslHandler(engine);
+        handler.handshakeFuture().addListener(new GenericFutureListener<Future<Channel>>() {
+            @Override
+            public void operationComplete(Future<Channel> future) throws Exception {
+                if (future.isSuccess()) {
+                    tlsHandshakes.incrementAndGet();
+                    tlsSessions.add(new BigInteger(1, handler.engine().getSession().getId()).toString(16));
+                }
+            }
+        });
+        ch.pipeline().addLast(handler);
+    }
+
+    /**
+     * Binds the memcache and the design port on an ephemeral port of the loopback interface.
+     *
+     * @return the {@link MockServer} for proper chaining.
+     */
+    public MockServer start() throws InterruptedException {
+        memcacheChannel = bind(new ChannelInitializer<SocketChannel>() {
+            @Override
+            protected void initChannel(SocketChannel ch) throws Exception {
+                addSsl(ch);
+                ch.pipeline()
+                    .addLast(new BinaryMemcacheServerCodec())
+                    .addLast(new BinaryMemcacheObjectAggregator(Integer.MAX_VALUE))
+                    .addLast(new MockMemcacheHandler(MockServer.this));
+            }
+        });
+        designChannel = bind(new ChannelInitializer<SocketChannel>() {
+            @Override
+            protected void initChannel(SocketChannel ch) throws Exception {
+                addSsl(ch);
+                ch.pipeline()
+                    .addLast(new HttpServerCodec())
+                    .addLast(new HttpObjectAggregator(Integer.MAX_VALUE))
+                    .addLast(new MockDesignHandler(MockServer.this));
+            }
+        });
+        return this;
+    }
+
+    /**
+     * Closes both ports and, if owned, shuts down the event loop group.
+     */
+    public void stop() throws InterruptedException {
+        if (memcacheChannel != null) {
+            memcacheChannel.close().sync();
+        }
+        if (designChannel != null) {
+            designChannel.close().sync();
+        }
+        if (ownsGroup) {
+            group.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * The address the memcache protocol is served on.
+     */
+    public InetSocketAddress memcacheAddress() {
+        return (InetSocketAddress) memcacheChannel.localAddress();
+    }
+
+    /**
+     * The address the design document API is served on.
+     */
+    public InetSocketAddress designAddress() {
+        return (InetSocketAddress) designChannel.localAddress();
+    }
+
+    long latencyNanos() {
+        return latencyNanos;
+    }
+
+    long jitterNanos() {
+        return jitterNanos;
+    }
+
+    double notMyVbucketRate() {
+        return notMyVbucketRate;
+    }
+
+    double tmpFailRate() {
+        return tmpFailRate;
+    }
+
+    double dropRate() {
+        return dropRate;
+    }
+
+    int valueSize() {
+        return valueSize;
+    }
+
+    byte observeState() {
+        return observeState;
+    }
+
+    long observeCas() {
+        return observeCas;
+    }
+
+    boolean compressValues() {
+        return compressValues;
+    }
+
+    int flags() {
+        return flags;
+    }
+
+    String username() {
+        return username;
+    }
+
+    String password() {
+        return password;
+    }
+
+    String saslMechanisms() {
+        return saslMechanisms;
+    }
+
+    void authenticated() {
+        authentications.incrementAndGet();
+    }
+
+    private Channel bind(final ChannelInitializer<SocketChannel> initializer) throws InterruptedException {
+        return new ServerBootstrap()
+            .group(group)
+            .channel(NioServerSocketChannel.class)
+            .childHandler(initializer)
+            .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+            .childOption(ChannelOption.TCP_NODELAY, true)
+            .bind(new InetSocketAddress("127.0.0.1", 0))
+            .sync()
+            .channel();
+    }
+}